@@ -0,0 +1,17 @@
+-- BUCKETDB at version 17: the schema its onCreate built, then a few rows in each table
+CREATE TABLE bucket(bucket_id TEXT PRIMARY KEY,latitude FLOAT,longitude FLOAT,altitude FLOAT,status TEXT,AR_ratio FLOAT,material TEXT,comment TEXT,updated_timestamp INTEGER,created_timestamp INTEGER,zone INTEGER,hemisphere TEXT,northing INTEGER,precise_northing FLOAT,easting INTEGER,precise_easting FLOAT,sample INTEGER,been_synced INTEGER);
+CREATE TABLE images(image_name TEXT PRIMARY KEY,image_bucket TEXT);
+CREATE TABLE paths(team_member TEXT,begin_latitude FLOAT,begin_longitude FLOAT,begin_altitude FLOAT,end_latitude FLOAT,end_longitude FLOAT,end_altitude FLOAT,hemisphere TEXT,zone INTEGER,begin_easting INTEGER,begin_northing INTEGER,end_easting INTEGER,end_northing INTEGER,start_time FLOAT,stop_time FLOAT,begin_status TEXT,end_status TEXT,begin_AR_ratio FLOAT,end_AR_ratio FLOAT,been_synced INTEGER,PRIMARY KEY (team_member, start_time));
+CREATE INDEX bucket_synced_created_index ON bucket(been_synced, created_timestamp, bucket_id);
+CREATE INDEX images_bucket_index ON images(image_bucket);
+CREATE INDEX bucket_sample_index ON bucket(zone, hemisphere, northing, easting, sample);
+CREATE INDEX paths_synced_start_index ON paths(been_synced, start_time);
+CREATE TABLE outbox(record_type INTEGER,record_id TEXT,record_time INTEGER,state INTEGER,attempts INTEGER,updated_timestamp INTEGER,PRIMARY KEY (record_type, record_id, record_time));
+CREATE INDEX outbox_state_index ON outbox(state, record_type);
+CREATE TABLE photo_outbox(local_path TEXT PRIMARY KEY,remote_name TEXT,sha256 TEXT,uploaded_bytes INTEGER,created_timestamp INTEGER);
+INSERT INTO bucket (bucket_id, latitude, longitude, altitude, status, AR_ratio, material, comment, updated_timestamp, created_timestamp, zone, hemisphere, northing, precise_northing, easting, precise_easting, sample, been_synced) VALUES ('first', 39.95, -75.19, 12.5, 'RTK Fix', 3.2, 'Ceramic', 'rim sherd', 1000, 1000, 18, 'N', 4422543, 4422543.125, 483744, 483744.25, 1, 1);
+INSERT INTO bucket (bucket_id, latitude, longitude, altitude, status, AR_ratio, material, comment, updated_timestamp, created_timestamp, zone, hemisphere, northing, precise_northing, easting, precise_easting, sample, been_synced) VALUES ('second', 39.96, -75.18, 13.0, 'GPS', NULL, 'Bone', '', 2000, 2000, 18, 'N', 4423650, NULL, 484600, NULL, 2, 0);
+INSERT INTO images (image_name, image_bucket) VALUES ('first.jpg', 'first');
+INSERT INTO paths (team_member, begin_latitude, begin_longitude, begin_altitude, end_latitude, end_longitude, end_altitude, hemisphere, zone, begin_easting, begin_northing, end_easting, end_northing, start_time, stop_time, begin_status, end_status, begin_AR_ratio, end_AR_ratio, been_synced) VALUES ('member', 39.95, -75.19, 12.5, 39.96, -75.18, 13.0, 'N', 18, 483744, 4422543, 484600, 4423650, 1000, 2000, 'RTK Fix', 'RTK Float', 3.2, 3.1, 0);
+INSERT INTO outbox (record_type, record_id, record_time, state, attempts, updated_timestamp) VALUES (0, 'second', 0, 0, 1, 2500);
+INSERT INTO photo_outbox (local_path, remote_name, sha256, uploaded_bytes, created_timestamp) VALUES ('/photos/first.jpg', 'first.jpg', NULL, 4096, 1500);
@@ -0,0 +1,29 @@
+-- BUCKETDB at version 21: the schema its onCreate built, then a few rows in each table
+CREATE TABLE bucket(bucket_id TEXT PRIMARY KEY,latitude FLOAT,longitude FLOAT,altitude FLOAT,status TEXT,AR_ratio FLOAT,material TEXT,comment TEXT,updated_timestamp INTEGER,created_timestamp INTEGER,zone INTEGER,hemisphere TEXT,northing INTEGER,precise_northing FLOAT,easting INTEGER,precise_easting FLOAT,sample INTEGER,been_synced INTEGER,cell INTEGER);
+CREATE TABLE images(image_name TEXT PRIMARY KEY,image_bucket TEXT);
+CREATE TABLE paths(team_member TEXT,begin_latitude FLOAT,begin_longitude FLOAT,begin_altitude FLOAT,end_latitude FLOAT,end_longitude FLOAT,end_altitude FLOAT,hemisphere TEXT,zone INTEGER,begin_easting INTEGER,begin_northing INTEGER,end_easting INTEGER,end_northing INTEGER,start_time FLOAT,stop_time FLOAT,begin_status TEXT,end_status TEXT,begin_AR_ratio FLOAT,end_AR_ratio FLOAT,been_synced INTEGER,PRIMARY KEY (team_member, start_time));
+CREATE INDEX bucket_synced_created_index ON bucket(been_synced, created_timestamp, bucket_id);
+CREATE INDEX images_bucket_index ON images(image_bucket);
+CREATE INDEX bucket_sample_index ON bucket(zone, hemisphere, northing, easting, sample);
+CREATE INDEX paths_synced_start_index ON paths(been_synced, start_time);
+CREATE TABLE outbox(record_type INTEGER,record_id TEXT,record_time INTEGER,state INTEGER,attempts INTEGER,updated_timestamp INTEGER,PRIMARY KEY (record_type, record_id, record_time));
+CREATE INDEX outbox_state_index ON outbox(state, record_type);
+CREATE TABLE photo_outbox(local_path TEXT PRIMARY KEY,remote_name TEXT,sha256 TEXT,uploaded_bytes INTEGER,created_timestamp INTEGER);
+CREATE TABLE change_log(seq INTEGER PRIMARY KEY AUTOINCREMENT,bucket_id TEXT,fields INTEGER);
+CREATE INDEX change_log_bucket_index ON change_log(bucket_id, seq);
+CREATE TABLE sync_watermark(bucket_id TEXT,server TEXT,seq INTEGER,PRIMARY KEY (bucket_id, server));
+CREATE TRIGGER bucket_change_trigger AFTER UPDATE ON bucket WHEN EXISTS (SELECT 1 FROM sync_watermark WHERE bucket_id=NEW.bucket_id) BEGIN INSERT INTO change_log (bucket_id, fields) SELECT NEW.bucket_id, changed FROM (SELECT (OLD.latitude IS NOT NEW.latitude) * 1 + (OLD.longitude IS NOT NEW.longitude) * 2 + (OLD.altitude IS NOT NEW.altitude) * 4 + (OLD.status IS NOT NEW.status) * 8 + (OLD.AR_ratio IS NOT NEW.AR_ratio) * 16 + (OLD.material IS NOT NEW.material) * 32 + (OLD.comment IS NOT NEW.comment) * 64 + (OLD.zone IS NOT NEW.zone) * 128 + (OLD.hemisphere IS NOT NEW.hemisphere) * 256 + (OLD.northing IS NOT NEW.northing) * 512 + (OLD.precise_northing IS NOT NEW.precise_northing) * 1024 + (OLD.easting IS NOT NEW.easting) * 2048 + (OLD.precise_easting IS NOT NEW.precise_easting) * 4096 + (OLD.sample IS NOT NEW.sample) * 8192 AS changed) WHERE changed != 0; END;
+CREATE TABLE track_points(team_member TEXT,start_time INTEGER,point_time INTEGER,latitude FLOAT,longitude FLOAT,altitude FLOAT,quality INTEGER,AR_ratio FLOAT,PRIMARY KEY (team_member, start_time, point_time));
+CREATE TABLE track_levels(team_member TEXT,start_time INTEGER,level INTEGER,point_time INTEGER,latitude FLOAT,longitude FLOAT,PRIMARY KEY (team_member, start_time, level, point_time));
+CREATE INDEX bucket_cell_index ON bucket(cell);
+INSERT INTO bucket (bucket_id, latitude, longitude, altitude, status, AR_ratio, material, comment, updated_timestamp, created_timestamp, zone, hemisphere, northing, precise_northing, easting, precise_easting, sample, been_synced, cell) VALUES ('first', 39.95, -75.19, 12.5, 'RTK Fix', 3.2, 'Ceramic', 'rim sherd', 1000, 1000, 18, 'N', 4422543, 4422543.125, 483744, 483744.25, 1, 1, 78033998565);
+INSERT INTO bucket (bucket_id, latitude, longitude, altitude, status, AR_ratio, material, comment, updated_timestamp, created_timestamp, zone, hemisphere, northing, precise_northing, easting, precise_easting, sample, been_synced, cell) VALUES ('second', 39.96, -75.18, 13.0, 'GPS', NULL, 'Bone', '', 2000, 2000, 18, 'N', 4423650, NULL, 484600, NULL, 2, 0, 78034178798);
+INSERT INTO images (image_name, image_bucket) VALUES ('first.jpg', 'first');
+INSERT INTO paths (team_member, begin_latitude, begin_longitude, begin_altitude, end_latitude, end_longitude, end_altitude, hemisphere, zone, begin_easting, begin_northing, end_easting, end_northing, start_time, stop_time, begin_status, end_status, begin_AR_ratio, end_AR_ratio, been_synced) VALUES ('member', 39.95, -75.19, 12.5, 39.96, -75.18, 13.0, 'N', 18, 483744, 4422543, 484600, 4423650, 1000, 2000, 'RTK Fix', 'RTK Float', 3.2, 3.1, 0);
+INSERT INTO outbox (record_type, record_id, record_time, state, attempts, updated_timestamp) VALUES (0, 'second', 0, 0, 1, 2500);
+INSERT INTO photo_outbox (local_path, remote_name, sha256, uploaded_bytes, created_timestamp) VALUES ('/photos/first.jpg', 'first.jpg', NULL, 4096, 1500);
+INSERT INTO change_log (bucket_id, fields) VALUES ('first', 32);
+INSERT INTO sync_watermark (bucket_id, server, seq) VALUES ('first', 'http://server/', 0);
+INSERT INTO track_points (team_member, start_time, point_time, latitude, longitude, altitude, quality, AR_ratio) VALUES ('member', 1000, 1000, 39.95, -75.19, 12.5, 1, 3.2);
+INSERT INTO track_points (team_member, start_time, point_time, latitude, longitude, altitude, quality, AR_ratio) VALUES ('member', 1000, 1500, 39.951, -75.191, 12.6, 1, 3.3);
+INSERT INTO track_levels (team_member, start_time, level, point_time, latitude, longitude) VALUES ('member', 1000, 1, 1000, 39.95, -75.19);
@@ -0,0 +1,141 @@
+package edu.upenn.sas.archaeologyapp.services;
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import java.util.ArrayList;
+import java.util.Locale;
+import edu.upenn.sas.archaeologyapp.models.DataEntryElement;
+import static org.junit.Assert.assertEquals;
+/**
+ * Per-call latency of DatabaseHandler reads on one shared, long-lived session, against opening the database before
+ * every call and closing it after, as every call did before the session was shared. The latencies are logged
+ * under the Benchmark tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DatabaseSessionBenchmark
+{
+    private static final String DATABASE_NAME = "database_session_benchmark.db";
+    // Finds stored, spread over this many buckets, and calls timed per method
+    private static final int FINDS = 2000, BUCKETS = 50, CALLS = 200;
+    private Context context;
+    private DatabaseHandler databaseHandler;
+    /**
+     * Store the finds
+     */
+    @Before
+    public void setUp()
+    {
+        context = InstrumentationRegistry.getTargetContext();
+        context.deleteDatabase(DATABASE_NAME);
+        databaseHandler = new DatabaseHandler(context, DATABASE_NAME);
+        DataEntryElement[] finds = new DataEntryElement[FINDS];
+        for (int i = 0; i < FINDS; i++)
+        {
+            int bucket = i % BUCKETS;
+            finds[i] = new DataEntryElement("find" + i, 39.95, -75.19, 12.5, "RTK Fix", 3.2,
+                    new ArrayList<String>(), "Ceramic", "", i, i, 18, "N", 4422000 + bucket, 4422000.5 + bucket,
+                    482000, 482000.5, i / BUCKETS + 1, false);
+        }
+        databaseHandler.addFindsRows(finds);
+    }
+
+    /**
+     * Remove the benchmark database
+     */
+    @After
+    public void tearDown()
+    {
+        databaseHandler.close();
+        context.deleteDatabase(DATABASE_NAME);
+    }
+
+    /**
+     * Time the bucket sample lookup, run each time a find is started
+     */
+    @Test
+    public void lastSampleFromBucket()
+    {
+        // Warm both ways up, so neither pays for the first open of the file
+        for (int i = 0; i < CALLS / 10; i++)
+        {
+            lastSample(databaseHandler, i);
+            DatabaseHandler reopened = new DatabaseHandler(context, DATABASE_NAME);
+            lastSample(reopened, i);
+            reopened.close();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < CALLS; i++)
+        {
+            DatabaseHandler reopened = new DatabaseHandler(context, DATABASE_NAME);
+            assertEquals(Integer.valueOf(FINDS / BUCKETS), lastSample(reopened, i));
+            reopened.close();
+        }
+        long reopenedNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < CALLS; i++)
+        {
+            assertEquals(Integer.valueOf(FINDS / BUCKETS), lastSample(databaseHandler, i));
+        }
+        long sharedNanos = System.nanoTime() - start;
+        report("getLastSampleFromBucket", reopenedNanos, sharedNanos);
+    }
+
+    /**
+     * Time the unsynced find count, run each time the finds list is refreshed
+     */
+    @Test
+    public void unsyncedFindsCount()
+    {
+        for (int i = 0; i < CALLS / 10; i++)
+        {
+            databaseHandler.getUnsyncedFindsCount();
+            DatabaseHandler reopened = new DatabaseHandler(context, DATABASE_NAME);
+            reopened.getUnsyncedFindsCount();
+            reopened.close();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < CALLS; i++)
+        {
+            DatabaseHandler reopened = new DatabaseHandler(context, DATABASE_NAME);
+            assertEquals(FINDS, reopened.getUnsyncedFindsCount());
+            reopened.close();
+        }
+        long reopenedNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < CALLS; i++)
+        {
+            assertEquals(FINDS, databaseHandler.getUnsyncedFindsCount());
+        }
+        long sharedNanos = System.nanoTime() - start;
+        report("getUnsyncedFindsCount", reopenedNanos, sharedNanos);
+    }
+
+    /**
+     * Look up the highest sample in one of the buckets
+     * @param handler - database handler
+     * @param call - call number, which picks the bucket
+     * @return Returns the highest sample
+     */
+    private static Integer lastSample(DatabaseHandler handler, int call)
+    {
+        return handler.getLastSampleFromBucket(18, "N", 4422000 + call % BUCKETS, 482000);
+    }
+
+    /**
+     * Log the mean latency of each way of calling
+     * @param method - method timed
+     * @param reopenedNanos - time taken by the calls that opened and closed the database
+     * @param sharedNanos - time taken by the calls on the shared session
+     */
+    private static void report(String method, long reopenedNanos, long sharedNanos)
+    {
+        Log.i("Benchmark", method + ": " + reopenedNanos / CALLS / 1000 + " us per call opening and closing, "
+                + sharedNanos / CALLS / 1000 + " us per call on the shared session, "
+                + String.format(Locale.US, "%.1f", (double) reopenedNanos / sharedNanos) + "x");
+    }
+}
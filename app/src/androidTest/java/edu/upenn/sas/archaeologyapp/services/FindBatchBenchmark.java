@@ -0,0 +1,184 @@
+package edu.upenn.sas.archaeologyapp.services;
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import com.android.volley.RequestQueue;
+import com.android.volley.toolbox.Volley;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import edu.upenn.sas.archaeologyapp.models.DataEntryElement;
+import edu.upenn.sas.archaeologyapp.models.FindDelta;
+import edu.upenn.sas.archaeologyapp.models.FindUploadResponseWrapper;
+import edu.upenn.sas.archaeologyapp.util.Constants;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+/**
+ * Find upload throughput against a local stub server that holds each request for a round trip of a slow link.
+ * Batches posted to /insert_finds, as JSON and in the binary form, are timed against one /insert_find GET per find
+ * sent after the last was answered, as every sync did before batching. The throughputs are logged under the
+ * Benchmark tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class FindBatchBenchmark
+{
+    private static final int FINDS = 500;
+    // Time the stub server holds each request
+    private static final long ROUND_TRIP_MS = 50;
+    private static final long TIMEOUT_MINUTES = 5;
+    private Context context;
+    private RequestQueue queue;
+    private StubSyncServer server;
+    private String savedURL;
+    private boolean savedBinaryUploads;
+    /**
+     * Start the stub server and point uploads at it
+     */
+    @Before
+    public void setUp() throws IOException
+    {
+        context = InstrumentationRegistry.getTargetContext();
+        queue = Volley.newRequestQueue(context);
+        server = new StubSyncServer(ROUND_TRIP_MS);
+        savedURL = Constants.globalWebServerURL;
+        savedBinaryUploads = Constants.globalBinaryUploads;
+        Constants.globalWebServerURL = server.start();
+    }
+
+    /**
+     * Stop the stub server and restore the server settings
+     */
+    @After
+    public void tearDown()
+    {
+        queue.stop();
+        server.close();
+        Constants.globalWebServerURL = savedURL;
+        Constants.globalBinaryUploads = savedBinaryUploads;
+    }
+
+    /**
+     * One GET per find, each sent once the last was answered
+     */
+    @Test
+    public void oneRequestPerFind() throws InterruptedException
+    {
+        server.removeEndpoint("/insert_finds");
+        long nanos = upload(1);
+        report("One /insert_find per find", nanos);
+    }
+
+    /**
+     * JSON batches, with the scheduler's usual window
+     */
+    @Test
+    public void jsonBatches() throws InterruptedException
+    {
+        long nanos = upload(Constants.DEFAULT_SYNC_WINDOW);
+        report("JSON batches", nanos);
+        assertTrue(server.getRequests() < FINDS / 10);
+    }
+
+    /**
+     * Binary batches, with the scheduler's usual window
+     */
+    @Test
+    public void binaryBatches() throws InterruptedException
+    {
+        Constants.globalBinaryUploads = true;
+        long nanos = upload(Constants.DEFAULT_SYNC_WINDOW);
+        report("Binary batches", nanos);
+        assertTrue(server.getRequests() < FINDS / 10);
+    }
+
+    /**
+     * Upload the finds and wait until every one is acknowledged
+     * @param window - number of requests in flight at once
+     * @return Returns the time taken
+     * @throws InterruptedException if the wait is interrupted
+     */
+    private long upload(final int window) throws InterruptedException
+    {
+        final ArrayList<DataEntryElement> finds = new ArrayList<>();
+        for (int i = 0; i < FINDS; i++)
+        {
+            finds.add(new DataEntryElement("find" + i, 39.95, -75.19, 12.5, "RTK Fix", 3.2,
+                    new ArrayList<String>(), "Ceramic", "rim sherd " + i, i, i, 18, "N", 4422000 + i % 50,
+                    4422000.5 + i % 50, 482000, 482000.5, i / 50 + 1, false));
+        }
+        final CountDownLatch finished = new CountDownLatch(1);
+        final int[] outcomes = new int[2];
+        final long start = System.nanoTime();
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            /**
+             * Start the upload on the main thread, as the uploader requires
+             */
+            @Override
+            public void run()
+            {
+                SyncScheduler scheduler = new SyncScheduler(window);
+                FindBatchUploader uploader = new FindBatchUploader(queue, scheduler, new HashMap<String, FindDelta>(),
+                        new FindUploadResponseWrapper() {
+                    /**
+                     * A find was stored
+                     * @param item - uploaded find
+                     * @param sent - what was sent of the find
+                     */
+                    @Override
+                    public void itemUploaded(DataEntryElement item, FindDelta sent)
+                    {
+                        outcomes[0]++;
+                    }
+
+                    /**
+                     * A find failed
+                     * @param item - failed find
+                     * @param reason - server or connection error
+                     */
+                    @Override
+                    public void itemFailed(DataEntryElement item, String reason)
+                    {
+                        outcomes[1]++;
+                    }
+
+                    /**
+                     * Every find was handled
+                     */
+                    @Override
+                    public void uploadFinished()
+                    {
+                        finished.countDown();
+                    }
+                });
+                scheduler.addSource(uploader);
+                uploader.upload(finds);
+            }
+        });
+        assertTrue("Upload did not finish", finished.await(TIMEOUT_MINUTES, TimeUnit.MINUTES));
+        long nanos = System.nanoTime() - start;
+        assertEquals(FINDS, outcomes[0]);
+        assertEquals(0, outcomes[1]);
+        assertEquals(FINDS, server.getFindsStored());
+        return nanos;
+    }
+
+    /**
+     * Log the throughput of an upload
+     * @param mode - way the finds were sent
+     * @param nanos - time taken
+     */
+    private void report(String mode, long nanos)
+    {
+        Log.i("Benchmark", mode + ": " + FINDS + " finds in " + nanos / 1000000 + " ms, "
+                + String.format(Locale.US, "%.1f", FINDS / (nanos / 1e9)) + " finds/s, " + server.getRequests()
+                + " requests, " + server.getRequestBytes() + " request bytes, " + ROUND_TRIP_MS + " ms round trip");
+    }
+}
@@ -0,0 +1,231 @@
+package edu.upenn.sas.archaeologyapp.services;
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.Random;
+import edu.upenn.sas.archaeologyapp.models.DataEntryElement;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+/**
+ * Latency of box and nearest find searches through the spatial index over 100k synthetic finds spread across a
+ * 20 km square, against loading every unsynced find and searching them in memory, as the finds map did before the
+ * index. Both return the same finds. The latencies are logged under the Benchmark tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class FindGridBenchmark
+{
+    private static final String DATABASE_NAME = "find_grid_benchmark.db";
+    private static final int FINDS = 100000, ZONE = 18;
+    private static final String HEMISPHERE = "N";
+    // South west corner and size of the area the finds are spread over, in meters
+    private static final double MIN_EASTING = 480000, MIN_NORTHING = 4420000, AREA_METERS = 20000;
+    // Side of a box search, about a map view zoomed in on a site, and finds wanted from a nearest search
+    private static final double BOX_METERS = 500;
+    private static final int NEAREST = 10;
+    // Searches timed through the index, and through a full load, which is far slower
+    private static final int INDEXED_QUERIES = 200, SCAN_QUERIES = 3;
+    private Context context;
+    private DatabaseHandler databaseHandler;
+    private final double[] eastings = new double[INDEXED_QUERIES], northings = new double[INDEXED_QUERIES];
+    /**
+     * Store the finds and pick the search positions
+     */
+    @Before
+    public void setUp()
+    {
+        context = InstrumentationRegistry.getTargetContext();
+        context.deleteDatabase(DATABASE_NAME);
+        databaseHandler = new DatabaseHandler(context, DATABASE_NAME);
+        Random random = new Random(FINDS);
+        DataEntryElement[] finds = new DataEntryElement[FINDS];
+        for (int i = 0; i < FINDS; i++)
+        {
+            double easting = MIN_EASTING + random.nextDouble() * AREA_METERS;
+            double northing = MIN_NORTHING + random.nextDouble() * AREA_METERS;
+            finds[i] = new DataEntryElement("find" + i, 39.95, -75.19, 12.5, "RTK Fix", 3.2,
+                    new ArrayList<String>(), "Ceramic", "", i, i, ZONE, HEMISPHERE, (int) northing, northing,
+                    (int) easting, easting, i / 100 + 1, false);
+        }
+        databaseHandler.addFindsRows(finds);
+        for (int i = 0; i < INDEXED_QUERIES; i++)
+        {
+            eastings[i] = MIN_EASTING + BOX_METERS + random.nextDouble() * (AREA_METERS - 2 * BOX_METERS);
+            northings[i] = MIN_NORTHING + BOX_METERS + random.nextDouble() * (AREA_METERS - 2 * BOX_METERS);
+        }
+    }
+
+    /**
+     * Remove the benchmark database
+     */
+    @After
+    public void tearDown()
+    {
+        databaseHandler.close();
+        context.deleteDatabase(DATABASE_NAME);
+    }
+
+    /**
+     * Time box searches around each position
+     */
+    @Test
+    public void findsInBox()
+    {
+        // Warm up, and check the index returns what a full load does
+        for (int i = 0; i < SCAN_QUERIES; i++)
+        {
+            assertEquals(IDs(scanBox(i), false), IDs(box(i), false));
+        }
+        long found = 0, start = System.nanoTime();
+        for (int i = 0; i < INDEXED_QUERIES; i++)
+        {
+            found += box(i).size();
+        }
+        long indexedNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < SCAN_QUERIES; i++)
+        {
+            scanBox(i);
+        }
+        long scanNanos = System.nanoTime() - start;
+        assertTrue(found > 0);
+        report("getFindsInBox of a " + (int) BOX_METERS + " m square (" + found / INDEXED_QUERIES + " finds)",
+                indexedNanos, scanNanos);
+    }
+
+    /**
+     * Time nearest searches from each position
+     */
+    @Test
+    public void nearestFinds()
+    {
+        for (int i = 0; i < SCAN_QUERIES; i++)
+        {
+            assertEquals(IDs(scanNearest(i), true), IDs(databaseHandler.getNearestFinds(ZONE, HEMISPHERE,
+                    eastings[i], northings[i], NEAREST, false), true));
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < INDEXED_QUERIES; i++)
+        {
+            assertEquals(NEAREST, databaseHandler.getNearestFinds(ZONE, HEMISPHERE, eastings[i], northings[i],
+                    NEAREST, false).size());
+        }
+        long indexedNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < SCAN_QUERIES; i++)
+        {
+            scanNearest(i);
+        }
+        long scanNanos = System.nanoTime() - start;
+        report("getNearestFinds of " + NEAREST + " finds", indexedNanos, scanNanos);
+    }
+
+    /**
+     * Search the box around a position through the index
+     * @param i - position index
+     * @return Returns the finds in the box
+     */
+    private ArrayList<DataEntryElement> box(int i)
+    {
+        return databaseHandler.getFindsInBox(ZONE, HEMISPHERE, eastings[i] - BOX_METERS / 2,
+                northings[i] - BOX_METERS / 2, eastings[i] + BOX_METERS / 2, northings[i] + BOX_METERS / 2, false);
+    }
+
+    /**
+     * Search the box around a position by loading every find
+     * @param i - position index
+     * @return Returns the finds in the box
+     */
+    private ArrayList<DataEntryElement> scanBox(int i)
+    {
+        ArrayList<DataEntryElement> inBox = new ArrayList<>();
+        for (DataEntryElement find: databaseHandler.getUnsyncedFindsRows())
+        {
+            if (Math.abs(find.getPreciseEasting() - eastings[i]) <= BOX_METERS / 2
+                    && Math.abs(find.getPreciseNorthing() - northings[i]) <= BOX_METERS / 2)
+            {
+                inBox.add(find);
+            }
+        }
+        return inBox;
+    }
+
+    /**
+     * Find the finds nearest a position by loading every find
+     * @param i - position index
+     * @return Returns the nearest finds, nearest first
+     */
+    private ArrayList<DataEntryElement> scanNearest(int i)
+    {
+        final double easting = eastings[i], northing = northings[i];
+        ArrayList<DataEntryElement> finds = databaseHandler.getUnsyncedFindsRows();
+        Collections.sort(finds, new Comparator<DataEntryElement>() {
+            /**
+             * Order finds nearest first
+             * @param a - find
+             * @param b - find
+             * @return Returns the comparison of their distances
+             */
+            @Override
+            public int compare(DataEntryElement a, DataEntryElement b)
+            {
+                return Double.compare(distance(a, easting, northing), distance(b, easting, northing));
+            }
+        });
+        return new ArrayList<>(finds.subList(0, NEAREST));
+    }
+
+    /**
+     * Get the distance from a find to a position
+     * @param find - find
+     * @param easting - easting in meters
+     * @param northing - northing in meters
+     * @return Returns the distance in meters
+     */
+    private static double distance(DataEntryElement find, double easting, double northing)
+    {
+        return Math.hypot(find.getPreciseEasting() - easting, find.getPreciseNorthing() - northing);
+    }
+
+    /**
+     * Get the IDs of finds
+     * @param finds - finds
+     * @param ordered - whether to keep their order rather than sort the IDs
+     * @return Returns their IDs
+     */
+    private static ArrayList<String> IDs(ArrayList<DataEntryElement> finds, boolean ordered)
+    {
+        ArrayList<String> IDs = new ArrayList<>();
+        for (DataEntryElement find: finds)
+        {
+            IDs.add(find.getID());
+        }
+        if (!ordered)
+        {
+            Collections.sort(IDs);
+        }
+        return IDs;
+    }
+
+    /**
+     * Log the mean latency of each way of searching
+     * @param search - search timed
+     * @param indexedNanos - time taken by the searches through the index
+     * @param scanNanos - time taken by the searches that loaded every find
+     */
+    private static void report(String search, long indexedNanos, long scanNanos)
+    {
+        double indexed = indexedNanos / 1e6 / INDEXED_QUERIES, scan = scanNanos / 1e6 / SCAN_QUERIES;
+        Log.i("Benchmark", search + " among " + FINDS + " finds: " + String.format(Locale.US, "%.2f", indexed)
+                + " ms per search through the index, " + String.format(Locale.US, "%.0f", scan)
+                + " ms loading every find, " + String.format(Locale.US, "%.0f", scan / indexed) + "x");
+    }
+}
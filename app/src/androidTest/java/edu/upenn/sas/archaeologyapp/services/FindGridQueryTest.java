@@ -0,0 +1,187 @@
+package edu.upenn.sas.archaeologyapp.services;
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import edu.upenn.sas.archaeologyapp.models.DataEntryElement;
+import gov.nasa.worldwind.geom.coords.MutableUTMCoord;
+import static org.junit.Assert.assertEquals;
+/**
+ * Box, region and nearest searches run through DatabaseHandler against a real database, so the arguments are
+ * bound the way the app binds them
+ */
+@RunWith(AndroidJUnit4.class)
+public class FindGridQueryTest
+{
+    private static final String DATABASE_NAME = "find_grid_query_test.db";
+    private Context context;
+    private DatabaseHandler databaseHandler;
+    /**
+     * Store finds around one position in zone 18 north, plus one at the same numbers in the south and one far away
+     */
+    @Before
+    public void setUp()
+    {
+        context = InstrumentationRegistry.getTargetContext();
+        context.deleteDatabase(DATABASE_NAME);
+        databaseHandler = new DatabaseHandler(context, DATABASE_NAME);
+        databaseHandler.addFindsRows(new DataEntryElement[] {
+                find("a", 18, "N", 482000.25, 4422000.5, false),
+                find("b", 18, "N", 482150.0, 4422080.0, true),
+                find("c", 18, "N", 482400.75, 4421990.0, false),
+                find("d", 18, "S", 482000.25, 4422000.5, false),
+                find("e", 18, "N", 495000.0, 4430000.0, false)
+        });
+    }
+
+    /**
+     * Remove the test database
+     */
+    @After
+    public void tearDown()
+    {
+        databaseHandler.close();
+        context.deleteDatabase(DATABASE_NAME);
+    }
+
+    /**
+     * A box returns the finds inside it and none outside its bounds, hemisphere or zone
+     */
+    @Test
+    public void findsInBox()
+    {
+        assertEquals(Collections.singletonList("a"), IDs(databaseHandler.getFindsInBox(18, "N", 481900, 4421900,
+                482100, 4422100, false)));
+        assertEquals(Arrays.asList("a", "b", "c"), IDs(databaseHandler.getFindsInBox(18, "N", 481900,
+                4421900, 482500, 4422100, false)));
+        assertEquals(Collections.singletonList("d"), IDs(databaseHandler.getFindsInBox(18, "S", 481900, 4421900,
+                482100, 4422100, false)));
+        assertEquals(Collections.<String>emptyList(), IDs(databaseHandler.getFindsInBox(17, "N", 481900, 4421900,
+                482100, 4422100, false)));
+        // The exact bounds cut through a cell
+        assertEquals(Collections.singletonList("a"), IDs(databaseHandler.getFindsInBox(18, "N", 482000, 4422000,
+                482000.5, 4422000.75, false)));
+        assertEquals(Collections.<String>emptyList(), IDs(databaseHandler.getFindsInBox(18, "N", 482000.5,
+                4422000, 482099, 4422099, false)));
+    }
+
+    /**
+     * Synced finds can be left out of a box
+     */
+    @Test
+    public void unsyncedFindsInBox()
+    {
+        assertEquals(Arrays.asList("a", "c"), IDs(databaseHandler.getFindsInBox(18, "N", 481900, 4421900,
+                482500, 4422100, true)));
+    }
+
+    /**
+     * Several boxes return the finds of each
+     */
+    @Test
+    public void findsInBoxes()
+    {
+        double[] boxes = {481900, 4421900, 482100, 4422100, 481900, 4421900, 482100, 4422100};
+        assertEquals(Arrays.asList("a", "d"), IDs(databaseHandler.getFindsInBoxes(new int[] {18, 18},
+                new char[] {'N', 'S'}, boxes, 2, false)));
+    }
+
+    /**
+     * The nearest finds come back nearest first, reaching past the first box searched when it holds too few
+     */
+    @Test
+    public void nearestFinds()
+    {
+        ArrayList<DataEntryElement> nearest = databaseHandler.getNearestFinds(18, "N", 482390, 4421995, 3, false);
+        assertEquals(Arrays.asList("c", "b", "a"), ordered(nearest));
+        nearest = databaseHandler.getNearestFinds(18, "N", 494000, 4429000, 1, false);
+        assertEquals(Collections.singletonList("e"), ordered(nearest));
+    }
+
+    /**
+     * A map region straddling a zone boundary returns the finds recorded on either side of it, the way the finds
+     * map reads them
+     */
+    @Test
+    public void findsInRegion()
+    {
+        databaseHandler.addFindsRows(new DataEntryElement[] {
+                find("west", 39.95, -78.05, false), find("east", 39.95, -77.95, false),
+                find("outside", 39.95, -77.5, false)
+        });
+        int[] zones = new int[RegionBoxes.MAX_BOXES];
+        char[] hemispheres = new char[RegionBoxes.MAX_BOXES];
+        double[] boxes = new double[4 * RegionBoxes.MAX_BOXES];
+        int count = RegionBoxes.cover(39.9, 40, -78.1, -77.9, 0, zones, hemispheres, boxes);
+        assertEquals(Arrays.asList("east", "west"), IDs(databaseHandler.getFindsInBoxes(zones, hemispheres, boxes,
+                count, true)));
+    }
+
+    /**
+     * Build a find where it would be recorded
+     * @param ID - find ID
+     * @param latitude - latitude in degrees
+     * @param longitude - longitude in degrees
+     * @param beenSynced - whether the find is synced
+     * @return Returns the find, in the UTM zone the position falls in
+     */
+    private static DataEntryElement find(String ID, double latitude, double longitude, boolean beenSynced)
+    {
+        MutableUTMCoord UTMPosition = new MutableUTMCoord();
+        UTMPosition.setLatLon(latitude, longitude);
+        return new DataEntryElement(ID, latitude, longitude, 0, "", null, new ArrayList<String>(), "", "", 1, 1,
+                UTMPosition.getZone(), String.valueOf(UTMPosition.getHemisphere()),
+                (int) UTMPosition.getNorthing(), UTMPosition.getNorthing(), (int) UTMPosition.getEasting(),
+                UTMPosition.getEasting(), 1, beenSynced);
+    }
+
+    /**
+     * Build a find
+     * @param ID - find ID
+     * @param zone - UTM zone
+     * @param hemisphere - hemisphere, N or S
+     * @param easting - easting in meters
+     * @param northing - northing in meters
+     * @param beenSynced - whether the find is synced
+     * @return Returns the find
+     */
+    private static DataEntryElement find(String ID, int zone, String hemisphere, double easting, double northing,
+                                         boolean beenSynced)
+    {
+        return new DataEntryElement(ID, 40, -75, 0, "", null, new ArrayList<String>(), "", "", 1, 1, zone,
+                hemisphere, (int) northing, northing, (int) easting, easting, 1, beenSynced);
+    }
+
+    /**
+     * Get the IDs of finds in sorted order
+     * @param finds - finds
+     * @return Returns their IDs, sorted
+     */
+    private static ArrayList<String> IDs(ArrayList<DataEntryElement> finds)
+    {
+        ArrayList<String> IDs = ordered(finds);
+        Collections.sort(IDs);
+        return IDs;
+    }
+
+    /**
+     * Get the IDs of finds in their order
+     * @param finds - finds
+     * @return Returns their IDs
+     */
+    private static ArrayList<String> ordered(ArrayList<DataEntryElement> finds)
+    {
+        ArrayList<String> IDs = new ArrayList<>();
+        for (DataEntryElement find: finds)
+        {
+            IDs.add(find.getID());
+        }
+        return IDs;
+    }
+}
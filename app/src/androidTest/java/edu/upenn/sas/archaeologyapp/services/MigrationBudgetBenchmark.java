@@ -0,0 +1,156 @@
+package edu.upenn.sas.archaeologyapp.services;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+/**
+ * Upgrading a large database from the oldest migratable version stays within DatabaseHandler's migration budget,
+ * since it runs on the first open after an app update. The upgrade time is logged under the Benchmark tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MigrationBudgetBenchmark
+{
+    private static final String DATABASE_NAME = "migration_budget_benchmark.db";
+    private static final int OLDEST_VERSION = 14;
+    // Finds stored, each with one image, and paths stored
+    private static final int FINDS = 50000, PATHS = 500;
+    private Context context;
+    /**
+     * Start without a benchmark database
+     */
+    @Before
+    public void setUp()
+    {
+        context = InstrumentationRegistry.getTargetContext();
+        context.deleteDatabase(DATABASE_NAME);
+    }
+
+    /**
+     * Remove the benchmark database
+     */
+    @After
+    public void tearDown()
+    {
+        context.deleteDatabase(DATABASE_NAME);
+    }
+
+    /**
+     * Upgrade 50,000 finds from the oldest version, timing the whole open
+     */
+    @Test
+    public void upgradesWithinBudget() throws IOException
+    {
+        SQLiteDatabase old = SQLiteDatabase.openOrCreateDatabase(context.getDatabasePath(DATABASE_NAME), null);
+        createSchema(old);
+        fill(old);
+        old.setVersion(OLDEST_VERSION);
+        old.close();
+        long start = System.nanoTime();
+        DatabaseHandler upgraded = new DatabaseHandler(context, DATABASE_NAME);
+        SQLiteDatabase db = upgraded.getWritableDatabase();
+        long elapsedMs = (System.nanoTime() - start) / 1000000;
+        Log.i("Benchmark", "Upgrade of " + FINDS + " finds from version " + OLDEST_VERSION + ": " + elapsedMs
+                + " ms, budget " + DatabaseHandler.MIGRATION_BUDGET_MS + " ms");
+        Cursor cursor = db.rawQuery("SELECT COUNT(*), COUNT(cell) FROM bucket", null);
+        cursor.moveToFirst();
+        assertEquals(FINDS, cursor.getInt(0));
+        assertEquals(FINDS, cursor.getInt(1));
+        cursor.close();
+        upgraded.close();
+        assertTrue("Upgrade took " + elapsedMs + " ms", elapsedMs <= DatabaseHandler.MIGRATION_BUDGET_MS);
+    }
+
+    /**
+     * Create the oldest version's tables from its fixture, leaving out the fixture's rows
+     * @param db - empty database
+     * @throws IOException if the fixture cannot be read
+     */
+    private static void createSchema(SQLiteDatabase db) throws IOException
+    {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(InstrumentationRegistry.getContext()
+                .getAssets().open("migrations/v" + OLDEST_VERSION + ".sql"), "UTF-8"));
+        try
+        {
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                if (line.startsWith("CREATE "))
+                {
+                    db.execSQL(line.substring(0, line.lastIndexOf(';')));
+                }
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    /**
+     * Store the finds, their images and the paths, spread over a few kilometres
+     * @param db - database at the oldest version
+     */
+    private static void fill(SQLiteDatabase db)
+    {
+        db.beginTransaction();
+        SQLiteStatement insertFind = db.compileStatement("INSERT INTO bucket (bucket_id, latitude, longitude,"
+                + " altitude, status, AR_ratio, material, comment, updated_timestamp, created_timestamp, zone,"
+                + " hemisphere, northing, precise_northing, easting, precise_easting, sample, been_synced) VALUES"
+                + " (?, 39.95, -75.19, 12.5, 'RTK Fix', 3.2, 'Ceramic', 'rim sherd', ?, ?, 18, 'N', ?, ?, ?, ?, ?, ?)");
+        SQLiteStatement insertImage = db.compileStatement("INSERT INTO images (image_name, image_bucket) VALUES"
+                + " (?, ?)");
+        SQLiteStatement insertPath = db.compileStatement("INSERT INTO paths (team_member, begin_latitude,"
+                + " begin_longitude, begin_altitude, end_latitude, end_longitude, end_altitude, hemisphere, zone,"
+                + " begin_easting, begin_northing, end_easting, end_northing, start_time, stop_time, begin_status,"
+                + " end_status, begin_AR_ratio, end_AR_ratio, been_synced) VALUES ('member', 39.95, -75.19, 12.5,"
+                + " 39.96, -75.18, 13.0, 'N', 18, 483744, 4422543, 484600, 4423650, ?, ?, 'RTK Fix', 'RTK Float',"
+                + " 3.2, 3.1, 0)");
+        try
+        {
+            for (int i = 0; i < FINDS; i++)
+            {
+                String ID = "find" + i;
+                int northing = 4420000 + i % 5000, easting = 480000 + i / 10;
+                insertFind.bindString(1, ID);
+                insertFind.bindLong(2, i);
+                insertFind.bindLong(3, i);
+                insertFind.bindLong(4, northing);
+                insertFind.bindDouble(5, northing + 0.25);
+                insertFind.bindLong(6, easting);
+                insertFind.bindDouble(7, easting + 0.5);
+                insertFind.bindLong(8, i % 40 + 1);
+                insertFind.bindLong(9, i % 2);
+                insertFind.executeInsert();
+                insertImage.bindString(1, "/photos/" + ID + ".jpg");
+                insertImage.bindString(2, ID);
+                insertImage.executeInsert();
+            }
+            for (int i = 0; i < PATHS; i++)
+            {
+                insertPath.bindLong(1, 1000L * i);
+                insertPath.bindLong(2, 1000L * i + 500);
+                insertPath.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        }
+        finally
+        {
+            db.endTransaction();
+            insertFind.close();
+            insertImage.close();
+            insertPath.close();
+        }
+    }
+}
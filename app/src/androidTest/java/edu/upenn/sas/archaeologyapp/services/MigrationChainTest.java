@@ -0,0 +1,234 @@
+package edu.upenn.sas.archaeologyapp.services;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.TreeMap;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+/**
+ * A database left by each past version upgrades to the current schema with its rows intact. The fixtures in
+ * assets/migrations hold the schema each version's onCreate built, dumped from that version, and a few rows in
+ * every table.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MigrationChainTest
+{
+    private static final String DATABASE_NAME = "migration_chain_test.db";
+    private static final String FRESH_DATABASE_NAME = "migration_chain_fresh_test.db";
+    // Oldest and newest versions with a fixture
+    private static final int FIRST_FIXTURE_VERSION = 14, LAST_FIXTURE_VERSION = 21;
+    private Context context;
+    /**
+     * Start without test databases
+     */
+    @Before
+    public void setUp()
+    {
+        context = InstrumentationRegistry.getTargetContext();
+        context.deleteDatabase(DATABASE_NAME);
+        context.deleteDatabase(FRESH_DATABASE_NAME);
+    }
+
+    /**
+     * Remove the test databases
+     */
+    @After
+    public void tearDown()
+    {
+        context.deleteDatabase(DATABASE_NAME);
+        context.deleteDatabase(FRESH_DATABASE_NAME);
+    }
+
+    /**
+     * Every past version upgrades to the schema a fresh install gets, keeping every row it held and filling in the
+     * spatial index cell of each find
+     */
+    @Test
+    public void upgradesEveryVersion() throws IOException
+    {
+        DatabaseHandler fresh = new DatabaseHandler(context, FRESH_DATABASE_NAME);
+        TreeMap<String, String> expected = schema(fresh.getWritableDatabase());
+        fresh.close();
+        for (int version = FIRST_FIXTURE_VERSION; version <= LAST_FIXTURE_VERSION; version++)
+        {
+            context.deleteDatabase(DATABASE_NAME);
+            SQLiteDatabase old = SQLiteDatabase.openOrCreateDatabase(context.getDatabasePath(DATABASE_NAME), null);
+            for (String statement: readFixture(version))
+            {
+                old.execSQL(statement);
+            }
+            old.setVersion(version);
+            LinkedHashMap<String, String[]> columns = new LinkedHashMap<>();
+            LinkedHashMap<String, ArrayList<String>> rows = new LinkedHashMap<>();
+            for (String entry: schema(old).keySet())
+            {
+                if (entry.startsWith("table "))
+                {
+                    String table = entry.substring("table ".length());
+                    columns.put(table, columns(old, table));
+                    rows.put(table, rows(old, table, columns.get(table)));
+                    assertFalse("Fixture " + version + ", " + table + " holds no rows", rows.get(table).isEmpty());
+                }
+            }
+            old.close();
+            DatabaseHandler upgraded = new DatabaseHandler(context, DATABASE_NAME);
+            SQLiteDatabase db = upgraded.getWritableDatabase();
+            String from = "From version " + version;
+            assertEquals(from, expected, schema(db));
+            // Columns a step added are left out, so the rows read the same as before
+            for (String table: rows.keySet())
+            {
+                assertEquals(from + ", " + table, rows.get(table), rows(db, table, columns.get(table)));
+            }
+            checkCells(from, db);
+            upgraded.close();
+        }
+    }
+
+    /**
+     * Check that the upgrade filled in each find's cell as the app would have on insert
+     * @param from - message prefix
+     * @param db - upgraded database
+     */
+    private static void checkCells(String from, SQLiteDatabase db)
+    {
+        Cursor cursor = db.rawQuery("SELECT zone, hemisphere, easting, precise_easting, northing, precise_northing,"
+                + " cell FROM bucket", null);
+        assertEquals(from, 2, cursor.getCount());
+        while (cursor.moveToNext())
+        {
+            Double easting = cursor.isNull(3) ? cursor.getDouble(2) : cursor.getDouble(3);
+            Double northing = cursor.isNull(5) ? cursor.getDouble(4) : cursor.getDouble(5);
+            Long cell = FindGrid.cell(cursor.getInt(0), cursor.getString(1), easting, northing);
+            assertNotNull(cell);
+            assertEquals(from, (long) cell, cursor.getLong(6));
+        }
+        cursor.close();
+    }
+
+    /**
+     * Read the statements of a version's fixture, one per line, skipping comments
+     * @param version - schema version
+     * @return Returns the statements
+     * @throws IOException if the fixture cannot be read
+     */
+    private static ArrayList<String> readFixture(int version) throws IOException
+    {
+        ArrayList<String> statements = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(InstrumentationRegistry.getContext()
+                .getAssets().open("migrations/v" + version + ".sql"), "UTF-8"));
+        try
+        {
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                if (!line.isEmpty() && !line.startsWith("--"))
+                {
+                    statements.add(line.substring(0, line.lastIndexOf(';')));
+                }
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+        return statements;
+    }
+
+    /**
+     * Describe a database's schema. Tables are described by their columns, since a column added by ALTER TABLE
+     * is stored in different SQL than one created with the table, and indexes and triggers by their SQL.
+     * @param db - database
+     * @return Returns the description of each table, index and trigger, keyed by type and name
+     */
+    private static TreeMap<String, String> schema(SQLiteDatabase db)
+    {
+        TreeMap<String, String> schema = new TreeMap<>();
+        Cursor cursor = db.rawQuery("SELECT type, name, sql FROM sqlite_master WHERE sql IS NOT NULL"
+                + " AND name != 'sqlite_sequence'", null);
+        while (cursor.moveToNext())
+        {
+            String type = cursor.getString(0), name = cursor.getString(1);
+            schema.put(type + " " + name, type.equals("table") ? describeTable(db, name) : cursor.getString(2));
+        }
+        cursor.close();
+        return schema;
+    }
+
+    /**
+     * Describe a table's columns
+     * @param db - database
+     * @param table - table
+     * @return Returns the name, type, constraints and key position of each column, in order
+     */
+    private static String describeTable(SQLiteDatabase db, String table)
+    {
+        StringBuilder description = new StringBuilder();
+        Cursor cursor = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+        while (cursor.moveToNext())
+        {
+            description.append(cursor.getString(cursor.getColumnIndexOrThrow("name"))).append(' ')
+                    .append(cursor.getString(cursor.getColumnIndexOrThrow("type"))).append(' ')
+                    .append(cursor.getInt(cursor.getColumnIndexOrThrow("notnull"))).append(' ')
+                    .append(cursor.getString(cursor.getColumnIndexOrThrow("dflt_value"))).append(' ')
+                    .append(cursor.getInt(cursor.getColumnIndexOrThrow("pk"))).append(';');
+        }
+        cursor.close();
+        return description.toString();
+    }
+
+    /**
+     * Get a table's columns
+     * @param db - database
+     * @param table - table
+     * @return Returns the column names, in order
+     */
+    private static String[] columns(SQLiteDatabase db, String table)
+    {
+        Cursor cursor = db.rawQuery("SELECT * FROM " + table + " LIMIT 0", null);
+        String[] columns = cursor.getColumnNames();
+        cursor.close();
+        return columns;
+    }
+
+    /**
+     * Read every row of a table
+     * @param db - database
+     * @param table - table
+     * @param columns - columns to read
+     * @return Returns each row's values, in rowid order
+     */
+    private static ArrayList<String> rows(SQLiteDatabase db, String table, String[] columns)
+    {
+        StringBuilder list = new StringBuilder();
+        for (String column: columns)
+        {
+            list.append(list.length() == 0 ? "" : ", ").append(column);
+        }
+        ArrayList<String> rows = new ArrayList<>();
+        Cursor cursor = db.rawQuery("SELECT " + list + " FROM " + table + " ORDER BY rowid", null);
+        while (cursor.moveToNext())
+        {
+            StringBuilder row = new StringBuilder();
+            for (int i = 0; i < columns.length; i++)
+            {
+                row.append(i == 0 ? "" : "|").append(cursor.getString(i));
+            }
+            rows.add(row.toString());
+        }
+        cursor.close();
+        return rows;
+    }
+}
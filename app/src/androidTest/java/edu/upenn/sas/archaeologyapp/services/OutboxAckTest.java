@@ -0,0 +1,201 @@
+package edu.upenn.sas.archaeologyapp.services;
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import edu.upenn.sas.archaeologyapp.models.DataEntryElement;
+import edu.upenn.sas.archaeologyapp.models.FindDelta;
+import edu.upenn.sas.archaeologyapp.models.PathElement;
+import edu.upenn.sas.archaeologyapp.models.PhotoUpload;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+/**
+ * Acknowledging an upload marks the record synced only while it still holds what was uploaded
+ */
+@RunWith(AndroidJUnit4.class)
+public class OutboxAckTest
+{
+    private static final String DATABASE_NAME = "outbox_ack_test.db";
+    private static final String SERVER = "http://server/";
+    private Context context;
+    private DatabaseHandler databaseHandler;
+    /**
+     * Open an empty database
+     */
+    @Before
+    public void setUp()
+    {
+        context = InstrumentationRegistry.getTargetContext();
+        context.deleteDatabase(DATABASE_NAME);
+        databaseHandler = new DatabaseHandler(context, DATABASE_NAME);
+    }
+
+    /**
+     * Remove the test database
+     */
+    @After
+    public void tearDown()
+    {
+        databaseHandler.close();
+        context.deleteDatabase(DATABASE_NAME);
+    }
+
+    /**
+     * A find left alone during its upload is synced and acked
+     */
+    @Test
+    public void acksUnchangedFind()
+    {
+        databaseHandler.addFindsRows(new DataEntryElement[] {find("first")});
+        DataEntryElement uploaded = takeFind();
+        assertTrue(databaseHandler.ackFind(uploaded, SERVER, 0));
+        assertEquals(0, databaseHandler.getUnsyncedFindsRows().size());
+        assertEquals(1, databaseHandler.getOutboxCounts()[DatabaseHandler.OUTBOX_ACKED]);
+    }
+
+    /**
+     * A find edited during its upload keeps the edit and goes back to pending
+     */
+    @Test
+    public void keepsFindEditedInFlight()
+    {
+        databaseHandler.addFindsRows(new DataEntryElement[] {find("first")});
+        DataEntryElement uploaded = takeFind();
+        databaseHandler.addFindsRows(new DataEntryElement[] {find("second")});
+        assertFalse(databaseHandler.ackFind(uploaded, SERVER, 0));
+        ArrayList<DataEntryElement> unsynced = databaseHandler.getUnsyncedFindsRows();
+        assertEquals(1, unsynced.size());
+        assertEquals("second", unsynced.get(0).getComments());
+        int[] counts = databaseHandler.getOutboxCounts();
+        assertEquals(0, counts[DatabaseHandler.OUTBOX_ACKED]);
+        assertEquals(1, counts[DatabaseHandler.OUTBOX_PENDING]);
+        // The next pass sends the whole find again, since the server's copy was never acknowledged
+        databaseHandler.prepareOutbox(false);
+        HashMap<String, FindDelta> deltas = new HashMap<>();
+        ArrayList<DataEntryElement> pending = databaseHandler.takePendingOutboxFinds(SERVER, deltas);
+        assertEquals(1, pending.size());
+        assertEquals("second", pending.get(0).getComments());
+        assertFalse(deltas.containsKey("find") && deltas.get("find").isPartial());
+    }
+
+    /**
+     * A path edited during its upload keeps the edit and goes back to pending
+     */
+    @Test
+    public void keepsPathEditedInFlight()
+    {
+        databaseHandler.addPathsRows(new PathElement[] {path(2000L)});
+        databaseHandler.prepareOutbox(false);
+        PathElement uploaded = databaseHandler.takePendingOutboxPaths().get(0);
+        databaseHandler.addPathsRows(new PathElement[] {path(3000L)});
+        databaseHandler.ackPath(uploaded);
+        ArrayList<PathElement> unsynced = databaseHandler.getUnsyncedPathsRows();
+        assertEquals(1, unsynced.size());
+        assertEquals(Long.valueOf(3000), unsynced.get(0).getEndTime());
+        assertEquals(1, databaseHandler.getOutboxCounts()[DatabaseHandler.OUTBOX_PENDING]);
+        // Left alone this time, it is acked
+        databaseHandler.prepareOutbox(false);
+        databaseHandler.ackPath(databaseHandler.takePendingOutboxPaths().get(0));
+        assertEquals(0, databaseHandler.getUnsyncedPathsRows().size());
+    }
+
+    /**
+     * Queuing a find's moved photos points its images at the new paths in the same write
+     */
+    @Test
+    public void movesImagesWithQueuedPhotos()
+    {
+        DataEntryElement entry = find("first");
+        entry.getImagePaths().add("/camera/1.jpg");
+        entry.getImagePaths().add("/camera/2.jpg");
+        databaseHandler.addFindsRows(new DataEntryElement[] {entry});
+        assertTrue(databaseHandler.addFindPhotoUploads("find", new String[] {"/camera/1.jpg", "/camera/2.jpg"},
+                new PhotoUpload[] {new PhotoUpload("/field/1.JPG", "N/field/1.JPG", null, 0),
+                        new PhotoUpload("/camera/2.jpg", "N/field/2.JPG", null, 0)}));
+        // The second photo could not be moved, so its image keeps its path
+        ArrayList<String> images = takeFind().getImagePaths();
+        Collections.sort(images);
+        assertEquals(Arrays.asList("/camera/2.jpg", "/field/1.JPG"), images);
+        ArrayList<PhotoUpload> queued = databaseHandler.getPendingPhotoUploads();
+        assertEquals(2, queued.size());
+    }
+
+    /**
+     * A photo added to a find the server already has is logged as a change, while saving its other photos again is
+     * not
+     */
+    @Test
+    public void logsPhotoAddedToSyncedFind()
+    {
+        DataEntryElement entry = find("first");
+        entry.getImagePaths().add("/camera/1.jpg");
+        databaseHandler.addFindsRows(new DataEntryElement[] {entry});
+        assertTrue(databaseHandler.ackFind(takeFind(), SERVER, 0));
+        entry = find("second");
+        entry.getImagePaths().add("/camera/1.jpg");
+        databaseHandler.addFindsRows(new DataEntryElement[] {entry});
+        FindDelta delta = takeDelta();
+        assertEquals(FindDelta.FIELD_COMMENTS, delta.getFields());
+        assertTrue(databaseHandler.ackFind(entry, SERVER, delta.getChangeSequence()));
+        entry.getImagePaths().add("/camera/2.jpg");
+        databaseHandler.addFindsRows(new DataEntryElement[] {entry});
+        delta = takeDelta();
+        assertTrue(delta.isPartial());
+        assertEquals(FindDelta.FIELD_IMAGES, delta.getFields());
+    }
+
+    /**
+     * Put the outbox in order and take the one pending find's delta
+     * @return Returns what the server is missing of the find
+     */
+    private FindDelta takeDelta()
+    {
+        databaseHandler.prepareOutbox(false);
+        HashMap<String, FindDelta> deltas = new HashMap<>();
+        assertEquals(1, databaseHandler.takePendingOutboxFinds(SERVER, deltas).size());
+        return deltas.get("find");
+    }
+
+    /**
+     * Put the outbox in order and take the one pending find
+     * @return Returns the find as read for upload
+     */
+    private DataEntryElement takeFind()
+    {
+        databaseHandler.prepareOutbox(false);
+        ArrayList<DataEntryElement> pending = databaseHandler.takePendingOutboxFinds(SERVER,
+                new HashMap<String, FindDelta>());
+        assertEquals(1, pending.size());
+        return pending.get(0);
+    }
+
+    /**
+     * Build the test find
+     * @param comments - comments recorded
+     * @return Returns the find
+     */
+    private static DataEntryElement find(String comments)
+    {
+        return new DataEntryElement("find", 39.95, -75.19, 12.5, "RTK Fix", null, new ArrayList<String>(),
+                "Ceramic", comments, 1000, 1000, 18, "N", 4422543, 4422543.125, 483744, 483744.25, 1, false);
+    }
+
+    /**
+     * Build the test path
+     * @param endTime - time the path ended
+     * @return Returns the path
+     */
+    private static PathElement path(Long endTime)
+    {
+        return new PathElement("member", 39.95, -75.19, 12.5, 39.96, -75.18, 13.0, "N", 18, 483744.25,
+                4422543.125, 484600.5, 4423650.75, 1000L, endTime, "RTK Fix", "RTK Float", 3.2, null, false);
+    }
+}
@@ -0,0 +1,249 @@
+package edu.upenn.sas.archaeologyapp.services;
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import com.android.volley.RequestQueue;
+import com.android.volley.toolbox.Volley;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import edu.upenn.sas.archaeologyapp.models.DataEntryElement;
+import edu.upenn.sas.archaeologyapp.models.FindDelta;
+import edu.upenn.sas.archaeologyapp.models.FindUploadResponseWrapper;
+import edu.upenn.sas.archaeologyapp.util.Constants;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+/**
+ * Sync passes over the outbox against a local stub server, run as SyncService runs them: the outbox is prepared,
+ * the pending finds are taken and uploaded in batches, and each acknowledgement is written back on a writer thread.
+ * The throughput of a whole pass is timed, and so is the pass that resumes one cut off halfway, along with how many
+ * finds it sends again, against the whole pass every sync made before the outbox. The results are logged under the
+ * Benchmark tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class OutboxResumeBenchmark
+{
+    private static final String DATABASE_NAME = "outbox_resume_benchmark.db";
+    private static final int FINDS = 1000;
+    // Time the stub server holds each request
+    private static final long ROUND_TRIP_MS = 50;
+    private static final long TIMEOUT_MINUTES = 5;
+    private Context context;
+    private DatabaseHandler databaseHandler;
+    // Runs the database writes, standing in for the repository's writer thread
+    private ExecutorService writer;
+    private StubSyncServer server;
+    private String savedURL;
+    /**
+     * Store the finds and start the stub server
+     */
+    @Before
+    public void setUp() throws IOException
+    {
+        context = InstrumentationRegistry.getTargetContext();
+        context.deleteDatabase(DATABASE_NAME);
+        databaseHandler = new DatabaseHandler(context, DATABASE_NAME);
+        DataEntryElement[] finds = new DataEntryElement[FINDS];
+        for (int i = 0; i < FINDS; i++)
+        {
+            finds[i] = new DataEntryElement("find" + i, 39.95, -75.19, 12.5, "RTK Fix", 3.2,
+                    new ArrayList<String>(), "Ceramic", "rim sherd " + i, i, i, 18, "N", 4422000 + i % 50,
+                    4422000.5 + i % 50, 482000, 482000.5, i / 50 + 1, false);
+        }
+        databaseHandler.addFindsRows(finds);
+        writer = Executors.newSingleThreadExecutor();
+        server = new StubSyncServer(ROUND_TRIP_MS);
+        savedURL = Constants.globalWebServerURL;
+        Constants.globalWebServerURL = server.start();
+    }
+
+    /**
+     * Stop the stub server and remove the benchmark database
+     */
+    @After
+    public void tearDown()
+    {
+        server.close();
+        writer.shutdownNow();
+        Constants.globalWebServerURL = savedURL;
+        databaseHandler.close();
+        context.deleteDatabase(DATABASE_NAME);
+    }
+
+    /**
+     * Upload every find in one pass
+     */
+    @Test
+    public void wholePass() throws Exception
+    {
+        long nanos = pass(FINDS);
+        assertEquals(FINDS, server.getFindsStored());
+        assertEquals(0, databaseHandler.getUnsyncedFindsCount());
+        Log.i("Benchmark", "Whole pass: " + FINDS + " finds in " + nanos / 1000000 + " ms, "
+                + String.format(Locale.US, "%.1f", FINDS / (nanos / 1e9)) + " finds/s, " + ROUND_TRIP_MS
+                + " ms round trip");
+    }
+
+    /**
+     * Cut a pass off once half the finds are acknowledged, dropping the batches in flight as when the link goes
+     * down, then time the pass that finishes the upload
+     */
+    @Test
+    public void resumesAfterInterruption() throws Exception
+    {
+        pass(FINDS / 2);
+        int receivedBefore = server.getFindsReceived();
+        long nanos = pass(FINDS);
+        int resent = server.getFindsReceived() - receivedBefore;
+        assertEquals(FINDS, server.getFindsStored());
+        assertEquals(0, databaseHandler.getUnsyncedFindsCount());
+        // Only the finds never acknowledged are sent again
+        assertTrue("Sent " + resent + " finds again", resent <= FINDS - FINDS / 2);
+        Log.i("Benchmark", "Resumed pass: " + resent + " of " + FINDS + " finds sent again in " + nanos / 1000000
+                + " ms, " + String.format(Locale.US, "%.1f", resent / (nanos / 1e9)) + " finds/s, against "
+                + FINDS + " finds sent by a pass starting over, " + ROUND_TRIP_MS + " ms round trip");
+    }
+
+    /**
+     * Run a sync pass over the outbox until every find is handled or enough finds are acknowledged
+     * @param stopAfter - number of acknowledgements after which the pass is cut off
+     * @return Returns the time from preparing the outbox until the pass finished or was cut off, with every write
+     * done
+     * @throws Exception if the outbox cannot be read or the wait is interrupted
+     */
+    private long pass(final int stopAfter) throws Exception
+    {
+        long start = System.nanoTime();
+        server.setDropping(false);
+        final String url = Constants.globalWebServerURL;
+        final HashMap<String, FindDelta> deltas = new HashMap<>();
+        final ArrayList<DataEntryElement> finds = writer.submit(new Callable<ArrayList<DataEntryElement>>() {
+            /**
+             * Prepare the outbox and take the pending finds
+             * @return Returns the finds now in flight
+             */
+            @Override
+            public ArrayList<DataEntryElement> call()
+            {
+                databaseHandler.prepareOutbox(false);
+                return databaseHandler.takePendingOutboxFinds(url, deltas);
+            }
+        }).get();
+        final RequestQueue queue = Volley.newRequestQueue(context);
+        final CountDownLatch finished = new CountDownLatch(1);
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            /**
+             * Start the upload on the main thread, as the uploader requires
+             */
+            @Override
+            public void run()
+            {
+                final SyncScheduler scheduler = new SyncScheduler(Constants.DEFAULT_SYNC_WINDOW);
+                FindBatchUploader uploader = new FindBatchUploader(queue, scheduler, deltas,
+                        new FindUploadResponseWrapper() {
+                    private int acked = 0;
+                    private boolean cutOff = false;
+                    /**
+                     * Acknowledge a find in the outbox
+                     * @param item - uploaded find
+                     * @param sent - what was sent of the find
+                     */
+                    @Override
+                    public void itemUploaded(final DataEntryElement item, final FindDelta sent)
+                    {
+                        if (cutOff)
+                        {
+                            return;
+                        }
+                        writer.execute(new Runnable() {
+                            /**
+                             * Write the acknowledgement
+                             */
+                            @Override
+                            public void run()
+                            {
+                                databaseHandler.ackFind(item, url, sent.getChangeSequence());
+                            }
+                        });
+                        if (++acked == stopAfter && stopAfter < finds.size())
+                        {
+                            cutOff = true;
+                            server.setDropping(true);
+                            scheduler.cancel();
+                            finished.countDown();
+                        }
+                    }
+
+                    /**
+                     * Mark a find failed in the outbox
+                     * @param item - failed find
+                     * @param reason - server or connection error
+                     */
+                    @Override
+                    public void itemFailed(final DataEntryElement item, String reason)
+                    {
+                        if (cutOff)
+                        {
+                            return;
+                        }
+                        writer.execute(new Runnable() {
+                            /**
+                             * Write the failure
+                             */
+                            @Override
+                            public void run()
+                            {
+                                databaseHandler.setFindOutboxState(item, DatabaseHandler.OUTBOX_FAILED);
+                            }
+                        });
+                    }
+
+                    /**
+                     * Every find was handled
+                     */
+                    @Override
+                    public void uploadFinished()
+                    {
+                        finished.countDown();
+                    }
+                });
+                scheduler.addSource(uploader);
+                uploader.upload(finds);
+            }
+        });
+        assertTrue("Pass did not finish", finished.await(TIMEOUT_MINUTES, TimeUnit.MINUTES));
+        queue.stop();
+        drainWriter();
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Wait for the writes queued so far
+     * @throws ExecutionException if a write failed
+     * @throws InterruptedException if the wait is interrupted
+     */
+    private void drainWriter() throws ExecutionException, InterruptedException
+    {
+        writer.submit(new Runnable() {
+            /**
+             * Nothing to do, the writes before this one are done once it runs
+             */
+            @Override
+            public void run()
+            {
+            }
+        }).get();
+    }
+}
@@ -0,0 +1,206 @@
+package edu.upenn.sas.archaeologyapp.services;
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import edu.upenn.sas.archaeologyapp.models.PhotoUpload;
+import edu.upenn.sas.archaeologyapp.models.UploadResponseWrapper;
+import edu.upenn.sas.archaeologyapp.util.Constants;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+/**
+ * Photo upload throughput in MB/s against a local stub server that stores the chunks, without a rate limit and with
+ * the app's default limit, which must hold. The throughputs are logged under the Benchmark tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PhotoUploadBenchmark
+{
+    private static final String DATABASE_NAME = "photo_upload_benchmark.db";
+    // Size of each photo, about that of a phone camera JPEG
+    private static final int PHOTO_BYTES = 3 * 1024 * 1024;
+    private static final int PHOTOS = 8, THROTTLED_PHOTOS = 1;
+    // Time the stub server holds each chunk
+    private static final long ROUND_TRIP_MS = 10;
+    private static final long TIMEOUT_MINUTES = 5;
+    private Context context;
+    private DatabaseHandler databaseHandler;
+    private StubSyncServer server;
+    private File directory;
+    private String savedURL;
+    /**
+     * Start the stub server
+     */
+    @Before
+    public void setUp() throws IOException
+    {
+        context = InstrumentationRegistry.getTargetContext();
+        context.deleteDatabase(DATABASE_NAME);
+        databaseHandler = new DatabaseHandler(context, DATABASE_NAME);
+        directory = new File(context.getFilesDir(), "photo_upload_benchmark");
+        assertTrue(directory.isDirectory() || directory.mkdirs());
+        server = new StubSyncServer(ROUND_TRIP_MS);
+        savedURL = Constants.globalWebServerURL;
+        Constants.globalWebServerURL = server.start();
+    }
+
+    /**
+     * Stop the stub server and remove the photos and the benchmark database
+     */
+    @After
+    public void tearDown()
+    {
+        server.close();
+        Constants.globalWebServerURL = savedURL;
+        File[] photos = directory.listFiles();
+        if (photos != null)
+        {
+            for (File photo: photos)
+            {
+                photo.delete();
+            }
+        }
+        directory.delete();
+        databaseHandler.close();
+        context.deleteDatabase(DATABASE_NAME);
+    }
+
+    /**
+     * Upload as fast as the link allows
+     */
+    @Test
+    public void unthrottled() throws Exception
+    {
+        long nanos = upload(PHOTOS, 0);
+        report("Unthrottled", PHOTOS, nanos);
+    }
+
+    /**
+     * Upload at the default rate limit. The first second's worth goes at once, the rest at the limit.
+     */
+    @Test
+    public void throttled() throws Exception
+    {
+        long limit = Constants.DEFAULT_PHOTO_UPLOAD_BYTES_PER_SECOND;
+        long nanos = upload(THROTTLED_PHOTOS, limit);
+        report("Throttled to " + limit / 1024 + " KB/s", THROTTLED_PHOTOS, nanos);
+        long minimumMs = (THROTTLED_PHOTOS * (long) PHOTO_BYTES - limit) * 1000 / limit;
+        assertTrue("Took " + nanos / 1000000 + " ms", nanos / 1000000 >= minimumMs);
+    }
+
+    /**
+     * Write the photos, queue them in the photo outbox and upload them
+     * @param photos - number of photos
+     * @param bytesPerSecond - upload rate limit, 0 for none
+     * @return Returns the time from queueing the photos until the last was stored
+     * @throws IOException if a photo cannot be written
+     * @throws InterruptedException if the wait is interrupted
+     */
+    private long upload(int photos, long bytesPerSecond) throws IOException, InterruptedException
+    {
+        Random random = new Random(photos);
+        byte[] contents = new byte[PHOTO_BYTES];
+        PhotoUpload[] uploads = new PhotoUpload[photos];
+        for (int i = 0; i < photos; i++)
+        {
+            random.nextBytes(contents);
+            File photo = new File(directory, i + ".jpg");
+            FileOutputStream output = new FileOutputStream(photo);
+            try
+            {
+                output.write(contents);
+            }
+            finally
+            {
+                output.close();
+            }
+            uploads[i] = new PhotoUpload(photo.getPath(), "find/photos/field/" + i + ".jpg", null, 0);
+        }
+        databaseHandler.addPhotoUploads(uploads);
+        final ArrayList<PhotoUpload> pending = databaseHandler.getPendingPhotoUploads();
+        final CountDownLatch finished = new CountDownLatch(1);
+        final int[] outcomes = new int[2];
+        final PhotoUploader uploader = new PhotoUploader(databaseHandler, bytesPerSecond,
+                new UploadResponseWrapper<PhotoUpload>() {
+            /**
+             * A photo was stored
+             * @param item - uploaded photo
+             */
+            @Override
+            public void itemUploaded(PhotoUpload item)
+            {
+                outcomes[0]++;
+            }
+
+            /**
+             * A photo failed
+             * @param item - failed photo
+             * @param reason - server or connection error
+             */
+            @Override
+            public void itemFailed(PhotoUpload item, String reason)
+            {
+                outcomes[1]++;
+            }
+
+            /**
+             * Every photo was handled
+             */
+            @Override
+            public void uploadFinished()
+            {
+                finished.countDown();
+            }
+        });
+        long start = System.nanoTime();
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            /**
+             * Queue the photos on the main thread, as the uploader requires
+             */
+            @Override
+            public void run()
+            {
+                for (PhotoUpload photo: pending)
+                {
+                    uploader.enqueue(photo);
+                }
+            }
+        });
+        assertTrue("Upload did not finish", finished.await(TIMEOUT_MINUTES, TimeUnit.MINUTES));
+        long nanos = System.nanoTime() - start;
+        uploader.shutdown();
+        assertEquals(photos, outcomes[0]);
+        assertEquals(0, outcomes[1]);
+        for (PhotoUpload photo: uploads)
+        {
+            assertEquals(PHOTO_BYTES, server.getPhotoBytes(photo.getRemoteName()));
+        }
+        assertEquals(0, databaseHandler.getPendingPhotoUploads().size());
+        return nanos;
+    }
+
+    /**
+     * Log the throughput of an upload
+     * @param mode - rate limit used
+     * @param photos - number of photos uploaded
+     * @param nanos - time taken
+     */
+    private void report(String mode, int photos, long nanos)
+    {
+        double megabytes = photos * (double) PHOTO_BYTES / (1024 * 1024);
+        Log.i("Benchmark", mode + ": " + String.format(Locale.US, "%.1f", megabytes) + " MB in " + nanos / 1000000
+                + " ms, " + String.format(Locale.US, "%.2f", megabytes / (nanos / 1e9)) + " MB/s, "
+                + server.getRequests() + " chunks, " + ROUND_TRIP_MS + " ms round trip");
+    }
+}
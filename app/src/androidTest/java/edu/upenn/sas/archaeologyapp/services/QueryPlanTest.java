@@ -0,0 +1,225 @@
+package edu.upenn.sas.archaeologyapp.services;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQuery;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import edu.upenn.sas.archaeologyapp.models.DataEntryElement;
+import edu.upenn.sas.archaeologyapp.models.FindDelta;
+import edu.upenn.sas.archaeologyapp.models.PathElement;
+import edu.upenn.sas.archaeologyapp.models.PhotoUpload;
+import edu.upenn.sas.archaeologyapp.models.TrackPoints;
+import static org.junit.Assert.assertTrue;
+/**
+ * Every query DatabaseHandler runs finds its rows through an index. The queries are taken from the cursors the
+ * handler opens and from its statement constants, and each is run through EXPLAIN QUERY PLAN.
+ */
+@RunWith(AndroidJUnit4.class)
+public class QueryPlanTest
+{
+    private static final String DATABASE_NAME = "query_plan_test.db";
+    private static final String SERVER = "http://server/";
+    // A plan step reading a whole table: SCAN, or SCAN TABLE before SQLite 3.36, without an index
+    private static final Pattern TABLE_SCAN = Pattern.compile("^SCAN (?:TABLE )?(\\w+)(?: AS \\w+)?$");
+    // A plan step running a subquery, which later steps scan under the subquery's name
+    private static final Pattern SUBQUERY = Pattern.compile("^(?:CO-ROUTINE|MATERIALIZE) (\\w+)$");
+    // Tables read whole on purpose: every photo in the upload queue is pending
+    private static final String[] WHOLE_TABLE_READS = {"photo_outbox"};
+    private static final Pattern PARAMETER = Pattern.compile("\\?(\\d*)");
+    private Context context;
+    private DatabaseHandler databaseHandler;
+    // Queries seen by the cursor factory while recording
+    private final LinkedHashSet<String> queries = new LinkedHashSet<>();
+    private boolean recording = true;
+    /**
+     * Open a database that records every query, holding a few rows of each kind
+     */
+    @Before
+    public void setUp()
+    {
+        context = InstrumentationRegistry.getTargetContext();
+        context.deleteDatabase(DATABASE_NAME);
+        databaseHandler = new DatabaseHandler(context, DATABASE_NAME, new SQLiteDatabase.CursorFactory() {
+            /**
+             * Record the query and open the usual cursor
+             * @param db - database
+             * @param driver - cursor driver
+             * @param editTable - table the cursor edits
+             * @param query - query
+             * @return Returns the cursor
+             */
+            @Override
+            public Cursor newCursor(SQLiteDatabase db, SQLiteCursorDriver driver, String editTable,
+                                    SQLiteQuery query)
+            {
+                if (recording)
+                {
+                    queries.add(query.toString().replaceFirst("^SQLiteQuery: ", ""));
+                }
+                return new SQLiteCursor(driver, editTable, query);
+            }
+        });
+        ArrayList<String> images = new ArrayList<>();
+        images.add("first.jpg");
+        databaseHandler.addRows(new DataEntryElement[] {
+                new DataEntryElement("first", 39.95, -75.19, 12.5, "RTK Fix", 3.2, images, "Ceramic", "", 1000, 1000,
+                        18, "N", 4422543, 4422543.125, 483744, 483744.25, 1, false),
+                new DataEntryElement("second", 39.95, -75.19, 12.5, "RTK Fix", 3.2, new ArrayList<String>(), "Bone",
+                        "", 2000, 2000, 18, "N", 4422543, 4422543.5, 483744, 483744.75, 2, true)
+        }, new PathElement[] {
+                new PathElement("member", 39.95, -75.19, 12.5, 39.96, -75.18, 13.0, "N", 18, 483744.25, 4422543.125,
+                        484600.5, 4423650.75, 1000L, 2000L, "RTK Fix", "RTK Float", 3.2, 3.1, false)
+        });
+        databaseHandler.addPhotoUploads(new PhotoUpload[] {new PhotoUpload("/photos/first.jpg", "first.jpg", null,
+                0)});
+        TrackPoints points = new TrackPoints(4);
+        points.add(1000, 39.95, -75.19, 12.5, 1, 3.2);
+        points.add(1500, 39.951, -75.191, 12.6, 1, 3.3);
+        points.addSimplified(1, 1000, 39.95, -75.19);
+        databaseHandler.addTrackPoints("member", 1000, points);
+    }
+
+    /**
+     * Remove the test database
+     */
+    @After
+    public void tearDown()
+    {
+        databaseHandler.close();
+        context.deleteDatabase(DATABASE_NAME);
+    }
+
+    /**
+     * No query the handler reads through a cursor scans a whole table
+     */
+    @Test
+    public void readsUseIndexes()
+    {
+        databaseHandler.getUnsyncedFindsRows();
+        databaseHandler.getUnsyncedFindsCount();
+        databaseHandler.getUnsyncedFindsPage(null, null, 0, 10);
+        databaseHandler.getUnsyncedFindsPage(1000L, "first", 0, 10);
+        databaseHandler.getFindsInBox(18, "N", 483000, 4422000, 484000, 4423000, false);
+        databaseHandler.getFindsInBox(18, "N", 483000, 4422000, 484000, 4423000, true);
+        databaseHandler.getFindsInBoxes(new int[] {18, 17}, new char[] {'N', 'N'}, new double[] {483000, 4422000,
+                484000, 4423000, 700000, 4422000, 710000, 4423000}, 2, true);
+        databaseHandler.getNearestFinds(18, "N", 483744, 4422543, 5, false);
+        databaseHandler.getUnsyncedPathsRows();
+        databaseHandler.prepareOutbox(true);
+        databaseHandler.takePendingOutboxFinds(SERVER, new HashMap<String, FindDelta>());
+        databaseHandler.takePendingOutboxPaths();
+        databaseHandler.getOutboxCounts();
+        databaseHandler.getPendingPhotoUploads();
+        databaseHandler.getTrackPoints("member", 1000, 0, 5000);
+        databaseHandler.getSimplifiedTrack("member", 1000, 1, 0, 5000);
+        databaseHandler.getLastSampleFromBucket(18, "N", 4422543, 483744);
+        recording = false;
+        ArrayList<String> scans = new ArrayList<>();
+        for (String query: queries)
+        {
+            if (query.startsWith("SELECT") || query.startsWith("WITH"))
+            {
+                checkPlan(query, scans);
+            }
+        }
+        assertTrue(queries.size() > 10);
+        assertTrue("Full table scans: " + scans, scans.isEmpty());
+    }
+
+    /**
+     * No statement the handler compiles scans a whole table
+     */
+    @Test
+    public void statementsUseIndexes() throws IllegalAccessException
+    {
+        recording = false;
+        ArrayList<String> scans = new ArrayList<>();
+        int checked = 0;
+        for (Field field: DatabaseHandler.class.getDeclaredFields())
+        {
+            if (!Modifier.isStatic(field.getModifiers()) || field.getType() != String.class
+                    || !field.getName().endsWith("_SQL"))
+            {
+                continue;
+            }
+            field.setAccessible(true);
+            String statement = (String) field.get(null);
+            if (statement.startsWith("UPDATE") || statement.startsWith("DELETE") || statement.startsWith("INSERT"))
+            {
+                checkPlan(statement, scans);
+                checked++;
+            }
+        }
+        assertTrue(checked > 10);
+        assertTrue("Full table scans: " + scans, scans.isEmpty());
+    }
+
+    /**
+     * Look for whole table scans in a query's plan
+     * @param query - query, with parameters
+     * @param scans - receives each scan found, with its query
+     */
+    private void checkPlan(String query, ArrayList<String> scans)
+    {
+        SQLiteDatabase db = databaseHandler.getWritableDatabase();
+        HashSet<String> tables = new HashSet<>();
+        Cursor cursor = db.rawQuery("SELECT name FROM sqlite_master WHERE type='table'", null);
+        while (cursor.moveToNext())
+        {
+            tables.add(cursor.getString(0));
+        }
+        cursor.close();
+        tables.removeAll(Arrays.asList(WHOLE_TABLE_READS));
+        // The plan does not depend on the values, so every parameter is bound to 0
+        int parameters = 0, unnumbered = 0;
+        Matcher parameter = PARAMETER.matcher(query);
+        while (parameter.find())
+        {
+            if (parameter.group(1).isEmpty())
+            {
+                unnumbered++;
+            }
+            else
+            {
+                parameters = Math.max(parameters, Integer.parseInt(parameter.group(1)));
+            }
+        }
+        String[] args = new String[Math.max(parameters, unnumbered)];
+        for (int i = 0; i < args.length; i++)
+        {
+            args[i] = "0";
+        }
+        cursor = db.rawQuery("EXPLAIN QUERY PLAN " + query, args);
+        int detail = cursor.getColumnIndexOrThrow("detail");
+        while (cursor.moveToNext())
+        {
+            Matcher subquery = SUBQUERY.matcher(cursor.getString(detail));
+            if (subquery.matches())
+            {
+                tables.remove(subquery.group(1));
+            }
+            Matcher scan = TABLE_SCAN.matcher(cursor.getString(detail));
+            if (scan.matches() && tables.contains(scan.group(1)))
+            {
+                scans.add(cursor.getString(detail) + " in " + query);
+            }
+        }
+        cursor.close();
+    }
+}
@@ -0,0 +1,400 @@
+package edu.upenn.sas.archaeologyapp.services;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import edu.upenn.sas.archaeologyapp.models.DataEntryElement;
+/**
+ * Local stand-in for the sync server, for tests and throughput benchmarks. It answers /insert_finds with an
+ * acknowledgement per find, /insert_finds_binary likewise after decoding the batch, /insert_find and /insert_path
+ * as the old server did, and /upload_photo_chunk with the bytes stored so far of the photo. Every other path is
+ * answered with 404, and endpoints can be switched off to stand in for an older server. Each request is held for a
+ * fixed delay before it is answered, standing in for the round trip of a slow link, and while the server is
+ * dropping, connections are closed without an answer, standing in for a link that is down. Each connection carries
+ * one request.
+ */
+class StubSyncServer implements Runnable
+{
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private final ServerSocket serverSocket;
+    private final long delayMs;
+    private final ExecutorService connections = Executors.newCachedThreadPool();
+    // Endpoints answered with 404
+    private final HashSet<String> missing = new HashSet<>();
+    // Finds stored, by find ID or by created timestamp for finds sent without their ID
+    private final HashSet<String> finds = new HashSet<>();
+    // Bytes stored of each photo, by name
+    private final HashMap<String, Long> photos = new HashMap<>();
+    private volatile boolean dropping = false;
+    private int requests = 0, findsReceived = 0, paths = 0;
+    // Bytes of the request lines and bodies received, since the old endpoints carry finds in the query string
+    private long requestBytes = 0;
+    /**
+     * Constructor
+     * @param _delayMs - time each request is held before it is answered
+     * @throws IOException if the server cannot listen
+     */
+    StubSyncServer(long _delayMs) throws IOException
+    {
+        serverSocket = new ServerSocket(0);
+        delayMs = _delayMs;
+    }
+
+    /**
+     * Start serving on a thread of its own
+     * @return Returns the server's base URL
+     */
+    String start()
+    {
+        new Thread(this, "StubSyncServer").start();
+        return "http://127.0.0.1:" + serverSocket.getLocalPort();
+    }
+
+    /**
+     * Answer an endpoint with 404 from now on
+     * @param path - endpoint path, such as /insert_finds
+     */
+    synchronized void removeEndpoint(String path)
+    {
+        missing.add(path);
+    }
+
+    /**
+     * Start or stop closing connections without an answer
+     * @param _dropping - whether connections are dropped
+     */
+    void setDropping(boolean _dropping)
+    {
+        dropping = _dropping;
+    }
+
+    /**
+     * Get the request count
+     * @return Returns the number of requests answered
+     */
+    synchronized int getRequests()
+    {
+        return requests;
+    }
+
+    /**
+     * Get the number of distinct finds stored
+     * @return Returns the number of finds the server holds
+     */
+    synchronized int getFindsStored()
+    {
+        return finds.size();
+    }
+
+    /**
+     * Get the number of finds received, counting each time a find was sent again
+     * @return Returns the number of finds acknowledged
+     */
+    synchronized int getFindsReceived()
+    {
+        return findsReceived;
+    }
+
+    /**
+     * Get the path count
+     * @return Returns the number of paths received
+     */
+    synchronized int getPaths()
+    {
+        return paths;
+    }
+
+    /**
+     * Get the number of request bytes received, leaving out the headers
+     * @return Returns the request line and body bytes of every request answered
+     */
+    synchronized long getRequestBytes()
+    {
+        return requestBytes;
+    }
+
+    /**
+     * Get the stored size of a photo
+     * @param name - name of the photo on the server
+     * @return Returns the number of bytes stored
+     */
+    synchronized long getPhotoBytes(String name)
+    {
+        Long stored = photos.get(name);
+        return stored == null ? 0 : stored;
+    }
+
+    /**
+     * Stop listening. Requests being answered are cut off.
+     */
+    void close()
+    {
+        try
+        {
+            serverSocket.close();
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+        connections.shutdownNow();
+    }
+
+    /**
+     * Accept connections until closed, answering each on a thread of its own so requests overlap as they would on
+     * a real server
+     */
+    @Override
+    public void run()
+    {
+        while (!serverSocket.isClosed())
+        {
+            try
+            {
+                final Socket socket = serverSocket.accept();
+                connections.execute(new Runnable() {
+                    /**
+                     * Answer the connection's request
+                     */
+                    @Override
+                    public void run()
+                    {
+                        serve(socket);
+                    }
+                });
+            }
+            catch (IOException e)
+            {
+                // The server was closed
+            }
+        }
+    }
+
+    /**
+     * Read one request and answer it
+     * @param socket - client connection
+     */
+    private void serve(Socket socket)
+    {
+        try
+        {
+            InputStream in = socket.getInputStream();
+            String requestLine = readLine(in);
+            if (requestLine == null)
+            {
+                return;
+            }
+            int length = 0;
+            String header;
+            while ((header = readLine(in)) != null && !header.isEmpty())
+            {
+                if (header.toLowerCase().startsWith("content-length:"))
+                {
+                    length = Integer.parseInt(header.substring("content-length:".length()).trim());
+                }
+            }
+            byte[] body = new byte[length];
+            int read = 0;
+            while (read < length)
+            {
+                int count = in.read(body, read, length - read);
+                if (count < 0)
+                {
+                    return;
+                }
+                read += count;
+            }
+            Thread.sleep(delayMs);
+            if (dropping)
+            {
+                return;
+            }
+            // The old query strings leave some spaces unescaped, so the target runs up to the protocol
+            String target = requestLine.substring(requestLine.indexOf(' ') + 1, requestLine.lastIndexOf(' '));
+            int query = target.indexOf('?');
+            String path = query < 0 ? target : target.substring(0, query);
+            HashMap<String, String> parameters = parseQuery(query < 0 ? "" : target.substring(query + 1));
+            int status = 200;
+            String response;
+            synchronized (this)
+            {
+                requests++;
+                requestBytes += requestLine.length() + length;
+                if (missing.contains(path))
+                {
+                    status = 404;
+                    response = "Not found";
+                }
+                else if (path.equals("/insert_finds"))
+                {
+                    response = acknowledge(parseIDs(new String(body, UTF_8)));
+                }
+                else if (path.equals("/insert_finds_binary"))
+                {
+                    ArrayList<String> IDs = new ArrayList<>();
+                    for (DataEntryElement find: BinaryBatchCodec.decodeFinds(body))
+                    {
+                        IDs.add(find.getID());
+                    }
+                    response = acknowledge(IDs);
+                }
+                else if (path.equals("/insert_find"))
+                {
+                    finds.add(parameters.get("timestamp"));
+                    findsReceived++;
+                    response = "Find inserted";
+                }
+                else if (path.equals("/insert_path"))
+                {
+                    paths++;
+                    response = "Path inserted";
+                }
+                else if (path.equals("/upload_photo_chunk"))
+                {
+                    response = Long.toString(storeChunk(parameters, length));
+                }
+                else
+                {
+                    status = 404;
+                    response = "Not found";
+                }
+            }
+            byte[] bytes = response.getBytes(UTF_8);
+            OutputStream out = socket.getOutputStream();
+            out.write(("HTTP/1.1 " + status + (status == 200 ? " OK" : " Not Found") + "\r\nContent-Type: text/plain;"
+                    + " charset=utf-8\r\nContent-Length: " + bytes.length + "\r\nConnection: close\r\n\r\n")
+                    .getBytes(UTF_8));
+            out.write(bytes);
+            out.flush();
+        }
+        catch (IOException | JSONException e)
+        {
+            e.printStackTrace();
+        }
+        catch (InterruptedException e)
+        {
+            // The server was closed
+        }
+        finally
+        {
+            try
+            {
+                socket.close();
+            }
+            catch (IOException e)
+            {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Store finds and acknowledge each one
+     * @param IDs - IDs of the finds in the batch
+     * @return Returns the acknowledgements
+     * @throws JSONException if an acknowledgement cannot be encoded
+     */
+    private String acknowledge(List<String> IDs) throws JSONException
+    {
+        JSONArray acknowledgements = new JSONArray();
+        for (String ID: IDs)
+        {
+            finds.add(ID);
+            findsReceived++;
+            JSONObject acknowledgement = new JSONObject();
+            acknowledgement.put("id", ID);
+            acknowledgement.put("status", "ok");
+            acknowledgements.put(acknowledgement);
+        }
+        return acknowledgements.toString();
+    }
+
+    /**
+     * Store a photo chunk if it follows on from what is stored
+     * @param parameters - chunk query parameters
+     * @param length - chunk size
+     * @return Returns the number of bytes of the photo stored
+     */
+    private long storeChunk(HashMap<String, String> parameters, int length)
+    {
+        String name = parameters.get("name");
+        long stored = photos.containsKey(name) ? photos.get(name) : 0;
+        if (Long.parseLong(parameters.get("offset")) == stored)
+        {
+            stored += length;
+            photos.put(name, stored);
+        }
+        return stored;
+    }
+
+    /**
+     * Read the IDs of the finds in a JSON batch
+     * @param body - request body
+     * @return Returns the IDs, in order
+     * @throws JSONException if the body is not a batch
+     */
+    private static ArrayList<String> parseIDs(String body) throws JSONException
+    {
+        ArrayList<String> IDs = new ArrayList<>();
+        JSONArray batch = new JSONArray(body);
+        for (int i = 0; i < batch.length(); i++)
+        {
+            IDs.add(batch.getJSONObject(i).getString("id"));
+        }
+        return IDs;
+    }
+
+    /**
+     * Split a query string into its parameters
+     * @param query - query string without the leading ?
+     * @return Returns the decoded parameters, by name
+     * @throws IOException if a parameter cannot be decoded
+     */
+    private static HashMap<String, String> parseQuery(String query) throws IOException
+    {
+        HashMap<String, String> parameters = new HashMap<>();
+        for (String parameter: query.split("&"))
+        {
+            int equals = parameter.indexOf('=');
+            if (equals > 0)
+            {
+                parameters.put(parameter.substring(0, equals), URLDecoder.decode(parameter.substring(equals + 1),
+                        "UTF-8"));
+            }
+        }
+        return parameters;
+    }
+
+    /**
+     * Read one header line
+     * @param in - request stream
+     * @return Returns the line without its line break, or null at the end of the stream
+     * @throws IOException if the connection fails
+     */
+    private static String readLine(InputStream in) throws IOException
+    {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) >= 0 && b != '\n')
+        {
+            if (b != '\r')
+            {
+                line.write(b);
+            }
+        }
+        return b < 0 && line.size() == 0 ? null : new String(line.toByteArray(), UTF_8);
+    }
+}
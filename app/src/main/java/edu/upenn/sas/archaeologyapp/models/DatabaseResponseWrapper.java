@@ -0,0 +1,30 @@
+// Database operation result
+package edu.upenn.sas.archaeologyapp.models;
+/**
+ * Receives the result of a DatabaseRepository operation on the main thread
+ * @param <T> - result type
+ */
+public abstract class DatabaseResponseWrapper<T>
+{
+    /**
+     * Constructor
+     */
+    protected DatabaseResponseWrapper()
+    {
+    }
+
+    /**
+     * Operation finished
+     * @param response - operation result
+     */
+    public abstract void responseMethod(T response);
+
+    /**
+     * Operation failed
+     * @param error - failure
+     */
+    public void errorMethod(Exception error)
+    {
+        error.printStackTrace();
+    }
+}
@@ -0,0 +1,96 @@
+package edu.upenn.sas.archaeologyapp.models;
+/**
+ * Model for one marker on the finds map: either a single find or a group of nearby finds drawn as one
+ */
+public class FindCluster
+{
+    // Identifies the marker across map updates. A single find is keyed by its ID, a group by its grid cell.
+    private final String KEY;
+    // Text shown when the marker is tapped
+    private final String TITLE;
+    // Position of the find, or the average position of the group
+    private final double LATITUDE, LONGITUDE;
+    // Number of finds the marker stands for
+    private final int COUNT;
+    /**
+     * Constructor
+     * @param key - marker key
+     * @param title - marker title
+     * @param latitude - latitude in degrees
+     * @param longitude - longitude in degrees
+     * @param count - number of finds
+     */
+    public FindCluster(String key, String title, double latitude, double longitude, int count)
+    {
+        this.KEY = key;
+        this.TITLE = title;
+        this.LATITUDE = latitude;
+        this.LONGITUDE = longitude;
+        this.COUNT = count;
+    }
+
+    /**
+     * Get the key
+     * @return Returns the marker key
+     */
+    public String getKey()
+    {
+        return KEY;
+    }
+
+    /**
+     * Get the title
+     * @return Returns the marker title
+     */
+    public String getTitle()
+    {
+        return TITLE;
+    }
+
+    /**
+     * Get the latitude
+     * @return Returns the latitude in degrees
+     */
+    public double getLatitude()
+    {
+        return LATITUDE;
+    }
+
+    /**
+     * Get the longitude
+     * @return Returns the longitude in degrees
+     */
+    public double getLongitude()
+    {
+        return LONGITUDE;
+    }
+
+    /**
+     * Get the count
+     * @return Returns the number of finds
+     */
+    public int getCount()
+    {
+        return COUNT;
+    }
+
+    /**
+     * Whether the marker is a group of finds
+     * @return Returns whether it stands for more than one find
+     */
+    public boolean isGroup()
+    {
+        return COUNT > 1;
+    }
+
+    /**
+     * Whether another marker would be drawn the same as this one
+     * @param that - other marker
+     * @return Returns whether the two have the same key, title, position and count
+     */
+    public boolean drawsLike(FindCluster that)
+    {
+        return that != null && KEY.equals(that.KEY) && TITLE.equals(that.TITLE) && LATITUDE == that.LATITUDE
+                && LONGITUDE == that.LONGITUDE && COUNT == that.COUNT;
+    }
+}
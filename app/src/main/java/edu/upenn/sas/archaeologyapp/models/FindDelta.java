@@ -0,0 +1,82 @@
+package edu.upenn.sas.archaeologyapp.models;
+/**
+ * Model for what a server is missing of a find: either the whole find, or the fields changed since the server
+ * last stored it. Fields are kept as a bitmask of the FIELD_ flags, the same flags the change log records.
+ */
+public class FindDelta
+{
+    // Field flags
+    public static final int FIELD_LATITUDE = 1, FIELD_LONGITUDE = 1 << 1, FIELD_ALTITUDE = 1 << 2;
+    public static final int FIELD_STATUS = 1 << 3, FIELD_AR_RATIO = 1 << 4, FIELD_MATERIAL = 1 << 5;
+    public static final int FIELD_COMMENTS = 1 << 6, FIELD_ZONE = 1 << 7, FIELD_HEMISPHERE = 1 << 8;
+    public static final int FIELD_NORTHING = 1 << 9, FIELD_PRECISE_NORTHING = 1 << 10, FIELD_EASTING = 1 << 11;
+    public static final int FIELD_PRECISE_EASTING = 1 << 12, FIELD_SAMPLE = 1 << 13;
+    // Photos added to the find. They go up through the photo outbox once the find is acknowledged, not in the find.
+    public static final int FIELD_IMAGES = 1 << 14;
+    private final String ID;
+    // Last change log entry covered, stored as the server's watermark once it acknowledges the find
+    private final long CHANGE_SEQUENCE;
+    // Whether only the changed fields are sent, and which ones
+    private final boolean PARTIAL;
+    private final int FIELDS;
+    /**
+     * Constructor
+     * @param ID - find ID
+     * @param changeSequence - last change log entry covered
+     * @param partial - whether the server already has the find
+     * @param fields - changed fields, ignored unless partial
+     */
+    public FindDelta(String ID, long changeSequence, boolean partial, int fields)
+    {
+        this.ID = ID;
+        this.CHANGE_SEQUENCE = changeSequence;
+        this.PARTIAL = partial;
+        this.FIELDS = fields;
+    }
+
+    /**
+     * Get the ID
+     * @return Returns the find ID
+     */
+    public String getID()
+    {
+        return ID;
+    }
+
+    /**
+     * Get the change sequence
+     * @return Returns the last change log entry this delta covers
+     */
+    public long getChangeSequence()
+    {
+        return CHANGE_SEQUENCE;
+    }
+
+    /**
+     * Check whether the delta is partial
+     * @return Returns whether only the changed fields need sending
+     */
+    public boolean isPartial()
+    {
+        return PARTIAL;
+    }
+
+    /**
+     * Get the changed fields
+     * @return Returns the FIELD_ flags of the changed fields
+     */
+    public int getFields()
+    {
+        return FIELDS;
+    }
+
+    /**
+     * Check whether a field changed
+     * @param field - FIELD_ flag
+     * @return Returns whether the field needs sending
+     */
+    public boolean hasField(int field)
+    {
+        return !PARTIAL || (FIELDS & field) != 0;
+    }
+}
@@ -0,0 +1,33 @@
+// Find upload progress
+package edu.upenn.sas.archaeologyapp.models;
+/**
+ * Receives the outcome of each find in an upload, along with what was actually sent of each uploaded find. That
+ * can differ from what the server was missing when the upload started, since a partial find the server rejects is
+ * sent whole on the retry.
+ */
+public abstract class FindUploadResponseWrapper extends UploadResponseWrapper<DataEntryElement>
+{
+    /**
+     * Constructor
+     */
+    protected FindUploadResponseWrapper()
+    {
+    }
+
+    /**
+     * The server stored a find sent whole
+     * @param item - uploaded find
+     */
+    @Override
+    public void itemUploaded(DataEntryElement item)
+    {
+        itemUploaded(item, new FindDelta(item.getID(), 0, false, 0));
+    }
+
+    /**
+     * The server stored a find
+     * @param item - uploaded find
+     * @param sent - what was sent of the find
+     */
+    public abstract void itemUploaded(DataEntryElement item, FindDelta sent);
+}
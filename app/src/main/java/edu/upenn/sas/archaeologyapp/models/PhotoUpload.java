@@ -0,0 +1,63 @@
+package edu.upenn.sas.archaeologyapp.models;
+/**
+ * Model for a photo waiting to be uploaded, and how much of it the server already has
+ */
+public class PhotoUpload
+{
+    // Path of the photo on the device and its name on the server
+    private final String LOCAL_PATH, REMOTE_NAME;
+    // SHA-256 of the whole file in hex, or null if not yet computed
+    private final String SHA256;
+    // Bytes the server has acknowledged
+    private final long UPLOADED_BYTES;
+    /**
+     * Constructor
+     * @param localPath - path of the photo on the device
+     * @param remoteName - name of the photo on the server
+     * @param sha256 - hash of the file, or null
+     * @param uploadedBytes - bytes already acknowledged
+     */
+    public PhotoUpload(String localPath, String remoteName, String sha256, long uploadedBytes)
+    {
+        this.LOCAL_PATH = localPath;
+        this.REMOTE_NAME = remoteName;
+        this.SHA256 = sha256;
+        this.UPLOADED_BYTES = uploadedBytes;
+    }
+
+    /**
+     * Get the local path
+     * @return Returns the path of the photo on the device
+     */
+    public String getLocalPath()
+    {
+        return LOCAL_PATH;
+    }
+
+    /**
+     * Get the remote name
+     * @return Returns the name of the photo on the server
+     */
+    public String getRemoteName()
+    {
+        return REMOTE_NAME;
+    }
+
+    /**
+     * Get the file hash
+     * @return Returns the SHA-256 of the file in hex, or null if not yet computed
+     */
+    public String getSHA256()
+    {
+        return SHA256;
+    }
+
+    /**
+     * Get the uploaded size
+     * @return Returns the number of bytes the server has acknowledged
+     */
+    public long getUploadedBytes()
+    {
+        return UPLOADED_BYTES;
+    }
+}
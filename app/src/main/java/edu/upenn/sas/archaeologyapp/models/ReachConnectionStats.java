@@ -0,0 +1,112 @@
+package edu.upenn.sas.archaeologyapp.models;
+/**
+ * Model for a snapshot of the health of the connection to the Reach rover
+ */
+public class ReachConnectionStats
+{
+    // Connection state, one of the ReachStreamReader STATE_ constants
+    private final int STATE;
+    // Time connected so far, for the current connection and over the reader's lifetime, in milliseconds
+    private final long UPTIME, TOTAL_UPTIME;
+    // Connections made after the first, and connection attempts that failed
+    private final int RECONNECTS, FAILURES;
+    // Lines and fixes received over the last second or so
+    private final double LINES_PER_SECOND, FIXES_PER_SECOND;
+    // Milliseconds since the last fix, or -1 if there has been none
+    private final long FIX_AGE;
+    /**
+     * Constructor
+     * @param state - connection state
+     * @param uptime - time the current connection has been open
+     * @param totalUptime - time connected in total
+     * @param reconnects - number of reconnects
+     * @param failures - number of failed connections
+     * @param linesPerSecond - recent line rate
+     * @param fixesPerSecond - recent fix rate
+     * @param fixAge - time since the last fix
+     */
+    public ReachConnectionStats(int state, long uptime, long totalUptime, int reconnects, int failures,
+                                double linesPerSecond, double fixesPerSecond, long fixAge)
+    {
+        this.STATE = state;
+        this.UPTIME = uptime;
+        this.TOTAL_UPTIME = totalUptime;
+        this.RECONNECTS = reconnects;
+        this.FAILURES = failures;
+        this.LINES_PER_SECOND = linesPerSecond;
+        this.FIXES_PER_SECOND = fixesPerSecond;
+        this.FIX_AGE = fixAge;
+    }
+
+    /**
+     * Get the state
+     * @return Returns the connection state
+     */
+    public int getState()
+    {
+        return STATE;
+    }
+
+    /**
+     * Get the uptime
+     * @return Returns how long the current connection has been open in milliseconds, 0 if there is none
+     */
+    public long getUptime()
+    {
+        return UPTIME;
+    }
+
+    /**
+     * Get the total uptime
+     * @return Returns how long the reader has been connected in total in milliseconds
+     */
+    public long getTotalUptime()
+    {
+        return TOTAL_UPTIME;
+    }
+
+    /**
+     * Get the reconnects
+     * @return Returns the number of connections made after the first
+     */
+    public int getReconnects()
+    {
+        return RECONNECTS;
+    }
+
+    /**
+     * Get the failures
+     * @return Returns the number of connection attempts or connections that failed
+     */
+    public int getFailures()
+    {
+        return FAILURES;
+    }
+
+    /**
+     * Get the line rate
+     * @return Returns the lines received per second
+     */
+    public double getLinesPerSecond()
+    {
+        return LINES_PER_SECOND;
+    }
+
+    /**
+     * Get the fix rate
+     * @return Returns the fixes parsed per second
+     */
+    public double getFixesPerSecond()
+    {
+        return FIXES_PER_SECOND;
+    }
+
+    /**
+     * Get the fix age
+     * @return Returns the milliseconds since the last fix, or -1 if there has been none
+     */
+    public long getFixAge()
+    {
+        return FIX_AGE;
+    }
+}
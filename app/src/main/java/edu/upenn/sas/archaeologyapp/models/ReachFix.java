@@ -0,0 +1,110 @@
+package edu.upenn.sas.archaeologyapp.models;
+/**
+ * Model for one position solution from the Reach rover. Mutable, so the reader and its consumers can each reuse
+ * one instance instead of allocating a fix per line.
+ */
+public class ReachFix
+{
+    // Time the line was received, in milliseconds since the epoch
+    private long receivedTime;
+    private double latitude, longitude, height;
+    // Solution quality, Q in the RTKLIB LLH format, and number of satellites
+    private int quality, satellites;
+    // Age of differential corrections in seconds and the ambiguity ratio
+    private double age, ARRatio;
+    /**
+     * Set every field
+     * @param _receivedTime - time received
+     * @param _latitude - latitude
+     * @param _longitude - longitude
+     * @param _height - height
+     * @param _quality - solution quality
+     * @param _satellites - number of satellites
+     * @param _age - age of differential corrections
+     * @param _ARRatio - ambiguity ratio
+     */
+    public void set(long _receivedTime, double _latitude, double _longitude, double _height, int _quality,
+                    int _satellites, double _age, double _ARRatio)
+    {
+        receivedTime = _receivedTime;
+        latitude = _latitude;
+        longitude = _longitude;
+        height = _height;
+        quality = _quality;
+        satellites = _satellites;
+        age = _age;
+        ARRatio = _ARRatio;
+    }
+
+    /**
+     * Get the receive time
+     * @return Returns the time the fix was received, in milliseconds since the epoch
+     */
+    public long getReceivedTime()
+    {
+        return receivedTime;
+    }
+
+    /**
+     * Get the latitude
+     * @return Returns the latitude
+     */
+    public double getLatitude()
+    {
+        return latitude;
+    }
+
+    /**
+     * Get the longitude
+     * @return Returns the longitude
+     */
+    public double getLongitude()
+    {
+        return longitude;
+    }
+
+    /**
+     * Get the height
+     * @return Returns the height
+     */
+    public double getHeight()
+    {
+        return height;
+    }
+
+    /**
+     * Get the quality
+     * @return Returns the solution quality code
+     */
+    public int getQuality()
+    {
+        return quality;
+    }
+
+    /**
+     * Get the satellites
+     * @return Returns the number of satellites
+     */
+    public int getSatellites()
+    {
+        return satellites;
+    }
+
+    /**
+     * Get the correction age
+     * @return Returns the age of differential corrections in seconds
+     */
+    public double getAge()
+    {
+        return age;
+    }
+
+    /**
+     * Get the AR ratio
+     * @return Returns the ambiguity ratio
+     */
+    public double getARRatio()
+    {
+        return ARRatio;
+    }
+}
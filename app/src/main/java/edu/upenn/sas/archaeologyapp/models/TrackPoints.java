@@ -0,0 +1,178 @@
+package edu.upenn.sas.archaeologyapp.models;
+import java.util.Arrays;
+/**
+ * Model for a run of points on a path's track, held as parallel arrays rather than an object per point. Used both
+ * to batch points on their way to the database and to return them from it. A point is either a recorded fix, at
+ * level 0, or a point of one of the track's simplified copies, which carry only a position.
+ */
+public class TrackPoints
+{
+    // Quality recorded for points from the device's own GPS, which has no RTKLIB quality code
+    public static final int QUALITY_DEVICE_GPS = -1;
+    private long[] times;
+    private double[] latitudes, longitudes, altitudes, ARRatios;
+    private int[] qualities, levels;
+    private int size = 0;
+    /**
+     * Constructor
+     * @param capacity - initial number of points held
+     */
+    public TrackPoints(int capacity)
+    {
+        capacity = Math.max(capacity, 1);
+        times = new long[capacity];
+        latitudes = new double[capacity];
+        longitudes = new double[capacity];
+        altitudes = new double[capacity];
+        ARRatios = new double[capacity];
+        qualities = new int[capacity];
+        levels = new int[capacity];
+    }
+
+    /**
+     * Add a point, growing the arrays if they are full
+     * @param time - time of the fix
+     * @param latitude - latitude
+     * @param longitude - longitude
+     * @param altitude - altitude
+     * @param quality - RTKLIB quality code, or QUALITY_DEVICE_GPS
+     * @param ARRatio - ambiguity ratio
+     */
+    public void add(long time, double latitude, double longitude, double altitude, int quality, double ARRatio)
+    {
+        add(0, time, latitude, longitude, altitude, quality, ARRatio);
+    }
+
+    /**
+     * Add a point of a simplified copy of the track
+     * @param level - simplification level, from 1
+     * @param time - time of the fix
+     * @param latitude - latitude
+     * @param longitude - longitude
+     */
+    public void addSimplified(int level, long time, double latitude, double longitude)
+    {
+        add(level, time, latitude, longitude, 0, 0, 0);
+    }
+
+    /**
+     * Add a point at a level, growing the arrays if they are full
+     * @param level - simplification level
+     * @param time - time of the fix
+     * @param latitude - latitude
+     * @param longitude - longitude
+     * @param altitude - altitude
+     * @param quality - RTKLIB quality code
+     * @param ARRatio - ambiguity ratio
+     */
+    private void add(int level, long time, double latitude, double longitude, double altitude, int quality,
+                     double ARRatio)
+    {
+        if (size == times.length)
+        {
+            int capacity = size * 2;
+            times = Arrays.copyOf(times, capacity);
+            latitudes = Arrays.copyOf(latitudes, capacity);
+            longitudes = Arrays.copyOf(longitudes, capacity);
+            altitudes = Arrays.copyOf(altitudes, capacity);
+            ARRatios = Arrays.copyOf(ARRatios, capacity);
+            qualities = Arrays.copyOf(qualities, capacity);
+            levels = Arrays.copyOf(levels, capacity);
+        }
+        times[size] = time;
+        latitudes[size] = latitude;
+        longitudes[size] = longitude;
+        altitudes[size] = altitude;
+        qualities[size] = quality;
+        ARRatios[size] = ARRatio;
+        levels[size] = level;
+        size++;
+    }
+
+    /**
+     * Remove every point, keeping the arrays for reuse
+     */
+    public void clear()
+    {
+        size = 0;
+    }
+
+    /**
+     * Get the size
+     * @return Returns the number of points
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Get a time
+     * @param i - point index
+     * @return Returns the time of the point's fix
+     */
+    public long getTime(int i)
+    {
+        return times[i];
+    }
+
+    /**
+     * Get a latitude
+     * @param i - point index
+     * @return Returns the point's latitude
+     */
+    public double getLatitude(int i)
+    {
+        return latitudes[i];
+    }
+
+    /**
+     * Get a longitude
+     * @param i - point index
+     * @return Returns the point's longitude
+     */
+    public double getLongitude(int i)
+    {
+        return longitudes[i];
+    }
+
+    /**
+     * Get an altitude
+     * @param i - point index
+     * @return Returns the point's altitude
+     */
+    public double getAltitude(int i)
+    {
+        return altitudes[i];
+    }
+
+    /**
+     * Get a quality
+     * @param i - point index
+     * @return Returns the point's RTKLIB quality code, or QUALITY_DEVICE_GPS
+     */
+    public int getQuality(int i)
+    {
+        return qualities[i];
+    }
+
+    /**
+     * Get an AR ratio
+     * @param i - point index
+     * @return Returns the point's ambiguity ratio
+     */
+    public double getARRatio(int i)
+    {
+        return ARRatios[i];
+    }
+
+    /**
+     * Get a level
+     * @param i - point index
+     * @return Returns 0 for a recorded fix, or the level of the simplified copy the point belongs to
+     */
+    public int getLevel(int i)
+    {
+        return levels[i];
+    }
+}
@@ -0,0 +1,33 @@
+// Upload progress
+package edu.upenn.sas.archaeologyapp.models;
+/**
+ * Receives the outcome of each record in an upload, in the order the server acknowledges them
+ * @param <T> - record type
+ */
+public abstract class UploadResponseWrapper<T>
+{
+    /**
+     * Constructor
+     */
+    protected UploadResponseWrapper()
+    {
+    }
+
+    /**
+     * The server stored a record
+     * @param item - uploaded record
+     */
+    public abstract void itemUploaded(T item);
+
+    /**
+     * A record could not be uploaded after every retry
+     * @param item - failed record
+     * @param reason - server or connection error
+     */
+    public abstract void itemFailed(T item, String reason);
+
+    /**
+     * Every record has either been uploaded or has failed
+     */
+    public abstract void uploadFinished();
+}
@@ -0,0 +1,611 @@
+package edu.upenn.sas.archaeologyapp.services;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import edu.upenn.sas.archaeologyapp.models.DataEntryElement;
+import edu.upenn.sas.archaeologyapp.models.PathElement;
+/**
+ * Compact binary form of find and path batches, an opt-in alternative to the JSON and query string forms. A batch
+ * is a four byte header (magic, version, flags, record type) followed by the body, gzipped when FLAG_GZIP is set.
+ * The body holds the record count, a dictionary of the status, material, hemisphere and team member strings, and
+ * then the records. Integers are zigzag varints. Timestamps are deltas from the previous record, coordinates are
+ * fixed point (1e-7 degrees, millimetres) and deltas from the previous record, and precise eastings and northings
+ * of finds are millimetre offsets from the bucket origin. Latitudes and longitudes therefore come back rounded to
+ * 1e-7 degrees, about a centimetre, where the JSON form sends them in full. Strings from the dictionary are sent as their index.
+ * Nullable fields are flagged in a bitmask at the start of each record and skipped when null. Image paths and the
+ * synced flag are not sent.
+ */
+public class BinaryBatchCodec
+{
+    public static final String CONTENT_TYPE = "application/x-archaeology-batch";
+    public static final int FLAG_GZIP = 1;
+    private static final int MAGIC = 0xA7, VERSION = 1;
+    private static final int TYPE_FINDS = 0, TYPE_PATHS = 1;
+    // Fixed point scales: 1e-7 degrees is about a centimetre, millimetres for UTM and altitudes
+    private static final double DEGREE_SCALE = 1e7, METRE_SCALE = 1000, RATIO_SCALE = 1000;
+    // Presence flags of the nullable find fields
+    private static final int HAS_ZONE = 1, HAS_EASTING = 1 << 1, HAS_NORTHING = 1 << 2, HAS_PRECISE_EASTING = 1 << 3;
+    private static final int HAS_PRECISE_NORTHING = 1 << 4, HAS_SAMPLE = 1 << 5, HAS_AR_RATIO = 1 << 6;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    /**
+     * Encode a batch of finds. Latitudes and longitudes are rounded to 1e-7 degrees and UTM positions and altitudes
+     * to millimetres.
+     * @param finds - finds to encode
+     * @param flags - FLAG_GZIP or 0
+     * @return Returns the encoded batch
+     */
+    public static byte[] encodeFinds(List<DataEntryElement> finds, int flags)
+    {
+        LinkedHashMap<String, Integer> dictionary = new LinkedHashMap<>();
+        for (DataEntryElement find: finds)
+        {
+            addToDictionary(dictionary, find.getStatus(), find.getMaterial(), find.getHemisphere());
+        }
+        Output output = new Output();
+        output.writeVarint(finds.size());
+        output.writeDictionary(dictionary);
+        long previousCreated = 0, previousLatitude = 0, previousLongitude = 0;
+        int previousEasting = 0, previousNorthing = 0;
+        for (DataEntryElement find: finds)
+        {
+            int present = (find.getZone() != null ? HAS_ZONE : 0) | (find.getEasting() != null ? HAS_EASTING : 0)
+                    | (find.getNorthing() != null ? HAS_NORTHING : 0)
+                    | (find.getPreciseEasting() != null ? HAS_PRECISE_EASTING : 0)
+                    | (find.getPreciseNorthing() != null ? HAS_PRECISE_NORTHING : 0)
+                    | (find.getSample() != null ? HAS_SAMPLE : 0) | (find.getARRatio() != null ? HAS_AR_RATIO : 0);
+            output.writeVarint(present);
+            output.writeString(find.getID());
+            output.writeSigned(find.getCreatedTimestamp() - previousCreated);
+            output.writeSigned(find.getUpdateTimestamp() - find.getCreatedTimestamp());
+            previousCreated = find.getCreatedTimestamp();
+            long latitude = fixed(find.getLatitude(), DEGREE_SCALE), longitude = fixed(find.getLongitude(), DEGREE_SCALE);
+            output.writeSigned(latitude - previousLatitude);
+            output.writeSigned(longitude - previousLongitude);
+            previousLatitude = latitude;
+            previousLongitude = longitude;
+            output.writeSigned(fixed(find.getAltitude(), METRE_SCALE));
+            output.writeVarint(indexOf(dictionary, find.getStatus()));
+            output.writeVarint(indexOf(dictionary, find.getMaterial()));
+            output.writeVarint(indexOf(dictionary, find.getHemisphere()));
+            output.writeString(find.getComments());
+            if (find.getZone() != null)
+            {
+                output.writeSigned(find.getZone());
+            }
+            // The bucket origin changes little from find to find, the precise position is an offset within it
+            int easting = find.getEasting() != null ? find.getEasting() : 0;
+            int northing = find.getNorthing() != null ? find.getNorthing() : 0;
+            if (find.getEasting() != null)
+            {
+                output.writeSigned(easting - previousEasting);
+                previousEasting = easting;
+            }
+            if (find.getNorthing() != null)
+            {
+                output.writeSigned(northing - previousNorthing);
+                previousNorthing = northing;
+            }
+            if (find.getPreciseEasting() != null)
+            {
+                output.writeSigned(fixed(find.getPreciseEasting() - easting, METRE_SCALE));
+            }
+            if (find.getPreciseNorthing() != null)
+            {
+                output.writeSigned(fixed(find.getPreciseNorthing() - northing, METRE_SCALE));
+            }
+            if (find.getSample() != null)
+            {
+                output.writeSigned(find.getSample());
+            }
+            if (find.getARRatio() != null)
+            {
+                output.writeSigned(fixed(find.getARRatio(), RATIO_SCALE));
+            }
+        }
+        return frame(TYPE_FINDS, flags, output);
+    }
+
+    /**
+     * Decode a batch of finds
+     * @param batch - encoded batch
+     * @return Returns the finds, unsynced and without image paths
+     * @throws IOException if the batch is malformed or a find lacks its precise easting or northing
+     */
+    public static ArrayList<DataEntryElement> decodeFinds(byte[] batch) throws IOException
+    {
+        Input input = unframe(TYPE_FINDS, batch);
+        int count = input.readCount();
+        String[] dictionary = input.readDictionary();
+        ArrayList<DataEntryElement> finds = new ArrayList<>(count);
+        long previousCreated = 0, previousLatitude = 0, previousLongitude = 0;
+        int previousEasting = 0, previousNorthing = 0;
+        for (int i = 0; i < count; i++)
+        {
+            int present = (int) input.readVarint();
+            String ID = input.readString();
+            long created = previousCreated + input.readSigned();
+            long updated = created + input.readSigned();
+            previousCreated = created;
+            previousLatitude += input.readSigned();
+            previousLongitude += input.readSigned();
+            double altitude = input.readSigned() / METRE_SCALE;
+            String status = input.readEntry(dictionary), material = input.readEntry(dictionary);
+            String hemisphere = input.readEntry(dictionary);
+            String comments = input.readString();
+            Integer zone = (present & HAS_ZONE) != 0 ? (int) input.readSigned() : null;
+            Integer easting = null, northing = null, sample = null;
+            Double preciseEasting, preciseNorthing, ARRatio = null;
+            if ((present & HAS_EASTING) != 0)
+            {
+                previousEasting += (int) input.readSigned();
+                easting = previousEasting;
+            }
+            if ((present & HAS_NORTHING) != 0)
+            {
+                previousNorthing += (int) input.readSigned();
+                northing = previousNorthing;
+            }
+            // Every find has a precise position, which encodeFinds always sends
+            if ((present & HAS_PRECISE_EASTING) == 0)
+            {
+                throw new IOException("Missing Precise Easting");
+            }
+            preciseEasting = (easting != null ? easting : 0) + input.readSigned() / METRE_SCALE;
+            if ((present & HAS_PRECISE_NORTHING) == 0)
+            {
+                throw new IOException("Missing Precise Northing");
+            }
+            preciseNorthing = (northing != null ? northing : 0) + input.readSigned() / METRE_SCALE;
+            if ((present & HAS_SAMPLE) != 0)
+            {
+                sample = (int) input.readSigned();
+            }
+            if ((present & HAS_AR_RATIO) != 0)
+            {
+                ARRatio = input.readSigned() / RATIO_SCALE;
+            }
+            finds.add(new DataEntryElement(ID, previousLatitude / DEGREE_SCALE, previousLongitude / DEGREE_SCALE,
+                    altitude, status, ARRatio, new ArrayList<String>(), material, comments, created, updated, zone,
+                    hemisphere, northing, preciseNorthing, easting, preciseEasting, sample, false));
+        }
+        return finds;
+    }
+
+    /**
+     * Encode a batch of paths
+     * @param paths - paths to encode
+     * @param flags - FLAG_GZIP or 0
+     * @return Returns the encoded batch
+     */
+    public static byte[] encodePaths(List<PathElement> paths, int flags)
+    {
+        LinkedHashMap<String, Integer> dictionary = new LinkedHashMap<>();
+        for (PathElement path: paths)
+        {
+            addToDictionary(dictionary, path.getTeamMember(), path.getHemisphere(), path.getBeginStatus(),
+                    path.getEndStatus());
+        }
+        Output output = new Output();
+        output.writeVarint(paths.size());
+        output.writeDictionary(dictionary);
+        // Previous begin values, which each path's begin values are sent relative to
+        long[] previous = new long[5];
+        for (PathElement path: paths)
+        {
+            // Begin values against the previous path, end values against this path's begin values
+            Long[] begin = {path.getBeginTime(), fixed(path.getBeginLatitude(), DEGREE_SCALE),
+                    fixed(path.getBeginLongitude(), DEGREE_SCALE), fixed(path.getBeginEasting(), METRE_SCALE),
+                    fixed(path.getBeginNorthing(), METRE_SCALE)};
+            Long[] end = {path.getEndTime(), fixed(path.getEndLatitude(), DEGREE_SCALE),
+                    fixed(path.getEndLongitude(), DEGREE_SCALE), fixed(path.getEndEasting(), METRE_SCALE),
+                    fixed(path.getEndNorthing(), METRE_SCALE)};
+            Long[] absolute = {path.getZone() == null ? null : (long) path.getZone(),
+                    fixed(path.getBeginAltitude(), METRE_SCALE), fixed(path.getEndAltitude(), METRE_SCALE),
+                    fixed(path.getBeginARRatio(), RATIO_SCALE), fixed(path.getEndARRatio(), RATIO_SCALE)};
+            int present = presence(begin, 0) | presence(end, begin.length) | presence(absolute, 2 * begin.length);
+            output.writeVarint(present);
+            output.writeVarint(indexOf(dictionary, path.getTeamMember()));
+            output.writeVarint(indexOf(dictionary, path.getHemisphere()));
+            output.writeVarint(indexOf(dictionary, path.getBeginStatus()));
+            output.writeVarint(indexOf(dictionary, path.getEndStatus()));
+            for (int i = 0; i < begin.length; i++)
+            {
+                if (begin[i] != null)
+                {
+                    output.writeSigned(begin[i] - previous[i]);
+                    previous[i] = begin[i];
+                }
+            }
+            for (int i = 0; i < end.length; i++)
+            {
+                if (end[i] != null)
+                {
+                    output.writeSigned(end[i] - (begin[i] != null ? begin[i] : 0));
+                }
+            }
+            for (Long value: absolute)
+            {
+                if (value != null)
+                {
+                    output.writeSigned(value);
+                }
+            }
+        }
+        return frame(TYPE_PATHS, flags, output);
+    }
+
+    /**
+     * Decode a batch of paths
+     * @param batch - encoded batch
+     * @return Returns the paths, unsynced
+     * @throws IOException if the batch is malformed
+     */
+    public static ArrayList<PathElement> decodePaths(byte[] batch) throws IOException
+    {
+        Input input = unframe(TYPE_PATHS, batch);
+        int count = input.readCount();
+        String[] dictionary = input.readDictionary();
+        ArrayList<PathElement> paths = new ArrayList<>(count);
+        long[] previous = new long[5];
+        for (int i = 0; i < count; i++)
+        {
+            int present = (int) input.readVarint();
+            String teamMember = input.readEntry(dictionary), hemisphere = input.readEntry(dictionary);
+            String beginStatus = input.readEntry(dictionary), endStatus = input.readEntry(dictionary);
+            Long[] begin = new Long[5], end = new Long[5], absolute = new Long[5];
+            for (int j = 0; j < begin.length; j++)
+            {
+                if ((present & (1 << j)) != 0)
+                {
+                    previous[j] += input.readSigned();
+                    begin[j] = previous[j];
+                }
+            }
+            for (int j = 0; j < end.length; j++)
+            {
+                if ((present & (1 << (begin.length + j))) != 0)
+                {
+                    end[j] = (begin[j] != null ? begin[j] : 0) + input.readSigned();
+                }
+            }
+            for (int j = 0; j < absolute.length; j++)
+            {
+                if ((present & (1 << (2 * begin.length + j))) != 0)
+                {
+                    absolute[j] = input.readSigned();
+                }
+            }
+            paths.add(new PathElement(teamMember, unfixed(begin[1], DEGREE_SCALE), unfixed(begin[2], DEGREE_SCALE),
+                    unfixed(absolute[1], METRE_SCALE), unfixed(end[1], DEGREE_SCALE), unfixed(end[2], DEGREE_SCALE),
+                    unfixed(absolute[2], METRE_SCALE), hemisphere,
+                    absolute[0] == null ? null : (int) (long) absolute[0], unfixed(begin[3], METRE_SCALE),
+                    unfixed(begin[4], METRE_SCALE), unfixed(end[3], METRE_SCALE), unfixed(end[4], METRE_SCALE),
+                    begin[0], end[0], beginStatus, endStatus, unfixed(absolute[3], RATIO_SCALE),
+                    unfixed(absolute[4], RATIO_SCALE), false));
+        }
+        return paths;
+    }
+
+    /**
+     * Convert a value to fixed point
+     * @param value - value
+     * @param scale - units per whole
+     * @return Returns the rounded fixed point value
+     */
+    private static long fixed(double value, double scale)
+    {
+        return Math.round(value * scale);
+    }
+
+    /**
+     * Convert a nullable value to fixed point
+     * @param value - value, or null
+     * @param scale - units per whole
+     * @return Returns the rounded fixed point value, or null
+     */
+    private static Long fixed(Double value, double scale)
+    {
+        return value == null ? null : Math.round(value * scale);
+    }
+
+    /**
+     * Convert a nullable fixed point value back
+     * @param value - fixed point value, or null
+     * @param scale - units per whole
+     * @return Returns the value, or null
+     */
+    private static Double unfixed(Long value, double scale)
+    {
+        return value == null ? null : value / scale;
+    }
+
+    /**
+     * Build presence flags for a group of nullable values
+     * @param values - values
+     * @param shift - bit of the first value
+     * @return Returns a flag for each value that is not null
+     */
+    private static int presence(Long[] values, int shift)
+    {
+        int present = 0;
+        for (int i = 0; i < values.length; i++)
+        {
+            present |= values[i] != null ? 1 << (shift + i) : 0;
+        }
+        return present;
+    }
+
+    /**
+     * Add strings to the dictionary in order of first use
+     * @param dictionary - strings by index
+     * @param strings - strings to add, nulls are skipped
+     */
+    private static void addToDictionary(LinkedHashMap<String, Integer> dictionary, String... strings)
+    {
+        for (String string: strings)
+        {
+            if (string != null && !dictionary.containsKey(string))
+            {
+                dictionary.put(string, dictionary.size());
+            }
+        }
+    }
+
+    /**
+     * Look a string up in the dictionary
+     * @param dictionary - strings by index
+     * @param string - string, or null
+     * @return Returns the index plus one, or 0 for null
+     */
+    private static int indexOf(LinkedHashMap<String, Integer> dictionary, String string)
+    {
+        return string == null ? 0 : dictionary.get(string) + 1;
+    }
+
+    /**
+     * Add the header to an encoded body, compressing the body if asked
+     * @param type - record type
+     * @param flags - FLAG_GZIP or 0
+     * @param body - encoded body
+     * @return Returns the batch
+     */
+    private static byte[] frame(int type, int flags, Output body)
+    {
+        ByteArrayOutputStream batch = new ByteArrayOutputStream(body.size() + 4);
+        batch.write(MAGIC);
+        batch.write(VERSION);
+        batch.write(flags);
+        batch.write(type);
+        try
+        {
+            if ((flags & FLAG_GZIP) != 0)
+            {
+                GZIPOutputStream gzip = new GZIPOutputStream(batch);
+                body.writeTo(gzip);
+                gzip.close();
+            }
+            else
+            {
+                body.writeTo(batch);
+            }
+        }
+        catch (IOException e)
+        {
+            // Writes to memory do not fail
+            throw new IllegalStateException(e);
+        }
+        return batch.toByteArray();
+    }
+
+    /**
+     * Check the header of a batch and get its body
+     * @param type - expected record type
+     * @param batch - encoded batch
+     * @return Returns the body, decompressed
+     * @throws IOException if the header is wrong or the body cannot be decompressed
+     */
+    private static Input unframe(int type, byte[] batch) throws IOException
+    {
+        if (batch.length < 4 || (batch[0] & 0xFF) != MAGIC || batch[1] != VERSION || batch[3] != type)
+        {
+            throw new IOException("Not A Version " + VERSION + " Batch");
+        }
+        InputStream body = new ByteArrayInputStream(batch, 4, batch.length - 4);
+        if ((batch[2] & FLAG_GZIP) != 0)
+        {
+            body = new GZIPInputStream(body);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(batch.length * 4);
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = body.read(buffer)) > 0)
+        {
+            bytes.write(buffer, 0, read);
+        }
+        return new Input(bytes.toByteArray());
+    }
+
+    /**
+     * Body being encoded
+     */
+    private static class Output extends ByteArrayOutputStream
+    {
+        /**
+         * Write an unsigned varint, seven bits per byte, low bits first
+         * @param value - value, treated as unsigned
+         */
+        void writeVarint(long value)
+        {
+            while ((value & ~0x7FL) != 0)
+            {
+                write((int) (value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        /**
+         * Write a signed value as a zigzag varint, so small negative values stay short
+         * @param value - value
+         */
+        void writeSigned(long value)
+        {
+            writeVarint((value << 1) ^ (value >> 63));
+        }
+
+        /**
+         * Write a nullable string as its UTF-8 length plus one, 0 for null, and its bytes
+         * @param string - string, or null
+         */
+        void writeString(String string)
+        {
+            if (string == null)
+            {
+                writeVarint(0);
+                return;
+            }
+            byte[] bytes = string.getBytes(UTF_8);
+            writeVarint(bytes.length + 1);
+            write(bytes, 0, bytes.length);
+        }
+
+        /**
+         * Write the dictionary
+         * @param dictionary - strings by index
+         */
+        void writeDictionary(LinkedHashMap<String, Integer> dictionary)
+        {
+            writeVarint(dictionary.size());
+            for (String string: dictionary.keySet())
+            {
+                writeString(string);
+            }
+        }
+    }
+
+    /**
+     * Body being decoded
+     */
+    private static class Input
+    {
+        private final byte[] bytes;
+        private int position = 0;
+        /**
+         * Constructor
+         * @param _bytes - body
+         */
+        Input(byte[] _bytes)
+        {
+            bytes = _bytes;
+        }
+
+        /**
+         * Read an unsigned varint
+         * @return Returns the value
+         * @throws IOException if the body ends or the varint is too long
+         */
+        long readVarint() throws IOException
+        {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7)
+            {
+                if (position >= bytes.length)
+                {
+                    throw new IOException("Truncated Batch");
+                }
+                int b = bytes[position++];
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0)
+                {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed Varint");
+        }
+
+        /**
+         * Read a zigzag varint
+         * @return Returns the signed value
+         * @throws IOException if the body ends
+         */
+        long readSigned() throws IOException
+        {
+            long value = readVarint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        /**
+         * Read a count, which cannot be more than the bytes left
+         * @return Returns the count
+         * @throws IOException if the count is out of range
+         */
+        int readCount() throws IOException
+        {
+            long count = readVarint();
+            if (count > bytes.length - position)
+            {
+                throw new IOException("Bad Count " + count);
+            }
+            return (int) count;
+        }
+
+        /**
+         * Read a nullable string
+         * @return Returns the string, or null
+         * @throws IOException if the body ends
+         */
+        String readString() throws IOException
+        {
+            long length = readVarint();
+            if (length == 0)
+            {
+                return null;
+            }
+            if (length - 1 > bytes.length - position)
+            {
+                throw new IOException("Truncated Batch");
+            }
+            String string = new String(bytes, position, (int) length - 1, UTF_8);
+            position += (int) length - 1;
+            return string;
+        }
+
+        /**
+         * Read the dictionary
+         * @return Returns the strings by index
+         * @throws IOException if the body ends
+         */
+        String[] readDictionary() throws IOException
+        {
+            String[] dictionary = new String[readCount()];
+            for (int i = 0; i < dictionary.length; i++)
+            {
+                dictionary[i] = readString();
+            }
+            return dictionary;
+        }
+
+        /**
+         * Read a dictionary index
+         * @param dictionary - strings by index
+         * @return Returns the string, or null
+         * @throws IOException if the index is out of range
+         */
+        String readEntry(String[] dictionary) throws IOException
+        {
+            long index = readVarint();
+            if (index > dictionary.length)
+            {
+                throw new IOException("Bad Dictionary Index " + index);
+            }
+            return index == 0 ? null : dictionary[(int) index - 1];
+        }
+    }
+}
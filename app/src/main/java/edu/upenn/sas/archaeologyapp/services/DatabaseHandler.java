@@ -1,23 +1,41 @@
 package edu.upenn.sas.archaeologyapp.services;
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Looper;
+import android.util.Log;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import edu.upenn.sas.archaeologyapp.BuildConfig;
 import edu.upenn.sas.archaeologyapp.models.DataEntryElement;
+import edu.upenn.sas.archaeologyapp.models.FindDelta;
 import edu.upenn.sas.archaeologyapp.models.PathElement;
+import edu.upenn.sas.archaeologyapp.models.PhotoUpload;
+import edu.upenn.sas.archaeologyapp.models.TrackPoints;
 /**
  * Database helper class to create, read and write data
  * Created by eanvith on 16/01/17.
  */
 public class DatabaseHandler extends SQLiteOpenHelper
 {
-    private static final int DATABASE_VERSION = 14;
+    private static final int DATABASE_VERSION = 22;
+    // The oldest schema version that can be upgraded in place. Anything older predates the migration steps and is
+    // recreated from scratch.
+    private static final int OLDEST_MIGRATABLE_VERSION = 14;
+    // Upgrades slower than this are logged, since they run on first open after an app update
+    static final long MIGRATION_BUDGET_MS = 2000;
     private static final String DATABASE_NAME = "BUCKETDB";
     // Table names
     private static final String FINDS_TABLE_NAME = "bucket", IMAGE_TABLE_NAME = "images";
-    private static final String PATHS_TABLE_NAME = "paths";
+    private static final String PATHS_TABLE_NAME = "paths", OUTBOX_TABLE_NAME = "outbox";
+    private static final String PHOTO_OUTBOX_TABLE_NAME = "photo_outbox";
+    private static final String CHANGE_LOG_TABLE_NAME = "change_log", WATERMARK_TABLE_NAME = "sync_watermark";
+    private static final String TRACK_POINTS_TABLE_NAME = "track_points", TRACK_LEVELS_TABLE_NAME = "track_levels";
     // Table Columns names
     private static final String KEY_ID = "bucket_id", KEY_LATITUDE = "latitude", KEY_LONGITUDE = "longitude";
     private static final String KEY_ALTITUDE = "altitude", KEY_STATUS = "status", KEY_AR_RATIO = "AR_ratio";
@@ -35,13 +53,303 @@ public class DatabaseHandler extends SQLiteOpenHelper
     private static final String KEY_BEGIN_TIME = "start_time", KEY_END_TIME = "stop_time", KEY_BEGIN_STATUS = "begin_status";
     private static final String KEY_END_STATUS = "end_status", KEY_BEGIN_AR_RATIO = "begin_AR_ratio";
     private static final String KEY_END_AR_RATIO = "end_AR_ratio", KEY_IMAGE_ID = "image_name", KEY_IMAGE_BUCKET = "image_bucket";
+    // Outbox columns. A record is a find, keyed by its ID, or a path, keyed by team member and start time.
+    private static final String KEY_RECORD_TYPE = "record_type", KEY_RECORD_ID = "record_id";
+    private static final String KEY_RECORD_TIME = "record_time", KEY_OUTBOX_STATE = "state";
+    private static final String KEY_ATTEMPTS = "attempts";
+    // Photo outbox columns
+    private static final String KEY_LOCAL_PATH = "local_path", KEY_REMOTE_NAME = "remote_name";
+    private static final String KEY_SHA256 = "sha256", KEY_UPLOADED_BYTES = "uploaded_bytes";
+    // Change log and watermark columns
+    private static final String KEY_SEQUENCE = "seq", KEY_FIELDS = "fields", KEY_SERVER = "server";
+    // Track point columns
+    private static final String KEY_POINT_TIME = "point_time", KEY_QUALITY = "quality", KEY_LEVEL = "level";
+    // Spatial index column, the FindGrid cell of a find's UTM position
+    private static final String KEY_CELL = "cell";
+    // Outbox record types
+    private static final int RECORD_FIND = 0, RECORD_PATH = 1;
+    // Outbox states. A record is pending until a sync pass sends it, in flight until the server answers, then
+    // acked or failed. Records left in flight by an interrupted pass are sent again by the next one.
+    public static final int OUTBOX_PENDING = 0, OUTBOX_IN_FLIGHT = 1, OUTBOX_ACKED = 2, OUTBOX_FAILED = 3;
+    // Secondary indexes, one per hot query. Unsynced finds newest first, and the images of a find
+    private static final String CREATE_BUCKET_SYNCED_INDEX = "CREATE INDEX IF NOT EXISTS bucket_synced_created_index ON "
+            + FINDS_TABLE_NAME + "(" + KEY_BEEN_SYNCED + ", " + KEY_CREATED_TIMESTAMP + ", " + KEY_ID + ")";
+    private static final String CREATE_IMAGE_BUCKET_INDEX = "CREATE INDEX IF NOT EXISTS images_bucket_index ON "
+            + IMAGE_TABLE_NAME + "(" + KEY_IMAGE_BUCKET + ")";
+    // Covers getLastSampleFromBucket, so the highest sample is read from the index alone
+    private static final String CREATE_BUCKET_SAMPLE_INDEX = "CREATE INDEX IF NOT EXISTS bucket_sample_index ON "
+            + FINDS_TABLE_NAME + "(" + KEY_ZONE + ", " + KEY_HEMISPHERE + ", " + KEY_NORTHING + ", " + KEY_EASTING
+            + ", " + KEY_SAMPLE + ")";
+    // Finds by FindGrid cell, for box and nearest searches
+    private static final String CREATE_BUCKET_CELL_INDEX = "CREATE INDEX IF NOT EXISTS bucket_cell_index ON "
+            + FINDS_TABLE_NAME + "(" + KEY_CELL + ")";
+    // Position a find is indexed at, preferring the precise coordinates
+    private static final String FIND_EASTING_SQL = "COALESCE(" + KEY_PRECISE_EASTING + ", " + KEY_EASTING + ")";
+    private static final String FIND_NORTHING_SQL = "COALESCE(" + KEY_PRECISE_NORTHING + ", " + KEY_NORTHING + ")";
+    // Most finds one nearest search returns, well under SQLite's limit on parameters, and the widest box it searches
+    public static final int MAX_NEAREST_FINDS = 500;
+    private static final double MAX_NEAREST_RADIUS = 16000000;
+    // Unsynced paths in start order
+    private static final String CREATE_PATHS_SYNCED_INDEX = "CREATE INDEX IF NOT EXISTS paths_synced_start_index ON "
+            + PATHS_TABLE_NAME + "(" + KEY_BEEN_SYNCED + ", " + KEY_BEGIN_TIME + ")";
+    private static final String CREATE_OUTBOX_TABLE = "CREATE TABLE IF NOT EXISTS " + OUTBOX_TABLE_NAME + "("
+            + KEY_RECORD_TYPE + " INTEGER," + KEY_RECORD_ID + " TEXT," + KEY_RECORD_TIME + " INTEGER,"
+            + KEY_OUTBOX_STATE + " INTEGER," + KEY_ATTEMPTS + " INTEGER," + KEY_UPDATED_TIMESTAMP + " INTEGER,"
+            + "PRIMARY KEY (" + KEY_RECORD_TYPE + ", " + KEY_RECORD_ID + ", " + KEY_RECORD_TIME + "))";
+    // Outbox records of a type in a state, for the sync pass queries and the progress counts
+    private static final String CREATE_OUTBOX_STATE_INDEX = "CREATE INDEX IF NOT EXISTS outbox_state_index ON "
+            + OUTBOX_TABLE_NAME + "(" + KEY_OUTBOX_STATE + ", " + KEY_RECORD_TYPE + ")";
+    private static final String SET_OUTBOX_STATE_SQL = "UPDATE " + OUTBOX_TABLE_NAME + " SET " + KEY_OUTBOX_STATE
+            + "=?, " + KEY_UPDATED_TIMESTAMP + "=? WHERE " + KEY_RECORD_TYPE + "=? AND " + KEY_RECORD_ID + "=? AND "
+            + KEY_RECORD_TIME + "=?";
+    // Photos still to upload. A row is removed once the server has the whole file.
+    private static final String CREATE_PHOTO_OUTBOX_TABLE = "CREATE TABLE IF NOT EXISTS " + PHOTO_OUTBOX_TABLE_NAME
+            + "(" + KEY_LOCAL_PATH + " TEXT PRIMARY KEY," + KEY_REMOTE_NAME + " TEXT," + KEY_SHA256 + " TEXT,"
+            + KEY_UPLOADED_BYTES + " INTEGER," + KEY_CREATED_TIMESTAMP + " INTEGER)";
+    // One row per edit of a find some server already has, holding the FindDelta flags of the fields it changed.
+    // AUTOINCREMENT keeps sequence numbers rising even after the newest rows are pruned.
+    private static final String CREATE_CHANGE_LOG_TABLE = "CREATE TABLE IF NOT EXISTS " + CHANGE_LOG_TABLE_NAME + "("
+            + KEY_SEQUENCE + " INTEGER PRIMARY KEY AUTOINCREMENT," + KEY_ID + " TEXT," + KEY_FIELDS + " INTEGER)";
+    private static final String CREATE_CHANGE_LOG_INDEX = "CREATE INDEX IF NOT EXISTS change_log_bucket_index ON "
+            + CHANGE_LOG_TABLE_NAME + "(" + KEY_ID + ", " + KEY_SEQUENCE + ")";
+    // The last change log entry each server has stored for each find. A find without a row here is new to the
+    // server and is sent whole.
+    private static final String CREATE_WATERMARK_TABLE = "CREATE TABLE IF NOT EXISTS " + WATERMARK_TABLE_NAME + "("
+            + KEY_ID + " TEXT," + KEY_SERVER + " TEXT," + KEY_SEQUENCE + " INTEGER,"
+            + "PRIMARY KEY (" + KEY_ID + ", " + KEY_SERVER + "))";
+    // Every fix recorded along a path, keyed by the path's team member and start time. The primary key's index
+    // keeps each path's points together in time order, so a path or a time range of it is read from one range
+    // of the index. Appended to in batches by TrackRecorder.
+    private static final String CREATE_TRACK_POINTS_TABLE = "CREATE TABLE IF NOT EXISTS " + TRACK_POINTS_TABLE_NAME
+            + "(" + KEY_TEAM_MEMBER + " TEXT," + KEY_BEGIN_TIME + " INTEGER," + KEY_POINT_TIME + " INTEGER,"
+            + KEY_LATITUDE + " FLOAT," + KEY_LONGITUDE + " FLOAT," + KEY_ALTITUDE + " FLOAT," + KEY_QUALITY
+            + " INTEGER," + KEY_AR_RATIO + " FLOAT,"
+            + "PRIMARY KEY (" + KEY_TEAM_MEMBER + ", " + KEY_BEGIN_TIME + ", " + KEY_POINT_TIME + "))";
+    // A fix already recorded for the path, such as one read again after a restart, is skipped
+    private static final String INSERT_TRACK_POINT_SQL = "INSERT OR IGNORE INTO " + TRACK_POINTS_TABLE_NAME + " ("
+            + KEY_TEAM_MEMBER + ", " + KEY_BEGIN_TIME + ", " + KEY_POINT_TIME + ", " + KEY_LATITUDE + ", "
+            + KEY_LONGITUDE + ", " + KEY_ALTITUDE + ", " + KEY_QUALITY + ", " + KEY_AR_RATIO
+            + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+    // Simplified copies of each track, one per TrackSimplifier level. The primary key keeps each copy's points
+    // together in time order, so drawing a path at a zoom reads one range of the index.
+    private static final String CREATE_TRACK_LEVELS_TABLE = "CREATE TABLE IF NOT EXISTS " + TRACK_LEVELS_TABLE_NAME
+            + "(" + KEY_TEAM_MEMBER + " TEXT," + KEY_BEGIN_TIME + " INTEGER," + KEY_LEVEL + " INTEGER,"
+            + KEY_POINT_TIME + " INTEGER," + KEY_LATITUDE + " FLOAT," + KEY_LONGITUDE + " FLOAT,"
+            + "PRIMARY KEY (" + KEY_TEAM_MEMBER + ", " + KEY_BEGIN_TIME + ", " + KEY_LEVEL + ", " + KEY_POINT_TIME
+            + "))";
+    private static final String INSERT_TRACK_LEVEL_SQL = "INSERT OR IGNORE INTO " + TRACK_LEVELS_TABLE_NAME + " ("
+            + KEY_TEAM_MEMBER + ", " + KEY_BEGIN_TIME + ", " + KEY_LEVEL + ", " + KEY_POINT_TIME + ", " + KEY_LATITUDE
+            + ", " + KEY_LONGITUDE + ") VALUES (?, ?, ?, ?, ?, ?)";
+    // Find columns tracked by the change log, and their FindDelta flags
+    private static final String[] CHANGE_COLUMNS = {KEY_LATITUDE, KEY_LONGITUDE, KEY_ALTITUDE, KEY_STATUS,
+            KEY_AR_RATIO, KEY_MATERIAL, KEY_COMMENT, KEY_ZONE, KEY_HEMISPHERE, KEY_NORTHING, KEY_PRECISE_NORTHING,
+            KEY_EASTING, KEY_PRECISE_EASTING, KEY_SAMPLE};
+    private static final int[] CHANGE_FIELDS = {FindDelta.FIELD_LATITUDE, FindDelta.FIELD_LONGITUDE,
+            FindDelta.FIELD_ALTITUDE, FindDelta.FIELD_STATUS, FindDelta.FIELD_AR_RATIO, FindDelta.FIELD_MATERIAL,
+            FindDelta.FIELD_COMMENTS, FindDelta.FIELD_ZONE, FindDelta.FIELD_HEMISPHERE, FindDelta.FIELD_NORTHING,
+            FindDelta.FIELD_PRECISE_NORTHING, FindDelta.FIELD_EASTING, FindDelta.FIELD_PRECISE_EASTING,
+            FindDelta.FIELD_SAMPLE};
+    private static final String CREATE_CHANGE_TRIGGER = buildChangeTrigger();
+    // An image added to a find some server already has is logged as a change, so the find's new photos are sent
+    private static final String CREATE_IMAGES_CHANGE_TRIGGER = "CREATE TRIGGER IF NOT EXISTS images_change_trigger"
+            + " AFTER INSERT ON " + IMAGE_TABLE_NAME + " WHEN EXISTS (SELECT 1 FROM " + WATERMARK_TABLE_NAME + " WHERE "
+            + KEY_ID + "=NEW." + KEY_IMAGE_BUCKET + ") BEGIN INSERT INTO " + CHANGE_LOG_TABLE_NAME + " (" + KEY_ID
+            + ", " + KEY_FIELDS + ") VALUES (NEW." + KEY_IMAGE_BUCKET + ", " + FindDelta.FIELD_IMAGES + "); END";
+    // Each pending find with the server's watermark for it and the change log entries after that watermark. A
+    // find the server has never stored has a null watermark and gets all of its entries, for the sequence alone.
+    private static final String PENDING_DELTAS_SQL = "SELECT " + OUTBOX_TABLE_NAME + "." + KEY_RECORD_ID + ", "
+            + WATERMARK_TABLE_NAME + "." + KEY_SEQUENCE + ", " + CHANGE_LOG_TABLE_NAME + "." + KEY_SEQUENCE + ", "
+            + CHANGE_LOG_TABLE_NAME + "." + KEY_FIELDS + " FROM " + OUTBOX_TABLE_NAME + " LEFT JOIN "
+            + WATERMARK_TABLE_NAME + " ON " + WATERMARK_TABLE_NAME + "." + KEY_ID + "=" + OUTBOX_TABLE_NAME + "."
+            + KEY_RECORD_ID + " AND " + WATERMARK_TABLE_NAME + "." + KEY_SERVER + "=? LEFT JOIN "
+            + CHANGE_LOG_TABLE_NAME + " ON " + CHANGE_LOG_TABLE_NAME + "." + KEY_ID + "=" + OUTBOX_TABLE_NAME + "."
+            + KEY_RECORD_ID + " AND " + CHANGE_LOG_TABLE_NAME + "." + KEY_SEQUENCE + ">IFNULL(" + WATERMARK_TABLE_NAME
+            + "." + KEY_SEQUENCE + ", 0) WHERE " + OUTBOX_TABLE_NAME + "." + KEY_OUTBOX_STATE + "=" + OUTBOX_PENDING
+            + " AND " + OUTBOX_TABLE_NAME + "." + KEY_RECORD_TYPE + "=" + RECORD_FIND;
+    private static final String SET_WATERMARK_SQL = "INSERT OR REPLACE INTO " + WATERMARK_TABLE_NAME + " (" + KEY_ID
+            + ", " + KEY_SERVER + ", " + KEY_SEQUENCE + ") VALUES (?, ?, ?)";
+    // Columns written for every find and path, in the order bindFind and bindPath bind them
+    private static final String[] FIND_COLUMNS = {KEY_LATITUDE, KEY_LONGITUDE, KEY_ALTITUDE, KEY_STATUS, KEY_AR_RATIO,
+            KEY_MATERIAL, KEY_COMMENT, KEY_UPDATED_TIMESTAMP, KEY_ZONE, KEY_HEMISPHERE, KEY_NORTHING,
+            KEY_PRECISE_NORTHING, KEY_EASTING, KEY_PRECISE_EASTING, KEY_SAMPLE, KEY_BEEN_SYNCED, KEY_CELL};
+    private static final String[] PATH_COLUMNS = {KEY_BEGIN_LATITUDE, KEY_BEGIN_LONGITUDE, KEY_BEGIN_ALTITUDE,
+            KEY_BEGIN_STATUS, KEY_BEGIN_AR_RATIO, KEY_END_LATITUDE, KEY_END_LONGITUDE, KEY_END_ALTITUDE,
+            KEY_END_STATUS, KEY_END_AR_RATIO, KEY_HEMISPHERE, KEY_ZONE, KEY_BEGIN_NORTHING, KEY_BEGIN_EASTING,
+            KEY_END_NORTHING, KEY_END_EASTING, KEY_END_TIME, KEY_BEEN_SYNCED};
+    // Statements compiled by the write helpers. Only the bound parameters change from row to row.
+    private static final String UPDATE_FIND_SQL = buildUpdateSQL(FINDS_TABLE_NAME, FIND_COLUMNS, KEY_ID);
+    private static final String INSERT_FIND_SQL = buildInsertSQL(FINDS_TABLE_NAME, FIND_COLUMNS, KEY_ID,
+            KEY_CREATED_TIMESTAMP);
+    private static final String UPDATE_PATH_SQL = buildUpdateSQL(PATHS_TABLE_NAME, PATH_COLUMNS, KEY_TEAM_MEMBER,
+            KEY_BEGIN_TIME);
+    private static final String INSERT_PATH_SQL = buildInsertSQL(PATHS_TABLE_NAME, PATH_COLUMNS, KEY_TEAM_MEMBER,
+            KEY_BEGIN_TIME);
+    // Mark a find or path synced only if it still holds what was uploaded. bindFind and bindPath bind the uploaded
+    // values, with the synced flag still clear, and an edit saved while the upload was in flight leaves nothing to
+    // update, so the edit is kept and sent again.
+    private static final String ACK_FIND_SQL = buildAckSQL(FINDS_TABLE_NAME, FIND_COLUMNS, KEY_ID);
+    private static final String ACK_PATH_SQL = buildAckSQL(PATHS_TABLE_NAME, PATH_COLUMNS, KEY_TEAM_MEMBER,
+            KEY_BEGIN_TIME);
+    private static final String SET_FIND_SYNCED_SQL = "UPDATE " + FINDS_TABLE_NAME + " SET " + KEY_BEEN_SYNCED
+            + "=1 WHERE " + KEY_ID + "=?";
+    private static final String SET_PATH_SYNCED_SQL = "UPDATE " + PATHS_TABLE_NAME + " SET " + KEY_BEEN_SYNCED
+            + "=1 WHERE " + KEY_TEAM_MEMBER + "=? AND " + KEY_BEGIN_TIME + "=?";
+    private static final String SELECT_IMAGES_SQL = "SELECT " + KEY_IMAGE_ID + " FROM " + IMAGE_TABLE_NAME + " WHERE "
+            + KEY_IMAGE_BUCKET + "=?";
+    private static final String DELETE_IMAGE_SQL = "DELETE FROM " + IMAGE_TABLE_NAME + " WHERE " + KEY_IMAGE_ID
+            + "=? AND " + KEY_IMAGE_BUCKET + "=?";
+    // An image already recorded under another find moves to this one
+    private static final String INSERT_IMAGE_SQL = "INSERT OR REPLACE INTO " + IMAGE_TABLE_NAME + " (" + KEY_IMAGE_ID
+            + ", " + KEY_IMAGE_BUCKET + ") VALUES (?, ?)";
+    private static final String INSERT_PHOTO_UPLOAD_SQL = "INSERT OR IGNORE INTO " + PHOTO_OUTBOX_TABLE_NAME + " ("
+            + KEY_LOCAL_PATH + ", " + KEY_REMOTE_NAME + ", " + KEY_SHA256 + ", " + KEY_UPLOADED_BYTES + ", "
+            + KEY_CREATED_TIMESTAMP + ") VALUES (?, ?, ?, ?, ?)";
+    // Point an image at the file it was moved to
+    private static final String MOVE_IMAGE_SQL = "UPDATE " + IMAGE_TABLE_NAME + " SET " + KEY_IMAGE_ID + "=? WHERE "
+            + KEY_IMAGE_ID + "=? AND " + KEY_IMAGE_BUCKET + "=?";
+    // Ordered schema history, one step per version starting at OLDEST_MIGRATABLE_VERSION. Adding a table or column
+    // means bumping DATABASE_VERSION, updating onCreate for fresh installs and appending a step here.
+    private static final DatabaseMigration[] MIGRATIONS = {
+        new DatabaseMigration(14) {
+            /**
+             * Add the secondary indexes
+             * @param db - database at version 14
+             */
+            @Override
+            void migrate(SQLiteDatabase db)
+            {
+                createIndexes(db);
+            }
+        },
+        new DatabaseMigration(15) {
+            /**
+             * Add the sync outbox
+             * @param db - database at version 15
+             */
+            @Override
+            void migrate(SQLiteDatabase db)
+            {
+                createOutbox(db);
+            }
+        },
+        new DatabaseMigration(16) {
+            /**
+             * Add the photo outbox
+             * @param db - database at version 16
+             */
+            @Override
+            void migrate(SQLiteDatabase db)
+            {
+                db.execSQL(CREATE_PHOTO_OUTBOX_TABLE);
+            }
+        },
+        new DatabaseMigration(17) {
+            /**
+             * Add the change log and sync watermarks
+             * @param db - database at version 17
+             */
+            @Override
+            void migrate(SQLiteDatabase db)
+            {
+                createChangeLog(db);
+            }
+        },
+        new DatabaseMigration(18) {
+            /**
+             * Add the track points
+             * @param db - database at version 18
+             */
+            @Override
+            void migrate(SQLiteDatabase db)
+            {
+                db.execSQL(CREATE_TRACK_POINTS_TABLE);
+            }
+        },
+        new DatabaseMigration(19) {
+            /**
+             * Add the simplified tracks
+             * @param db - database at version 19
+             */
+            @Override
+            void migrate(SQLiteDatabase db)
+            {
+                db.execSQL(CREATE_TRACK_LEVELS_TABLE);
+            }
+        },
+        new DatabaseMigration(20) {
+            /**
+             * Add the spatial index, indexing the finds already stored
+             * @param db - database at version 20
+             */
+            @Override
+            void migrate(SQLiteDatabase db)
+            {
+                db.execSQL("ALTER TABLE " + FINDS_TABLE_NAME + " ADD COLUMN " + KEY_CELL + " INTEGER");
+                db.execSQL("UPDATE " + FINDS_TABLE_NAME + " SET " + KEY_CELL + "=" + FindGrid.cellSQL(KEY_ZONE,
+                        KEY_HEMISPHERE, FIND_EASTING_SQL, FIND_NORTHING_SQL));
+                db.execSQL(CREATE_BUCKET_CELL_INDEX);
+            }
+        },
+        new DatabaseMigration(21) {
+            /**
+             * Log images added to finds a server already has
+             * @param db - database at version 21
+             */
+            @Override
+            void migrate(SQLiteDatabase db)
+            {
+                db.execSQL(CREATE_IMAGES_CHANGE_TRIGGER);
+            }
+        }
+    };
+    // The single application-wide handler. SQLiteOpenHelper caches one open database, so sharing the helper
+    // means every caller shares one long-lived connection instead of reopening and closing the file per call.
+    private static DatabaseHandler instance;
+    /**
+     * Get the application-wide database handler, creating it on first use
+     * @param context The current app context. Only its application context is retained.
+     * @return Returns the shared database handler
+     */
+    public static synchronized DatabaseHandler getInstance(Context context)
+    {
+        if (instance == null)
+        {
+            instance = new DatabaseHandler(context.getApplicationContext());
+        }
+        return instance;
+    }
+
     /**
      * Constructor
      * @param context The current app context
      */
-    public DatabaseHandler(Context context)
+    private DatabaseHandler(Context context)
+    {
+        this(context, DATABASE_NAME);
+    }
+
+    /**
+     * Constructor for a database of a given name, so tests can work on a file of their own
+     * @param context The current app context
+     * @param name - database file name
+     */
+    DatabaseHandler(Context context, String name)
+    {
+        this(context, name, null);
+    }
+
+    /**
+     * Constructor for a database of a given name whose cursors come from a factory, so tests can see every query
+     * @param context The current app context
+     * @param name - database file name
+     * @param factory - creates the cursors of every query, or null for the default
+     */
+    DatabaseHandler(Context context, String name, SQLiteDatabase.CursorFactory factory)
     {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        super(context, name, factory, DATABASE_VERSION);
+        // Write-ahead logging lets readers run on the pooled read connections while a write is in progress,
+        // and commits append to the log instead of rewriting the database file
+        setWriteAheadLoggingEnabled(true);
     }
 
     /**
@@ -57,7 +365,7 @@ public class DatabaseHandler extends SQLiteOpenHelper
                 + KEY_COMMENT + " TEXT," + KEY_UPDATED_TIMESTAMP + " INTEGER," + KEY_CREATED_TIMESTAMP + " INTEGER,"
                 + KEY_ZONE + " INTEGER," + KEY_HEMISPHERE + " TEXT," + KEY_NORTHING + " INTEGER,"
                 + KEY_PRECISE_NORTHING + " FLOAT," + KEY_EASTING + " INTEGER," + KEY_PRECISE_EASTING + " FLOAT,"
-                + KEY_SAMPLE + " INTEGER," + KEY_BEEN_SYNCED + " INTEGER)";
+                + KEY_SAMPLE + " INTEGER," + KEY_BEEN_SYNCED + " INTEGER," + KEY_CELL + " INTEGER)";
         String CREATE_IMAGE_TABLE = "CREATE TABLE " + IMAGE_TABLE_NAME + "(" + KEY_IMAGE_ID + " TEXT PRIMARY KEY,"
                 + KEY_IMAGE_BUCKET + " TEXT)";
         String CREATE_PATHS_TABLE = "CREATE TABLE " + PATHS_TABLE_NAME + "(" + KEY_TEAM_MEMBER + " TEXT,"
@@ -71,10 +379,73 @@ public class DatabaseHandler extends SQLiteOpenHelper
         db.execSQL(CREATE_BUCKET_TABLE);
         db.execSQL(CREATE_IMAGE_TABLE);
         db.execSQL(CREATE_PATHS_TABLE);
+        createIndexes(db);
+        createOutbox(db);
+        db.execSQL(CREATE_PHOTO_OUTBOX_TABLE);
+        createChangeLog(db);
+        db.execSQL(CREATE_TRACK_POINTS_TABLE);
+        db.execSQL(CREATE_TRACK_LEVELS_TABLE);
+        db.execSQL(CREATE_BUCKET_CELL_INDEX);
+        db.execSQL(CREATE_IMAGES_CHANGE_TRIGGER);
+    }
+
+    /**
+     * Create the secondary indexes. Safe to run against a database that already has them.
+     * @param db - database
+     */
+    private static void createIndexes(SQLiteDatabase db)
+    {
+        db.execSQL(CREATE_BUCKET_SYNCED_INDEX);
+        db.execSQL(CREATE_IMAGE_BUCKET_INDEX);
+        db.execSQL(CREATE_BUCKET_SAMPLE_INDEX);
+        db.execSQL(CREATE_PATHS_SYNCED_INDEX);
+    }
+
+    /**
+     * Create the sync outbox table and its index
+     * @param db - database
+     */
+    private static void createOutbox(SQLiteDatabase db)
+    {
+        db.execSQL(CREATE_OUTBOX_TABLE);
+        db.execSQL(CREATE_OUTBOX_STATE_INDEX);
     }
 
     /**
-     * Upgrade database version
+     * Create the change log, its trigger and the sync watermarks
+     * @param db - database
+     */
+    private static void createChangeLog(SQLiteDatabase db)
+    {
+        db.execSQL(CREATE_CHANGE_LOG_TABLE);
+        db.execSQL(CREATE_CHANGE_LOG_INDEX);
+        db.execSQL(CREATE_WATERMARK_TABLE);
+        db.execSQL(CREATE_CHANGE_TRIGGER);
+    }
+
+    /**
+     * Build the trigger that logs edits to finds. Each update of a find that some server already has adds one row
+     * with the flags of the columns whose value changed; updates that change nothing tracked, such as marking the
+     * find synced, add none.
+     * @return Returns the SQL
+     */
+    private static String buildChangeTrigger()
+    {
+        StringBuilder fields = new StringBuilder();
+        for (int i = 0; i < CHANGE_COLUMNS.length; i++)
+        {
+            fields.append(i == 0 ? "" : " + ").append("(OLD.").append(CHANGE_COLUMNS[i]).append(" IS NOT NEW.")
+                    .append(CHANGE_COLUMNS[i]).append(") * ").append(CHANGE_FIELDS[i]);
+        }
+        return "CREATE TRIGGER IF NOT EXISTS bucket_change_trigger AFTER UPDATE ON " + FINDS_TABLE_NAME
+                + " WHEN EXISTS (SELECT 1 FROM " + WATERMARK_TABLE_NAME + " WHERE " + KEY_ID + "=NEW." + KEY_ID
+                + ") BEGIN INSERT INTO " + CHANGE_LOG_TABLE_NAME + " (" + KEY_ID + ", " + KEY_FIELDS + ") SELECT NEW."
+                + KEY_ID + ", changed FROM (SELECT " + fields + " AS changed) WHERE changed != 0; END";
+    }
+
+    /**
+     * Upgrade database version. The open helper calls this inside a transaction and only commits it, along with the
+     * new version number, if every step succeeds, so a failed upgrade leaves the old database untouched.
      * @param db - database
      * @param oldVersion - old version number
      * @param newVersion - new version number
@@ -82,12 +453,50 @@ public class DatabaseHandler extends SQLiteOpenHelper
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion)
     {
-        // Drop older tables if they exist
-        db.execSQL("DROP TABLE IF EXISTS " + FINDS_TABLE_NAME);
-        db.execSQL("DROP TABLE IF EXISTS " + IMAGE_TABLE_NAME);
-        db.execSQL("DROP TABLE IF EXISTS " + PATHS_TABLE_NAME);
-        // Create table again
-        onCreate(db);
+        if (oldVersion < OLDEST_MIGRATABLE_VERSION)
+        {
+            // No migration path from here, drop older tables if they exist
+            db.execSQL("DROP TABLE IF EXISTS " + FINDS_TABLE_NAME);
+            db.execSQL("DROP TABLE IF EXISTS " + IMAGE_TABLE_NAME);
+            db.execSQL("DROP TABLE IF EXISTS " + PATHS_TABLE_NAME);
+            db.execSQL("DROP TABLE IF EXISTS " + OUTBOX_TABLE_NAME);
+            db.execSQL("DROP TABLE IF EXISTS " + PHOTO_OUTBOX_TABLE_NAME);
+            db.execSQL("DROP TABLE IF EXISTS " + CHANGE_LOG_TABLE_NAME);
+            db.execSQL("DROP TABLE IF EXISTS " + WATERMARK_TABLE_NAME);
+            db.execSQL("DROP TABLE IF EXISTS " + TRACK_POINTS_TABLE_NAME);
+            db.execSQL("DROP TABLE IF EXISTS " + TRACK_LEVELS_TABLE_NAME);
+            // Create table again
+            onCreate(db);
+            return;
+        }
+        long start = System.nanoTime();
+        migrate(db, oldVersion, newVersion);
+        long elapsed = (System.nanoTime() - start) / 1000000;
+        if (elapsed > MIGRATION_BUDGET_MS)
+        {
+            Log.w("DatabaseHandler", "Upgrade from " + oldVersion + " to " + newVersion + " took " + elapsed
+                    + " ms, over the " + MIGRATION_BUDGET_MS + " ms budget");
+        }
+    }
+
+    /**
+     * Run the migration steps that take a database from one version to another, in order
+     * @param db - database at fromVersion
+     * @param fromVersion - current schema version, at least OLDEST_MIGRATABLE_VERSION
+     * @param toVersion - target schema version
+     * @throws IllegalStateException if a step in the range is missing
+     */
+    static void migrate(SQLiteDatabase db, int fromVersion, int toVersion)
+    {
+        for (int version = fromVersion; version < toVersion; version++)
+        {
+            int step = version - OLDEST_MIGRATABLE_VERSION;
+            if (step < 0 || step >= MIGRATIONS.length || MIGRATIONS[step].FROM_VERSION != version)
+            {
+                throw new IllegalStateException("No Migration From Version " + version);
+            }
+            MIGRATIONS[step].migrate(db);
+        }
     }
 
     /**
@@ -96,52 +505,92 @@ public class DatabaseHandler extends SQLiteOpenHelper
      */
     public void addFindsRows(DataEntryElement[] entry)
     {
+        addRows(entry, new PathElement[0]);
+    }
+
+    /**
+     * Helper function to add paths to the table
+     * @param entry - entry to add
+     */
+    public void addPathsRows(PathElement[] entry)
+    {
+        addRows(new DataEntryElement[0], entry);
+    }
+
+    /**
+     * Insert or update finds, their images and paths in a single transaction. Each statement is compiled once for
+     * the whole batch and only its bound parameters change per row, so large imports skip the per-row SQL parsing
+     * and values are never spliced into the SQL text.
+     * @param finds - finds to add or update, with their images
+     * @param paths - paths to add or update
+     */
+    public void addRows(DataEntryElement[] finds, PathElement[] paths)
+    {
+        checkNotMainThread();
         SQLiteDatabase db = this.getWritableDatabase();
+        SQLiteStatement updateFind = null, insertFind = null, deleteImage = null, insertImage = null;
+        SQLiteStatement updatePath = null, insertPath = null;
+        db.beginTransaction();
         try
         {
-            db.beginTransaction();
-            for (DataEntryElement e: entry)
-            {
-                // The values to be written in a row
-                ContentValues values = new ContentValues();
-                values.put(KEY_LATITUDE, e.getLatitude());
-                values.put(KEY_LONGITUDE, e.getLongitude());
-                values.put(KEY_ALTITUDE, e.getAltitude());
-                values.put(KEY_STATUS, e.getStatus());
-                values.put(KEY_AR_RATIO, e.getARRatio());
-                values.put(KEY_MATERIAL, e.getMaterial());
-                values.put(KEY_COMMENT, e.getComments());
-                values.put(KEY_UPDATED_TIMESTAMP, e.getUpdateTimestamp());
-                values.put(KEY_ZONE, e.getZone());
-                values.put(KEY_HEMISPHERE, e.getHemisphere());
-                values.put(KEY_NORTHING, e.getNorthing());
-                values.put(KEY_PRECISE_NORTHING, e.getPreciseNorthing());
-                values.put(KEY_EASTING, e.getEasting());
-                values.put(KEY_PRECISE_EASTING, e.getPreciseEasting());
-                values.put(KEY_SAMPLE, e.getSample());
-                values.put(KEY_BEEN_SYNCED, e.getBeenSynced() ? 1 : 0);
+            if (finds.length > 0)
+            {
+                updateFind = db.compileStatement(UPDATE_FIND_SQL);
+                insertFind = db.compileStatement(INSERT_FIND_SQL);
+                deleteImage = db.compileStatement(DELETE_IMAGE_SQL);
+                insertImage = db.compileStatement(INSERT_IMAGE_SQL);
+            }
+            for (DataEntryElement e: finds)
+            {
                 // Try to make an update call
-                int rowsAffected = db.update(FINDS_TABLE_NAME, values, KEY_ID + " ='" + e.getID()+"'", null);
-                // If update call fails, rowsAffected will be 0. If not, it means the row was updated
-                if (rowsAffected == 0)
+                bindFind(updateFind, e, e.getBeenSynced());
+                // If update call fails, no row was affected and the ID does not exist in table yet
+                if (updateFind.executeUpdateDelete() == 0)
+                {
+                    // Create a new row with the ID, and the timestamp for creation of entry
+                    bindFind(insertFind, e, e.getBeenSynced());
+                    bind(insertFind, FIND_COLUMNS.length + 2, e.getCreatedTimestamp());
+                    insertFind.executeInsert();
+                }
+                // Only write the images that were removed or added, so the change log sees just the new ones
+                HashSet<String> stored = readImageNames(db, e.getID());
+                for (String imagePath: stored)
                 {
-                    // If update fails, it means the ID does not exist in table. Create a new row with the ID.
-                    values.put(KEY_ID, e.getID());
-                    // Also add timestamp for creation of entry
-                    values.put(KEY_CREATED_TIMESTAMP, e.getCreatedTimestamp());
-                    db.insert(FINDS_TABLE_NAME, null, values);
-                    // Add associated images to the image table
-                    addImages(e.getID(), e.getImagePaths());
+                    if (!e.getImagePaths().contains(imagePath))
+                    {
+                        deleteImage.bindString(1, imagePath);
+                        deleteImage.bindString(2, e.getID());
+                        deleteImage.executeUpdateDelete();
+                    }
                 }
-                else
+                for (String imagePath: e.getImagePaths())
+                {
+                    if (!stored.contains(imagePath))
+                    {
+                        insertImage.bindString(1, imagePath);
+                        insertImage.bindString(2, e.getID());
+                        insertImage.executeInsert();
+                    }
+                }
+            }
+            if (paths.length > 0)
+            {
+                updatePath = db.compileStatement(UPDATE_PATH_SQL);
+                insertPath = db.compileStatement(INSERT_PATH_SQL);
+            }
+            for (PathElement e: paths)
+            {
+                // Try to make an update call
+                bindPath(updatePath, e, e.getBeenSynced());
+                // If update fails, it means the key does not exist in table. Create a new row
+                // with the given teamMember and startTime.
+                if (updatePath.executeUpdateDelete() == 0)
                 {
-                    // Update successful, delete and re-add images
-                    deleteImages(e.getID());
-                    addImages(e.getID(), e.getImagePaths());
+                    bindPath(insertPath, e, e.getBeenSynced());
+                    insertPath.executeInsert();
                 }
             }
             db.setTransactionSuccessful();
-            db.endTransaction();
         }
         catch (Exception e)
         {
@@ -149,102 +598,49 @@ public class DatabaseHandler extends SQLiteOpenHelper
         }
         finally
         {
-            db.close();
+            db.endTransaction();
+            close(updateFind, insertFind, deleteImage, insertImage, updatePath, insertPath);
         }
     }
 
     /**
-     * Helper function to set a find to synced
-     * @param entry - synced entry
+     * Read the names of a find's stored images
+     * @param db - database
+     * @param findID - find ID
+     * @return Returns the image names
      */
-    public void setFindSynced(DataEntryElement entry)
+    private static HashSet<String> readImageNames(SQLiteDatabase db, String findID)
     {
-        SQLiteDatabase db = this.getWritableDatabase();
+        HashSet<String> names = new HashSet<>();
+        Cursor cursor = db.rawQuery(SELECT_IMAGES_SQL, new String[] {findID});
         try
         {
-            db.beginTransaction();
-            // The values to be written in a row
-            ContentValues values = new ContentValues();
-            values.put(KEY_LATITUDE, entry.getLatitude());
-            values.put(KEY_LONGITUDE, entry.getLongitude());
-            values.put(KEY_ALTITUDE, entry.getAltitude());
-            values.put(KEY_STATUS, entry.getStatus());
-            values.put(KEY_AR_RATIO, entry.getARRatio());
-            values.put(KEY_MATERIAL, entry.getMaterial());
-            values.put(KEY_COMMENT, entry.getComments());
-            values.put(KEY_UPDATED_TIMESTAMP, entry.getUpdateTimestamp());
-            values.put(KEY_ZONE, entry.getZone());
-            values.put(KEY_HEMISPHERE, entry.getHemisphere());
-            values.put(KEY_NORTHING, entry.getNorthing());
-            values.put(KEY_PRECISE_NORTHING, entry.getPreciseNorthing());
-            values.put(KEY_EASTING, entry.getEasting());
-            values.put(KEY_PRECISE_EASTING, entry.getPreciseEasting());
-            values.put(KEY_SAMPLE, entry.getSample());
-            // Set beenSynced to true
-            values.put(KEY_BEEN_SYNCED, 1);
-            // Make an update call
-            db.update(FINDS_TABLE_NAME, values, KEY_ID + " ='" + entry.getID()+"'", null);
-            // If update call fails, rowsAffected will be 0. If not, it means the row was updated
-            db.setTransactionSuccessful();
-            db.endTransaction();
-        }
-        catch (Exception e)
-        {
-            e.printStackTrace();
+            while (cursor.moveToNext())
+            {
+                names.add(cursor.getString(0));
+            }
         }
         finally
         {
-            db.close();
+            cursor.close();
         }
+        return names;
     }
 
     /**
-     * Helper function to add paths to the table
-     * @param entry - entry to add
+     * Helper function to set a find to synced. Only the flag is written, so the find's stored fields are kept.
+     * @param entry - synced entry
      */
-    public void addPathsRows(PathElement[] entry)
+    public void setFindSynced(DataEntryElement entry)
     {
+        checkNotMainThread();
         SQLiteDatabase db = this.getWritableDatabase();
+        SQLiteStatement updateFind = null;
         try
         {
-            db.beginTransaction();
-            for (PathElement e: entry)
-            {
-                // The values to be written in a row
-                ContentValues values = new ContentValues();
-                values.put(KEY_BEGIN_LATITUDE, e.getBeginLatitude());
-                values.put(KEY_BEGIN_LONGITUDE, e.getBeginLongitude());
-                values.put(KEY_BEGIN_ALTITUDE, e.getBeginAltitude());
-                values.put(KEY_BEGIN_STATUS, e.getBeginStatus());
-                values.put(KEY_BEGIN_AR_RATIO, e.getBeginARRatio());
-                values.put(KEY_END_LATITUDE, e.getEndLatitude());
-                values.put(KEY_END_LONGITUDE, e.getEndLongitude());
-                values.put(KEY_END_ALTITUDE, e.getEndAltitude());
-                values.put(KEY_END_STATUS, e.getEndStatus());
-                values.put(KEY_END_AR_RATIO, e.getEndARRatio());
-                values.put(KEY_HEMISPHERE, e.getHemisphere());
-                values.put(KEY_ZONE, e.getZone());
-                values.put(KEY_BEGIN_NORTHING, e.getBeginNorthing());
-                values.put(KEY_BEGIN_EASTING, e.getBeginEasting());
-                values.put(KEY_END_NORTHING, e.getEndNorthing());
-                values.put(KEY_END_EASTING, e.getEndEasting());
-                values.put(KEY_END_TIME, e.getEndTime());
-                values.put(KEY_BEEN_SYNCED, e.getBeenSynced() ? 1 : 0);
-                // Try to make an update call
-                int rowsAffected = db.update(PATHS_TABLE_NAME, values, KEY_TEAM_MEMBER + " ='"
-                        + e.getTeamMember() +"' AND " + KEY_BEGIN_TIME + "='" + e.getBeginTime() + "'", null);
-                // If update call fails, rowsAffected will be 0. If not, it means the row was updated
-                if (rowsAffected == 0)
-                {
-                    // If update fails, it means the key does not exist in table. Create a new row
-                    // with the given teamMember and startTime.
-                    values.put(KEY_TEAM_MEMBER, e.getTeamMember());
-                    values.put(KEY_BEGIN_TIME, e.getBeginTime());
-                    db.insert(PATHS_TABLE_NAME, null, values);
-                }
-            }
-            db.setTransactionSuccessful();
-            db.endTransaction();
+            updateFind = db.compileStatement(SET_FIND_SYNCED_SQL);
+            updateFind.bindString(1, entry.getID());
+            updateFind.executeUpdateDelete();
         }
         catch (Exception e)
         {
@@ -252,46 +648,25 @@ public class DatabaseHandler extends SQLiteOpenHelper
         }
         finally
         {
-            db.close();
+            close(updateFind);
         }
     }
 
     /**
-     * Helper function to set a path to synced
+     * Helper function to set a path to synced. Only the flag is written, so the path's stored fields are kept.
      * @param entry - synced entry
      */
     public void setPathSynced(PathElement entry)
     {
+        checkNotMainThread();
         SQLiteDatabase db = this.getWritableDatabase();
+        SQLiteStatement updatePath = null;
         try
         {
-            db.beginTransaction();
-            // The values to be written in a row
-            ContentValues values = new ContentValues();
-            values.put(KEY_BEGIN_LATITUDE, entry.getBeginLatitude());
-            values.put(KEY_BEGIN_LONGITUDE, entry.getBeginLongitude());
-            values.put(KEY_BEGIN_ALTITUDE, entry.getBeginAltitude());
-            values.put(KEY_BEGIN_STATUS, entry.getBeginStatus());
-            values.put(KEY_BEGIN_AR_RATIO, entry.getBeginARRatio());
-            values.put(KEY_END_LATITUDE, entry.getEndLatitude());
-            values.put(KEY_END_LONGITUDE, entry.getEndLongitude());
-            values.put(KEY_END_ALTITUDE, entry.getEndAltitude());
-            values.put(KEY_END_STATUS, entry.getEndStatus());
-            values.put(KEY_END_AR_RATIO, entry.getEndARRatio());
-            values.put(KEY_HEMISPHERE, entry.getHemisphere());
-            values.put(KEY_ZONE, entry.getZone());
-            values.put(KEY_BEGIN_NORTHING, entry.getBeginNorthing());
-            values.put(KEY_BEGIN_EASTING, entry.getBeginEasting());
-            values.put(KEY_END_NORTHING, entry.getEndNorthing());
-            values.put(KEY_END_EASTING, entry.getEndEasting());
-            values.put(KEY_END_TIME, entry.getEndTime());
-            // Set beenSynced to true
-            values.put(KEY_BEEN_SYNCED, 1);
-            // Try to make an update call
-            db.update(PATHS_TABLE_NAME, values, KEY_TEAM_MEMBER + " ='" + entry.getTeamMember()
-                    + "' AND " + KEY_BEGIN_TIME + "='" + entry.getBeginTime() + "'", null);
-            db.setTransactionSuccessful();
-            db.endTransaction();
+            updatePath = db.compileStatement(SET_PATH_SYNCED_SQL);
+            updatePath.bindString(1, entry.getTeamMember());
+            updatePath.bindLong(2, entry.getBeginTime());
+            updatePath.executeUpdateDelete();
         }
         catch (Exception e)
         {
@@ -299,8 +674,190 @@ public class DatabaseHandler extends SQLiteOpenHelper
         }
         finally
         {
-            db.close();
+            close(updatePath);
+        }
+    }
+
+    /**
+     * Fail fast in debug builds when database work reaches the main thread. Every query here touches the disk, so
+     * callers on the main thread must go through DatabaseRepository instead.
+     */
+    private static void checkNotMainThread()
+    {
+        if (BuildConfig.DEBUG && Looper.myLooper() == Looper.getMainLooper())
+        {
+            throw new IllegalStateException("Database Access On The Main Thread");
+        }
+    }
+
+    /**
+     * Bind a find to UPDATE_FIND_SQL, INSERT_FIND_SQL or ACK_FIND_SQL. All take the FIND_COLUMNS values followed by
+     * the ID; the insert additionally takes the created timestamp, which the caller binds.
+     * @param statement - compiled statement
+     * @param e - find to bind
+     * @param beenSynced - synced flag to store
+     */
+    private static void bindFind(SQLiteStatement statement, DataEntryElement e, boolean beenSynced)
+    {
+        statement.clearBindings();
+        bind(statement, 1, e.getLatitude());
+        bind(statement, 2, e.getLongitude());
+        bind(statement, 3, e.getAltitude());
+        bind(statement, 4, e.getStatus());
+        bind(statement, 5, e.getARRatio());
+        bind(statement, 6, e.getMaterial());
+        bind(statement, 7, e.getComments());
+        bind(statement, 8, e.getUpdateTimestamp());
+        bind(statement, 9, e.getZone());
+        bind(statement, 10, e.getHemisphere());
+        bind(statement, 11, e.getNorthing());
+        bind(statement, 12, e.getPreciseNorthing());
+        bind(statement, 13, e.getEasting());
+        bind(statement, 14, e.getPreciseEasting());
+        bind(statement, 15, e.getSample());
+        bind(statement, 16, beenSynced ? 1 : 0);
+        bind(statement, 17, FindGrid.cell(e.getZone(), e.getHemisphere(),
+                e.getPreciseEasting() != null ? e.getPreciseEasting() : e.getEasting(),
+                e.getPreciseNorthing() != null ? e.getPreciseNorthing() : e.getNorthing()));
+        bind(statement, 18, e.getID());
+    }
+
+    /**
+     * Bind a path to UPDATE_PATH_SQL, INSERT_PATH_SQL or ACK_PATH_SQL. All take the PATH_COLUMNS values followed by
+     * the team member and start time.
+     * @param statement - compiled statement
+     * @param e - path to bind
+     * @param beenSynced - synced flag to store
+     */
+    private static void bindPath(SQLiteStatement statement, PathElement e, boolean beenSynced)
+    {
+        statement.clearBindings();
+        bind(statement, 1, e.getBeginLatitude());
+        bind(statement, 2, e.getBeginLongitude());
+        bind(statement, 3, e.getBeginAltitude());
+        bind(statement, 4, e.getBeginStatus());
+        bind(statement, 5, e.getBeginARRatio());
+        bind(statement, 6, e.getEndLatitude());
+        bind(statement, 7, e.getEndLongitude());
+        bind(statement, 8, e.getEndAltitude());
+        bind(statement, 9, e.getEndStatus());
+        bind(statement, 10, e.getEndARRatio());
+        bind(statement, 11, e.getHemisphere());
+        bind(statement, 12, e.getZone());
+        bind(statement, 13, e.getBeginNorthing());
+        bind(statement, 14, e.getBeginEasting());
+        bind(statement, 15, e.getEndNorthing());
+        bind(statement, 16, e.getEndEasting());
+        bind(statement, 17, e.getEndTime());
+        bind(statement, 18, beenSynced ? 1 : 0);
+        bind(statement, 19, e.getTeamMember());
+        bind(statement, 20, e.getBeginTime());
+    }
+
+    /**
+     * Bind a possibly null value to a statement parameter
+     * @param statement - compiled statement
+     * @param index - 1-based parameter index
+     * @param value - a String, Number or null
+     */
+    private static void bind(SQLiteStatement statement, int index, Object value)
+    {
+        if (value == null)
+        {
+            statement.bindNull(index);
+        }
+        else if (value instanceof Double || value instanceof Float)
+        {
+            statement.bindDouble(index, ((Number) value).doubleValue());
+        }
+        else if (value instanceof Number)
+        {
+            statement.bindLong(index, ((Number) value).longValue());
+        }
+        else
+        {
+            statement.bindString(index, value.toString());
+        }
+    }
+
+    /**
+     * Close compiled statements, skipping any that were never compiled
+     * @param statements - statements to close
+     */
+    private static void close(SQLiteStatement... statements)
+    {
+        for (SQLiteStatement statement: statements)
+        {
+            if (statement != null)
+            {
+                statement.close();
+            }
+        }
+    }
+
+    /**
+     * Build an UPDATE statement with a parameter for each column and each key
+     * @param table - table name
+     * @param columns - columns to set
+     * @param keys - key columns matched in the WHERE clause
+     * @return Returns the SQL
+     */
+    private static String buildUpdateSQL(String table, String[] columns, String... keys)
+    {
+        StringBuilder sql = new StringBuilder("UPDATE ").append(table).append(" SET ");
+        for (int i = 0; i < columns.length; i++)
+        {
+            sql.append(i == 0 ? "" : ", ").append(columns[i]).append("=?");
+        }
+        for (int i = 0; i < keys.length; i++)
+        {
+            sql.append(i == 0 ? " WHERE " : " AND ").append(keys[i]).append("=?");
+        }
+        return sql.toString();
+    }
+
+    /**
+     * Build an UPDATE statement that sets the synced flag of a row whose columns all hold their parameters
+     * @param table - table name
+     * @param columns - columns compared, in parameter order
+     * @param keys - key columns matched after them
+     * @return Returns the SQL
+     */
+    private static String buildAckSQL(String table, String[] columns, String... keys)
+    {
+        StringBuilder sql = new StringBuilder("UPDATE ").append(table).append(" SET ").append(KEY_BEEN_SYNCED)
+                .append("=1 WHERE ");
+        for (int i = 1; i <= columns.length; i++)
+        {
+            // Rows are read with null numbers as 0, so a null column matches 0 as well as null
+            String column = columns[i - 1];
+            sql.append("(").append(column).append(" IS ?").append(i).append(" OR (").append(column)
+                    .append(" IS NULL AND ?").append(i).append("=0)) AND ");
+        }
+        for (int i = 0; i < keys.length; i++)
+        {
+            sql.append(i == 0 ? "" : " AND ").append(keys[i]).append("=?").append(columns.length + i + 1);
+        }
+        return sql.toString();
+    }
+
+    /**
+     * Build an INSERT statement with a parameter for each column
+     * @param table - table name
+     * @param columns - columns in parameter order
+     * @param extraColumns - further columns, bound after the others
+     * @return Returns the SQL
+     */
+    private static String buildInsertSQL(String table, String[] columns, String... extraColumns)
+    {
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (");
+        StringBuilder parameters = new StringBuilder();
+        for (int i = 0; i < columns.length + extraColumns.length; i++)
+        {
+            sql.append(i == 0 ? "" : ", ").append(i < columns.length ? columns[i] : extraColumns[i - columns.length]);
+            parameters.append(i == 0 ? "?" : ", ?");
         }
+        return sql.append(") VALUES (").append(parameters).append(")").toString();
     }
 
     /**
@@ -309,41 +866,22 @@ public class DatabaseHandler extends SQLiteOpenHelper
      */
     public ArrayList<DataEntryElement> getUnsyncedFindsRows()
     {
+        checkNotMainThread();
         ArrayList<DataEntryElement> dataEntryElements = new ArrayList<>();
-        String selectQuery = "SELECT  * FROM " + FINDS_TABLE_NAME + " WHERE "+ KEY_BEEN_SYNCED +
-                "=0 ORDER BY " + KEY_CREATED_TIMESTAMP + " DESC";
-        SQLiteDatabase db = this.getWritableDatabase();
+        // One pass over the finds and their images. Both sides are read through their indexes, so rows of the
+        // same find are adjacent and its images come out in the order they were added, which lets
+        // readFindsWithImages fold them into a single element without a sort.
+        String selectQuery = "SELECT " + FINDS_TABLE_NAME + ".*, " + IMAGE_TABLE_NAME + "." + KEY_IMAGE_ID + " FROM "
+                + FINDS_TABLE_NAME + " LEFT JOIN " + IMAGE_TABLE_NAME + " ON " + IMAGE_TABLE_NAME + "."
+                + KEY_IMAGE_BUCKET + "=" + FINDS_TABLE_NAME + "." + KEY_ID + " WHERE " + FINDS_TABLE_NAME + "."
+                + KEY_BEEN_SYNCED + "=0 ORDER BY " + FINDS_TABLE_NAME + "." + KEY_CREATED_TIMESTAMP + " DESC, "
+                + FINDS_TABLE_NAME + "." + KEY_ID + " DESC";
+        SQLiteDatabase db = this.getReadableDatabase();
         Cursor cursor = null;
         try
         {
             cursor = db.rawQuery(selectQuery, null);
-            if (cursor.moveToFirst())
-            {
-                do
-                {
-                    DataEntryElement entry = new DataEntryElement(cursor.getString(cursor.getColumnIndex(KEY_ID)),
-                            cursor.getDouble(cursor.getColumnIndex(KEY_LATITUDE)),
-                            cursor.getDouble(cursor.getColumnIndex(KEY_LONGITUDE)),
-                            cursor.getDouble(cursor.getColumnIndex(KEY_ALTITUDE)),
-                            cursor.getString(cursor.getColumnIndex(KEY_STATUS)),
-                            cursor.getDouble(cursor.getColumnIndex(KEY_AR_RATIO)),
-                            getImages(cursor.getString(cursor.getColumnIndex(KEY_ID))),
-                            cursor.getString(cursor.getColumnIndex(KEY_MATERIAL)),
-                            cursor.getString(cursor.getColumnIndex(KEY_COMMENT)),
-                            cursor.getLong(cursor.getColumnIndex(KEY_CREATED_TIMESTAMP)),
-                            cursor.getLong(cursor.getColumnIndex(KEY_UPDATED_TIMESTAMP)),
-                            cursor.getInt(cursor.getColumnIndex(KEY_ZONE)),
-                            cursor.getString(cursor.getColumnIndex(KEY_HEMISPHERE)),
-                            cursor.getInt(cursor.getColumnIndex(KEY_NORTHING)),
-                            cursor.getDouble(cursor.getColumnIndex(KEY_PRECISE_NORTHING)),
-                            cursor.getInt(cursor.getColumnIndex(KEY_EASTING)),
-                            cursor.getDouble(cursor.getColumnIndex(KEY_PRECISE_EASTING)),
-                            cursor.getInt(cursor.getColumnIndex(KEY_SAMPLE)),
-                            cursor.getInt(cursor.getColumnIndex(KEY_BEEN_SYNCED))>0);
-                    dataEntryElements.add(entry);
-                }
-                while (cursor.moveToNext());
-            }
+            readFindsWithImages(cursor, dataEntryElements);
         }
         catch(Exception e)
         {
@@ -355,51 +893,27 @@ public class DatabaseHandler extends SQLiteOpenHelper
             {
                 cursor.close();
             }
-            db.close();
         }
         return dataEntryElements;
     }
 
     /**
-     * Helper function to get all unsynced paths from the database
-     * @return An array list of all rows fetched
+     * Count the unsynced finds
+     * @return Returns the number of unsynced finds
      */
-    public ArrayList<PathElement> getUnsyncedPathsRows()
+    public int getUnsyncedFindsCount()
     {
-        ArrayList<PathElement> pathElements = new ArrayList<>();
-        String selectQuery = "SELECT  * FROM " + PATHS_TABLE_NAME + " WHERE " + KEY_BEEN_SYNCED + "=0 ORDER BY " + KEY_BEGIN_TIME;
-        SQLiteDatabase db = this.getWritableDatabase();
+        checkNotMainThread();
+        String selectQuery = "SELECT COUNT(*) FROM " + FINDS_TABLE_NAME + " WHERE " + KEY_BEEN_SYNCED + "=0";
+        SQLiteDatabase db = this.getReadableDatabase();
         Cursor cursor = null;
+        int count = 0;
         try
         {
             cursor = db.rawQuery(selectQuery, null);
             if (cursor.moveToFirst())
             {
-                do
-                {
-                    PathElement entry = new PathElement(cursor.getString(cursor.getColumnIndex(KEY_TEAM_MEMBER)),
-                            cursor.getDouble(cursor.getColumnIndex(KEY_BEGIN_LATITUDE)),
-                            cursor.getDouble(cursor.getColumnIndex(KEY_BEGIN_LONGITUDE)),
-                            cursor.getDouble(cursor.getColumnIndex(KEY_BEGIN_ALTITUDE)),
-                            cursor.getDouble(cursor.getColumnIndex(KEY_END_LATITUDE)),
-                            cursor.getDouble(cursor.getColumnIndex(KEY_END_LONGITUDE)),
-                            cursor.getDouble(cursor.getColumnIndex(KEY_END_ALTITUDE)),
-                            cursor.getString(cursor.getColumnIndex(KEY_HEMISPHERE)),
-                            cursor.getInt(cursor.getColumnIndex(KEY_ZONE)),
-                            cursor.getDouble(cursor.getColumnIndex(KEY_BEGIN_EASTING)),
-                            cursor.getDouble(cursor.getColumnIndex(KEY_BEGIN_NORTHING)),
-                            cursor.getDouble(cursor.getColumnIndex(KEY_END_EASTING)),
-                            cursor.getDouble(cursor.getColumnIndex(KEY_END_NORTHING)),
-                            cursor.getLong(cursor.getColumnIndex(KEY_BEGIN_TIME)),
-                            cursor.getLong(cursor.getColumnIndex(KEY_END_TIME)),
-                            cursor.getString(cursor.getColumnIndex(KEY_BEGIN_STATUS)),
-                            cursor.getString(cursor.getColumnIndex(KEY_END_STATUS)),
-                            cursor.getDouble(cursor.getColumnIndex(KEY_BEGIN_AR_RATIO)),
-                            cursor.getDouble(cursor.getColumnIndex(KEY_END_AR_RATIO)),
-                            cursor.getInt(cursor.getColumnIndex(KEY_BEEN_SYNCED))>0);
-                    pathElements.add(entry);
-                }
-                while (cursor.moveToNext());
+                count = cursor.getInt(0);
             }
         }
         catch (Exception e)
@@ -412,47 +926,50 @@ public class DatabaseHandler extends SQLiteOpenHelper
             {
                 cursor.close();
             }
-            db.close();
         }
-        return pathElements;
+        return count;
     }
 
-    private void addImages(String entryID, ArrayList<String> imagePaths)
+    /**
+     * Fetch one page of unsynced finds, in the same newest-first order as getUnsyncedFindsRows. When the find just
+     * before the page is known, the page is located by seeking the created timestamp index to it (keyset
+     * pagination), which costs the same at any depth. Otherwise the page is located by skipping rows.
+     * @param afterTimestamp - created timestamp of the find just before this page, or null if not known
+     * @param afterID - ID of the find just before this page, or null if not known
+     * @param offset - number of finds to skip. Only used when the find before the page is not known.
+     * @param limit - maximum number of finds on the page
+     * @return Returns the finds on the page, with their images
+     */
+    public ArrayList<DataEntryElement> getUnsyncedFindsPage(Long afterTimestamp, String afterID, int offset, int limit)
     {
-        SQLiteDatabase db = this.getWritableDatabase();
-        try
+        checkNotMainThread();
+        ArrayList<DataEntryElement> dataEntryElements = new ArrayList<>();
+        boolean seek = afterTimestamp != null && afterID != null;
+        // The limit applies to finds, so page the finds table first and join the images of that page afterwards.
+        // The first condition bounds the index range, the second breaks ties between equal timestamps.
+        String selectQuery = "SELECT " + FINDS_TABLE_NAME + ".*, " + IMAGE_TABLE_NAME + "." + KEY_IMAGE_ID
+                + " FROM (SELECT * FROM " + FINDS_TABLE_NAME + " WHERE " + KEY_BEEN_SYNCED + "=0"
+                + (seek ? " AND " + KEY_CREATED_TIMESTAMP + "<=? AND (" + KEY_CREATED_TIMESTAMP + "<? OR " + KEY_ID
+                + "<?)" : "") + " ORDER BY " + KEY_CREATED_TIMESTAMP + " DESC, " + KEY_ID + " DESC LIMIT ? OFFSET ?) AS "
+                + FINDS_TABLE_NAME + " LEFT JOIN " + IMAGE_TABLE_NAME + " ON " + IMAGE_TABLE_NAME + "."
+                + KEY_IMAGE_BUCKET + "=" + FINDS_TABLE_NAME + "." + KEY_ID + " ORDER BY " + FINDS_TABLE_NAME + "."
+                + KEY_CREATED_TIMESTAMP + " DESC, " + FINDS_TABLE_NAME + "." + KEY_ID + " DESC";
+        String[] args;
+        if (seek)
         {
-            db.beginTransaction();
-            for (String imagePath: imagePaths)
-            {
-                // The values to be written in a row
-                ContentValues values = new ContentValues();
-                values.put(KEY_IMAGE_ID, imagePath);
-                values.put(KEY_IMAGE_BUCKET, entryID);
-                db.insert(IMAGE_TABLE_NAME, null, values);
-            }
-            db.setTransactionSuccessful();
-            db.endTransaction();
+            args = new String[]{String.valueOf(afterTimestamp), String.valueOf(afterTimestamp), afterID,
+                    String.valueOf(limit), "0"};
         }
-        catch (Exception e)
+        else
         {
-            e.printStackTrace();
+            args = new String[]{String.valueOf(limit), String.valueOf(offset)};
         }
-    }
-
-    /**
-     * Delete images
-     * @param entryID - entry to delete
-     */
-    private void deleteImages(String entryID)
-    {
-        SQLiteDatabase db = this.getWritableDatabase();
-        String deleteImagesQuery = "DELETE FROM " + IMAGE_TABLE_NAME + " WHERE " + KEY_IMAGE_BUCKET + " ='" + entryID + "'" ;
+        SQLiteDatabase db = this.getReadableDatabase();
         Cursor cursor = null;
         try
         {
-            cursor = db.rawQuery(deleteImagesQuery, null);
-            cursor.getCount();
+            cursor = db.rawQuery(selectQuery, args);
+            readFindsWithImages(cursor, dataEntryElements);
         }
         catch (Exception e)
         {
@@ -465,30 +982,46 @@ public class DatabaseHandler extends SQLiteOpenHelper
                 cursor.close();
             }
         }
+        return dataEntryElements;
     }
 
     /**
-     * Get images
-     * @param entryID - item whose images to fetch
-     * @return Returns the images
+     * Get the finds inside a UTM box, through the spatial index. Reads only the index ranges of the grid rows the box
+     * covers rather than every find.
+     * @param zone - UTM zone of the box
+     * @param hemisphere - hemisphere of the box, N or S
+     * @param minEasting - west edge in meters
+     * @param minNorthing - south edge in meters
+     * @param maxEasting - east edge in meters
+     * @param maxNorthing - north edge in meters
+     * @param unsyncedOnly - whether to leave out synced finds
+     * @return Returns the finds in the box, with their images, in no particular order
      */
-    private ArrayList<String> getImages(String entryID)
+    public ArrayList<DataEntryElement> getFindsInBox(int zone, String hemisphere, double minEasting,
+                                                     double minNorthing, double maxEasting, double maxNorthing,
+                                                     boolean unsyncedOnly)
     {
-        String selectQuery = "SELECT  * FROM " + IMAGE_TABLE_NAME + " WHERE " + KEY_IMAGE_BUCKET + "='" + entryID + "'";
-        SQLiteDatabase db = this.getWritableDatabase();
+        checkNotMainThread();
+        ArrayList<DataEntryElement> dataEntryElements = new ArrayList<>();
+        ArrayList<String> args = new ArrayList<>();
+        String condition = buildBoxCondition(zone, hemisphere, minEasting, minNorthing, maxEasting, maxNorthing,
+                unsyncedOnly, args);
+        if (condition == null)
+        {
+            return dataEntryElements;
+        }
+        // No ORDER BY: sorting by ID makes SQLite walk the whole table in ID order instead of the cell index. The left
+        // join still reads each find's images right after it, which is all readFindsWithImages needs.
+        String selectQuery = "SELECT " + FINDS_TABLE_NAME + ".*, " + IMAGE_TABLE_NAME + "." + KEY_IMAGE_ID
+                + " FROM (SELECT * FROM " + FINDS_TABLE_NAME + " WHERE " + condition + ") AS " + FINDS_TABLE_NAME
+                + " LEFT JOIN " + IMAGE_TABLE_NAME + " ON " + IMAGE_TABLE_NAME + "." + KEY_IMAGE_BUCKET + "="
+                + FINDS_TABLE_NAME + "." + KEY_ID;
+        SQLiteDatabase db = this.getReadableDatabase();
         Cursor cursor = null;
-        ArrayList<String> imagePaths = new ArrayList<>();
         try
         {
-            cursor = db.rawQuery(selectQuery, null);
-            if (cursor.moveToFirst())
-            {
-                do
-                {
-                    imagePaths.add(cursor.getString(cursor.getColumnIndex(KEY_IMAGE_ID)));
-                }
-                while (cursor.moveToNext());
-            }
+            cursor = db.rawQuery(selectQuery, args.toArray(new String[args.size()]));
+            readFindsWithImages(cursor, dataEntryElements);
         }
         catch (Exception e)
         {
@@ -500,33 +1033,1011 @@ public class DatabaseHandler extends SQLiteOpenHelper
             {
                 cursor.close();
             }
-            db.close();
         }
-        return imagePaths;
+        return dataEntryElements;
     }
 
     /**
-     * Helper function to fetch a single row from table
-     * @param zone The zone of this bucket, UTM
-     * @param hemisphere The hemipshere of this bucket
-     * @param northing The northing of this bucket
-     * @param easting The easting of this bucket
-     * @return the highest sample number found in the local db for this bucket
+     * Get the finds inside several UTM boxes, such as the parts of a map view that fall in different zones
+     * @param zones - UTM zone of each box
+     * @param hemispheres - hemisphere of each box, N or S
+     * @param boxes - west, south, east and north edge of each box in meters, four values per box
+     * @param count - number of boxes
+     * @param unsyncedOnly - whether to leave out synced finds
+     * @return Returns the finds in the boxes, with their images, in no particular order
      */
-    public Integer getLastSampleFromBucket(Integer zone, String hemisphere, Integer northing, Integer easting)
+    public ArrayList<DataEntryElement> getFindsInBoxes(int[] zones, char[] hemispheres, double[] boxes, int count,
+                                                       boolean unsyncedOnly)
     {
-        String selectQuery = "SELECT * FROM " + FINDS_TABLE_NAME + " WHERE " + KEY_ZONE + "='" + zone + "' AND "
-                + KEY_HEMISPHERE + "='" + hemisphere + "' AND " + KEY_NORTHING + "='" + northing + "' AND "
-                + KEY_EASTING + "='" + easting + "' ORDER BY " + KEY_SAMPLE + " DESC";
-        SQLiteDatabase db = this.getWritableDatabase();
+        ArrayList<DataEntryElement> dataEntryElements = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+        {
+            dataEntryElements.addAll(getFindsInBox(zones[i], String.valueOf(hemispheres[i]), boxes[4 * i],
+                    boxes[4 * i + 1], boxes[4 * i + 2], boxes[4 * i + 3], unsyncedOnly));
+        }
+        return dataEntryElements;
+    }
+
+    /**
+     * Get the finds nearest a UTM position, through the spatial index. Searches boxes of doubling size around the
+     * position until one holds enough finds and the farthest of the nearest is no farther than the box's half
+     * width, since no find outside the box can then be nearer.
+     * @param zone - UTM zone of the position
+     * @param hemisphere - hemisphere of the position, N or S
+     * @param easting - easting in meters
+     * @param northing - northing in meters
+     * @param count - number of finds wanted, at most MAX_NEAREST_FINDS
+     * @param unsyncedOnly - whether to leave out synced finds
+     * @return Returns the nearest finds, nearest first, with their images
+     */
+    public ArrayList<DataEntryElement> getNearestFinds(int zone, String hemisphere, double easting, double northing,
+                                                       int count, boolean unsyncedOnly)
+    {
+        checkNotMainThread();
+        count = Math.min(count, MAX_NEAREST_FINDS);
+        ArrayList<DataEntryElement> dataEntryElements = new ArrayList<>();
+        if (count <= 0)
+        {
+            return dataEntryElements;
+        }
+        SQLiteDatabase db = this.getReadableDatabase();
+        ArrayList<String> IDs = new ArrayList<>();
+        final ArrayList<Double> distances = new ArrayList<>();
+        Integer[] order = new Integer[0];
         Cursor cursor = null;
-        Integer highestSampleNum = 0;
         try
         {
-            cursor = db.rawQuery(selectQuery, null);
-            if (cursor.moveToFirst())
+            for (double radius = FindGrid.CELL_METERS; ; radius *= 2)
+            {
+                ArrayList<String> args = new ArrayList<>();
+                String condition = buildBoxCondition(zone, hemisphere, easting - radius, northing - radius,
+                        easting + radius, northing + radius, unsyncedOnly, args);
+                if (condition == null)
+                {
+                    break;
+                }
+                IDs.clear();
+                distances.clear();
+                cursor = db.rawQuery("SELECT " + KEY_ID + ", " + FIND_EASTING_SQL + ", " + FIND_NORTHING_SQL
+                        + " FROM " + FINDS_TABLE_NAME + " WHERE " + condition, args.toArray(new String[args.size()]));
+                while (cursor.moveToNext())
+                {
+                    double de = cursor.getDouble(1) - easting, dn = cursor.getDouble(2) - northing;
+                    IDs.add(cursor.getString(0));
+                    distances.add(Math.sqrt(de * de + dn * dn));
+                }
+                cursor.close();
+                cursor = null;
+                order = new Integer[IDs.size()];
+                for (int i = 0; i < order.length; i++)
+                {
+                    order[i] = i;
+                }
+                Arrays.sort(order, new Comparator<Integer>() {
+                    /**
+                     * Order candidates nearest first
+                     * @param a - candidate index
+                     * @param b - candidate index
+                     * @return Returns the comparison of their distances
+                     */
+                    @Override
+                    public int compare(Integer a, Integer b)
+                    {
+                        return Double.compare(distances.get(a), distances.get(b));
+                    }
+                });
+                if ((order.length >= count && distances.get(order[count - 1]) <= radius)
+                        || radius >= MAX_NEAREST_RADIUS)
+                {
+                    break;
+                }
+            }
+            int found = Math.min(count, order.length);
+            if (found == 0)
+            {
+                return dataEntryElements;
+            }
+            // Read the nearest finds whole, then put them back in distance order
+            String[] nearestIDs = new String[found];
+            StringBuilder parameters = new StringBuilder();
+            for (int i = 0; i < found; i++)
+            {
+                nearestIDs[i] = IDs.get(order[i]);
+                parameters.append(i == 0 ? "?" : ", ?");
+            }
+            String selectQuery = "SELECT " + FINDS_TABLE_NAME + ".*, " + IMAGE_TABLE_NAME + "." + KEY_IMAGE_ID
+                    + " FROM " + FINDS_TABLE_NAME + " LEFT JOIN " + IMAGE_TABLE_NAME + " ON " + IMAGE_TABLE_NAME + "."
+                    + KEY_IMAGE_BUCKET + "=" + FINDS_TABLE_NAME + "." + KEY_ID + " WHERE " + FINDS_TABLE_NAME + "."
+                    + KEY_ID + " IN (" + parameters + ") ORDER BY " + FINDS_TABLE_NAME + "." + KEY_ID;
+            ArrayList<DataEntryElement> unordered = new ArrayList<>();
+            cursor = db.rawQuery(selectQuery, nearestIDs);
+            readFindsWithImages(cursor, unordered);
+            HashMap<String, DataEntryElement> byID = new HashMap<>();
+            for (DataEntryElement e: unordered)
+            {
+                byID.put(e.getID(), e);
+            }
+            for (String ID: nearestIDs)
+            {
+                if (byID.containsKey(ID))
+                {
+                    dataEntryElements.add(byID.get(ID));
+                }
+            }
+        }
+        catch (Exception e)
+        {
+            e.printStackTrace();
+        }
+        finally
+        {
+            if (cursor != null)
+            {
+                cursor.close();
+            }
+        }
+        return dataEntryElements;
+    }
+
+    /**
+     * Build the condition selecting the finds inside a UTM box: one FindGrid key range per grid row, which the cell
+     * index answers, then the exact bounds, since the cells along the edges reach past the box
+     * @param zone - UTM zone of the box
+     * @param hemisphere - hemisphere of the box, N or S
+     * @param minEasting - west edge in meters
+     * @param minNorthing - south edge in meters
+     * @param maxEasting - east edge in meters
+     * @param maxNorthing - north edge in meters
+     * @param unsyncedOnly - whether to leave out synced finds
+     * @param args - list the condition's arguments are appended to
+     * @return Returns the SQL, or null if the box is outside the grid
+     */
+    private static String buildBoxCondition(int zone, String hemisphere, double minEasting, double minNorthing,
+                                            double maxEasting, double maxNorthing, boolean unsyncedOnly,
+                                            ArrayList<String> args)
+    {
+        long[] ranges = new long[2 * FindGrid.MAX_RANGES];
+        int count = FindGrid.ranges(zone, hemisphere, minEasting, minNorthing, maxEasting, maxNorthing, ranges);
+        if (count == 0)
+        {
+            return null;
+        }
+        // rawQuery binds every argument as text. A column compared with text converts it to the column's type, but
+        // an expression such as COALESCE has no type of its own, so the text would never equal a number. Cast the
+        // arguments back to numbers so both kinds of comparison hold.
+        StringBuilder condition = new StringBuilder("(");
+        for (int i = 0; i < count; i++)
+        {
+            condition.append(i == 0 ? "" : " OR ").append(KEY_CELL)
+                    .append(" BETWEEN CAST(? AS INTEGER) AND CAST(? AS INTEGER)");
+            args.add(String.valueOf(ranges[2 * i]));
+            args.add(String.valueOf(ranges[2 * i + 1]));
+        }
+        condition.append(") AND ").append(FIND_EASTING_SQL).append(" BETWEEN CAST(? AS REAL) AND CAST(? AS REAL) AND ")
+                .append(FIND_NORTHING_SQL).append(" BETWEEN CAST(? AS REAL) AND CAST(? AS REAL)");
+        args.add(String.valueOf(minEasting));
+        args.add(String.valueOf(maxEasting));
+        args.add(String.valueOf(minNorthing));
+        args.add(String.valueOf(maxNorthing));
+        if (unsyncedOnly)
+        {
+            condition.append(" AND ").append(KEY_BEEN_SYNCED).append("=0");
+        }
+        return condition.toString();
+    }
+
+    /**
+     * Build finds from a cursor over the finds table joined with its image names. The rows of one find must be
+     * adjacent; a find without images has a single row with a null image name.
+     * @param cursor - cursor positioned before its first row
+     * @param dataEntryElements - list the finds are appended to
+     */
+    private static void readFindsWithImages(Cursor cursor, ArrayList<DataEntryElement> dataEntryElements)
+    {
+        if (!cursor.moveToFirst())
+        {
+            return;
+        }
+        // Resolve the column positions once for the whole cursor rather than once per field per row
+        final int idIndex = cursor.getColumnIndexOrThrow(KEY_ID);
+        final int latitudeIndex = cursor.getColumnIndexOrThrow(KEY_LATITUDE);
+        final int longitudeIndex = cursor.getColumnIndexOrThrow(KEY_LONGITUDE);
+        final int altitudeIndex = cursor.getColumnIndexOrThrow(KEY_ALTITUDE);
+        final int statusIndex = cursor.getColumnIndexOrThrow(KEY_STATUS);
+        final int ARRatioIndex = cursor.getColumnIndexOrThrow(KEY_AR_RATIO);
+        final int materialIndex = cursor.getColumnIndexOrThrow(KEY_MATERIAL);
+        final int commentIndex = cursor.getColumnIndexOrThrow(KEY_COMMENT);
+        final int createdIndex = cursor.getColumnIndexOrThrow(KEY_CREATED_TIMESTAMP);
+        final int updatedIndex = cursor.getColumnIndexOrThrow(KEY_UPDATED_TIMESTAMP);
+        final int zoneIndex = cursor.getColumnIndexOrThrow(KEY_ZONE);
+        final int hemisphereIndex = cursor.getColumnIndexOrThrow(KEY_HEMISPHERE);
+        final int northingIndex = cursor.getColumnIndexOrThrow(KEY_NORTHING);
+        final int preciseNorthingIndex = cursor.getColumnIndexOrThrow(KEY_PRECISE_NORTHING);
+        final int eastingIndex = cursor.getColumnIndexOrThrow(KEY_EASTING);
+        final int preciseEastingIndex = cursor.getColumnIndexOrThrow(KEY_PRECISE_EASTING);
+        final int sampleIndex = cursor.getColumnIndexOrThrow(KEY_SAMPLE);
+        final int beenSyncedIndex = cursor.getColumnIndexOrThrow(KEY_BEEN_SYNCED);
+        final int imageIndex = cursor.getColumnIndexOrThrow(KEY_IMAGE_ID);
+        String previousID = null;
+        ArrayList<String> imagePaths = null;
+        do
+        {
+            String ID = cursor.getString(idIndex);
+            if (!ID.equals(previousID))
+            {
+                // First row of a new find
+                imagePaths = new ArrayList<>();
+                dataEntryElements.add(new DataEntryElement(ID, cursor.getDouble(latitudeIndex),
+                        cursor.getDouble(longitudeIndex), cursor.getDouble(altitudeIndex),
+                        cursor.getString(statusIndex), cursor.getDouble(ARRatioIndex), imagePaths,
+                        cursor.getString(materialIndex), cursor.getString(commentIndex), cursor.getLong(createdIndex),
+                        cursor.getLong(updatedIndex), cursor.getInt(zoneIndex), cursor.getString(hemisphereIndex),
+                        cursor.getInt(northingIndex), cursor.getDouble(preciseNorthingIndex),
+                        cursor.getInt(eastingIndex), cursor.getDouble(preciseEastingIndex),
+                        cursor.getInt(sampleIndex), cursor.getInt(beenSyncedIndex) > 0));
+                previousID = ID;
+            }
+            // The element keeps a reference to imagePaths, so later rows of this find fill it in
+            if (!cursor.isNull(imageIndex))
+            {
+                imagePaths.add(cursor.getString(imageIndex));
+            }
+        }
+        while (cursor.moveToNext());
+    }
+
+    /**
+     * Helper function to get all unsynced paths from the database
+     * @return An array list of all rows fetched
+     */
+    public ArrayList<PathElement> getUnsyncedPathsRows()
+    {
+        checkNotMainThread();
+        ArrayList<PathElement> pathElements = new ArrayList<>();
+        String selectQuery = "SELECT  * FROM " + PATHS_TABLE_NAME + " WHERE " + KEY_BEEN_SYNCED + "=0 ORDER BY " + KEY_BEGIN_TIME;
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor cursor = null;
+        try
+        {
+            cursor = db.rawQuery(selectQuery, null);
+            readPaths(cursor, pathElements);
+        }
+        catch (Exception e)
+        {
+            e.printStackTrace();
+        }
+        finally
+        {
+            if (cursor != null)
+            {
+                cursor.close();
+            }
+        }
+        return pathElements;
+    }
+
+    /**
+     * Read paths from a cursor over the paths table
+     * @param cursor - cursor over path rows
+     * @param pathElements - list to add the paths to
+     */
+    private static void readPaths(Cursor cursor, ArrayList<PathElement> pathElements)
+    {
+        if (!cursor.moveToFirst())
+        {
+            return;
+        }
+        final int teamMemberIndex = cursor.getColumnIndexOrThrow(KEY_TEAM_MEMBER);
+        final int beginLatitudeIndex = cursor.getColumnIndexOrThrow(KEY_BEGIN_LATITUDE);
+        final int beginLongitudeIndex = cursor.getColumnIndexOrThrow(KEY_BEGIN_LONGITUDE);
+        final int beginAltitudeIndex = cursor.getColumnIndexOrThrow(KEY_BEGIN_ALTITUDE);
+        final int endLatitudeIndex = cursor.getColumnIndexOrThrow(KEY_END_LATITUDE);
+        final int endLongitudeIndex = cursor.getColumnIndexOrThrow(KEY_END_LONGITUDE);
+        final int endAltitudeIndex = cursor.getColumnIndexOrThrow(KEY_END_ALTITUDE);
+        final int hemisphereIndex = cursor.getColumnIndexOrThrow(KEY_HEMISPHERE);
+        final int zoneIndex = cursor.getColumnIndexOrThrow(KEY_ZONE);
+        final int beginEastingIndex = cursor.getColumnIndexOrThrow(KEY_BEGIN_EASTING);
+        final int beginNorthingIndex = cursor.getColumnIndexOrThrow(KEY_BEGIN_NORTHING);
+        final int endEastingIndex = cursor.getColumnIndexOrThrow(KEY_END_EASTING);
+        final int endNorthingIndex = cursor.getColumnIndexOrThrow(KEY_END_NORTHING);
+        final int beginTimeIndex = cursor.getColumnIndexOrThrow(KEY_BEGIN_TIME);
+        final int endTimeIndex = cursor.getColumnIndexOrThrow(KEY_END_TIME);
+        final int beginStatusIndex = cursor.getColumnIndexOrThrow(KEY_BEGIN_STATUS);
+        final int endStatusIndex = cursor.getColumnIndexOrThrow(KEY_END_STATUS);
+        final int beginARRatioIndex = cursor.getColumnIndexOrThrow(KEY_BEGIN_AR_RATIO);
+        final int endARRatioIndex = cursor.getColumnIndexOrThrow(KEY_END_AR_RATIO);
+        final int beenSyncedIndex = cursor.getColumnIndexOrThrow(KEY_BEEN_SYNCED);
+        do
+        {
+            pathElements.add(new PathElement(cursor.getString(teamMemberIndex), cursor.getDouble(beginLatitudeIndex),
+                    cursor.getDouble(beginLongitudeIndex), cursor.getDouble(beginAltitudeIndex),
+                    cursor.getDouble(endLatitudeIndex), cursor.getDouble(endLongitudeIndex),
+                    cursor.getDouble(endAltitudeIndex), cursor.getString(hemisphereIndex), cursor.getInt(zoneIndex),
+                    cursor.getDouble(beginEastingIndex), cursor.getDouble(beginNorthingIndex),
+                    cursor.getDouble(endEastingIndex), cursor.getDouble(endNorthingIndex),
+                    cursor.getLong(beginTimeIndex), cursor.getLong(endTimeIndex), cursor.getString(beginStatusIndex),
+                    cursor.getString(endStatusIndex), cursor.getDouble(beginARRatioIndex),
+                    cursor.getDouble(endARRatioIndex), cursor.getInt(beenSyncedIndex) > 0));
+        }
+        while (cursor.moveToNext());
+    }
+
+    /**
+     * Bring the outbox up to date before a sync pass. Acked records are dropped, records left in flight by an
+     * interrupted pass go back to pending, and every unsynced find and path without an outbox record gets a pending
+     * one. Records whose find or path was synced or removed since are dropped, as are change log entries every
+     * server holding the find has already stored.
+     * @param retryFailed - whether records that failed in earlier passes go back to pending too
+     */
+    public void prepareOutbox(boolean retryFailed)
+    {
+        checkNotMainThread();
+        SQLiteDatabase db = this.getWritableDatabase();
+        String now = String.valueOf(System.currentTimeMillis());
+        db.beginTransaction();
+        try
+        {
+            db.execSQL("DELETE FROM " + OUTBOX_TABLE_NAME + " WHERE " + KEY_OUTBOX_STATE + "=" + OUTBOX_ACKED);
+            db.execSQL("UPDATE " + OUTBOX_TABLE_NAME + " SET " + KEY_OUTBOX_STATE + "=" + OUTBOX_PENDING + " WHERE "
+                    + KEY_OUTBOX_STATE + "=" + OUTBOX_IN_FLIGHT + (retryFailed ? " OR " + KEY_OUTBOX_STATE + "="
+                    + OUTBOX_FAILED : ""));
+            db.execSQL("DELETE FROM " + OUTBOX_TABLE_NAME + " WHERE " + KEY_RECORD_TYPE + "=" + RECORD_FIND + " AND "
+                    + KEY_RECORD_ID + " NOT IN (SELECT " + KEY_ID + " FROM " + FINDS_TABLE_NAME + " WHERE "
+                    + KEY_BEEN_SYNCED + "=0)");
+            db.execSQL("DELETE FROM " + OUTBOX_TABLE_NAME + " WHERE " + KEY_RECORD_TYPE + "=" + RECORD_PATH
+                    + " AND NOT EXISTS (SELECT 1 FROM " + PATHS_TABLE_NAME + " WHERE " + KEY_TEAM_MEMBER + "="
+                    + KEY_RECORD_ID + " AND " + KEY_BEGIN_TIME + "=" + KEY_RECORD_TIME + " AND " + KEY_BEEN_SYNCED
+                    + "=0)");
+            db.execSQL("INSERT OR IGNORE INTO " + OUTBOX_TABLE_NAME + " SELECT " + RECORD_FIND + ", " + KEY_ID
+                    + ", 0, " + OUTBOX_PENDING + ", 0, ? FROM " + FINDS_TABLE_NAME + " WHERE " + KEY_BEEN_SYNCED
+                    + "=0", new Object[]{now});
+            db.execSQL("INSERT OR IGNORE INTO " + OUTBOX_TABLE_NAME + " SELECT " + RECORD_PATH + ", "
+                    + KEY_TEAM_MEMBER + ", " + KEY_BEGIN_TIME + ", " + OUTBOX_PENDING + ", 0, ? FROM "
+                    + PATHS_TABLE_NAME + " WHERE " + KEY_BEEN_SYNCED + "=0", new Object[]{now});
+            db.execSQL("DELETE FROM " + CHANGE_LOG_TABLE_NAME + " WHERE " + KEY_SEQUENCE + "<=(SELECT MIN("
+                    + KEY_SEQUENCE + ") FROM " + WATERMARK_TABLE_NAME + " WHERE " + WATERMARK_TABLE_NAME + "."
+                    + KEY_ID + "=" + CHANGE_LOG_TABLE_NAME + "." + KEY_ID + ")");
+            db.setTransactionSuccessful();
+        }
+        catch (Exception e)
+        {
+            e.printStackTrace();
+        }
+        finally
+        {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Read the finds with pending outbox records and what a server is missing of each, and mark those records in
+     * flight, in one transaction
+     * @param server - server the finds are sent to
+     * @param deltas - filled with the delta of each find, by find ID
+     * @return Returns the finds to send, with their images, oldest first
+     */
+    public ArrayList<DataEntryElement> takePendingOutboxFinds(String server, HashMap<String, FindDelta> deltas)
+    {
+        checkNotMainThread();
+        ArrayList<DataEntryElement> dataEntryElements = new ArrayList<>();
+        String selectQuery = "SELECT " + FINDS_TABLE_NAME + ".*, " + IMAGE_TABLE_NAME + "." + KEY_IMAGE_ID + " FROM "
+                + OUTBOX_TABLE_NAME + " JOIN " + FINDS_TABLE_NAME + " ON " + FINDS_TABLE_NAME + "." + KEY_ID + "="
+                + OUTBOX_TABLE_NAME + "." + KEY_RECORD_ID + " LEFT JOIN " + IMAGE_TABLE_NAME + " ON "
+                + IMAGE_TABLE_NAME + "." + KEY_IMAGE_BUCKET + "=" + FINDS_TABLE_NAME + "." + KEY_ID + " WHERE "
+                + OUTBOX_TABLE_NAME + "." + KEY_OUTBOX_STATE + "=" + OUTBOX_PENDING + " AND " + OUTBOX_TABLE_NAME
+                + "." + KEY_RECORD_TYPE + "=" + RECORD_FIND + " ORDER BY " + FINDS_TABLE_NAME + "."
+                + KEY_CREATED_TIMESTAMP + ", " + FINDS_TABLE_NAME + "." + KEY_ID;
+        SQLiteDatabase db = this.getWritableDatabase();
+        Cursor cursor = null;
+        db.beginTransaction();
+        try
+        {
+            cursor = db.rawQuery(selectQuery, null);
+            readFindsWithImages(cursor, dataEntryElements);
+            cursor.close();
+            cursor = db.rawQuery(PENDING_DELTAS_SQL, new String[]{server});
+            readDeltas(cursor, deltas);
+            markInFlight(db, RECORD_FIND);
+            db.setTransactionSuccessful();
+        }
+        catch (Exception e)
+        {
+            e.printStackTrace();
+            dataEntryElements.clear();
+            deltas.clear();
+        }
+        finally
+        {
+            if (cursor != null)
+            {
+                cursor.close();
+            }
+            db.endTransaction();
+        }
+        return dataEntryElements;
+    }
+
+    /**
+     * Read the paths with pending outbox records and mark those records in flight, in one transaction
+     * @return Returns the paths to send, in start order
+     */
+    public ArrayList<PathElement> takePendingOutboxPaths()
+    {
+        checkNotMainThread();
+        ArrayList<PathElement> pathElements = new ArrayList<>();
+        String selectQuery = "SELECT " + PATHS_TABLE_NAME + ".* FROM " + OUTBOX_TABLE_NAME + " JOIN "
+                + PATHS_TABLE_NAME + " ON " + PATHS_TABLE_NAME + "." + KEY_TEAM_MEMBER + "=" + OUTBOX_TABLE_NAME + "."
+                + KEY_RECORD_ID + " AND " + PATHS_TABLE_NAME + "." + KEY_BEGIN_TIME + "=" + OUTBOX_TABLE_NAME + "."
+                + KEY_RECORD_TIME + " WHERE " + OUTBOX_TABLE_NAME + "." + KEY_OUTBOX_STATE + "=" + OUTBOX_PENDING
+                + " AND " + OUTBOX_TABLE_NAME + "." + KEY_RECORD_TYPE + "=" + RECORD_PATH + " ORDER BY "
+                + PATHS_TABLE_NAME + "." + KEY_BEGIN_TIME;
+        SQLiteDatabase db = this.getWritableDatabase();
+        Cursor cursor = null;
+        db.beginTransaction();
+        try
+        {
+            cursor = db.rawQuery(selectQuery, null);
+            readPaths(cursor, pathElements);
+            markInFlight(db, RECORD_PATH);
+            db.setTransactionSuccessful();
+        }
+        catch (Exception e)
+        {
+            e.printStackTrace();
+            pathElements.clear();
+        }
+        finally
+        {
+            if (cursor != null)
+            {
+                cursor.close();
+            }
+            db.endTransaction();
+        }
+        return pathElements;
+    }
+
+    /**
+     * Fold the change log rows of PENDING_DELTAS_SQL into one delta per find
+     * @param cursor - cursor over PENDING_DELTAS_SQL
+     * @param deltas - filled with the delta of each find, by find ID
+     */
+    private static void readDeltas(Cursor cursor, HashMap<String, FindDelta> deltas)
+    {
+        while (cursor.moveToNext())
+        {
+            String ID = cursor.getString(0);
+            boolean partial = !cursor.isNull(1);
+            long sequence = Math.max(cursor.getLong(1), cursor.getLong(2));
+            int fields = cursor.getInt(3);
+            FindDelta previous = deltas.get(ID);
+            if (previous != null)
+            {
+                sequence = Math.max(sequence, previous.getChangeSequence());
+                fields |= previous.getFields();
+            }
+            deltas.put(ID, new FindDelta(ID, sequence, partial, fields));
+        }
+    }
+
+    /**
+     * Mark every pending outbox record of a type in flight
+     * @param db - database, inside a transaction
+     * @param recordType - record type
+     */
+    private static void markInFlight(SQLiteDatabase db, int recordType)
+    {
+        db.execSQL("UPDATE " + OUTBOX_TABLE_NAME + " SET " + KEY_OUTBOX_STATE + "=" + OUTBOX_IN_FLIGHT + ", "
+                + KEY_ATTEMPTS + "=" + KEY_ATTEMPTS + "+1, " + KEY_UPDATED_TIMESTAMP + "=? WHERE "
+                + KEY_OUTBOX_STATE + "=" + OUTBOX_PENDING + " AND " + KEY_RECORD_TYPE + "=" + recordType,
+                new Object[]{System.currentTimeMillis()});
+    }
+
+    /**
+     * Mark a find synced, its outbox record acked and the server's watermark for it moved up, in one transaction.
+     * If the find was edited or removed since it was read for upload, it is left unsynced and its record goes back
+     * to pending without moving the watermark, so the next sync sends the edit.
+     * @param entry - find the server stored, as it was read for upload
+     * @param server - server that stored it
+     * @param changeSequence - last change log entry the upload covered
+     * @return Returns whether the find was marked synced
+     */
+    public boolean ackFind(DataEntryElement entry, String server, long changeSequence)
+    {
+        checkNotMainThread();
+        SQLiteDatabase db = this.getWritableDatabase();
+        SQLiteStatement ackFind = null, setState = null, setWatermark = null;
+        boolean acked = false;
+        db.beginTransaction();
+        try
+        {
+            ackFind = db.compileStatement(ACK_FIND_SQL);
+            bindFind(ackFind, entry, false);
+            boolean unchanged = ackFind.executeUpdateDelete() == 1;
+            setState = db.compileStatement(SET_OUTBOX_STATE_SQL);
+            bindOutboxState(setState, unchanged ? OUTBOX_ACKED : OUTBOX_PENDING, RECORD_FIND, entry.getID(), 0);
+            setState.executeUpdateDelete();
+            if (unchanged)
+            {
+                setWatermark = db.compileStatement(SET_WATERMARK_SQL);
+                setWatermark.bindString(1, entry.getID());
+                setWatermark.bindString(2, server);
+                setWatermark.bindLong(3, changeSequence);
+                setWatermark.executeInsert();
+            }
+            db.setTransactionSuccessful();
+            acked = unchanged;
+        }
+        catch (Exception e)
+        {
+            e.printStackTrace();
+        }
+        finally
+        {
+            db.endTransaction();
+            close(ackFind, setState, setWatermark);
+        }
+        return acked;
+    }
+
+    /**
+     * Mark a path synced and its outbox record acked, in one transaction. If the path was edited or removed since it
+     * was read for upload, it is left unsynced and its record goes back to pending.
+     * @param entry - path the server stored, as it was read for upload
+     */
+    public void ackPath(PathElement entry)
+    {
+        checkNotMainThread();
+        SQLiteDatabase db = this.getWritableDatabase();
+        SQLiteStatement ackPath = null, setState = null;
+        db.beginTransaction();
+        try
+        {
+            ackPath = db.compileStatement(ACK_PATH_SQL);
+            bindPath(ackPath, entry, false);
+            boolean unchanged = ackPath.executeUpdateDelete() == 1;
+            setState = db.compileStatement(SET_OUTBOX_STATE_SQL);
+            bindOutboxState(setState, unchanged ? OUTBOX_ACKED : OUTBOX_PENDING, RECORD_PATH, entry.getTeamMember(),
+                    entry.getBeginTime());
+            setState.executeUpdateDelete();
+            db.setTransactionSuccessful();
+        }
+        catch (Exception e)
+        {
+            e.printStackTrace();
+        }
+        finally
+        {
+            db.endTransaction();
+            close(ackPath, setState);
+        }
+    }
+
+    /**
+     * Set the outbox state of a find
+     * @param entry - find
+     * @param state - new state
+     */
+    public void setFindOutboxState(DataEntryElement entry, int state)
+    {
+        setOutboxState(state, RECORD_FIND, entry.getID(), 0);
+    }
+
+    /**
+     * Set the outbox state of a path
+     * @param entry - path
+     * @param state - new state
+     */
+    public void setPathOutboxState(PathElement entry, int state)
+    {
+        setOutboxState(state, RECORD_PATH, entry.getTeamMember(), entry.getBeginTime());
+    }
+
+    /**
+     * Set the state of an outbox record
+     * @param state - new state
+     * @param recordType - record type
+     * @param recordID - find ID or team member
+     * @param recordTime - path start time, 0 for finds
+     */
+    private void setOutboxState(int state, int recordType, String recordID, long recordTime)
+    {
+        checkNotMainThread();
+        SQLiteDatabase db = this.getWritableDatabase();
+        SQLiteStatement setState = null;
+        try
+        {
+            setState = db.compileStatement(SET_OUTBOX_STATE_SQL);
+            bindOutboxState(setState, state, recordType, recordID, recordTime);
+            setState.executeUpdateDelete();
+        }
+        catch (Exception e)
+        {
+            e.printStackTrace();
+        }
+        finally
+        {
+            close(setState);
+        }
+    }
+
+    /**
+     * Bind the parameters of SET_OUTBOX_STATE_SQL
+     * @param statement - compiled statement
+     * @param state - new state
+     * @param recordType - record type
+     * @param recordID - find ID or team member
+     * @param recordTime - path start time, 0 for finds
+     */
+    private static void bindOutboxState(SQLiteStatement statement, int state, int recordType, String recordID,
+                                        long recordTime)
+    {
+        statement.clearBindings();
+        statement.bindLong(1, state);
+        statement.bindLong(2, System.currentTimeMillis());
+        statement.bindLong(3, recordType);
+        bind(statement, 4, recordID);
+        statement.bindLong(5, recordTime);
+    }
+
+    /**
+     * Count the outbox records in each state
+     * @return Returns the counts, indexed by OUTBOX_PENDING, OUTBOX_IN_FLIGHT, OUTBOX_ACKED and OUTBOX_FAILED
+     */
+    public int[] getOutboxCounts()
+    {
+        checkNotMainThread();
+        int[] counts = new int[OUTBOX_FAILED + 1];
+        String selectQuery = "SELECT " + KEY_OUTBOX_STATE + ", COUNT(*) FROM " + OUTBOX_TABLE_NAME + " GROUP BY "
+                + KEY_OUTBOX_STATE;
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor cursor = null;
+        try
+        {
+            cursor = db.rawQuery(selectQuery, null);
+            while (cursor.moveToNext())
+            {
+                int state = cursor.getInt(0);
+                if (state >= 0 && state < counts.length)
+                {
+                    counts[state] = cursor.getInt(1);
+                }
+            }
+        }
+        catch (Exception e)
+        {
+            e.printStackTrace();
+        }
+        finally
+        {
+            if (cursor != null)
+            {
+                cursor.close();
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Queue photos for upload. Photos already queued keep their progress.
+     * @param photos - photos to upload
+     */
+    public void addPhotoUploads(PhotoUpload[] photos)
+    {
+        addFindPhotoUploads(null, new String[photos.length], photos);
+    }
+
+    /**
+     * Queue the photos of an uploaded find, and point the find's images at the place each photo was moved to, in
+     * one transaction, so the find never refers to a file that is no longer there
+     * @param findID - find the photos belong to
+     * @param oldPaths - path of each photo before it was moved, or null where it was not moved
+     * @param photos - photos to upload, at their new paths
+     * @return Returns whether the photos were queued
+     */
+    public boolean addFindPhotoUploads(String findID, String[] oldPaths, PhotoUpload[] photos)
+    {
+        checkNotMainThread();
+        SQLiteDatabase db = this.getWritableDatabase();
+        SQLiteStatement insertPhoto = null, moveImage = null;
+        boolean queued = false;
+        db.beginTransaction();
+        try
+        {
+            insertPhoto = db.compileStatement(INSERT_PHOTO_UPLOAD_SQL);
+            moveImage = db.compileStatement(MOVE_IMAGE_SQL);
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < photos.length; i++)
+            {
+                PhotoUpload photo = photos[i];
+                if (oldPaths[i] != null && !oldPaths[i].equals(photo.getLocalPath()))
+                {
+                    moveImage.bindString(1, photo.getLocalPath());
+                    moveImage.bindString(2, oldPaths[i]);
+                    moveImage.bindString(3, findID);
+                    moveImage.executeUpdateDelete();
+                }
+                insertPhoto.clearBindings();
+                bind(insertPhoto, 1, photo.getLocalPath());
+                bind(insertPhoto, 2, photo.getRemoteName());
+                bind(insertPhoto, 3, photo.getSHA256());
+                insertPhoto.bindLong(4, photo.getUploadedBytes());
+                insertPhoto.bindLong(5, now);
+                insertPhoto.executeInsert();
+            }
+            db.setTransactionSuccessful();
+            queued = true;
+        }
+        catch (Exception e)
+        {
+            e.printStackTrace();
+        }
+        finally
+        {
+            db.endTransaction();
+            close(insertPhoto, moveImage);
+        }
+        return queued;
+    }
+
+    /**
+     * Get the photos still to upload
+     * @return Returns the queued photos, oldest first
+     */
+    public ArrayList<PhotoUpload> getPendingPhotoUploads()
+    {
+        checkNotMainThread();
+        ArrayList<PhotoUpload> photos = new ArrayList<>();
+        String selectQuery = "SELECT " + KEY_LOCAL_PATH + ", " + KEY_REMOTE_NAME + ", " + KEY_SHA256 + ", "
+                + KEY_UPLOADED_BYTES + " FROM " + PHOTO_OUTBOX_TABLE_NAME + " ORDER BY " + KEY_CREATED_TIMESTAMP;
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor cursor = null;
+        try
+        {
+            cursor = db.rawQuery(selectQuery, null);
+            while (cursor.moveToNext())
+            {
+                photos.add(new PhotoUpload(cursor.getString(0), cursor.getString(1),
+                        cursor.isNull(2) ? null : cursor.getString(2), cursor.getLong(3)));
+            }
+        }
+        catch (Exception e)
+        {
+            e.printStackTrace();
+        }
+        finally
+        {
+            if (cursor != null)
+            {
+                cursor.close();
+            }
+        }
+        return photos;
+    }
+
+    /**
+     * Record how much of a photo the server has
+     * @param localPath - path of the photo on the device
+     * @param sha256 - hash of the whole file
+     * @param uploadedBytes - bytes the server has acknowledged
+     */
+    public void setPhotoUploadProgress(String localPath, String sha256, long uploadedBytes)
+    {
+        checkNotMainThread();
+        SQLiteDatabase db = this.getWritableDatabase();
+        SQLiteStatement updatePhoto = null;
+        try
+        {
+            updatePhoto = db.compileStatement("UPDATE " + PHOTO_OUTBOX_TABLE_NAME + " SET " + KEY_SHA256 + "=?, "
+                    + KEY_UPLOADED_BYTES + "=? WHERE " + KEY_LOCAL_PATH + "=?");
+            bind(updatePhoto, 1, sha256);
+            updatePhoto.bindLong(2, uploadedBytes);
+            bind(updatePhoto, 3, localPath);
+            updatePhoto.executeUpdateDelete();
+        }
+        catch (Exception e)
+        {
+            e.printStackTrace();
+        }
+        finally
+        {
+            close(updatePhoto);
+        }
+    }
+
+    /**
+     * Remove a photo from the upload queue
+     * @param localPath - path of the photo on the device
+     */
+    public void removePhotoUpload(String localPath)
+    {
+        checkNotMainThread();
+        SQLiteDatabase db = this.getWritableDatabase();
+        SQLiteStatement deletePhoto = null;
+        try
+        {
+            deletePhoto = db.compileStatement("DELETE FROM " + PHOTO_OUTBOX_TABLE_NAME + " WHERE " + KEY_LOCAL_PATH
+                    + "=?");
+            bind(deletePhoto, 1, localPath);
+            deletePhoto.executeUpdateDelete();
+        }
+        catch (Exception e)
+        {
+            e.printStackTrace();
+        }
+        finally
+        {
+            close(deletePhoto);
+        }
+    }
+
+    /**
+     * Append points to a path's track and its simplified copies in one transaction, with one compiled insert for
+     * each table
+     * @param teamMember - path's team member
+     * @param beginTime - path's start time
+     * @param points - points to append
+     */
+    public void addTrackPoints(String teamMember, long beginTime, TrackPoints points)
+    {
+        checkNotMainThread();
+        SQLiteDatabase db = this.getWritableDatabase();
+        SQLiteStatement insertPoint = null, insertLevel = null;
+        db.beginTransaction();
+        try
+        {
+            insertPoint = db.compileStatement(INSERT_TRACK_POINT_SQL);
+            insertLevel = db.compileStatement(INSERT_TRACK_LEVEL_SQL);
+            // The path key stays bound, only the point columns change from row to row
+            bind(insertPoint, 1, teamMember);
+            insertPoint.bindLong(2, beginTime);
+            bind(insertLevel, 1, teamMember);
+            insertLevel.bindLong(2, beginTime);
+            for (int i = 0; i < points.size(); i++)
+            {
+                if (points.getLevel(i) > 0)
+                {
+                    insertLevel.bindLong(3, points.getLevel(i));
+                    insertLevel.bindLong(4, points.getTime(i));
+                    insertLevel.bindDouble(5, points.getLatitude(i));
+                    insertLevel.bindDouble(6, points.getLongitude(i));
+                    insertLevel.executeInsert();
+                    continue;
+                }
+                insertPoint.bindLong(3, points.getTime(i));
+                insertPoint.bindDouble(4, points.getLatitude(i));
+                insertPoint.bindDouble(5, points.getLongitude(i));
+                insertPoint.bindDouble(6, points.getAltitude(i));
+                insertPoint.bindLong(7, points.getQuality(i));
+                insertPoint.bindDouble(8, points.getARRatio(i));
+                insertPoint.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        }
+        catch (Exception e)
+        {
+            e.printStackTrace();
+        }
+        finally
+        {
+            db.endTransaction();
+            close(insertPoint, insertLevel);
+        }
+    }
+
+    /**
+     * Get the points of a path's track recorded within a time range
+     * @param teamMember - path's team member
+     * @param beginTime - path's start time
+     * @param fromTime - earliest point time returned
+     * @param toTime - latest point time returned
+     * @return Returns the points in time order
+     */
+    public TrackPoints getTrackPoints(String teamMember, long beginTime, long fromTime, long toTime)
+    {
+        checkNotMainThread();
+        TrackPoints points = null;
+        String selectQuery = "SELECT " + KEY_POINT_TIME + ", " + KEY_LATITUDE + ", " + KEY_LONGITUDE + ", "
+                + KEY_ALTITUDE + ", " + KEY_QUALITY + ", " + KEY_AR_RATIO + " FROM " + TRACK_POINTS_TABLE_NAME
+                + " WHERE " + KEY_TEAM_MEMBER + "=? AND " + KEY_BEGIN_TIME + "=? AND " + KEY_POINT_TIME
+                + " BETWEEN ? AND ? ORDER BY " + KEY_POINT_TIME;
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor cursor = null;
+        try
+        {
+            cursor = db.rawQuery(selectQuery, new String[]{teamMember, String.valueOf(beginTime),
+                    String.valueOf(fromTime), String.valueOf(toTime)});
+            points = new TrackPoints(cursor.getCount());
+            while (cursor.moveToNext())
+            {
+                points.add(cursor.getLong(0), cursor.getDouble(1), cursor.getDouble(2), cursor.getDouble(3),
+                        cursor.getInt(4), cursor.getDouble(5));
+            }
+        }
+        catch (Exception e)
+        {
+            e.printStackTrace();
+        }
+        finally
+        {
+            if (cursor != null)
+            {
+                cursor.close();
+            }
+        }
+        return points == null ? new TrackPoints(0) : points;
+    }
+
+    /**
+     * Get the points of a simplified copy of a path's track within a time range
+     * @param teamMember - path's team member
+     * @param beginTime - path's start time
+     * @param level - simplification level, 0 for the full track
+     * @param fromTime - earliest point time returned
+     * @param toTime - latest point time returned
+     * @return Returns the points in time order
+     */
+    public TrackPoints getSimplifiedTrack(String teamMember, long beginTime, int level, long fromTime, long toTime)
+    {
+        if (level == 0)
+        {
+            return getTrackPoints(teamMember, beginTime, fromTime, toTime);
+        }
+        checkNotMainThread();
+        TrackPoints points = null;
+        String selectQuery = "SELECT " + KEY_POINT_TIME + ", " + KEY_LATITUDE + ", " + KEY_LONGITUDE + " FROM "
+                + TRACK_LEVELS_TABLE_NAME + " WHERE " + KEY_TEAM_MEMBER + "=? AND " + KEY_BEGIN_TIME + "=? AND "
+                + KEY_LEVEL + "=? AND " + KEY_POINT_TIME + " BETWEEN ? AND ? ORDER BY " + KEY_POINT_TIME;
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor cursor = null;
+        try
+        {
+            cursor = db.rawQuery(selectQuery, new String[]{teamMember, String.valueOf(beginTime),
+                    String.valueOf(level), String.valueOf(fromTime), String.valueOf(toTime)});
+            points = new TrackPoints(cursor.getCount());
+            while (cursor.moveToNext())
+            {
+                points.addSimplified(level, cursor.getLong(0), cursor.getDouble(1), cursor.getDouble(2));
+            }
+        }
+        catch (Exception e)
+        {
+            e.printStackTrace();
+        }
+        finally
+        {
+            if (cursor != null)
+            {
+                cursor.close();
+            }
+        }
+        return points == null ? new TrackPoints(0) : points;
+    }
+
+    /**
+     * Helper function to fetch a single row from table
+     * @param zone The zone of this bucket, UTM
+     * @param hemisphere The hemipshere of this bucket
+     * @param northing The northing of this bucket
+     * @param easting The easting of this bucket
+     * @return the highest sample number found in the local db for this bucket
+     */
+    public Integer getLastSampleFromBucket(Integer zone, String hemisphere, Integer northing, Integer easting)
+    {
+        checkNotMainThread();
+        String selectQuery = "SELECT MAX(" + KEY_SAMPLE + ") FROM " + FINDS_TABLE_NAME + " WHERE " + KEY_ZONE
+                + "=? AND " + KEY_HEMISPHERE + "=? AND " + KEY_NORTHING + "=? AND " + KEY_EASTING + "=?";
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor cursor = null;
+        Integer highestSampleNum = 0;
+        try
+        {
+            cursor = db.rawQuery(selectQuery, new String[]{String.valueOf(zone), hemisphere,
+                    String.valueOf(northing), String.valueOf(easting)});
+            // MAX is null when the bucket has no finds yet
+            if (cursor.moveToFirst() && !cursor.isNull(0))
             {
-                highestSampleNum = cursor.getInt(cursor.getColumnIndex(KEY_SAMPLE));
+                highestSampleNum = cursor.getInt(0);
             }
         }
         catch (Exception e)
@@ -539,7 +2050,6 @@ public class DatabaseHandler extends SQLiteOpenHelper
             {
                 cursor.close();
             }
-            db.close();
         }
         return highestSampleNum;
     }
@@ -0,0 +1,26 @@
+package edu.upenn.sas.archaeologyapp.services;
+import android.database.sqlite.SQLiteDatabase;
+/**
+ * A single step of the local database schema history. A step upgrades a database at exactly FROM_VERSION to
+ * FROM_VERSION + 1 in place, keeping the rows already stored. Steps must not open or close transactions, because
+ * DatabaseHandler runs the whole chain of steps inside the one transaction the open helper holds during onUpgrade.
+ */
+abstract class DatabaseMigration
+{
+    // The schema version this step upgrades from
+    final int FROM_VERSION;
+    /**
+     * Constructor
+     * @param fromVersion - the schema version this step upgrades from
+     */
+    DatabaseMigration(int fromVersion)
+    {
+        this.FROM_VERSION = fromVersion;
+    }
+
+    /**
+     * Upgrade the database by one version
+     * @param db - database at FROM_VERSION
+     */
+    abstract void migrate(SQLiteDatabase db);
+}
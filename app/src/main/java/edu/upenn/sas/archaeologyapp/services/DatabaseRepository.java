@@ -0,0 +1,775 @@
+package edu.upenn.sas.archaeologyapp.services;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import edu.upenn.sas.archaeologyapp.models.DataEntryElement;
+import edu.upenn.sas.archaeologyapp.models.DatabaseResponseWrapper;
+import edu.upenn.sas.archaeologyapp.models.FindDelta;
+import edu.upenn.sas.archaeologyapp.models.PathElement;
+import edu.upenn.sas.archaeologyapp.models.PhotoUpload;
+import edu.upenn.sas.archaeologyapp.models.TrackPoints;
+/**
+ * Runs DatabaseHandler operations off the main thread. Writes go through a single writer thread, so they apply in
+ * the order they were requested; reads share a small pool, matching the read connections SQLite keeps open in
+ * write-ahead logging mode. A read waits for the writes requested before it, so callers see their own writes.
+ * Results are delivered to the wrapper on the main thread.
+ */
+public class DatabaseRepository
+{
+    // Number of threads running reads concurrently
+    private static final int READER_THREADS = 3;
+    private static DatabaseRepository instance;
+    private final DatabaseHandler databaseHandler;
+    private final ExecutorService writeExecutor, readExecutor;
+    // Delivers results on the main thread
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // The most recently requested write. Reads wait for it, so a read always sees the writes requested before it.
+    // Guarded by writeOrder, which is held across submitting a write and recording it, so that a read requested
+    // after a write always finds that write here.
+    private Future<?> lastWrite;
+    private final Object writeOrder = new Object();
+    /**
+     * Get the application-wide repository, creating it on first use
+     * @param context - the current app context
+     * @return Returns the shared repository
+     */
+    public static synchronized DatabaseRepository getInstance(Context context)
+    {
+        if (instance == null)
+        {
+            instance = new DatabaseRepository(DatabaseHandler.getInstance(context));
+        }
+        return instance;
+    }
+
+    /**
+     * Constructor
+     * @param _databaseHandler - database to operate on
+     */
+    private DatabaseRepository(DatabaseHandler _databaseHandler)
+    {
+        databaseHandler = _databaseHandler;
+        writeExecutor = Executors.newSingleThreadExecutor(new NamedThreadFactory("database-writer"));
+        readExecutor = Executors.newFixedThreadPool(READER_THREADS, new NamedThreadFactory("database-reader"));
+    }
+
+    /**
+     * Get the underlying database handler, for code that already runs on a background thread
+     * @return Returns the database handler
+     */
+    public DatabaseHandler getDatabaseHandler()
+    {
+        return databaseHandler;
+    }
+
+    /**
+     * Add or update finds
+     * @param entry - finds to add
+     * @param wrapper - completion callback, may be null
+     * @return Returns a future for the write
+     */
+    public Future<Void> addFindsRows(final DataEntryElement[] entry, DatabaseResponseWrapper<Void> wrapper)
+    {
+        return submit(writeExecutor, new Callable<Void>() {
+            /**
+             * Write the finds
+             * @return Returns nothing
+             */
+            @Override
+            public Void call()
+            {
+                databaseHandler.addFindsRows(entry);
+                return null;
+            }
+        }, wrapper);
+    }
+
+    /**
+     * Add or update paths
+     * @param entry - paths to add
+     * @param wrapper - completion callback, may be null
+     * @return Returns a future for the write
+     */
+    public Future<Void> addPathsRows(final PathElement[] entry, DatabaseResponseWrapper<Void> wrapper)
+    {
+        return submit(writeExecutor, new Callable<Void>() {
+            /**
+             * Write the paths
+             * @return Returns nothing
+             */
+            @Override
+            public Void call()
+            {
+                databaseHandler.addPathsRows(entry);
+                return null;
+            }
+        }, wrapper);
+    }
+
+    /**
+     * Mark a find as synced
+     * @param entry - synced find
+     * @param wrapper - completion callback, may be null
+     * @return Returns a future for the write
+     */
+    public Future<Void> setFindSynced(final DataEntryElement entry, DatabaseResponseWrapper<Void> wrapper)
+    {
+        return submit(writeExecutor, new Callable<Void>() {
+            /**
+             * Update the find
+             * @return Returns nothing
+             */
+            @Override
+            public Void call()
+            {
+                databaseHandler.setFindSynced(entry);
+                return null;
+            }
+        }, wrapper);
+    }
+
+    /**
+     * Mark a path as synced
+     * @param entry - synced path
+     * @param wrapper - completion callback, may be null
+     * @return Returns a future for the write
+     */
+    public Future<Void> setPathSynced(final PathElement entry, DatabaseResponseWrapper<Void> wrapper)
+    {
+        return submit(writeExecutor, new Callable<Void>() {
+            /**
+             * Update the path
+             * @return Returns nothing
+             */
+            @Override
+            public Void call()
+            {
+                databaseHandler.setPathSynced(entry);
+                return null;
+            }
+        }, wrapper);
+    }
+
+    /**
+     * Read all unsynced finds
+     * @param wrapper - result callback
+     * @return Returns a future for the finds
+     */
+    public Future<ArrayList<DataEntryElement>> getUnsyncedFindsRows(DatabaseResponseWrapper<ArrayList<DataEntryElement>> wrapper)
+    {
+        return submit(readExecutor, new Callable<ArrayList<DataEntryElement>>() {
+            /**
+             * Read the finds
+             * @return Returns the finds
+             */
+            @Override
+            public ArrayList<DataEntryElement> call()
+            {
+                return databaseHandler.getUnsyncedFindsRows();
+            }
+        }, wrapper);
+    }
+
+    /**
+     * Count the unsynced finds
+     * @param wrapper - result callback
+     * @return Returns a future for the count
+     */
+    public Future<Integer> getUnsyncedFindsCount(DatabaseResponseWrapper<Integer> wrapper)
+    {
+        return submit(readExecutor, new Callable<Integer>() {
+            /**
+             * Count the finds
+             * @return Returns the count
+             */
+            @Override
+            public Integer call()
+            {
+                return databaseHandler.getUnsyncedFindsCount();
+            }
+        }, wrapper);
+    }
+
+    /**
+     * Read one page of unsynced finds
+     * @param afterTimestamp - created timestamp of the find just before this page, or null if not known
+     * @param afterID - ID of the find just before this page, or null if not known
+     * @param offset - number of finds to skip when the find before the page is not known
+     * @param limit - maximum number of finds on the page
+     * @param wrapper - result callback
+     * @return Returns a future for the page
+     */
+    public Future<ArrayList<DataEntryElement>> getUnsyncedFindsPage(final Long afterTimestamp, final String afterID,
+                                                                   final int offset, final int limit,
+                                                                   DatabaseResponseWrapper<ArrayList<DataEntryElement>> wrapper)
+    {
+        return submit(readExecutor, new Callable<ArrayList<DataEntryElement>>() {
+            /**
+             * Read the page
+             * @return Returns the finds on the page
+             */
+            @Override
+            public ArrayList<DataEntryElement> call()
+            {
+                return databaseHandler.getUnsyncedFindsPage(afterTimestamp, afterID, offset, limit);
+            }
+        }, wrapper);
+    }
+
+    /**
+     * Read the finds inside a UTM box
+     * @param zone - UTM zone of the box
+     * @param hemisphere - hemisphere of the box, N or S
+     * @param minEasting - west edge in meters
+     * @param minNorthing - south edge in meters
+     * @param maxEasting - east edge in meters
+     * @param maxNorthing - north edge in meters
+     * @param unsyncedOnly - whether to leave out synced finds
+     * @param wrapper - result callback
+     * @return Returns a future for the finds
+     */
+    public Future<ArrayList<DataEntryElement>> getFindsInBox(final int zone, final String hemisphere,
+                                                            final double minEasting, final double minNorthing,
+                                                            final double maxEasting, final double maxNorthing,
+                                                            final boolean unsyncedOnly,
+                                                            DatabaseResponseWrapper<ArrayList<DataEntryElement>> wrapper)
+    {
+        return submit(readExecutor, new Callable<ArrayList<DataEntryElement>>() {
+            /**
+             * Read the finds
+             * @return Returns the finds in the box
+             */
+            @Override
+            public ArrayList<DataEntryElement> call()
+            {
+                return databaseHandler.getFindsInBox(zone, hemisphere, minEasting, minNorthing, maxEasting,
+                        maxNorthing, unsyncedOnly);
+            }
+        }, wrapper);
+    }
+
+    /**
+     * Read the finds inside several UTM boxes
+     * @param zones - UTM zone of each box
+     * @param hemispheres - hemisphere of each box, N or S
+     * @param boxes - west, south, east and north edge of each box in meters, four values per box
+     * @param count - number of boxes
+     * @param unsyncedOnly - whether to leave out synced finds
+     * @param wrapper - result callback
+     * @return Returns a future for the finds
+     */
+    public Future<ArrayList<DataEntryElement>> getFindsInBoxes(final int[] zones, final char[] hemispheres,
+                                                              final double[] boxes, final int count,
+                                                              final boolean unsyncedOnly,
+                                                              DatabaseResponseWrapper<ArrayList<DataEntryElement>> wrapper)
+    {
+        return submit(readExecutor, new Callable<ArrayList<DataEntryElement>>() {
+            /**
+             * Read the finds
+             * @return Returns the finds in the boxes
+             */
+            @Override
+            public ArrayList<DataEntryElement> call()
+            {
+                return databaseHandler.getFindsInBoxes(zones, hemispheres, boxes, count, unsyncedOnly);
+            }
+        }, wrapper);
+    }
+
+    /**
+     * Read the finds nearest a UTM position
+     * @param zone - UTM zone of the position
+     * @param hemisphere - hemisphere of the position, N or S
+     * @param easting - easting in meters
+     * @param northing - northing in meters
+     * @param count - number of finds wanted
+     * @param unsyncedOnly - whether to leave out synced finds
+     * @param wrapper - result callback
+     * @return Returns a future for the finds, nearest first
+     */
+    public Future<ArrayList<DataEntryElement>> getNearestFinds(final int zone, final String hemisphere,
+                                                              final double easting, final double northing,
+                                                              final int count, final boolean unsyncedOnly,
+                                                              DatabaseResponseWrapper<ArrayList<DataEntryElement>> wrapper)
+    {
+        return submit(readExecutor, new Callable<ArrayList<DataEntryElement>>() {
+            /**
+             * Read the finds
+             * @return Returns the nearest finds
+             */
+            @Override
+            public ArrayList<DataEntryElement> call()
+            {
+                return databaseHandler.getNearestFinds(zone, hemisphere, easting, northing, count, unsyncedOnly);
+            }
+        }, wrapper);
+    }
+
+    /**
+     * Read all unsynced paths
+     * @param wrapper - result callback
+     * @return Returns a future for the paths
+     */
+    public Future<ArrayList<PathElement>> getUnsyncedPathsRows(DatabaseResponseWrapper<ArrayList<PathElement>> wrapper)
+    {
+        return submit(readExecutor, new Callable<ArrayList<PathElement>>() {
+            /**
+             * Read the paths
+             * @return Returns the paths
+             */
+            @Override
+            public ArrayList<PathElement> call()
+            {
+                return databaseHandler.getUnsyncedPathsRows();
+            }
+        }, wrapper);
+    }
+
+    /**
+     * Read the highest sample number in a bucket
+     * @param zone - UTM zone
+     * @param hemisphere - hemisphere
+     * @param northing - bucket northing
+     * @param easting - bucket easting
+     * @param wrapper - result callback
+     * @return Returns a future for the sample number
+     */
+    public Future<Integer> getLastSampleFromBucket(final Integer zone, final String hemisphere, final Integer northing,
+                                                   final Integer easting, DatabaseResponseWrapper<Integer> wrapper)
+    {
+        return submit(readExecutor, new Callable<Integer>() {
+            /**
+             * Read the sample number
+             * @return Returns the sample number
+             */
+            @Override
+            public Integer call()
+            {
+                return databaseHandler.getLastSampleFromBucket(zone, hemisphere, northing, easting);
+            }
+        }, wrapper);
+    }
+
+    /**
+     * Bring the sync outbox up to date before a sync pass
+     * @param retryFailed - whether failed records are sent again
+     * @param wrapper - completion callback, may be null
+     * @return Returns a future for the write
+     */
+    public Future<Void> prepareOutbox(final boolean retryFailed, DatabaseResponseWrapper<Void> wrapper)
+    {
+        return submit(writeExecutor, new Callable<Void>() {
+            /**
+             * Update the outbox
+             * @return Returns nothing
+             */
+            @Override
+            public Void call()
+            {
+                databaseHandler.prepareOutbox(retryFailed);
+                return null;
+            }
+        }, wrapper);
+    }
+
+    /**
+     * Read the finds waiting in the outbox and what a server is missing of each, and mark them in flight
+     * @param server - server the finds are sent to
+     * @param deltas - filled with the delta of each find before the wrapper is called
+     * @param wrapper - result callback
+     * @return Returns a future for the finds
+     */
+    public Future<ArrayList<DataEntryElement>> takePendingOutboxFinds(final String server,
+                                                                      final HashMap<String, FindDelta> deltas,
+                                                                      DatabaseResponseWrapper<ArrayList<DataEntryElement>> wrapper)
+    {
+        return submit(writeExecutor, new Callable<ArrayList<DataEntryElement>>() {
+            /**
+             * Take the finds
+             * @return Returns the finds to send
+             */
+            @Override
+            public ArrayList<DataEntryElement> call()
+            {
+                return databaseHandler.takePendingOutboxFinds(server, deltas);
+            }
+        }, wrapper);
+    }
+
+    /**
+     * Read the paths waiting in the outbox and mark them in flight
+     * @param wrapper - result callback
+     * @return Returns a future for the paths
+     */
+    public Future<ArrayList<PathElement>> takePendingOutboxPaths(DatabaseResponseWrapper<ArrayList<PathElement>> wrapper)
+    {
+        return submit(writeExecutor, new Callable<ArrayList<PathElement>>() {
+            /**
+             * Take the paths
+             * @return Returns the paths to send
+             */
+            @Override
+            public ArrayList<PathElement> call()
+            {
+                return databaseHandler.takePendingOutboxPaths();
+            }
+        }, wrapper);
+    }
+
+    /**
+     * Mark a find synced, its outbox record acked and the server's watermark for it moved up
+     * @param entry - find the server stored
+     * @param server - server that stored it
+     * @param changeSequence - last change log entry the upload covered
+     * @param wrapper - receives whether the find was marked synced, may be null
+     * @return Returns a future for the write
+     */
+    public Future<Boolean> ackFind(final DataEntryElement entry, final String server, final long changeSequence,
+                                   DatabaseResponseWrapper<Boolean> wrapper)
+    {
+        return submit(writeExecutor, new Callable<Boolean>() {
+            /**
+             * Update the find
+             * @return Returns whether the find was marked synced
+             */
+            @Override
+            public Boolean call()
+            {
+                return databaseHandler.ackFind(entry, server, changeSequence);
+            }
+        }, wrapper);
+    }
+
+    /**
+     * Mark a path synced and its outbox record acked
+     * @param entry - path the server stored
+     * @param wrapper - completion callback, may be null
+     * @return Returns a future for the write
+     */
+    public Future<Void> ackPath(final PathElement entry, DatabaseResponseWrapper<Void> wrapper)
+    {
+        return submit(writeExecutor, new Callable<Void>() {
+            /**
+             * Update the path
+             * @return Returns nothing
+             */
+            @Override
+            public Void call()
+            {
+                databaseHandler.ackPath(entry);
+                return null;
+            }
+        }, wrapper);
+    }
+
+    /**
+     * Set the outbox state of a find
+     * @param entry - find
+     * @param state - new state
+     * @param wrapper - completion callback, may be null
+     * @return Returns a future for the write
+     */
+    public Future<Void> setFindOutboxState(final DataEntryElement entry, final int state, DatabaseResponseWrapper<Void> wrapper)
+    {
+        return submit(writeExecutor, new Callable<Void>() {
+            /**
+             * Update the outbox
+             * @return Returns nothing
+             */
+            @Override
+            public Void call()
+            {
+                databaseHandler.setFindOutboxState(entry, state);
+                return null;
+            }
+        }, wrapper);
+    }
+
+    /**
+     * Set the outbox state of a path
+     * @param entry - path
+     * @param state - new state
+     * @param wrapper - completion callback, may be null
+     * @return Returns a future for the write
+     */
+    public Future<Void> setPathOutboxState(final PathElement entry, final int state, DatabaseResponseWrapper<Void> wrapper)
+    {
+        return submit(writeExecutor, new Callable<Void>() {
+            /**
+             * Update the outbox
+             * @return Returns nothing
+             */
+            @Override
+            public Void call()
+            {
+                databaseHandler.setPathOutboxState(entry, state);
+                return null;
+            }
+        }, wrapper);
+    }
+
+    /**
+     * Count the outbox records in each state
+     * @param wrapper - result callback
+     * @return Returns a future for the counts
+     */
+    public Future<int[]> getOutboxCounts(DatabaseResponseWrapper<int[]> wrapper)
+    {
+        return submit(readExecutor, new Callable<int[]>() {
+            /**
+             * Count the records
+             * @return Returns the counts by state
+             */
+            @Override
+            public int[] call()
+            {
+                return databaseHandler.getOutboxCounts();
+            }
+        }, wrapper);
+    }
+
+    /**
+     * Queue the photos of an uploaded find and point its images at the files' new paths
+     * @param findID - find the photos belong to
+     * @param oldPaths - path of each photo before it was moved, or null where it was not moved
+     * @param photos - photos to upload, at their new paths
+     * @param wrapper - receives whether the photos were queued
+     * @return Returns a future for the write
+     */
+    public Future<Boolean> addFindPhotoUploads(final String findID, final String[] oldPaths,
+                                               final PhotoUpload[] photos, DatabaseResponseWrapper<Boolean> wrapper)
+    {
+        return submit(writeExecutor, new Callable<Boolean>() {
+            /**
+             * Queue the photos
+             * @return Returns whether the photos were queued
+             */
+            @Override
+            public Boolean call()
+            {
+                return databaseHandler.addFindPhotoUploads(findID, oldPaths, photos);
+            }
+        }, wrapper);
+    }
+
+    /**
+     * Get the photos that have not been fully uploaded
+     * @param wrapper - result callback
+     * @return Returns a future for the photos
+     */
+    public Future<ArrayList<PhotoUpload>> getPendingPhotoUploads(DatabaseResponseWrapper<ArrayList<PhotoUpload>> wrapper)
+    {
+        return submit(readExecutor, new Callable<ArrayList<PhotoUpload>>() {
+            /**
+             * Read the photos
+             * @return Returns the photos still to upload
+             */
+            @Override
+            public ArrayList<PhotoUpload> call()
+            {
+                return databaseHandler.getPendingPhotoUploads();
+            }
+        }, wrapper);
+    }
+
+    /**
+     * Append points to a path's track
+     * @param teamMember - path's team member
+     * @param beginTime - path's start time
+     * @param points - points to append, not changed until the write completes
+     * @param wrapper - completion callback, may be null
+     * @return Returns a future for the write
+     */
+    public Future<Void> addTrackPoints(final String teamMember, final long beginTime, final TrackPoints points,
+                                       DatabaseResponseWrapper<Void> wrapper)
+    {
+        return submit(writeExecutor, new Callable<Void>() {
+            /**
+             * Append the points
+             * @return Returns null
+             */
+            @Override
+            public Void call()
+            {
+                databaseHandler.addTrackPoints(teamMember, beginTime, points);
+                return null;
+            }
+        }, wrapper);
+    }
+
+    /**
+     * Get the points of a path's track recorded within a time range
+     * @param teamMember - path's team member
+     * @param beginTime - path's start time
+     * @param fromTime - earliest point time returned
+     * @param toTime - latest point time returned
+     * @param wrapper - result callback
+     * @return Returns a future for the points
+     */
+    public Future<TrackPoints> getTrackPoints(final String teamMember, final long beginTime, final long fromTime,
+                                              final long toTime, DatabaseResponseWrapper<TrackPoints> wrapper)
+    {
+        return submit(readExecutor, new Callable<TrackPoints>() {
+            /**
+             * Read the points
+             * @return Returns the points in time order
+             */
+            @Override
+            public TrackPoints call()
+            {
+                return databaseHandler.getTrackPoints(teamMember, beginTime, fromTime, toTime);
+            }
+        }, wrapper);
+    }
+
+    /**
+     * Get the points of a simplified copy of a path's track within a time range
+     * @param teamMember - path's team member
+     * @param beginTime - path's start time
+     * @param level - simplification level, 0 for the full track
+     * @param fromTime - earliest point time returned
+     * @param toTime - latest point time returned
+     * @param wrapper - result callback
+     * @return Returns a future for the points
+     */
+    public Future<TrackPoints> getSimplifiedTrack(final String teamMember, final long beginTime, final int level,
+                                                  final long fromTime, final long toTime,
+                                                  DatabaseResponseWrapper<TrackPoints> wrapper)
+    {
+        return submit(readExecutor, new Callable<TrackPoints>() {
+            /**
+             * Read the points
+             * @return Returns the points in time order
+             */
+            @Override
+            public TrackPoints call()
+            {
+                return databaseHandler.getSimplifiedTrack(teamMember, beginTime, level, fromTime, toTime);
+            }
+        }, wrapper);
+    }
+
+    /**
+     * Run an operation on an executor and deliver its outcome to the wrapper on the main thread
+     * @param executor - executor to run on
+     * @param task - database operation
+     * @param wrapper - callback, may be null
+     * @param <T> - result type
+     * @return Returns a future for the result
+     */
+    private <T> Future<T> submit(ExecutorService executor, final Callable<T> task,
+                                 final DatabaseResponseWrapper<T> wrapper)
+    {
+        final Future<?> precedingWrite;
+        synchronized (writeOrder)
+        {
+            precedingWrite = executor == readExecutor ? lastWrite : null;
+        }
+        Callable<T> operation = new Callable<T>() {
+            /**
+             * Run the operation and post its outcome
+             * @return Returns the result
+             * @throws Exception if the operation failed
+             */
+            @Override
+            public T call() throws Exception
+            {
+                if (precedingWrite != null)
+                {
+                    try
+                    {
+                        precedingWrite.get();
+                    }
+                    catch (ExecutionException e)
+                    {
+                        // The write already reported its own failure
+                    }
+                }
+                try
+                {
+                    final T result = task.call();
+                    if (wrapper != null)
+                    {
+                        mainHandler.post(new Runnable() {
+                            /**
+                             * Deliver the result
+                             */
+                            @Override
+                            public void run()
+                            {
+                                wrapper.responseMethod(result);
+                            }
+                        });
+                    }
+                    return result;
+                }
+                catch (final Exception e)
+                {
+                    if (wrapper != null)
+                    {
+                        mainHandler.post(new Runnable() {
+                            /**
+                             * Deliver the failure
+                             */
+                            @Override
+                            public void run()
+                            {
+                                wrapper.errorMethod(e);
+                            }
+                        });
+                    }
+                    throw e;
+                }
+            }
+        };
+        if (executor != writeExecutor)
+        {
+            return executor.submit(operation);
+        }
+        synchronized (writeOrder)
+        {
+            Future<T> future = executor.submit(operation);
+            lastWrite = future;
+            return future;
+        }
+    }
+
+    /**
+     * Names the executor threads, so they can be told apart in traces
+     */
+    private static class NamedThreadFactory implements ThreadFactory
+    {
+        private final String name;
+        private final AtomicInteger count = new AtomicInteger();
+        /**
+         * Constructor
+         * @param _name - thread name prefix
+         */
+        NamedThreadFactory(String _name)
+        {
+            name = _name;
+        }
+
+        /**
+         * Create a thread
+         * @param runnable - work to run
+         * @return Returns the new thread
+         */
+        @Override
+        public Thread newThread(Runnable runnable)
+        {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,520 @@
+package edu.upenn.sas.archaeologyapp.services;
+import android.os.Handler;
+import android.os.Looper;
+import com.android.volley.RequestQueue;
+import com.android.volley.VolleyError;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import edu.upenn.sas.archaeologyapp.models.DataEntryElement;
+import edu.upenn.sas.archaeologyapp.models.FindDelta;
+import edu.upenn.sas.archaeologyapp.models.FindUploadResponseWrapper;
+import edu.upenn.sas.archaeologyapp.models.StringObjectResponseWrapper;
+import static edu.upenn.sas.archaeologyapp.services.VolleyStringWrapper.makeVolleyBytesPostRequest;
+import static edu.upenn.sas.archaeologyapp.services.VolleyStringWrapper.makeVolleyStringObjectPostRequest;
+import static edu.upenn.sas.archaeologyapp.services.VolleyStringWrapper.makeVolleyStringObjectRequest;
+import static edu.upenn.sas.archaeologyapp.util.Constants.globalBinaryUploads;
+import static edu.upenn.sas.archaeologyapp.util.Constants.globalWebServerURL;
+/**
+ * Uploads finds in batches, posting each batch as a JSON array to /insert_finds. The server answers with one
+ * acknowledgement per find, [{"id": ..., "status": "ok"}, {"id": ..., "status": "error", "message": ...}], so a
+ * find that failed is retried on its own without resending the rest of its batch. The batch size grows while
+ * round trips stay under the target and halves when they run long or fail. Servers without the batch endpoint
+ * get one /insert_find GET per find, as before. A find the server already has is sent as a partial entry with only
+ * the fields changed since, {"id": ..., "partial": true, "updated": ..., "comments": ...}; if the server rejects
+ * it, the whole find is sent on the retry. With binary uploads on, batches of whole finds are posted to
+ * /insert_finds_binary in the gzipped BinaryBatchCodec form instead, and JSON is used again if the server does not
+ * have that endpoint. Batches are sent through a SyncScheduler, which decides how many are in
+ * flight at once. All methods must be called on the main thread.
+ */
+public class FindBatchUploader implements SyncScheduler.JobSource
+{
+    private static final String BATCH_CONTENT_TYPE = "application/json; charset=utf-8";
+    private static final int INITIAL_BATCH_SIZE = 25, MIN_BATCH_SIZE = 1, MAX_BATCH_SIZE = 200;
+    // Batches are grown by this many finds after each round trip under the target
+    private static final int BATCH_SIZE_STEP = 5;
+    private static final long TARGET_ROUND_TRIP_MS = 2000;
+    // Number of times a find is sent before it is reported as failed
+    private static final int MAX_ATTEMPTS = 3;
+    // Wait before a find is sent again, doubled after each further failure, so its attempts are not all spent
+    // within moments of each other on a link that is briefly down
+    private static final long RETRY_DELAY_MS = 1000;
+    private static final int HTTP_NOT_FOUND = 404;
+    private final RequestQueue queue;
+    private final SyncScheduler scheduler;
+    private final FindUploadResponseWrapper wrapper;
+    // What the server is missing of each find, by find ID. Finds without a partial delta are sent whole.
+    private final HashMap<String, FindDelta> deltas;
+    // Finds waiting to be sent, retries first once their delay is over
+    private final ArrayDeque<DataEntryElement> pending = new ArrayDeque<>();
+    // Number of times each find has been sent, by find ID
+    private final HashMap<String, Integer> attempts = new HashMap<>();
+    private int batchSize = INITIAL_BATCH_SIZE;
+    // Number of batches sent and not yet answered
+    private int inFlight = 0;
+    // Number of finds waiting out their retry delay
+    private int retrying = 0;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    // Cleared once the server turns out not to have the batch endpoint
+    private boolean batchEndpoint = true;
+    // Whether whole finds go in the binary form, cleared once the server turns out not to take it
+    private boolean binaryEndpoint = globalBinaryUploads;
+    /**
+     * Constructor
+     * @param _queue - request queue
+     * @param _scheduler - scheduler that sends the batches
+     * @param _deltas - what the server is missing of each find, by find ID
+     * @param _wrapper - receives the outcome of each find and what was sent of it
+     */
+    public FindBatchUploader(RequestQueue _queue, SyncScheduler _scheduler, Map<String, FindDelta> _deltas,
+                             FindUploadResponseWrapper _wrapper)
+    {
+        queue = _queue;
+        scheduler = _scheduler;
+        deltas = new HashMap<>(_deltas);
+        wrapper = _wrapper;
+    }
+
+    /**
+     * Queue finds for upload
+     * @param finds - finds to upload
+     */
+    public void upload(List<DataEntryElement> finds)
+    {
+        pending.addAll(finds);
+        scheduler.dispatch();
+        checkFinished();
+    }
+
+    /**
+     * Get the current batch size
+     * @return Returns the number of finds sent in the next batch
+     */
+    public int getBatchSize()
+    {
+        return batchSize;
+    }
+
+    /**
+     * Get the next batch to send
+     * @return Returns a job sending the next batch, or null if no finds are waiting
+     */
+    @Override
+    public SyncScheduler.Job nextJob()
+    {
+        if (pending.isEmpty())
+        {
+            return null;
+        }
+        final ArrayList<DataEntryElement> batch = new ArrayList<>();
+        int size = batchEndpoint ? batchSize : 1;
+        while (batch.size() < size && !pending.isEmpty())
+        {
+            DataEntryElement find = pending.poll();
+            Integer count = attempts.get(find.getID());
+            attempts.put(find.getID(), count == null ? 1 : count + 1);
+            batch.add(find);
+        }
+        inFlight++;
+        return new SyncScheduler.Job() {
+            /**
+             * Send the batch
+             * @param scheduler - scheduler running the job
+             */
+            @Override
+            protected void send(SyncScheduler scheduler)
+            {
+                if (batchEndpoint)
+                {
+                    sendBatch(this, batch);
+                }
+                else
+                {
+                    sendSingle(this, batch.get(0));
+                }
+            }
+        };
+    }
+
+    /**
+     * Post a batch to the batch endpoint
+     * @param job - job sending the batch
+     * @param batch - finds to send
+     */
+    private void sendBatch(final SyncScheduler.Job job, final ArrayList<DataEntryElement> batch)
+    {
+        final long sentAt = System.nanoTime();
+        final boolean binary = binaryEndpoint && !hasPartial(batch);
+        String body = null;
+        try
+        {
+            if (!binary)
+            {
+                body = encodeBatch(batch, deltas);
+            }
+        }
+        catch (JSONException e)
+        {
+            e.printStackTrace();
+            for (DataEntryElement find: batch)
+            {
+                retryOrFail(find, "Could not encode find");
+            }
+            finishJob(job, true);
+            return;
+        }
+        StringObjectResponseWrapper responseWrapper = new StringObjectResponseWrapper() {
+            /**
+             * Acknowledgements received
+             * @param response - one acknowledgement per find
+             */
+            @Override
+            public void responseMethod(String response)
+            {
+                adjustBatchSize((System.nanoTime() - sentAt) / 1000000);
+                acknowledge(batch, response);
+                finishJob(job, true);
+            }
+
+            /**
+             * Connection failed
+             * @param error - failure
+             */
+            @Override
+            public void errorMethod(VolleyError error)
+            {
+                if (error.networkResponse != null && error.networkResponse.statusCode == HTTP_NOT_FOUND)
+                {
+                    // No binary endpoint, so resend these finds as JSON, or no batch endpoint, so resend them
+                    // one at a time, without charging an attempt
+                    if (binary)
+                    {
+                        binaryEndpoint = false;
+                    }
+                    else
+                    {
+                        batchEndpoint = false;
+                    }
+                    for (int i = batch.size() - 1; i >= 0; i--)
+                    {
+                        DataEntryElement find = batch.get(i);
+                        attempts.put(find.getID(), attempts.get(find.getID()) - 1);
+                        pending.addFirst(find);
+                    }
+                    finishJob(job, true);
+                }
+                else
+                {
+                    error.printStackTrace();
+                    batchSize = Math.max(MIN_BATCH_SIZE, batchSize / 2);
+                    for (DataEntryElement find: batch)
+                    {
+                        retryOrFail(find, "Communication error: " + error);
+                    }
+                    finishJob(job, false);
+                }
+            }
+        };
+        if (binary)
+        {
+            makeVolleyBytesPostRequest(globalWebServerURL + "/insert_finds_binary",
+                    BinaryBatchCodec.encodeFinds(batch, BinaryBatchCodec.FLAG_GZIP), BinaryBatchCodec.CONTENT_TYPE,
+                    queue, responseWrapper);
+        }
+        else
+        {
+            makeVolleyStringObjectPostRequest(globalWebServerURL + "/insert_finds", body, BATCH_CONTENT_TYPE, queue,
+                    responseWrapper);
+        }
+    }
+
+    /**
+     * Check whether a batch has finds that only need their changed fields sent, which the binary form cannot carry
+     * @param batch - finds to send
+     * @return Returns whether any find in the batch has a partial delta
+     */
+    private boolean hasPartial(ArrayList<DataEntryElement> batch)
+    {
+        for (DataEntryElement find: batch)
+        {
+            FindDelta delta = deltas.get(find.getID());
+            if (delta != null && delta.isPartial())
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Send a single find with the /insert_find GET
+     * @param job - job sending the find
+     * @param find - find to send
+     */
+    private void sendSingle(final SyncScheduler.Job job, final DataEntryElement find)
+    {
+        makeVolleyStringObjectRequest(buildInsertFindURL(find), queue, new StringObjectResponseWrapper() {
+            /**
+             * Response received
+             * @param response - database response
+             */
+            @Override
+            public void responseMethod(String response)
+            {
+                if (!response.contains("Error"))
+                {
+                    attempts.remove(find.getID());
+                    // The query string always carries the whole find
+                    wrapper.itemUploaded(find, wholeDelta(find));
+                }
+                else
+                {
+                    retryOrFail(find, response);
+                }
+                finishJob(job, true);
+            }
+
+            /**
+             * Connection failed
+             * @param error - failure
+             */
+            @Override
+            public void errorMethod(VolleyError error)
+            {
+                error.printStackTrace();
+                retryOrFail(find, "Communication error: " + error);
+                finishJob(job, false);
+            }
+        });
+    }
+
+    /**
+     * Release a job's slot in the scheduler and report completion if nothing is left
+     * @param job - finished job
+     * @param succeeded - whether the server answered
+     */
+    private void finishJob(SyncScheduler.Job job, boolean succeeded)
+    {
+        inFlight--;
+        checkFinished();
+        scheduler.complete(job, succeeded);
+    }
+
+    /**
+     * Report the upload as finished once no finds are waiting, in flight or due for a retry
+     */
+    private void checkFinished()
+    {
+        if (pending.isEmpty() && inFlight == 0 && retrying == 0)
+        {
+            wrapper.uploadFinished();
+        }
+    }
+
+    /**
+     * Report each find in a batch as uploaded or queue it for retry, according to the server's acknowledgements.
+     * Finds the server did not mention are retried.
+     * @param batch - finds that were sent
+     * @param response - server response
+     */
+    private void acknowledge(ArrayList<DataEntryElement> batch, String response)
+    {
+        HashMap<String, String> errors = new HashMap<>();
+        HashMap<String, Boolean> acked = new HashMap<>();
+        try
+        {
+            JSONArray acknowledgements = new JSONArray(response);
+            for (int i = 0; i < acknowledgements.length(); i++)
+            {
+                JSONObject acknowledgement = acknowledgements.getJSONObject(i);
+                String id = acknowledgement.getString("id");
+                if ("ok".equals(acknowledgement.optString("status")))
+                {
+                    acked.put(id, true);
+                }
+                else
+                {
+                    errors.put(id, acknowledgement.optString("message", "Upload failed"));
+                }
+            }
+        }
+        catch (JSONException e)
+        {
+            e.printStackTrace();
+        }
+        for (DataEntryElement find: batch)
+        {
+            if (acked.containsKey(find.getID()))
+            {
+                attempts.remove(find.getID());
+                FindDelta sent = deltas.get(find.getID());
+                wrapper.itemUploaded(find, sent == null ? wholeDelta(find) : sent);
+            }
+            else
+            {
+                String reason = errors.get(find.getID());
+                // The server may not take partial finds, so send the whole find next time
+                deltas.put(find.getID(), wholeDelta(find));
+                retryOrFail(find, reason == null ? "No acknowledgement: " + response : reason);
+            }
+        }
+    }
+
+    /**
+     * Get the delta of a find sent whole. It covers the same change log entries as the find's current delta.
+     * @param find - find
+     * @return Returns a delta with every field
+     */
+    private FindDelta wholeDelta(DataEntryElement find)
+    {
+        FindDelta delta = deltas.get(find.getID());
+        return new FindDelta(find.getID(), delta == null ? 0 : delta.getChangeSequence(), false, 0);
+    }
+
+    /**
+     * Queue a find to be sent again after a delay that grows with its attempts, or report it as failed once it is
+     * out of attempts
+     * @param find - find that was not stored
+     * @param reason - why it was not stored
+     */
+    private void retryOrFail(final DataEntryElement find, String reason)
+    {
+        Integer count = attempts.get(find.getID());
+        if (count != null && count >= MAX_ATTEMPTS)
+        {
+            attempts.remove(find.getID());
+            wrapper.itemFailed(find, reason);
+        }
+        else
+        {
+            retrying++;
+            handler.postDelayed(new Runnable() {
+                /**
+                 * Queue the find again
+                 */
+                @Override
+                public void run()
+                {
+                    retrying--;
+                    pending.addFirst(find);
+                    scheduler.dispatch();
+                }
+            }, RETRY_DELAY_MS << Math.max(0, (count == null ? 1 : count) - 1));
+        }
+    }
+
+    /**
+     * Grow the batch while round trips stay under the target, and halve it once they go over
+     * @param roundTripMs - round trip time of the last batch in milliseconds
+     */
+    private void adjustBatchSize(long roundTripMs)
+    {
+        if (roundTripMs > TARGET_ROUND_TRIP_MS)
+        {
+            batchSize = Math.max(MIN_BATCH_SIZE, batchSize / 2);
+        }
+        else
+        {
+            batchSize = Math.min(MAX_BATCH_SIZE, batchSize + BATCH_SIZE_STEP);
+        }
+    }
+
+    /**
+     * Encode a batch of finds as a JSON array. Each whole find has the same fields as the /insert_find query string,
+     * plus its ID for the acknowledgement. Finds with a partial delta only have the fields that changed.
+     * @param batch - finds to encode
+     * @param deltas - what the server is missing of each find, by find ID
+     * @return Returns the request body
+     * @throws JSONException if a field cannot be encoded
+     */
+    static String encodeBatch(List<DataEntryElement> batch, Map<String, FindDelta> deltas) throws JSONException
+    {
+        JSONArray array = new JSONArray();
+        for (DataEntryElement find: batch)
+        {
+            FindDelta delta = deltas.get(find.getID());
+            if (delta == null || !delta.isPartial())
+            {
+                // New to the server, so every field goes
+                delta = new FindDelta(find.getID(), 0, false, 0);
+            }
+            JSONObject object = new JSONObject();
+            object.put("id", find.getID());
+            if (delta.isPartial())
+            {
+                object.put("partial", true);
+                object.put("updated", find.getUpdateTimestamp());
+            }
+            else
+            {
+                object.put("timestamp", find.getCreatedTimestamp());
+            }
+            put(object, delta, FindDelta.FIELD_ZONE, "zone", find.getZone());
+            put(object, delta, FindDelta.FIELD_HEMISPHERE, "hemisphere", find.getHemisphere());
+            put(object, delta, FindDelta.FIELD_PRECISE_EASTING, "easting", find.getPreciseEasting());
+            put(object, delta, FindDelta.FIELD_PRECISE_NORTHING, "northing", find.getPreciseNorthing());
+            put(object, delta, FindDelta.FIELD_EASTING, "contextEasting", find.getEasting());
+            put(object, delta, FindDelta.FIELD_NORTHING, "contextNorthing", find.getNorthing());
+            put(object, delta, FindDelta.FIELD_SAMPLE, "find", find.getSample());
+            put(object, delta, FindDelta.FIELD_LATITUDE, "latitude", find.getLatitude());
+            put(object, delta, FindDelta.FIELD_LONGITUDE, "longitude", find.getLongitude());
+            put(object, delta, FindDelta.FIELD_ALTITUDE, "altitude", find.getAltitude());
+            put(object, delta, FindDelta.FIELD_STATUS, "status", find.getStatus());
+            put(object, delta, FindDelta.FIELD_MATERIAL, "material", find.getMaterial());
+            put(object, delta, FindDelta.FIELD_COMMENTS, "comments", find.getComments());
+            put(object, delta, FindDelta.FIELD_AR_RATIO, "ARratio", find.getARRatio());
+            array.put(object);
+        }
+        return array.toString();
+    }
+
+    /**
+     * Add a field to an encoded find if the delta includes it
+     * @param object - encoded find
+     * @param delta - what the server is missing of the find
+     * @param field - FindDelta flag of the field
+     * @param name - JSON name of the field
+     * @param value - field value
+     * @throws JSONException if the value cannot be encoded
+     */
+    private static void put(JSONObject object, FindDelta delta, int field, String name, Object value)
+            throws JSONException
+    {
+        if (delta.hasField(field))
+        {
+            object.put(name, value);
+        }
+    }
+
+    /**
+     * Build the single find upload URL
+     * @param find - find to upload
+     * @return Returns the /insert_find URL with the find's fields in the query string
+     */
+    static String buildInsertFindURL(DataEntryElement find)
+    {
+        String encoding = "";
+        try
+        {
+            encoding = URLEncoder.encode(find.getComments(), "UTF-8");
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            e.printStackTrace();
+        }
+        return globalWebServerURL + "/insert_find?zone=" + find.getZone() + "&hemisphere=" + find.getHemisphere()
+                + "&easting=" + find.getPreciseEasting() + "&northing=" + find.getPreciseNorthing()
+                + "&contextEasting=" + find.getEasting() + "&contextNorthing=" + find.getNorthing()
+                + "&find=" + find.getSample() + "&latitude=" + find.getLatitude() + "&longitude="
+                + find.getLongitude() + "&altitude=" + find.getAltitude() + "&status=" + find.getStatus()
+                + "&material=" + find.getMaterial() + "&comments=" + encoding + "&ARratio=" + find.getARRatio()
+                + "&timestamp=" + Double.toString(find.getCreatedTimestamp());
+    }
+}
@@ -0,0 +1,110 @@
+package edu.upenn.sas.archaeologyapp.services;
+import java.util.ArrayList;
+import java.util.Arrays;
+import edu.upenn.sas.archaeologyapp.models.DataEntryElement;
+import edu.upenn.sas.archaeologyapp.models.FindCluster;
+/**
+ * Groups finds that would crowd each other on the map. The map is cut into square cells of a fixed size on screen,
+ * and the finds in a cell that holds enough of them are drawn as a single marker. Cells are aligned to the map
+ * rather than to the view, so a cell keeps its key while the map is panned and its marker need not be redrawn.
+ * Clustering sorts and walks the finds without touching the map, so it can run on any thread.
+ */
+public class FindClusterer
+{
+    // Size of a cell in map units, which are 256 to the world at zoom 0 and roughly a density-independent pixel
+    public static final double CELL_UNITS = 100;
+    // Fewest finds in a cell that are drawn as a group
+    public static final int MIN_CLUSTER_SIZE = 4;
+    // From this zoom on every find is drawn on its own
+    public static final int MAX_CLUSTER_ZOOM = 18;
+    // Bits of a sort key that hold a find's position in the list
+    private static final int INDEX_BITS = 22;
+    /**
+     * Group finds for drawing at a zoom level
+     * @param finds - finds to draw
+     * @param zoom - whole map zoom level
+     * @return Returns the markers to draw, one per group or lone find
+     */
+    public static ArrayList<FindCluster> cluster(ArrayList<DataEntryElement> finds, int zoom)
+    {
+        ArrayList<FindCluster> clusters = new ArrayList<>();
+        int size = finds.size();
+        if (zoom >= MAX_CLUSTER_ZOOM || size >= 1 << INDEX_BITS)
+        {
+            for (DataEntryElement find: finds)
+            {
+                clusters.add(single(find));
+            }
+            return clusters;
+        }
+        // Sort the finds by cell, carrying each one's position in the list in the low bits of its key
+        long cells = (long) Math.ceil(256 * Math.pow(2, zoom) / CELL_UNITS);
+        long[] keys = new long[size];
+        for (int i = 0; i < size; i++)
+        {
+            DataEntryElement find = finds.get(i);
+            keys[i] = (cell(find.getLatitude(), find.getLongitude(), cells) << INDEX_BITS) | i;
+        }
+        Arrays.sort(keys);
+        int start = 0;
+        while (start < size)
+        {
+            long cell = keys[start] >>> INDEX_BITS;
+            int end = start + 1;
+            while (end < size && keys[end] >>> INDEX_BITS == cell)
+            {
+                end++;
+            }
+            if (end - start >= MIN_CLUSTER_SIZE)
+            {
+                double latitude = 0, longitude = 0;
+                for (int i = start; i < end; i++)
+                {
+                    DataEntryElement find = finds.get((int) (keys[i] & ((1 << INDEX_BITS) - 1)));
+                    latitude += find.getLatitude();
+                    longitude += find.getLongitude();
+                }
+                int count = end - start;
+                clusters.add(new FindCluster("cell:" + zoom + ":" + cell, count + " finds", latitude / count,
+                        longitude / count, count));
+            }
+            else
+            {
+                for (int i = start; i < end; i++)
+                {
+                    clusters.add(single(finds.get((int) (keys[i] & ((1 << INDEX_BITS) - 1)))));
+                }
+            }
+            start = end;
+        }
+        return clusters;
+    }
+
+    /**
+     * Get the cell a position falls in, counting row by row from the north west corner of the Web Mercator map
+     * @param latitude - latitude in degrees
+     * @param longitude - longitude in degrees
+     * @param cells - number of cells across the map
+     * @return Returns the cell number
+     */
+    private static long cell(double latitude, double longitude, long cells)
+    {
+        double sin = Math.sin(Math.toRadians(latitude));
+        double y = 0.5 - Math.log((1 + sin) / (1 - sin)) / (4 * Math.PI);
+        long column = Math.min(Math.max((long) Math.floor((longitude + 180) / 360 * cells), 0), cells - 1);
+        long row = Math.min(Math.max((long) Math.floor(y * cells), 0), cells - 1);
+        return row * cells + column;
+    }
+
+    /**
+     * Build the marker for a find drawn on its own
+     * @param find - find
+     * @return Returns the marker, titled with the find's UTM position and sample
+     */
+    private static FindCluster single(DataEntryElement find)
+    {
+        String title = find.getZone() + "." + find.getHemisphere() + "." + find.getNorthing() + "."
+                + find.getEasting() + "." + find.getSample();
+        return new FindCluster("find:" + find.getID(), title, find.getLatitude(), find.getLongitude(), 1);
+    }
+}
@@ -0,0 +1,103 @@
+package edu.upenn.sas.archaeologyapp.services;
+/**
+ * Uniform grid over UTM coordinates that indexes finds spatially. Each find stores the key of the grid cell its
+ * position falls in, and an index on that key turns a box search into a few index range scans: the cells of a grid
+ * row have consecutive keys, so a box needs one key range per row it covers. Keys start with the zone and
+ * hemisphere, so no range ever reaches into another zone.
+ */
+class FindGrid
+{
+    // Cell size in meters. Every stored find's key depends on it, so changing it needs a migration that recomputes
+    // them.
+    static final double CELL_METERS = 100;
+    // Most key ranges in one query. Boxes covering more rows than this merge neighbouring rows into one range.
+    static final int MAX_RANGES = 64;
+    // Columns and rows per zone, enough for eastings up to 1,638,400 m and northings up to 13,107,200 m
+    private static final long COLUMNS = 1 << 14, ROWS = 1 << 17;
+    /**
+     * Get the cell key of a position
+     * @param zone - UTM zone
+     * @param hemisphere - hemisphere, N or S
+     * @param easting - easting in meters
+     * @param northing - northing in meters
+     * @return Returns the key, or null if the position is missing or outside the grid
+     */
+    static Long cell(Integer zone, String hemisphere, Number easting, Number northing)
+    {
+        if (zone == null || hemisphere == null || easting == null || northing == null || zone < 1 || zone > 60)
+        {
+            return null;
+        }
+        double e = easting.doubleValue(), n = northing.doubleValue();
+        if (!(e >= 0 && e < COLUMNS * CELL_METERS && n >= 0 && n < ROWS * CELL_METERS))
+        {
+            return null;
+        }
+        return key(zone, "S".equals(hemisphere), (long) (n / CELL_METERS), (long) (e / CELL_METERS));
+    }
+
+    /**
+     * Build the SQL expression that computes the same key as cell from a row's columns
+     * @param zone - zone column
+     * @param hemisphere - hemisphere column
+     * @param easting - easting column or expression
+     * @param northing - northing column or expression
+     * @return Returns the SQL, which is null wherever cell returns null
+     */
+    static String cellSQL(String zone, String hemisphere, String easting, String northing)
+    {
+        return "CASE WHEN " + zone + " BETWEEN 1 AND 60 AND " + hemisphere + " IS NOT NULL AND " + easting + ">=0 AND "
+                + easting + "<" + (long) (COLUMNS * CELL_METERS) + " AND " + northing + ">=0 AND " + northing + "<"
+                + (long) (ROWS * CELL_METERS) + " THEN ((" + zone + "*2+(" + hemisphere + "='S'))*" + ROWS
+                + "+CAST(" + northing + "/" + CELL_METERS + " AS INTEGER))*" + COLUMNS + "+CAST(" + easting + "/"
+                + CELL_METERS + " AS INTEGER) END";
+    }
+
+    /**
+     * Get the key ranges that cover a box
+     * @param zone - UTM zone
+     * @param hemisphere - hemisphere, N or S
+     * @param minEasting - west edge in meters
+     * @param minNorthing - south edge in meters
+     * @param maxEasting - east edge in meters
+     * @param maxNorthing - north edge in meters
+     * @param ranges - receives the first and last key of each range, at least 2 * MAX_RANGES long
+     * @return Returns the number of ranges, 0 if the box is outside the grid
+     */
+    static int ranges(int zone, String hemisphere, double minEasting, double minNorthing, double maxEasting,
+                      double maxNorthing, long[] ranges)
+    {
+        long firstColumn = Math.max((long) Math.floor(minEasting / CELL_METERS), 0);
+        long lastColumn = Math.min((long) Math.floor(maxEasting / CELL_METERS), COLUMNS - 1);
+        long firstRow = Math.max((long) Math.floor(minNorthing / CELL_METERS), 0);
+        long lastRow = Math.min((long) Math.floor(maxNorthing / CELL_METERS), ROWS - 1);
+        if (zone < 1 || zone > 60 || firstColumn > lastColumn || firstRow > lastRow)
+        {
+            return 0;
+        }
+        boolean south = "S".equals(hemisphere);
+        // Rows per range, so that the box never needs more than MAX_RANGES
+        long rows = lastRow - firstRow + 1, rowsPerRange = (rows + MAX_RANGES - 1) / MAX_RANGES;
+        int count = 0;
+        for (long row = firstRow; row <= lastRow; row += rowsPerRange)
+        {
+            ranges[2 * count] = key(zone, south, row, firstColumn);
+            ranges[2 * count + 1] = key(zone, south, Math.min(row + rowsPerRange - 1, lastRow), lastColumn);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Get the key of a cell
+     * @param zone - UTM zone
+     * @param south - whether the cell is in the southern hemisphere
+     * @param row - row, from the equator or the southern false origin
+     * @param column - column, from the false easting origin
+     * @return Returns the key
+     */
+    private static long key(int zone, boolean south, long row, long column)
+    {
+        return ((zone * 2 + (south ? 1 : 0)) * ROWS + row) * COLUMNS + column;
+    }
+}
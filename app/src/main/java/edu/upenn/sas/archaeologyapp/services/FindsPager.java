@@ -0,0 +1,193 @@
+package edu.upenn.sas.archaeologyapp.services;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import edu.upenn.sas.archaeologyapp.models.DataEntryElement;
+import edu.upenn.sas.archaeologyapp.models.DatabaseResponseWrapper;
+/**
+ * Pages unsynced finds in from the local database as a list is scrolled. Only a few pages around the rows being
+ * shown are held in memory, so the memory used stays the same however many finds the device holds. Pages load on
+ * the database repository's reader threads; the pager and its listener are only touched on the main thread.
+ */
+public class FindsPager
+{
+    /**
+     * Notified on the main thread when the count changes or a page finishes loading
+     */
+    public interface Listener
+    {
+        /**
+         * Finds changed
+         */
+        void onFindsChanged();
+    }
+
+    // Number of finds fetched per query
+    public static final int PAGE_SIZE = 50;
+    // Number of pages kept in memory. Least recently used pages are dropped first.
+    private static final int MAX_CACHED_PAGES = 5;
+    // Start loading the next page once a row this close to the end of the current page is shown
+    private static final int PREFETCH_DISTANCE = 10;
+    private final DatabaseRepository databaseRepository;
+    private final Listener listener;
+    // Loaded pages by page number, in least recently used order
+    private final LinkedHashMap<Integer, ArrayList<DataEntryElement>> pages;
+    // Pages with a query in flight
+    private final HashSet<Integer> loadingPages = new HashSet<>();
+    // The created timestamp and ID of the last find on each page, once that page has been loaded. They let the
+    // following page be fetched by seeking the index instead of skipping rows.
+    private long[] pageEndTimestamps = new long[0];
+    private String[] pageEndIDs = new String[0];
+    private int count = 0;
+    // Bumped on every refresh, so queries started before it are dropped when they complete
+    private int generation = 0;
+    /**
+     * Constructor
+     * @param _databaseRepository - repository to read finds through
+     * @param _listener - notified when finds change
+     */
+    public FindsPager(DatabaseRepository _databaseRepository, Listener _listener)
+    {
+        databaseRepository = _databaseRepository;
+        listener = _listener;
+        pages = new LinkedHashMap<Integer, ArrayList<DataEntryElement>>(MAX_CACHED_PAGES + 1, 0.75f, true) {
+            /**
+             * Evict the least recently used page once the cache is full
+             * @param eldest - least recently used page
+             * @return Returns whether to remove the eldest page
+             */
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, ArrayList<DataEntryElement>> eldest)
+            {
+                return size() > MAX_CACHED_PAGES;
+            }
+        };
+    }
+
+    /**
+     * Drop the loaded pages and re-count the finds. Call when the finds table may have changed.
+     */
+    public void refresh()
+    {
+        final int refreshGeneration = ++generation;
+        loadingPages.clear();
+        databaseRepository.getUnsyncedFindsCount(new DatabaseResponseWrapper<Integer>() {
+            /**
+             * Count read
+             * @param response - number of unsynced finds
+             */
+            @Override
+            public void responseMethod(Integer response)
+            {
+                if (refreshGeneration != generation)
+                {
+                    return;
+                }
+                count = response;
+                pages.clear();
+                int pageCount = (count + PAGE_SIZE - 1) / PAGE_SIZE;
+                pageEndTimestamps = new long[pageCount];
+                pageEndIDs = new String[pageCount];
+                listener.onFindsChanged();
+            }
+        });
+    }
+
+    /**
+     * Get the number of finds
+     * @return Returns the number of unsynced finds as of the last refresh
+     */
+    public int getCount()
+    {
+        return count;
+    }
+
+    /**
+     * Get a find, starting to load its page if it is not in memory
+     * @param position - position in the newest-first list
+     * @return Returns the find, or null if its page is still loading or the position is past the end of the list
+     */
+    public DataEntryElement get(int position)
+    {
+        if (position < 0 || position >= count)
+        {
+            return null;
+        }
+        int pageNumber = position / PAGE_SIZE;
+        int index = position % PAGE_SIZE;
+        if (index >= PAGE_SIZE - PREFETCH_DISTANCE && !pages.containsKey(pageNumber + 1))
+        {
+            requestPage(pageNumber + 1);
+        }
+        ArrayList<DataEntryElement> page = pages.get(pageNumber);
+        if (page == null)
+        {
+            requestPage(pageNumber);
+            return null;
+        }
+        // The table can shrink between refreshes
+        return index < page.size() ? page.get(index) : null;
+    }
+
+    /**
+     * Start loading a page from the database unless it is already loading
+     * @param pageNumber - page number
+     */
+    private void requestPage(final int pageNumber)
+    {
+        if (pageNumber >= pageEndIDs.length || !loadingPages.add(pageNumber))
+        {
+            return;
+        }
+        final int loadGeneration = generation;
+        DatabaseResponseWrapper<ArrayList<DataEntryElement>> wrapper = new DatabaseResponseWrapper<ArrayList<DataEntryElement>>() {
+            /**
+             * Page read
+             * @param response - finds on the page
+             */
+            @Override
+            public void responseMethod(ArrayList<DataEntryElement> response)
+            {
+                if (loadGeneration != generation)
+                {
+                    return;
+                }
+                loadingPages.remove(pageNumber);
+                if (!response.isEmpty())
+                {
+                    DataEntryElement last = response.get(response.size() - 1);
+                    pageEndTimestamps[pageNumber] = last.getCreatedTimestamp();
+                    pageEndIDs[pageNumber] = last.getID();
+                }
+                pages.put(pageNumber, response);
+                listener.onFindsChanged();
+            }
+
+            /**
+             * Page could not be read
+             * @param error - failure
+             */
+            @Override
+            public void errorMethod(Exception error)
+            {
+                error.printStackTrace();
+                if (loadGeneration == generation)
+                {
+                    loadingPages.remove(pageNumber);
+                }
+            }
+        };
+        if (pageNumber > 0 && pageEndIDs[pageNumber - 1] != null)
+        {
+            // Continue from the end of the previous page
+            databaseRepository.getUnsyncedFindsPage(pageEndTimestamps[pageNumber - 1], pageEndIDs[pageNumber - 1],
+                    0, PAGE_SIZE, wrapper);
+        }
+        else
+        {
+            // First page, or a page reached without loading the one before it
+            databaseRepository.getUnsyncedFindsPage(null, null, pageNumber * PAGE_SIZE, PAGE_SIZE, wrapper);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package edu.upenn.sas.archaeologyapp.services;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import edu.upenn.sas.archaeologyapp.models.ReachFix;
+/**
+ * Lock-free ring of the most recent Reach fixes, written by one thread and read by any number. Each fix gets the
+ * next sequence number and overwrites the oldest slot. A slot is marked as being written while its fields change,
+ * and readers check its sequence before and after copying it out, so a reader never returns a half-written fix.
+ * Every field is a volatile element of one AtomicLongArray, doubles stored as their bits, so nothing is allocated
+ * per fix.
+ */
+public class FixRingBuffer
+{
+    // Slot layout
+    private static final int SEQUENCE = 0, RECEIVED_TIME = 1, LATITUDE = 2, LONGITUDE = 3, HEIGHT = 4, QUALITY = 5;
+    private static final int SATELLITES = 6, AGE = 7, AR_RATIO = 8, STRIDE = 9;
+    // Sequence of a slot that is empty or being written
+    private static final long WRITING = -1;
+    private final AtomicLongArray slots;
+    private final int capacity;
+    // Sequence of the newest fix, -1 before the first
+    private final AtomicLong published = new AtomicLong(-1);
+    /**
+     * Constructor
+     * @param _capacity - number of fixes kept, a power of two
+     * @throws IllegalArgumentException if the capacity is not a power of two
+     */
+    public FixRingBuffer(int _capacity)
+    {
+        if (_capacity <= 0 || (_capacity & (_capacity - 1)) != 0)
+        {
+            throw new IllegalArgumentException("Capacity Must Be A Power Of Two");
+        }
+        capacity = _capacity;
+        slots = new AtomicLongArray(_capacity * STRIDE);
+        for (int i = 0; i < _capacity; i++)
+        {
+            slots.set(i * STRIDE + SEQUENCE, WRITING);
+        }
+    }
+
+    /**
+     * Add a fix, overwriting the oldest. Must only be called from the writing thread.
+     * @param fix - fix to copy in
+     */
+    public void publish(ReachFix fix)
+    {
+        long sequence = published.get() + 1;
+        int base = slot(sequence);
+        slots.set(base + SEQUENCE, WRITING);
+        slots.set(base + RECEIVED_TIME, fix.getReceivedTime());
+        slots.set(base + LATITUDE, Double.doubleToRawLongBits(fix.getLatitude()));
+        slots.set(base + LONGITUDE, Double.doubleToRawLongBits(fix.getLongitude()));
+        slots.set(base + HEIGHT, Double.doubleToRawLongBits(fix.getHeight()));
+        slots.set(base + QUALITY, fix.getQuality());
+        slots.set(base + SATELLITES, fix.getSatellites());
+        slots.set(base + AGE, Double.doubleToRawLongBits(fix.getAge()));
+        slots.set(base + AR_RATIO, Double.doubleToRawLongBits(fix.getARRatio()));
+        slots.set(base + SEQUENCE, sequence);
+        published.set(sequence);
+    }
+
+    /**
+     * Get the newest sequence number
+     * @return Returns the sequence of the newest fix, or -1 if there is none
+     */
+    public long getLatestSequence()
+    {
+        return published.get();
+    }
+
+    /**
+     * Copy out the newest fix
+     * @param out - fix to copy into
+     * @return Returns the sequence of the fix, or -1 if there is none
+     */
+    public long readLatest(ReachFix out)
+    {
+        while (true)
+        {
+            long sequence = published.get();
+            if (sequence < 0 || read(sequence, out))
+            {
+                return sequence;
+            }
+        }
+    }
+
+    /**
+     * Copy out the fix after a sequence number, for consumers that want every fix. If the writer has lapped the
+     * consumer, the oldest fix still held is returned instead, so a gap in the sequence numbers shows the loss.
+     * @param after - sequence of the last fix read, -1 to start from the oldest held
+     * @param out - fix to copy into
+     * @return Returns the sequence of the fix, or -1 if no newer fix has arrived
+     */
+    public long readNext(long after, ReachFix out)
+    {
+        while (true)
+        {
+            long newest = published.get();
+            if (after >= newest)
+            {
+                return -1;
+            }
+            long next = Math.max(after + 1, newest - capacity + 1);
+            if (read(next, out))
+            {
+                return next;
+            }
+            // Overwritten while it was copied, move on
+            after = next;
+        }
+    }
+
+    /**
+     * Copy out one fix if its slot still holds it
+     * @param sequence - sequence of the fix
+     * @param out - fix to copy into
+     * @return Returns whether the fix was copied whole
+     */
+    private boolean read(long sequence, ReachFix out)
+    {
+        int base = slot(sequence);
+        if (slots.get(base + SEQUENCE) != sequence)
+        {
+            return false;
+        }
+        out.set(slots.get(base + RECEIVED_TIME), Double.longBitsToDouble(slots.get(base + LATITUDE)),
+                Double.longBitsToDouble(slots.get(base + LONGITUDE)), Double.longBitsToDouble(slots.get(base + HEIGHT)),
+                (int) slots.get(base + QUALITY), (int) slots.get(base + SATELLITES),
+                Double.longBitsToDouble(slots.get(base + AGE)), Double.longBitsToDouble(slots.get(base + AR_RATIO)));
+        return slots.get(base + SEQUENCE) == sequence;
+    }
+
+    /**
+     * Get the first array index of a sequence number's slot
+     * @param sequence - sequence number
+     * @return Returns the index of the slot's SEQUENCE element
+     */
+    private int slot(long sequence)
+    {
+        return (int) (sequence & (capacity - 1)) * STRIDE;
+    }
+}
@@ -10,24 +10,25 @@ import android.content.pm.PackageManager;
 import android.location.Location;
 import android.location.LocationListener;
 import android.location.LocationManager;
-import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.content.ContextCompat;
 import android.support.v7.app.AlertDialog;
 import android.widget.Toast;
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.net.InetSocketAddress;
-import java.net.Socket;
-import java.net.SocketTimeoutException;
-import java.util.Timer;
-import java.util.TimerTask;
 import edu.upenn.sas.archaeologyapp.R;
+import edu.upenn.sas.archaeologyapp.models.ReachConnectionStats;
+import edu.upenn.sas.archaeologyapp.models.ReachFix;
 public abstract class LocationCollector
 {
-    // The timer used to periodically update the position
-    private Timer positionUpdateTimer;
+    // Number of Reach fixes kept for consumers of the full stream, about 25 seconds at 10 Hz
+    static final int REACH_FIX_BUFFER_SIZE = 256;
+    // Shortest Reach timeout, and the age at which the newest Reach fix is stale
+    static final int REACH_MIN_TIMEOUT_MS = 3000;
+    static final long REACH_STALE_AFTER_MS = 2000;
+    // Runs the periodic position update on the main thread
+    private final Handler positionUpdateHandler = new Handler(Looper.getMainLooper());
     // Location manager for accessing the users location
     private LocationManager locationManager;
     // Listener with callbacks to get the users location
@@ -40,10 +41,27 @@ public abstract class LocationCollector
     private static final String[] STATUS_CODES = {"Error", "Fixed", "Float", "Reserved", "DGPS", "Single"};
     // The activity/context from where this location collector is used
     private Activity context;
-    // The socket we use to connect with the Reach rover
-    private Socket reachSocket;
+    // Fixes read from the Reach rover, the thread reading them, and the last fix shown
+    private final FixRingBuffer reachFixes = new FixRingBuffer(REACH_FIX_BUFFER_SIZE);
+    private ReachStreamReader reachReader;
+    private final ReachFix latestReachFix = new ReachFix();
+    private long latestReachSequence = -1;
     private String reachHost, reachPort;
     private Integer positionUpdateInterval;
+    /**
+     * Shows the newest position once per update interval. Reposts itself, so nothing is allocated per update.
+     */
+    private final Runnable positionUpdate = new Runnable() {
+        /**
+         * Show the newest position and schedule the next update
+         */
+        @Override
+        public void run()
+        {
+            showLatestReachFix();
+            positionUpdateHandler.postDelayed(this, positionUpdateInterval * 1000);
+        }
+    };
     /**
      * Constructor
      * @param _context - calling context
@@ -61,8 +79,8 @@ public abstract class LocationCollector
         positionUpdateInterval = _positionUpdateInterval;
         // Initialize the GPS listener
         initiateGPS();
-        // Setup the position updater
-        positionUpdateTimer = new Timer();
+        // Start reading from the Reach and updating the position
+        startReachReader();
         restartPositionUpdateTimer();
     }
 
@@ -138,102 +156,45 @@ public abstract class LocationCollector
         }
     }
 
-    private class GetPositionOutputFromReach extends AsyncTask<String, String, String>
+    /**
+     * Start a reader for the current Reach host and port, once the reader it replaces has finished
+     */
+    private void startReachReader()
     {
-        /**
-         * Background process
-         * @param params - process parameters
-         * @return Returns the position
-         */
-        protected String doInBackground(String... params)
-        {
-            String host = params[0];
-            Integer port = Integer.parseInt(params[1]);
-            String msg = "";
-            BufferedReader reachSocketInput;
-            if (reachSocket == null)
-            {
-                try
-                {
-                    int timeout = positionUpdateInterval * 1000;
-                    reachSocket = new Socket();
-                    reachSocket.setSoTimeout(timeout);
-                    reachSocket.connect(new InetSocketAddress(host, port), timeout);
-                }
-                catch (Exception e)
-                {
-                    e.printStackTrace();
-                    return context.getString(R.string.no_connection);
-                }
-            }
-            try
-            {
-                reachSocketInput = new BufferedReader(new InputStreamReader(reachSocket.getInputStream()));
-            }
-            catch(Exception E)
-            {
-                return context.getString(R.string.no_connection);
-            }
-            try
-            {
-                String currentLine;
-                if ((currentLine = reachSocketInput.readLine()) != null)
-                {
-                    return currentLine;
-                }
-            }
-            catch(SocketTimeoutException e)
-            {
-                e.printStackTrace();
-                return context.getString(R.string.timeout);
-            }
-            catch (Exception e)
-            {
-                return context.getString(R.string.timeout);
-            }
-            return msg;
-        }
-
-        /**
-         * Task finished
-         * @param result - task result
-         */
-        protected void onPostExecute(String result)
-        {
-            String[] parsed = result.split("\\s+");
-            if (parsed.length < 15)
-            {
-                // Check to see if no data was passed through
-                if (result.length() == 0)
-                {
-                    broadcastReachStatus(context.getString(R.string.no_data));
-                }
-                else
-                {
-                    // Connection error, print the result/connection error we passed through
-                    broadcastReachStatus(result);
-                }
-                initiateGPSFetch();
-            }
-            else
-            {
-                double lat = Double.parseDouble(parsed[2]);
-                double lon = Double.parseDouble(parsed[3]);
-                double height = Double.parseDouble(parsed[4]);
-                String status = STATUS_CODES[Integer.parseInt(parsed[5])];
-                double ARRatio = Double.parseDouble(parsed[14]);
-                broadcastLocation(lat, lon, height, status, ARRatio);
-                broadcastReachStatus(context.getString(R.string.connected));
-            }
-        }
+        ReachStreamReader previous = reachReader;
+        reachReader = new ReachStreamReader(reachHost, reachPort,
+                Math.max(positionUpdateInterval * 1000, REACH_MIN_TIMEOUT_MS), REACH_STALE_AFTER_MS, reachFixes);
+        reachReader.start(previous);
     }
 
     /**
-     * This function initiates fetching data from an Emlid Reach output server
+     * Show the newest Reach fix, or fall back to GPS if none has arrived since the last update
      */
-    private void initiateReachFetch()
+    private void showLatestReachFix()
     {
-        new GetPositionOutputFromReach().execute(reachHost, reachPort);
+        long sequence = reachFixes.readLatest(latestReachFix);
+        if (sequence > latestReachSequence)
+        {
+            latestReachSequence = sequence;
+            int quality = latestReachFix.getQuality();
+            String status = quality >= 0 && quality < STATUS_CODES.length ? STATUS_CODES[quality] : STATUS_CODES[0];
+            broadcastLocation(latestReachFix.getLatitude(), latestReachFix.getLongitude(),
+                    latestReachFix.getHeight(), status, latestReachFix.getARRatio());
+            broadcastReachStatus(context.getString(R.string.connected));
+            return;
+        }
+        switch (reachReader.getState())
+        {
+            case ReachStreamReader.STATE_STREAMING:
+                broadcastReachStatus(context.getString(R.string.no_data));
+                break;
+            case ReachStreamReader.STATE_STALE:
+                broadcastReachStatus(context.getString(R.string.timeout));
+                break;
+            default:
+                broadcastReachStatus(context.getString(R.string.no_connection));
+        }
+        initiateGPSFetch();
     }
 
     /**
@@ -333,27 +294,35 @@ public abstract class LocationCollector
      */
     private void restartPositionUpdateTimer()
     {
-        positionUpdateTimer.cancel();
-        positionUpdateTimer = new Timer();
-        positionUpdateTimer.scheduleAtFixedRate(new TimerTask() {
-            /**
-             * Run GPS at intervals
-             */
-            @Override
-            public void run()
-            {
-                initiateReachFetch();
-            }
-        },0, positionUpdateInterval * 1000);
+        positionUpdateHandler.removeCallbacks(positionUpdate);
+        positionUpdateHandler.post(positionUpdate);
     }
 
     /**
-     * Cancel the position update timer, prevent this from getting positions
+     * Cancel the position update timer and close the Reach connection, prevent this from getting positions
      */
     public void cancelPositionUpdateTimer()
     {
-        positionUpdateTimer.cancel();
+        positionUpdateHandler.removeCallbacks(positionUpdate);
+        reachReader.stop();
+    }
 
+    /**
+     * Get the Reach fixes, for consumers that want every fix rather than one per update
+     * @return Returns the buffer the Reach reader publishes to
+     */
+    public FixRingBuffer getReachFixes()
+    {
+        return reachFixes;
+    }
+
+    /**
+     * Get the Reach connection metrics
+     * @return Returns the state, uptime, reconnect count and line rate of the Reach connection
+     */
+    public ReachConnectionStats getReachConnectionStats()
+    {
+        return reachReader.getStats();
     }
 
     /**
@@ -363,11 +332,12 @@ public abstract class LocationCollector
      */
     public void resetReachConnection(String _reachHost, String _reachPort)
     {
-        // Reset the socket
-        reachSocket = null;
-        // Define new host
+        // Define new host and reconnect
         reachHost = _reachHost;
         reachPort = _reachPort;
+        // The new reader waits for the old one to finish, as the fix buffer takes only one writer
+        reachReader.stop();
+        startReachReader();
     }
 
     /**
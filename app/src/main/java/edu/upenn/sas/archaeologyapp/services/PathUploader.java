@@ -0,0 +1,205 @@
+package edu.upenn.sas.archaeologyapp.services;
+import android.os.Handler;
+import android.os.Looper;
+import com.android.volley.RequestQueue;
+import com.android.volley.VolleyError;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import edu.upenn.sas.archaeologyapp.models.PathElement;
+import edu.upenn.sas.archaeologyapp.models.StringObjectResponseWrapper;
+import edu.upenn.sas.archaeologyapp.models.UploadResponseWrapper;
+import static edu.upenn.sas.archaeologyapp.services.VolleyStringWrapper.makeVolleyStringObjectRequest;
+import static edu.upenn.sas.archaeologyapp.util.Constants.globalWebServerURL;
+/**
+ * Uploads paths with one /insert_path GET each, sent through a SyncScheduler alongside the finds. A path that
+ * fails is retried before it is reported as failed. All methods must be called on the main thread.
+ */
+public class PathUploader implements SyncScheduler.JobSource
+{
+    // Number of times a path is sent before it is reported as failed
+    private static final int MAX_ATTEMPTS = 3;
+    // Wait before a path is sent again, doubled after each further failure, so its attempts are not all spent
+    // within moments of each other on a link that is briefly down
+    private static final long RETRY_DELAY_MS = 1000;
+    private final RequestQueue queue;
+    private final SyncScheduler scheduler;
+    private final UploadResponseWrapper<PathElement> wrapper;
+    // Paths waiting to be sent, retries first once their delay is over
+    private final ArrayDeque<PathElement> pending = new ArrayDeque<>();
+    // Number of times each path has been sent
+    private final HashMap<PathElement, Integer> attempts = new HashMap<>();
+    // Number of paths sent and not yet answered
+    private int inFlight = 0;
+    // Number of paths waiting out their retry delay
+    private int retrying = 0;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    /**
+     * Constructor
+     * @param _queue - request queue
+     * @param _scheduler - scheduler that sends the paths
+     * @param _wrapper - receives the outcome of each path
+     */
+    public PathUploader(RequestQueue _queue, SyncScheduler _scheduler, UploadResponseWrapper<PathElement> _wrapper)
+    {
+        queue = _queue;
+        scheduler = _scheduler;
+        wrapper = _wrapper;
+    }
+
+    /**
+     * Queue paths for upload
+     * @param paths - paths to upload
+     */
+    public void upload(List<PathElement> paths)
+    {
+        pending.addAll(paths);
+        scheduler.dispatch();
+        checkFinished();
+    }
+
+    /**
+     * Get the next path to send
+     * @return Returns a job sending the next path, or null if no paths are waiting
+     */
+    @Override
+    public SyncScheduler.Job nextJob()
+    {
+        final PathElement path = pending.poll();
+        if (path == null)
+        {
+            return null;
+        }
+        Integer count = attempts.get(path);
+        attempts.put(path, count == null ? 1 : count + 1);
+        inFlight++;
+        return new SyncScheduler.Job() {
+            /**
+             * Send the path
+             * @param scheduler - scheduler running the job
+             */
+            @Override
+            protected void send(final SyncScheduler scheduler)
+            {
+                final SyncScheduler.Job job = this;
+                makeVolleyStringObjectRequest(buildInsertPathURL(path), queue, new StringObjectResponseWrapper() {
+                    /**
+                     * Response received
+                     * @param response - database response
+                     */
+                    @Override
+                    public void responseMethod(String response)
+                    {
+                        if (!response.contains("Error"))
+                        {
+                            attempts.remove(path);
+                            wrapper.itemUploaded(path);
+                        }
+                        else
+                        {
+                            retryOrFail(path, response);
+                        }
+                        finishJob(job, true);
+                    }
+
+                    /**
+                     * Connection failed
+                     * @param error - failure
+                     */
+                    @Override
+                    public void errorMethod(VolleyError error)
+                    {
+                        error.printStackTrace();
+                        retryOrFail(path, "Communication error: " + error);
+                        finishJob(job, false);
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * Queue a path to be sent again after a delay that grows with its attempts, or report it as failed once it is
+     * out of attempts
+     * @param path - path that was not stored
+     * @param reason - why it was not stored
+     */
+    private void retryOrFail(final PathElement path, String reason)
+    {
+        Integer count = attempts.get(path);
+        if (count != null && count >= MAX_ATTEMPTS)
+        {
+            attempts.remove(path);
+            wrapper.itemFailed(path, reason);
+        }
+        else
+        {
+            retrying++;
+            handler.postDelayed(new Runnable() {
+                /**
+                 * Queue the path again
+                 */
+                @Override
+                public void run()
+                {
+                    retrying--;
+                    pending.addFirst(path);
+                    scheduler.dispatch();
+                }
+            }, RETRY_DELAY_MS << Math.max(0, (count == null ? 1 : count) - 1));
+        }
+    }
+
+    /**
+     * Release a job's slot in the scheduler and report completion if nothing is left
+     * @param job - finished job
+     * @param succeeded - whether the server answered
+     */
+    private void finishJob(SyncScheduler.Job job, boolean succeeded)
+    {
+        inFlight--;
+        checkFinished();
+        scheduler.complete(job, succeeded);
+    }
+
+    /**
+     * Report the upload as finished once no paths are waiting, in flight or due for a retry
+     */
+    private void checkFinished()
+    {
+        if (pending.isEmpty() && inFlight == 0 && retrying == 0)
+        {
+            wrapper.uploadFinished();
+        }
+    }
+
+    /**
+     * Build the path upload URL
+     * @param path - path to upload
+     * @return Returns the /insert_path URL with the path's fields in the query string
+     */
+    static String buildInsertPathURL(PathElement path)
+    {
+        String encoding = "";
+        try
+        {
+            encoding = URLEncoder.encode(path.getTeamMember(), "UTF-8");
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            e.printStackTrace();
+        }
+        return globalWebServerURL + "/insert_path?teamMember=" + encoding + "&hemisphere=" + path.getHemisphere()
+                + "&zone=" + path.getZone() + "&beginEasting=" + path.getBeginEasting() + "&beginNorthing="
+                + path.getBeginNorthing() + "&endEasting=" + path.getEndEasting() + "&endNorthing="
+                + path.getEndNorthing() + "&beginLatitude=" + path.getBeginLatitude() + "&beginLongitude="
+                + path.getBeginLongitude() + "&beginAltitude=" + path.getBeginAltitude() + "&beginStatus="
+                + path.getBeginStatus() + "&beginARRatio=" + Double.toString(path.getBeginARRatio())
+                + "&endLatitude=" + path.getEndLatitude() + "&endLongitude=" + path.getEndLongitude()
+                + "&endAltitude=" + path.getEndAltitude() + "&endStatus=" + path.getEndStatus() + "&endARRatio="
+                + Double.toString(path.getEndARRatio()) + "&beginTime=" + Double.toString(path.getBeginTime())
+                + "&endTime=" + Double.toString(path.getEndTime());
+    }
+}
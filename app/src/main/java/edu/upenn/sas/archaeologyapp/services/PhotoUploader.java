@@ -0,0 +1,359 @@
+package edu.upenn.sas.archaeologyapp.services;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import edu.upenn.sas.archaeologyapp.models.PhotoUpload;
+import edu.upenn.sas.archaeologyapp.models.UploadResponseWrapper;
+import static edu.upenn.sas.archaeologyapp.util.Constants.DEFAULT_VOLLEY_TIMEOUT;
+import static edu.upenn.sas.archaeologyapp.util.Constants.globalWebServerURL;
+/**
+ * Uploads photos in fixed-size chunks on a thread of its own, so photos never hold up find and path uploads. Each
+ * chunk is read from disk into one reused buffer and posted to /upload_photo_chunk with its offset, the SHA-256 of
+ * the chunk and the SHA-256 of the whole file. The server answers with the number of bytes it has stored, which is
+ * saved in the photo outbox, so an interrupted upload carries on from the last stored chunk. Uploads are throttled
+ * with a token bucket so photos leave bandwidth for the rest of the sync. Results are delivered on the main thread.
+ */
+public class PhotoUploader
+{
+    private static final int CHUNK_SIZE = 256 * 1024;
+    // Number of times a chunk is sent before the photo is left for the next sync
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long RETRY_DELAY_MS = 2000;
+    private static final int HTTP_OK = 200, HTTP_NOT_FOUND = 404;
+    // Returned by sendChunk when the server has no photo endpoint
+    private static final long NO_ENDPOINT = -1;
+    private final DatabaseHandler databaseHandler;
+    private final UploadResponseWrapper<PhotoUpload> wrapper;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Chunk buffer, only used on the upload thread
+    private final byte[] buffer = new byte[CHUNK_SIZE];
+    // Throttle rate in bytes per second, 0 for no limit, and the bytes that may be sent without waiting
+    private final long bytesPerSecond;
+    private double tokens;
+    private long lastRefill = System.nanoTime();
+    // Local paths queued or uploading. Only used on the main thread.
+    private final HashSet<String> queued = new HashSet<>();
+    /**
+     * Constructor
+     * @param _databaseHandler - database holding the photo outbox
+     * @param _bytesPerSecond - upload rate limit, 0 for none
+     * @param _wrapper - receives the outcome of each photo
+     */
+    public PhotoUploader(DatabaseHandler _databaseHandler, long _bytesPerSecond,
+                         UploadResponseWrapper<PhotoUpload> _wrapper)
+    {
+        databaseHandler = _databaseHandler;
+        bytesPerSecond = _bytesPerSecond;
+        wrapper = _wrapper;
+        tokens = Math.max(CHUNK_SIZE, _bytesPerSecond);
+    }
+
+    /**
+     * Queue a photo for upload unless it is already queued. Must be called on the main thread.
+     * @param photo - photo from the photo outbox
+     */
+    public void enqueue(final PhotoUpload photo)
+    {
+        if (!queued.add(photo.getLocalPath()))
+        {
+            return;
+        }
+        executor.execute(new Runnable() {
+            /**
+             * Upload the photo and report the result
+             */
+            @Override
+            public void run()
+            {
+                final String error = upload(photo);
+                mainHandler.post(new Runnable() {
+                    /**
+                     * Deliver the result
+                     */
+                    @Override
+                    public void run()
+                    {
+                        queued.remove(photo.getLocalPath());
+                        if (error == null)
+                        {
+                            wrapper.itemUploaded(photo);
+                        }
+                        else
+                        {
+                            wrapper.itemFailed(photo, error);
+                        }
+                        if (queued.isEmpty())
+                        {
+                            wrapper.uploadFinished();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Check whether any photos are queued. Must be called on the main thread.
+     * @return Returns whether the uploader has nothing left to do
+     */
+    public boolean isIdle()
+    {
+        return queued.isEmpty();
+    }
+
+    /**
+     * Stop uploading. The photo in progress keeps the offset of its last stored chunk.
+     */
+    public void shutdown()
+    {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Upload the rest of a photo
+     * @param photo - photo from the photo outbox
+     * @return Returns null once the server has the whole file, or the reason it does not
+     */
+    private String upload(PhotoUpload photo)
+    {
+        File file = new File(photo.getLocalPath());
+        if (!file.exists())
+        {
+            databaseHandler.removePhotoUpload(photo.getLocalPath());
+            return "Missing photo " + photo.getLocalPath();
+        }
+        long length = file.length();
+        long offset = Math.min(photo.getUploadedBytes(), length);
+        long sent = 0, start = System.nanoTime();
+        RandomAccessFile input = null;
+        try
+        {
+            String fileHash = photo.getSHA256() == null ? hashFile(file) : photo.getSHA256();
+            input = new RandomAccessFile(file, "r");
+            int attempts = 0;
+            while (offset < length || length == 0)
+            {
+                int size = (int) Math.min(CHUNK_SIZE, length - offset);
+                input.seek(offset);
+                input.readFully(buffer, 0, size);
+                throttle(size);
+                long stored;
+                try
+                {
+                    stored = sendChunk(photo.getRemoteName(), fileHash, length, offset, size);
+                }
+                catch (IOException e)
+                {
+                    e.printStackTrace();
+                    if (++attempts >= MAX_ATTEMPTS)
+                    {
+                        return "Communication error: " + e;
+                    }
+                    Thread.sleep(RETRY_DELAY_MS * attempts);
+                    continue;
+                }
+                if (stored == NO_ENDPOINT)
+                {
+                    return "The server does not accept photos";
+                }
+                sent += Math.max(0, stored - offset);
+                boolean advanced = stored > offset;
+                // The server may ask for an earlier offset if it lost a chunk
+                offset = Math.max(stored, 0);
+                databaseHandler.setPhotoUploadProgress(photo.getLocalPath(), fileHash, offset);
+                if (length == 0)
+                {
+                    break;
+                }
+                if (advanced)
+                {
+                    attempts = 0;
+                }
+                else
+                {
+                    // A server that keeps answering with the same or an earlier offset would be sent the same chunks
+                    // forever, so a chunk that is not stored counts as a failed attempt
+                    if (++attempts >= MAX_ATTEMPTS)
+                    {
+                        return "The server stopped storing " + photo.getRemoteName() + " at " + offset + " bytes";
+                    }
+                    Thread.sleep(RETRY_DELAY_MS * attempts);
+                }
+            }
+            databaseHandler.removePhotoUpload(photo.getLocalPath());
+            double seconds = (System.nanoTime() - start) / 1e9;
+            Log.v("PhotoUploader", "Uploaded " + photo.getRemoteName() + ", " + sent + " bytes at "
+                    + String.format("%.2f", sent / 1048576.0 / Math.max(seconds, 1e-3)) + " MB/s");
+            return null;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return "Upload stopped";
+        }
+        catch (Exception e)
+        {
+            e.printStackTrace();
+            return "Could not read " + photo.getLocalPath() + ": " + e;
+        }
+        finally
+        {
+            if (input != null)
+            {
+                try
+                {
+                    input.close();
+                }
+                catch (IOException e)
+                {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Post the chunk in the buffer
+     * @param remoteName - name of the photo on the server
+     * @param fileHash - SHA-256 of the whole file
+     * @param length - size of the whole file
+     * @param offset - offset of the chunk in the file
+     * @param size - size of the chunk
+     * @return Returns the number of bytes the server has stored, or NO_ENDPOINT
+     * @throws IOException if the request fails
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     */
+    private long sendChunk(String remoteName, String fileHash, long length, long offset, int size)
+            throws IOException, NoSuchAlgorithmException
+    {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update(buffer, 0, size);
+        URL url = new URL(globalWebServerURL + "/upload_photo_chunk?name=" + URLEncoder.encode(remoteName, "UTF-8")
+                + "&size=" + length + "&offset=" + offset + "&sha256=" + fileHash + "&chunkSha256="
+                + toHex(digest.digest()));
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try
+        {
+            connection.setConnectTimeout(DEFAULT_VOLLEY_TIMEOUT);
+            connection.setReadTimeout(DEFAULT_VOLLEY_TIMEOUT);
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            // Stream the chunk instead of letting the connection buffer a copy
+            connection.setFixedLengthStreamingMode(size);
+            connection.setRequestProperty("Content-Type", "application/octet-stream");
+            OutputStream output = connection.getOutputStream();
+            output.write(buffer, 0, size);
+            output.close();
+            int code = connection.getResponseCode();
+            if (code == HTTP_NOT_FOUND)
+            {
+                return NO_ENDPOINT;
+            }
+            if (code != HTTP_OK)
+            {
+                throw new IOException("HTTP " + code);
+            }
+            InputStream response = connection.getInputStream();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(response, "UTF-8"));
+            String line = reader.readLine();
+            reader.close();
+            try
+            {
+                long stored = Long.parseLong(line == null ? "" : line.trim());
+                if (stored < 0 || stored > length)
+                {
+                    throw new IOException("Bad stored size " + stored);
+                }
+                return stored;
+            }
+            catch (NumberFormatException e)
+            {
+                throw new IOException("Bad response " + line);
+            }
+        }
+        finally
+        {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Hash a file, streaming it through the chunk buffer
+     * @param file - file to hash
+     * @return Returns the SHA-256 of the file in hex
+     * @throws IOException if the file cannot be read
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     */
+    private String hashFile(File file) throws IOException, NoSuchAlgorithmException
+    {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try
+        {
+            int read;
+            while ((read = input.read(buffer)) > 0)
+            {
+                digest.update(buffer, 0, read);
+            }
+        }
+        finally
+        {
+            input.close();
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Wait until the throttle allows sending a number of bytes
+     * @param bytes - bytes about to be sent
+     * @throws InterruptedException if the upload is stopped while waiting
+     */
+    private void throttle(int bytes) throws InterruptedException
+    {
+        if (bytesPerSecond <= 0)
+        {
+            return;
+        }
+        long now = System.nanoTime();
+        tokens = Math.min(Math.max(CHUNK_SIZE, bytesPerSecond), tokens + (now - lastRefill) / 1e9 * bytesPerSecond);
+        lastRefill = now;
+        if (tokens < bytes)
+        {
+            Thread.sleep((long) Math.ceil((bytes - tokens) * 1000 / bytesPerSecond));
+            lastRefill = System.nanoTime();
+            tokens = bytes;
+        }
+        tokens -= bytes;
+    }
+
+    /**
+     * Format bytes as hex
+     * @param bytes - bytes to format
+     * @return Returns the lowercase hex string
+     */
+    private static String toHex(byte[] bytes)
+    {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b: bytes)
+        {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
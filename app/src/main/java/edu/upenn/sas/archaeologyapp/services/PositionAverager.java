@@ -0,0 +1,524 @@
+package edu.upenn.sas.archaeologyapp.services;
+import edu.upenn.sas.archaeologyapp.models.ReachFix;
+import gov.nasa.worldwind.geom.Angle;
+import gov.nasa.worldwind.geom.coords.MutableUTMCoord;
+import gov.nasa.worldwind.geom.coords.UTMBatchConverter;
+/**
+ * Averages the Reach fixes received while a point is occupied into one position. Fixes from a trailing window are
+ * kept in preallocated arrays and weighted by solution quality and AR ratio. Their weighted mean and variance are
+ * accumulated online with Welford's method, and fixes too many standard deviations from the mean are rejected
+ * before the position is taken. Fixes are averaged in metres east, north and up of the first fix, so the result
+ * is converted to UTM once rather than per fix, and nothing is allocated per fix.
+ */
+public class PositionAverager
+{
+    // Weight of each RTKLIB quality code: error, fixed, float, reserved, DGPS, single
+    private static final double[] QUALITY_WEIGHTS = {0, 1, 0.2, 0, 0.02, 0.005};
+    // AR ratio at which a fixed or float solution gets its full weight, and the least share of it a low ratio gets
+    private static final double FULL_WEIGHT_AR_RATIO = 3, MIN_AR_RATIO_SHARE = 0.1;
+    private static final int FIXED = 1, FLOAT = 2;
+    // Clipping needs a few fixes to estimate the spread, and stops once a pass rejects nothing
+    private static final int MIN_CLIP_FIXES = 5, MAX_CLIP_PASSES = 3;
+    // WGS84 ellipsoid
+    private static final double SEMI_MAJOR_AXIS = 6378137, ECCENTRICITY_SQUARED = 0.00669437999014;
+    private final long windowMs;
+    private final double clipSigma;
+    private final int capacity;
+    // Window of fixes, a ring of count entries from head
+    private final long[] times;
+    private final double[] east, north, up, weights;
+    private final boolean[] kept;
+    private int head = 0, count = 0;
+    // Accumulates the kept fixes when the position is computed
+    private final Accumulator result = new Accumulator();
+    // Origin of the local frame, and its metres per degree
+    private boolean hasOrigin = false;
+    private double originLatitude, originLongitude, metresPerDegreeLatitude, metresPerDegreeLongitude;
+    // Read target and last sequence read from a FixRingBuffer
+    private final ReachFix fix = new ReachFix();
+    private long lastSequence = -1;
+    // Averaged position, and the holder it is converted to UTM in
+    private final MutableUTMCoord UTMPosition = new MutableUTMCoord();
+    private double latitude, longitude, altitude, easting, northing;
+    private int zone, rejected;
+    private String hemisphere;
+    /**
+     * Constructor
+     * @param _windowMs - how far back fixes are averaged
+     * @param _capacity - most fixes kept, the oldest are dropped past it
+     * @param _clipSigma - standard deviations from the mean past which a fix is rejected
+     */
+    public PositionAverager(long _windowMs, int _capacity, double _clipSigma)
+    {
+        windowMs = _windowMs;
+        capacity = _capacity;
+        clipSigma = _clipSigma;
+        times = new long[_capacity];
+        east = new double[_capacity];
+        north = new double[_capacity];
+        up = new double[_capacity];
+        weights = new double[_capacity];
+        kept = new boolean[_capacity];
+    }
+
+    /**
+     * Forget every fix
+     */
+    public void reset()
+    {
+        head = count = 0;
+        result.clear();
+        hasOrigin = false;
+    }
+
+    /**
+     * Add the fixes published since the last call
+     * @param fixes - buffer the Reach reader publishes to
+     * @return Returns the number of fixes read
+     */
+    public int drain(FixRingBuffer fixes)
+    {
+        int read = 0;
+        long sequence;
+        while ((sequence = fixes.readNext(lastSequence, fix)) >= 0)
+        {
+            lastSequence = sequence;
+            add(fix);
+            read++;
+        }
+        return read;
+    }
+
+    /**
+     * Add a fix, dropping those that have left the window
+     * @param fix - fix to add
+     * @return Returns whether the fix was good enough to keep
+     */
+    public boolean add(ReachFix fix)
+    {
+        double weight = weigh(fix.getQuality(), fix.getARRatio());
+        if (weight <= 0 || Double.isNaN(fix.getLatitude()) || Double.isNaN(fix.getLongitude()))
+        {
+            return false;
+        }
+        expire(fix.getReceivedTime() - windowMs);
+        if (count == capacity)
+        {
+            removeOldest();
+        }
+        if (!hasOrigin)
+        {
+            setOrigin(fix.getLatitude(), fix.getLongitude());
+        }
+        int slot = (head + count) % capacity;
+        times[slot] = fix.getReceivedTime();
+        east[slot] = longitudeOffset(fix.getLongitude()) * metresPerDegreeLongitude;
+        north[slot] = (fix.getLatitude() - originLatitude) * metresPerDegreeLatitude;
+        up[slot] = fix.getHeight();
+        weights[slot] = weight;
+        count++;
+        return true;
+    }
+
+    /**
+     * Compute the averaged position from the fixes in the window, rejecting outliers
+     * @param now - current time, which the window ends at
+     * @return Returns whether there were any fixes to average into a position that converts to UTM
+     */
+    public boolean compute(long now)
+    {
+        expire(now - windowMs);
+        if (count == 0)
+        {
+            return false;
+        }
+        result.clear();
+        for (int i = 0; i < count; i++)
+        {
+            int slot = (head + i) % capacity;
+            kept[slot] = true;
+            result.add(east[slot], north[slot], up[slot], weights[slot]);
+        }
+        for (int pass = 0; pass < MAX_CLIP_PASSES && result.count >= MIN_CLIP_FIXES; pass++)
+        {
+            // Limits are fixed for the pass, so rejecting one fix does not move them for the next
+            double meanEast = result.mean[0], meanNorth = result.mean[1], meanUp = result.mean[2];
+            double horizontalLimit = clipSigma * clipSigma * (result.variance(0) + result.variance(1));
+            double verticalLimit = clipSigma * clipSigma * result.variance(2);
+            boolean changed = false;
+            for (int i = 0; i < count; i++)
+            {
+                int slot = (head + i) % capacity;
+                double dEast = east[slot] - meanEast, dNorth = north[slot] - meanNorth, dUp = up[slot] - meanUp;
+                if (kept[slot] && (dEast * dEast + dNorth * dNorth > horizontalLimit || dUp * dUp > verticalLimit))
+                {
+                    kept[slot] = false;
+                    result.remove(east[slot], north[slot], up[slot], weights[slot]);
+                    changed = true;
+                }
+            }
+            if (!changed)
+            {
+                break;
+            }
+        }
+        double averagedLatitude = originLatitude + result.mean[1] / metresPerDegreeLatitude;
+        double averagedLongitude = Angle.normalizedDegreesLongitude(originLongitude
+                + result.mean[0] / metresPerDegreeLongitude);
+        if (!UTMPosition.setLatLon(averagedLatitude, averagedLongitude))
+        {
+            // Keep the last position that could be converted
+            return false;
+        }
+        rejected = count - result.count;
+        latitude = averagedLatitude;
+        longitude = averagedLongitude;
+        altitude = result.mean[2];
+        zone = UTMPosition.getZone();
+        hemisphere = UTMPosition.getHemisphere() == UTMBatchConverter.NORTH ? "N" : "S";
+        easting = UTMPosition.getEasting();
+        northing = UTMPosition.getNorthing();
+        return true;
+    }
+
+    /**
+     * Get the window size
+     * @return Returns the number of fixes in the window
+     */
+    public int getWindowCount()
+    {
+        return count;
+    }
+
+    /**
+     * Get the used fixes
+     * @return Returns the number of fixes averaged in the last computed position
+     */
+    public int getUsedCount()
+    {
+        return result.count;
+    }
+
+    /**
+     * Get the rejected fixes
+     * @return Returns the number of fixes rejected as outliers from the last computed position
+     */
+    public int getRejectedCount()
+    {
+        return rejected;
+    }
+
+    /**
+     * Get the latitude
+     * @return Returns the averaged latitude
+     */
+    public double getLatitude()
+    {
+        return latitude;
+    }
+
+    /**
+     * Get the longitude
+     * @return Returns the averaged longitude
+     */
+    public double getLongitude()
+    {
+        return longitude;
+    }
+
+    /**
+     * Get the altitude
+     * @return Returns the averaged altitude
+     */
+    public double getAltitude()
+    {
+        return altitude;
+    }
+
+    /**
+     * Get the zone
+     * @return Returns the UTM zone of the averaged position
+     */
+    public int getZone()
+    {
+        return zone;
+    }
+
+    /**
+     * Get the hemisphere
+     * @return Returns the hemisphere of the averaged position, N or S
+     */
+    public String getHemisphere()
+    {
+        return hemisphere;
+    }
+
+    /**
+     * Get the easting
+     * @return Returns the averaged easting
+     */
+    public double getEasting()
+    {
+        return easting;
+    }
+
+    /**
+     * Get the northing
+     * @return Returns the averaged northing
+     */
+    public double getNorthing()
+    {
+        return northing;
+    }
+
+    /**
+     * Get the easting spread. Measured in the local frame, which is within a few degrees and parts per thousand of
+     * the UTM grid.
+     * @return Returns the weighted standard deviation of the averaged fixes' eastings in metres
+     */
+    public double getEastingDeviation()
+    {
+        return Math.sqrt(result.variance(0));
+    }
+
+    /**
+     * Get the northing spread
+     * @return Returns the weighted standard deviation of the averaged fixes' northings in metres
+     */
+    public double getNorthingDeviation()
+    {
+        return Math.sqrt(result.variance(1));
+    }
+
+    /**
+     * Get the altitude spread
+     * @return Returns the weighted standard deviation of the averaged fixes' altitudes in metres
+     */
+    public double getAltitudeDeviation()
+    {
+        return Math.sqrt(result.variance(2));
+    }
+
+    /**
+     * Get the easting error. Consecutive fixes are correlated, so this is a lower bound on the true error.
+     * @return Returns the standard error of the averaged easting in metres
+     */
+    public double getEastingError()
+    {
+        return result.standardError(0);
+    }
+
+    /**
+     * Get the northing error
+     * @return Returns the standard error of the averaged northing in metres
+     */
+    public double getNorthingError()
+    {
+        return result.standardError(1);
+    }
+
+    /**
+     * Get the altitude error
+     * @return Returns the standard error of the averaged altitude in metres
+     */
+    public double getAltitudeError()
+    {
+        return result.standardError(2);
+    }
+
+    /**
+     * Get the weight of a fix
+     * @param quality - RTKLIB quality code
+     * @param ARRatio - ambiguity ratio
+     * @return Returns the fix's weight, 0 if it should not be used
+     */
+    private static double weigh(int quality, double ARRatio)
+    {
+        if (quality < 0 || quality >= QUALITY_WEIGHTS.length)
+        {
+            return 0;
+        }
+        double weight = QUALITY_WEIGHTS[quality];
+        if (quality == FIXED || quality == FLOAT)
+        {
+            weight *= Math.max(Math.min(ARRatio / FULL_WEIGHT_AR_RATIO, 1), MIN_AR_RATIO_SHARE);
+        }
+        return weight;
+    }
+
+    /**
+     * Drop the fixes received before a time
+     * @param cutoff - oldest receive time kept
+     */
+    private void expire(long cutoff)
+    {
+        while (count > 0 && times[head] < cutoff)
+        {
+            removeOldest();
+        }
+    }
+
+    /**
+     * Drop the oldest fix
+     */
+    private void removeOldest()
+    {
+        head = (head + 1) % capacity;
+        count--;
+        // An empty window starts a new local frame at its next fix
+        if (count == 0)
+        {
+            hasOrigin = false;
+        }
+    }
+
+    /**
+     * Set the origin of the local frame
+     * @param _latitude - origin latitude
+     * @param _longitude - origin longitude
+     */
+    private void setOrigin(double _latitude, double _longitude)
+    {
+        originLatitude = _latitude;
+        originLongitude = _longitude;
+        double sine = Math.sin(Math.toRadians(_latitude));
+        double w = 1 - ECCENTRICITY_SQUARED * sine * sine;
+        // Meridional and prime vertical radii of curvature
+        double meridional = SEMI_MAJOR_AXIS * (1 - ECCENTRICITY_SQUARED) / (w * Math.sqrt(w));
+        double primeVertical = SEMI_MAJOR_AXIS / Math.sqrt(w);
+        metresPerDegreeLatitude = Math.toRadians(meridional);
+        metresPerDegreeLongitude = Math.toRadians(primeVertical * Math.cos(Math.toRadians(_latitude)));
+        hasOrigin = true;
+    }
+
+    /**
+     * Get a longitude's offset from the origin, across the antimeridian if that is shorter
+     * @param _longitude - longitude
+     * @return Returns the offset in degrees
+     */
+    private double longitudeOffset(double _longitude)
+    {
+        double offset = _longitude - originLongitude;
+        if (offset > 180)
+        {
+            offset -= 360;
+        }
+        else if (offset < -180)
+        {
+            offset += 360;
+        }
+        return offset;
+    }
+
+    /**
+     * Weighted Welford accumulator of east, north and up, supporting removal so outliers can be taken back out
+     */
+    private static class Accumulator
+    {
+        private int count;
+        private double weight, weightSquared;
+        private final double[] mean = new double[3], sumOfSquares = new double[3];
+        /**
+         * Empty the accumulator
+         */
+        private void clear()
+        {
+            count = 0;
+            weight = weightSquared = 0;
+            for (int axis = 0; axis < 3; axis++)
+            {
+                mean[axis] = sumOfSquares[axis] = 0;
+            }
+        }
+
+        /**
+         * Add a fix
+         * @param east - metres east
+         * @param north - metres north
+         * @param up - metres up
+         * @param w - weight
+         */
+        private void add(double east, double north, double up, double w)
+        {
+            count++;
+            weight += w;
+            weightSquared += w * w;
+            double share = w / weight;
+            update(0, east, w, share);
+            update(1, north, w, share);
+            update(2, up, w, share);
+        }
+
+        /**
+         * Remove a fix that was added before
+         * @param east - metres east
+         * @param north - metres north
+         * @param up - metres up
+         * @param w - weight
+         */
+        private void remove(double east, double north, double up, double w)
+        {
+            count--;
+            if (count == 0)
+            {
+                clear();
+                return;
+            }
+            weight -= w;
+            weightSquared -= w * w;
+            double share = w / weight;
+            revert(0, east, w, share);
+            revert(1, north, w, share);
+            revert(2, up, w, share);
+        }
+
+        /**
+         * Welford step for one axis
+         * @param axis - axis index
+         * @param x - value
+         * @param w - weight
+         * @param share - weight over the new total weight
+         */
+        private void update(int axis, double x, double w, double share)
+        {
+            double delta = x - mean[axis];
+            mean[axis] += share * delta;
+            sumOfSquares[axis] += w * delta * (x - mean[axis]);
+        }
+
+        /**
+         * Undo a Welford step for one axis
+         * @param axis - axis index
+         * @param x - value
+         * @param w - weight
+         * @param share - weight over the remaining total weight
+         */
+        private void revert(int axis, double x, double w, double share)
+        {
+            double delta = x - mean[axis];
+            mean[axis] -= share * delta;
+            sumOfSquares[axis] = Math.max(sumOfSquares[axis] - w * delta * (x - mean[axis]), 0);
+        }
+
+        /**
+         * Get the variance of an axis, unbiased for weights that express reliability
+         * @param axis - axis index
+         * @return Returns the weighted variance, 0 with fewer than two fixes
+         */
+        private double variance(int axis)
+        {
+            double denominator = weight - weightSquared / weight;
+            return count < 2 || denominator <= 0 ? 0 : sumOfSquares[axis] / denominator;
+        }
+
+        /**
+         * Get the standard error of an axis's mean
+         * @param axis - axis index
+         * @return Returns the standard deviation over the square root of the effective number of fixes
+         */
+        private double standardError(int axis)
+        {
+            return count < 2 ? 0 : Math.sqrt(variance(axis) * weightSquared / (weight * weight));
+        }
+    }
+}
@@ -0,0 +1,383 @@
+package edu.upenn.sas.archaeologyapp.services;
+import edu.upenn.sas.archaeologyapp.models.ReachFix;
+/**
+ * Parser for the Reach rover's position output, working in place over the bytes of a line. Reads RTKLIB LLH
+ * lines and NMEA GGA sentences into a ReachFix without creating any strings or arrays, and reports a malformed
+ * line by returning false rather than throwing.
+ */
+public class ReachLineParser
+{
+    // Fields in an RTKLIB LLH line: date, time, latitude, longitude, height, Q, ns, six deviations, age, ratio
+    private static final int LLH_LATITUDE = 2, LLH_LONGITUDE = 3, LLH_HEIGHT = 4, LLH_QUALITY = 5;
+    private static final int LLH_SATELLITES = 6, LLH_AGE = 13, LLH_AR_RATIO = 14;
+    // Fields in an NMEA GGA sentence after the talker: time, latitude, N/S, longitude, E/W, quality, satellites,
+    // HDOP, altitude, M, geoid separation, M, age
+    private static final int GGA_LATITUDE = 2, GGA_NORTH_SOUTH = 3, GGA_LONGITUDE = 4, GGA_EAST_WEST = 5;
+    private static final int GGA_QUALITY = 6, GGA_SATELLITES = 7, GGA_ALTITUDE = 9, GGA_SEPARATION = 11;
+    private static final int GGA_AGE = 13;
+    // RTKLIB quality code for each GGA fix quality, 0 where there is no fix
+    private static final int[] GGA_TO_RTKLIB_QUALITY = {0, 5, 4, 0, 1, 2, 5};
+    // Most significant digits kept when parsing a number, so the mantissa stays exact in a double
+    private static final int MAX_DIGITS = 15;
+    private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18};
+    /**
+     * Parse a line in either format
+     * @param line - buffer holding the line
+     * @param start - index of the line's first byte
+     * @param end - index after the line's last byte
+     * @param receivedTime - time the line was received
+     * @param fix - fix to fill in
+     * @return Returns whether the line held a fix
+     */
+    public static boolean parse(byte[] line, int start, int end, long receivedTime, ReachFix fix)
+    {
+        start = skipSpace(line, start, end);
+        if (start < end && line[start] == '$')
+        {
+            return parseGGA(line, start, end, receivedTime, fix);
+        }
+        return parseLLH(line, start, end, receivedTime, fix);
+    }
+
+    /**
+     * Parse an RTKLIB LLH line, as defined in the RTKLIB manual v2.4.2, p.102
+     * @param line - buffer holding the line
+     * @param start - index of the line's first byte
+     * @param end - index after the line's last byte
+     * @param receivedTime - time the line was received
+     * @param fix - fix to fill in
+     * @return Returns whether the line held a fix
+     */
+    public static boolean parseLLH(byte[] line, int start, int end, long receivedTime, ReachFix fix)
+    {
+        double latitude = Double.NaN, longitude = Double.NaN, height = Double.NaN, age = Double.NaN;
+        double ratio = Double.NaN;
+        int quality = -1, satellites = -1;
+        int field = 0, i = skipSpace(line, start, end);
+        while (i < end && field <= LLH_AR_RATIO)
+        {
+            int fieldEnd = i;
+            while (fieldEnd < end && !isSpace(line[fieldEnd]))
+            {
+                fieldEnd++;
+            }
+            switch (field)
+            {
+                case LLH_LATITUDE:
+                    latitude = parseDecimal(line, i, fieldEnd);
+                    break;
+                case LLH_LONGITUDE:
+                    longitude = parseDecimal(line, i, fieldEnd);
+                    break;
+                case LLH_HEIGHT:
+                    height = parseDecimal(line, i, fieldEnd);
+                    break;
+                case LLH_QUALITY:
+                    quality = parseInteger(line, i, fieldEnd);
+                    break;
+                case LLH_SATELLITES:
+                    satellites = parseInteger(line, i, fieldEnd);
+                    break;
+                case LLH_AGE:
+                    age = parseDecimal(line, i, fieldEnd);
+                    break;
+                case LLH_AR_RATIO:
+                    ratio = parseDecimal(line, i, fieldEnd);
+                    break;
+                default:
+                    break;
+            }
+            field++;
+            i = skipSpace(line, fieldEnd, end);
+        }
+        if (field <= LLH_AR_RATIO || quality < 0 || satellites < 0 || Double.isNaN(latitude)
+                || Double.isNaN(longitude) || Double.isNaN(height) || Double.isNaN(age) || Double.isNaN(ratio))
+        {
+            return false;
+        }
+        fix.set(receivedTime, latitude, longitude, height, quality, satellites, age, ratio);
+        return true;
+    }
+
+    /**
+     * Parse an NMEA GGA sentence. The checksum is verified when present. GGA carries no ambiguity ratio, so the
+     * fix's ratio is 0, and a missing correction age is 0.
+     * @param line - buffer holding the sentence
+     * @param start - index of the '$'
+     * @param end - index after the sentence's last byte
+     * @param receivedTime - time the sentence was received
+     * @param fix - fix to fill in
+     * @return Returns whether the sentence was a GGA sentence holding a fix
+     */
+    public static boolean parseGGA(byte[] line, int start, int end, long receivedTime, ReachFix fix)
+    {
+        // Trim trailing whitespace, then split off the checksum
+        while (end > start && isSpace(line[end - 1]))
+        {
+            end--;
+        }
+        if (end - start < 6 || line[start] != '$' || line[start + 3] != 'G' || line[start + 4] != 'G'
+                || line[start + 5] != 'A')
+        {
+            return false;
+        }
+        int star = end;
+        for (int i = start + 1; i < end; i++)
+        {
+            if (line[i] == '*')
+            {
+                star = i;
+                break;
+            }
+        }
+        if (star < end)
+        {
+            int checksum = 0;
+            for (int i = start + 1; i < star; i++)
+            {
+                checksum ^= line[i];
+            }
+            if (end - star != 3 || hexValue(line[star + 1]) * 16 + hexValue(line[star + 2]) != checksum)
+            {
+                return false;
+            }
+        }
+        double latitude = Double.NaN, longitude = Double.NaN, altitude = Double.NaN, separation = 0, age = 0;
+        int quality = -1, satellites = -1, field = 0, i = start;
+        while (i <= star && field <= GGA_AGE)
+        {
+            int fieldEnd = i;
+            while (fieldEnd < star && line[fieldEnd] != ',')
+            {
+                fieldEnd++;
+            }
+            boolean empty = fieldEnd == i;
+            switch (field)
+            {
+                case GGA_LATITUDE:
+                    latitude = parseDegreesMinutes(line, i, fieldEnd);
+                    break;
+                case GGA_NORTH_SOUTH:
+                    if (fieldEnd - i == 1 && line[i] == 'S')
+                    {
+                        latitude = -latitude;
+                    }
+                    else if (fieldEnd - i != 1 || line[i] != 'N')
+                    {
+                        latitude = Double.NaN;
+                    }
+                    break;
+                case GGA_LONGITUDE:
+                    longitude = parseDegreesMinutes(line, i, fieldEnd);
+                    break;
+                case GGA_EAST_WEST:
+                    if (fieldEnd - i == 1 && line[i] == 'W')
+                    {
+                        longitude = -longitude;
+                    }
+                    else if (fieldEnd - i != 1 || line[i] != 'E')
+                    {
+                        longitude = Double.NaN;
+                    }
+                    break;
+                case GGA_QUALITY:
+                    quality = parseInteger(line, i, fieldEnd);
+                    break;
+                case GGA_SATELLITES:
+                    satellites = parseInteger(line, i, fieldEnd);
+                    break;
+                case GGA_ALTITUDE:
+                    altitude = parseDecimal(line, i, fieldEnd);
+                    break;
+                case GGA_SEPARATION:
+                    separation = empty ? 0 : parseDecimal(line, i, fieldEnd);
+                    break;
+                case GGA_AGE:
+                    age = empty ? 0 : parseDecimal(line, i, fieldEnd);
+                    break;
+                default:
+                    break;
+            }
+            field++;
+            i = fieldEnd + 1;
+        }
+        if (field <= GGA_SEPARATION || quality <= 0 || quality >= GGA_TO_RTKLIB_QUALITY.length
+                || GGA_TO_RTKLIB_QUALITY[quality] == 0 || satellites < 0 || Double.isNaN(latitude)
+                || Double.isNaN(longitude) || Double.isNaN(altitude) || Double.isNaN(separation) || Double.isNaN(age))
+        {
+            return false;
+        }
+        // GGA gives altitude above the geoid, LLH gives ellipsoidal height
+        fix.set(receivedTime, latitude, longitude, altitude + separation, GGA_TO_RTKLIB_QUALITY[quality], satellites,
+                age, 0);
+        return true;
+    }
+
+    /**
+     * Parse a decimal number such as -75.1234567. Digits past the fifteenth significant one are dropped.
+     * @param line - buffer holding the number
+     * @param start - index of the number's first byte
+     * @param end - index after the number's last byte
+     * @return Returns the number, or NaN if the bytes are not a number
+     */
+    static double parseDecimal(byte[] line, int start, int end)
+    {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (line[i] == '-' || line[i] == '+'))
+        {
+            negative = line[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0, significant = 0, scale = 0;
+        boolean point = false;
+        for (; i < end; i++)
+        {
+            byte b = line[i];
+            if (b >= '0' && b <= '9')
+            {
+                digits++;
+                if (significant < MAX_DIGITS)
+                {
+                    if (mantissa != 0 || b != '0')
+                    {
+                        significant++;
+                    }
+                    mantissa = mantissa * 10 + (b - '0');
+                    if (point)
+                    {
+                        scale++;
+                    }
+                }
+                else if (!point)
+                {
+                    // Dropped integer digits still count towards the magnitude
+                    scale--;
+                }
+            }
+            else if (b == '.' && !point)
+            {
+                point = true;
+            }
+            else
+            {
+                return Double.NaN;
+            }
+        }
+        if (digits == 0)
+        {
+            return Double.NaN;
+        }
+        if (Math.abs(scale) >= POWERS_OF_TEN.length)
+        {
+            double value = mantissa * Math.pow(10, -scale);
+            return negative ? -value : value;
+        }
+        double value = scale >= 0 ? mantissa / POWERS_OF_TEN[scale] : mantissa * POWERS_OF_TEN[-scale];
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parse a non-negative integer
+     * @param line - buffer holding the number
+     * @param start - index of the number's first byte
+     * @param end - index after the number's last byte
+     * @return Returns the number, or -1 if the bytes are not a non-negative integer of at most nine digits
+     */
+    static int parseInteger(byte[] line, int start, int end)
+    {
+        if (start == end || end - start > 9)
+        {
+            return -1;
+        }
+        int value = 0;
+        for (int i = start; i < end; i++)
+        {
+            byte b = line[i];
+            if (b < '0' || b > '9')
+            {
+                return -1;
+            }
+            value = value * 10 + (b - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Parse an NMEA angle written as degrees and decimal minutes, dddmm.mmmm
+     * @param line - buffer holding the angle
+     * @param start - index of the angle's first byte
+     * @param end - index after the angle's last byte
+     * @return Returns the angle in decimal degrees, or NaN if the bytes are not an angle
+     */
+    private static double parseDegreesMinutes(byte[] line, int start, int end)
+    {
+        int point = start;
+        while (point < end && line[point] != '.')
+        {
+            point++;
+        }
+        // Minutes take the two digits before the point
+        if (point - start < 3)
+        {
+            return Double.NaN;
+        }
+        int degrees = parseInteger(line, start, point - 2);
+        double minutes = parseDecimal(line, point - 2, end);
+        if (degrees < 0 || Double.isNaN(minutes) || minutes < 0 || minutes >= 60)
+        {
+            return Double.NaN;
+        }
+        return degrees + minutes / 60;
+    }
+
+    /**
+     * Get the value of a hexadecimal digit
+     * @param b - digit
+     * @return Returns the digit's value, or a value that cannot match a checksum if it is not a digit
+     */
+    private static int hexValue(byte b)
+    {
+        if (b >= '0' && b <= '9')
+        {
+            return b - '0';
+        }
+        if (b >= 'A' && b <= 'F')
+        {
+            return b - 'A' + 10;
+        }
+        if (b >= 'a' && b <= 'f')
+        {
+            return b - 'a' + 10;
+        }
+        return 1 << 8;
+    }
+
+    /**
+     * Skip spaces and tabs
+     * @param line - buffer
+     * @param i - index to start at
+     * @param end - index to stop at
+     * @return Returns the index of the first byte that is not whitespace, or end
+     */
+    private static int skipSpace(byte[] line, int i, int end)
+    {
+        while (i < end && isSpace(line[i]))
+        {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Check for whitespace
+     * @param b - byte
+     * @return Returns whether the byte is a space, tab or line ending
+     */
+    private static boolean isSpace(byte b)
+    {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+    }
+}
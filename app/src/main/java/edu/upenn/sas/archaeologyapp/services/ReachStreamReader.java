@@ -0,0 +1,316 @@
+package edu.upenn.sas.archaeologyapp.services;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.Random;
+import edu.upenn.sas.archaeologyapp.models.ReachConnectionStats;
+import edu.upenn.sas.archaeologyapp.models.ReachFix;
+/**
+ * Long-running reader of the Reach rover's LLH or NMEA output. One thread keeps one socket open for as long as
+ * the connection lasts, reads it into one reused byte buffer, parses every line in place and publishes the fixes
+ * to a FixRingBuffer, so no line is dropped between polls and nothing is allocated per line.
+ * The connection moves between explicit states. It is CONNECTING until a socket is open and its first fix has
+ * arrived, STREAMING while fixes arrive, STALE once the newest fix is older than the stale limit, and BACKOFF
+ * while waiting to reconnect. A
+ * connection that fails, goes quiet or sends no fix for the timeout is dropped, and reconnects back off
+ * exponentially with jitter, so a lost hotspot is retried without hammering it and without needing a reset.
+ */
+public class ReachStreamReader implements Runnable
+{
+    // Connection states
+    public static final int STATE_CONNECTING = 0, STATE_STREAMING = 1, STATE_STALE = 2, STATE_BACKOFF = 3;
+    // Bounds of the delay before a reconnect, which doubles with each failure in a row
+    private static final long MIN_BACKOFF_MS = 500, MAX_BACKOFF_MS = 10000;
+    // Period over which line and fix rates are measured
+    private static final long RATE_WINDOW_MS = 1000;
+    // Longest line kept, anything longer is dropped
+    private static final int LINE_BUFFER_SIZE = 4096;
+    private final String host, port;
+    private final int timeoutMs;
+    private final long staleAfterMs;
+    private final FixRingBuffer fixes;
+    // Parse target, buffer, backoff jitter and rate window, only used on the reader thread
+    private final ReachFix fix = new ReachFix();
+    private final byte[] buffer = new byte[LINE_BUFFER_SIZE];
+    private final Random jitter = new Random();
+    private int failuresInARow = 0;
+    private long windowStart = 0;
+    private int windowLines = 0, windowFixes = 0;
+    // State and metrics, written by the reader thread and read by any
+    private volatile int state = STATE_CONNECTING;
+    private volatile long connectedTime = 0, lastFixTime = 0, totalUptime = 0, rateTime = 0;
+    private volatile int connections = 0, failures = 0;
+    private volatile double linesPerSecond = 0, fixesPerSecond = 0;
+    private volatile boolean running = false;
+    private volatile Socket socket;
+    private Thread thread;
+    // Thread of the reader this one replaces, which must finish before this one publishes to the same buffer
+    private Thread predecessor;
+    /**
+     * Constructor
+     * @param _host - Reach IP
+     * @param _port - Reach port
+     * @param _timeoutMs - connect and read timeout, and how long a connection may go without a fix
+     * @param _staleAfterMs - age past which the newest fix is stale
+     * @param _fixes - buffer the fixes are published to
+     */
+    public ReachStreamReader(String _host, String _port, int _timeoutMs, long _staleAfterMs, FixRingBuffer _fixes)
+    {
+        host = _host;
+        port = _port;
+        timeoutMs = _timeoutMs;
+        staleAfterMs = _staleAfterMs;
+        fixes = _fixes;
+    }
+
+    /**
+     * Start reading on a thread of its own, once the stopped reader this one replaces on the same buffer has
+     * finished, so the buffer never has two writers. The wait is on the new thread, so the caller is not blocked.
+     * @param previous - reader this one replaces, already stopped, or null
+     */
+    public void start(ReachStreamReader previous)
+    {
+        predecessor = previous != null ? previous.thread : null;
+        running = true;
+        thread = new Thread(this, "ReachStreamReader");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop reading and close the connection
+     */
+    public void stop()
+    {
+        running = false;
+        closeSocket();
+        if (thread != null)
+        {
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * Get the connection state
+     * @return Returns one of the STATE_ constants
+     */
+    public int getState()
+    {
+        int current = state;
+        if (current == STATE_STREAMING && System.currentTimeMillis() - lastFixTime > staleAfterMs)
+        {
+            return STATE_STALE;
+        }
+        return current;
+    }
+
+    /**
+     * Get the connection metrics
+     * @return Returns a snapshot of the connection's state, uptime, reconnects and rates
+     */
+    public ReachConnectionStats getStats()
+    {
+        long now = System.currentTimeMillis();
+        long connected = connectedTime, lastFix = lastFixTime;
+        long uptime = connected > 0 ? now - connected : 0;
+        // Rates measured before the connection went quiet no longer apply
+        boolean ratesCurrent = now - rateTime <= 2 * RATE_WINDOW_MS;
+        return new ReachConnectionStats(getState(), uptime, totalUptime + uptime, Math.max(connections - 1, 0),
+                failures, ratesCurrent ? linesPerSecond : 0, ratesCurrent ? fixesPerSecond : 0,
+                lastFix > 0 ? now - lastFix : -1);
+    }
+
+    /**
+     * Read until stopped, reconnecting with backoff whenever the connection drops
+     */
+    @Override
+    public void run()
+    {
+        // Stopping closed the replaced reader's socket, so it ends as soon as it has published the lines it holds.
+        // It is waited out even if this reader is stopped meanwhile, so a reader started after this one cannot
+        // overlap it either.
+        while (predecessor != null)
+        {
+            try
+            {
+                predecessor.join();
+                predecessor = null;
+            }
+            catch (InterruptedException e)
+            {
+                // Stopped, running is checked below
+            }
+        }
+        while (running)
+        {
+            long attemptTime = System.currentTimeMillis();
+            try
+            {
+                state = STATE_CONNECTING;
+                socket = new Socket();
+                socket.setSoTimeout(timeoutMs);
+                socket.connect(new InetSocketAddress(host, Integer.parseInt(port)), timeoutMs);
+                connections++;
+                windowStart = connectedTime = System.currentTimeMillis();
+                windowLines = windowFixes = 0;
+                readLines(socket.getInputStream());
+            }
+            catch (IOException e)
+            {
+                // Refused, dropped and timed out connections are expected in the field, and closing the socket
+                // in stop() also ends up here
+            }
+            catch (Exception e)
+            {
+                e.printStackTrace();
+            }
+            finally
+            {
+                closeSocket();
+                disconnected();
+            }
+            if (!running)
+            {
+                break;
+            }
+            failures++;
+            // A connection that delivered fixes was healthy, so its loss starts the backoff over
+            failuresInARow = lastFixTime >= attemptTime ? 1 : failuresInARow + 1;
+            try
+            {
+                Thread.sleep(backoffDelay(failuresInARow));
+            }
+            catch (InterruptedException e)
+            {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Record the end of a connection
+     */
+    private void disconnected()
+    {
+        state = STATE_BACKOFF;
+        long connected = connectedTime;
+        if (connected > 0)
+        {
+            totalUptime += System.currentTimeMillis() - connected;
+            connectedTime = 0;
+        }
+    }
+
+    /**
+     * Get the delay before the next reconnect, doubling with each failure and jittered over its upper half so
+     * readers that lost the same hotspot do not reconnect in step
+     * @param failureCount - failures since the last healthy connection, at least 1
+     * @return Returns the delay in milliseconds
+     */
+    private long backoffDelay(int failureCount)
+    {
+        long delay = MAX_BACKOFF_MS;
+        if (failureCount <= 16)
+        {
+            delay = Math.min(MIN_BACKOFF_MS << (failureCount - 1), MAX_BACKOFF_MS);
+        }
+        return delay / 2 + (long) (jitter.nextDouble() * (delay / 2));
+    }
+
+    /**
+     * Close the socket, unblocking a read in progress
+     */
+    private void closeSocket()
+    {
+        Socket current = socket;
+        if (current != null)
+        {
+            try
+            {
+                current.close();
+            }
+            catch (IOException e)
+            {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Read lines until the stream ends or reading stops, parsing each one where it lies in the buffer
+     * @param in - stream from the rover
+     * @throws IOException if the read fails or times out, or no fix arrives within the timeout
+     */
+    private void readLines(InputStream in) throws IOException
+    {
+        // Unparsed bytes are buffer[0, filled), a partial line whose start has been seen
+        int filled = 0;
+        boolean overflowed = false;
+        while (running)
+        {
+            int read = in.read(buffer, filled, buffer.length - filled);
+            if (read < 0)
+            {
+                return;
+            }
+            long receivedTime = System.currentTimeMillis();
+            int lineStart = 0, end = filled + read;
+            for (int i = filled; i < end; i++)
+            {
+                if (buffer[i] != '\n')
+                {
+                    continue;
+                }
+                // The tail of an overlong line is skipped along with its head
+                if (!overflowed && ReachLineParser.parse(buffer, lineStart, i, receivedTime, fix))
+                {
+                    fixes.publish(fix);
+                    lastFixTime = receivedTime;
+                    if (state != STATE_STREAMING)
+                    {
+                        state = STATE_STREAMING;
+                    }
+                    windowFixes++;
+                }
+                windowLines++;
+                overflowed = false;
+                lineStart = i + 1;
+            }
+            updateRates(receivedTime);
+            // Bytes still arrive but none of them are fixes
+            if (receivedTime - Math.max(lastFixTime, connectedTime) > timeoutMs)
+            {
+                throw new SocketTimeoutException("No Fix Received");
+            }
+            filled = end - lineStart;
+            if (filled == buffer.length)
+            {
+                overflowed = true;
+                filled = 0;
+            }
+            else if (lineStart > 0)
+            {
+                System.arraycopy(buffer, lineStart, buffer, 0, filled);
+            }
+        }
+    }
+
+    /**
+     * Publish the line and fix rates once the rate window is over
+     * @param now - current time
+     */
+    private void updateRates(long now)
+    {
+        long elapsed = now - windowStart;
+        if (elapsed >= RATE_WINDOW_MS)
+        {
+            linesPerSecond = windowLines * 1000.0 / elapsed;
+            fixesPerSecond = windowFixes * 1000.0 / elapsed;
+            rateTime = now;
+            windowStart = now;
+            windowLines = windowFixes = 0;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package edu.upenn.sas.archaeologyapp.services;
+import gov.nasa.worldwind.geom.coords.MutableUTMCoord;
+/**
+ * Covers a latitude and longitude region, such as the visible part of the map, with UTM boxes for the finds' box
+ * searches: one box per zone and hemisphere the region reaches, in that zone's own coordinates, so every find stored
+ * in the region falls in the box of the zone it was recorded in
+ */
+public class RegionBoxes
+{
+    // Most boxes one region needs: one per zone and hemisphere
+    public static final int MAX_BOXES = 120;
+    // Latitudes covered by UTM
+    private static final double MIN_LATITUDE = -80, MAX_LATITUDE = 84;
+    // Degrees either side of a zone's central meridian searched in that zone. The Norway and Svalbard zones reach
+    // up to 6 degrees from their central meridians.
+    private static final double ZONE_REACH = 6;
+    // Margin added around each box in meters, covering rounding in the projection
+    private static final double BOX_MARGIN = 1;
+    /**
+     * Cover a region with UTM boxes
+     * @param south - south edge in degrees
+     * @param north - north edge in degrees
+     * @param west - west edge in degrees
+     * @param east - east edge in degrees, less than west if the region crosses the antimeridian
+     * @param margin - fraction of the region's size to add on each side
+     * @param zones - receives the zone of each box, MAX_BOXES long
+     * @param hemispheres - receives the hemisphere of each box, MAX_BOXES long
+     * @param boxes - receives the west, south, east and north edge of each box in meters, 4 * MAX_BOXES long
+     * @return Returns the number of boxes
+     */
+    public static int cover(double south, double north, double west, double east, double margin, int[] zones,
+                            char[] hemispheres, double[] boxes)
+    {
+        if (east < west)
+        {
+            // The region crosses the antimeridian
+            east += 360;
+        }
+        double latitudeMargin = (north - south) * margin, longitudeMargin = (east - west) * margin;
+        south = Math.max(south - latitudeMargin, MIN_LATITUDE);
+        north = Math.min(north + latitudeMargin, MAX_LATITUDE);
+        west -= longitudeMargin;
+        east += longitudeMargin;
+        if (east - west >= 360)
+        {
+            west = -180;
+            east = 180;
+        }
+        MutableUTMCoord UTMPosition = new MutableUTMCoord();
+        int count = 0;
+        for (int zone = 1; zone <= 60; zone++)
+        {
+            if (north >= 0 && addBox(zone, Math.max(south, 0), north, west, east, UTMPosition, zones, hemispheres,
+                    boxes, count))
+            {
+                count++;
+            }
+            if (south < 0 && addBox(zone, south, Math.min(north, -1e-9), west, east, UTMPosition, zones,
+                    hemispheres, boxes, count))
+            {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Bound the part of a region near a zone in that zone's UTM coordinates. Eastings along a parallel and
+     * northings along a meridian change monotonically, so the box is set by the part's corners and the points where
+     * its south and north edges cross the central meridian.
+     * @param zone - zone
+     * @param south - south edge in degrees, all in one hemisphere
+     * @param north - north edge in degrees
+     * @param west - west edge in degrees, possibly below -180
+     * @param east - east edge in degrees, possibly above 180
+     * @param UTMPosition - conversion to reuse
+     * @param zones - zone output
+     * @param hemispheres - hemisphere output
+     * @param boxes - box output, four values per box
+     * @param i - output index
+     * @return Returns whether the region reaches the zone
+     */
+    private static boolean addBox(int zone, double south, double north, double west, double east,
+                                  MutableUTMCoord UTMPosition, int[] zones, char[] hemispheres, double[] boxes, int i)
+    {
+        if (south > north)
+        {
+            return false;
+        }
+        double centralMeridian = 6 * zone - 183;
+        boolean found = false;
+        double minEasting = Double.MAX_VALUE, minNorthing = Double.MAX_VALUE;
+        double maxEasting = -Double.MAX_VALUE, maxNorthing = -Double.MAX_VALUE;
+        // The region may reach the zone across the antimeridian
+        for (double shift = -360; shift <= 360; shift += 360)
+        {
+            double from = Math.max(west, centralMeridian + shift - ZONE_REACH);
+            double to = Math.min(east, centralMeridian + shift + ZONE_REACH);
+            if (from > to)
+            {
+                continue;
+            }
+            double middle = Math.min(Math.max(centralMeridian + shift, from), to);
+            double[] longitudes = {from - shift, middle - shift, to - shift};
+            double[] latitudes = {south, north};
+            for (double longitude: longitudes)
+            {
+                for (double latitude: latitudes)
+                {
+                    double wrapped = longitude > 180 ? longitude - 360 : longitude < -180 ? longitude + 360 : longitude;
+                    if (UTMPosition.setLatLon(latitude, wrapped, zone))
+                    {
+                        found = true;
+                        minEasting = Math.min(minEasting, UTMPosition.getEasting());
+                        maxEasting = Math.max(maxEasting, UTMPosition.getEasting());
+                        minNorthing = Math.min(minNorthing, UTMPosition.getNorthing());
+                        maxNorthing = Math.max(maxNorthing, UTMPosition.getNorthing());
+                        hemispheres[i] = UTMPosition.getHemisphere();
+                    }
+                }
+            }
+        }
+        if (!found)
+        {
+            return false;
+        }
+        zones[i] = zone;
+        boxes[4 * i] = minEasting - BOX_MARGIN;
+        boxes[4 * i + 1] = minNorthing - BOX_MARGIN;
+        boxes[4 * i + 2] = maxEasting + BOX_MARGIN;
+        boxes[4 * i + 3] = maxNorthing + BOX_MARGIN;
+        return true;
+    }
+}
@@ -0,0 +1,165 @@
+package edu.upenn.sas.archaeologyapp.services;
+import android.os.Handler;
+import android.os.Looper;
+import java.util.ArrayList;
+/**
+ * Keeps a window of upload requests in flight at once across several sources, such as the find and path
+ * uploaders. Requests may complete in any order; each completion frees a slot for the next request. The window
+ * grows by one request after each success and halves after each failure, and once half of the recent requests
+ * have failed dispatching pauses with an exponential backoff, so a failing server or link is not flooded.
+ * All methods must be called on the main thread.
+ */
+public class SyncScheduler
+{
+    /**
+     * One upload request
+     */
+    public abstract static class Job
+    {
+        /**
+         * Send the request. The job must call complete on the scheduler exactly once when it finishes.
+         * @param scheduler - scheduler running the job
+         */
+        protected abstract void send(SyncScheduler scheduler);
+    }
+
+    /**
+     * Supplies jobs as window slots free up
+     */
+    public interface JobSource
+    {
+        /**
+         * Get the next job
+         * @return Returns the next job, or null if the source has nothing to send right now
+         */
+        Job nextJob();
+    }
+
+    // Number of recent outcomes considered when looking for an error spike
+    private static final int OUTCOME_HISTORY = 8;
+    private static final long INITIAL_BACKOFF_MS = 1000, MAX_BACKOFF_MS = 30000;
+    private final int maxWindow;
+    private final ArrayList<JobSource> sources = new ArrayList<>();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    // Ring of recent outcomes, true for a failure
+    private final boolean[] recentFailures = new boolean[OUTCOME_HISTORY];
+    private int outcomeCount = 0, recentFailureCount = 0;
+    private int window, inFlight = 0;
+    // Source asked first on the next dispatch, so sources take turns
+    private int nextSource = 0;
+    private long backoffMs = INITIAL_BACKOFF_MS;
+    private boolean paused = false;
+    /**
+     * Resumes dispatching after a backoff
+     */
+    private final Runnable resume = new Runnable() {
+        /**
+         * Resume dispatching
+         */
+        @Override
+        public void run()
+        {
+            paused = false;
+            dispatch();
+        }
+    };
+    /**
+     * Constructor
+     * @param _maxWindow - maximum number of requests in flight
+     */
+    public SyncScheduler(int _maxWindow)
+    {
+        maxWindow = Math.max(1, _maxWindow);
+        window = maxWindow;
+    }
+
+    /**
+     * Add a source of jobs and start sending them
+     * @param source - job source
+     */
+    public void addSource(JobSource source)
+    {
+        sources.add(source);
+        dispatch();
+    }
+
+    /**
+     * Send jobs until the window is full or no source has anything to send. Sources call this when new work
+     * arrives.
+     */
+    public void dispatch()
+    {
+        while (!paused && inFlight < window)
+        {
+            Job job = null;
+            for (int i = 0; i < sources.size() && job == null; i++)
+            {
+                job = sources.get((nextSource + i) % sources.size()).nextJob();
+                if (job != null)
+                {
+                    nextSource = (nextSource + i + 1) % sources.size();
+                }
+            }
+            if (job == null)
+            {
+                return;
+            }
+            inFlight++;
+            job.send(this);
+        }
+    }
+
+    /**
+     * A job finished
+     * @param job - finished job
+     * @param succeeded - whether the request reached the server and was answered
+     */
+    public void complete(Job job, boolean succeeded)
+    {
+        inFlight--;
+        int slot = outcomeCount % OUTCOME_HISTORY;
+        if (outcomeCount >= OUTCOME_HISTORY && recentFailures[slot])
+        {
+            recentFailureCount--;
+        }
+        recentFailures[slot] = !succeeded;
+        outcomeCount++;
+        if (succeeded)
+        {
+            window = Math.min(maxWindow, window + 1);
+            backoffMs = INITIAL_BACKOFF_MS;
+        }
+        else
+        {
+            recentFailureCount++;
+            window = Math.max(1, window / 2);
+            int recent = Math.min(outcomeCount, OUTCOME_HISTORY);
+            if (!paused && recent >= OUTCOME_HISTORY / 2 && recentFailureCount * 2 >= recent)
+            {
+                paused = true;
+                handler.postDelayed(resume, backoffMs);
+                backoffMs = Math.min(MAX_BACKOFF_MS, backoffMs * 2);
+            }
+        }
+        dispatch();
+    }
+
+    /**
+     * Get the number of requests in flight
+     * @return Returns the number of jobs sent and not yet complete
+     */
+    public int getInFlight()
+    {
+        return inFlight;
+    }
+
+    /**
+     * Stop sending. Jobs already in flight still complete.
+     */
+    public void cancel()
+    {
+        handler.removeCallbacks(resume);
+        paused = true;
+        sources.clear();
+    }
+}
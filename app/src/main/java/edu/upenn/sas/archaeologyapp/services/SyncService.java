@@ -0,0 +1,716 @@
+package edu.upenn.sas.archaeologyapp.services;
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.Build;
+import android.os.Environment;
+import android.os.IBinder;
+import android.support.v4.app.NotificationCompat;
+import android.support.v4.content.ContextCompat;
+import android.support.v4.content.LocalBroadcastManager;
+import android.util.Log;
+import com.android.volley.RequestQueue;
+import com.android.volley.toolbox.Volley;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import edu.upenn.sas.archaeologyapp.R;
+import edu.upenn.sas.archaeologyapp.models.DataEntryElement;
+import edu.upenn.sas.archaeologyapp.models.DatabaseResponseWrapper;
+import edu.upenn.sas.archaeologyapp.models.FindDelta;
+import edu.upenn.sas.archaeologyapp.models.FindUploadResponseWrapper;
+import edu.upenn.sas.archaeologyapp.models.PathElement;
+import edu.upenn.sas.archaeologyapp.models.PhotoUpload;
+import edu.upenn.sas.archaeologyapp.models.UploadResponseWrapper;
+import edu.upenn.sas.archaeologyapp.ui.SyncActivity;
+import static edu.upenn.sas.archaeologyapp.util.Constants.DEFAULT_PHOTO_UPLOAD_BYTES_PER_SECOND;
+import static edu.upenn.sas.archaeologyapp.util.Constants.DEFAULT_SYNC_WINDOW;
+import static edu.upenn.sas.archaeologyapp.util.Constants.globalWebServerURL;
+/**
+ * Foreground service that uploads the unsynced finds and paths, so a sync keeps going when the sync screen is
+ * closed or rotated. Progress is kept in the database outbox rather than in memory: each record is pending, in
+ * flight, acked or failed, and a pass interrupted by the process dying or the network dropping resumes with the
+ * records that were never acknowledged. Finds the server already has are sent as deltas of the fields edited since
+ * it last stored them, tracked per server by the database change log. Sync requests made while a pass is running are coalesced into one more
+ * pass. Photos of uploaded finds go into a photo outbox and are uploaded separately by a PhotoUploader, so they
+ * never hold up the records, and the service stays up until they are done. Progress is broadcast locally with
+ * ACTION_SYNC_PROGRESS.
+ */
+public class SyncService extends Service
+{
+    public static final String ACTION_SYNC_PROGRESS = "edu.upenn.sas.archaeologyapp.SYNC_PROGRESS";
+    // Progress broadcast extras
+    public static final String EXTRA_UPLOADED = "uploaded", EXTRA_FAILED = "failed", EXTRA_TOTAL = "total";
+    public static final String EXTRA_RUNNING = "running", EXTRA_WAITING_FOR_NETWORK = "waiting_for_network";
+    private static final String EXTRA_RETRY_FAILED = "retry_failed";
+    private static final String CHANNEL_ID = "sync";
+    private static final int NOTIFICATION_ID = 1;
+    private DatabaseRepository databaseRepository;
+    private RequestQueue queue;
+    private SyncScheduler scheduler;
+    private PhotoUploader photoUploader;
+    private NotificationManager notificationManager;
+    // Server the current pass sends to, and what it is missing of each find
+    private String server;
+    private HashMap<String, FindDelta> findDeltas = new HashMap<>();
+    // Whether a pass is running, and whether another has been requested since it started
+    private boolean running = false, rerunRequested = false, rerunRetryFailed = false;
+    // Whether a record was left in flight because the network dropped
+    private boolean interrupted = false;
+    private boolean waitingForNetwork = false;
+    // Progress of the current pass
+    private int uploaded, failed, total, uploadersRunning;
+    private int notifiedPercent = -1;
+    // Number of photo outbox reads and writes whose photos have not been queued on the uploader yet
+    private int photoQueueing = 0;
+    /**
+     * Starts the waiting pass once a network is available
+     */
+    private final BroadcastReceiver networkReceiver = new BroadcastReceiver() {
+        /**
+         * Connectivity changed
+         * @param context - app context
+         * @param intent - connectivity broadcast
+         */
+        @Override
+        public void onReceive(Context context, Intent intent)
+        {
+            if (waitingForNetwork && isConnected())
+            {
+                waitingForNetwork = false;
+                unregisterReceiver(networkReceiver);
+                startRequestedPass();
+            }
+        }
+    };
+    /**
+     * Request a sync. Coalesced with a sync that is already running.
+     * @param context - app context
+     * @param retryFailed - whether records that failed in earlier syncs are sent again
+     */
+    public static void startSync(Context context, boolean retryFailed)
+    {
+        Intent intent = new Intent(context, SyncService.class);
+        intent.putExtra(EXTRA_RETRY_FAILED, retryFailed);
+        ContextCompat.startForegroundService(context, intent);
+    }
+
+    /**
+     * Service created
+     */
+    @Override
+    public void onCreate()
+    {
+        super.onCreate();
+        databaseRepository = DatabaseRepository.getInstance(this);
+        queue = Volley.newRequestQueue(this);
+        photoUploader = new PhotoUploader(databaseRepository.getDatabaseHandler(),
+                DEFAULT_PHOTO_UPLOAD_BYTES_PER_SECOND, new PhotoProgress());
+        notificationManager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O)
+        {
+            notificationManager.createNotificationChannel(new NotificationChannel(CHANNEL_ID,
+                    getString(R.string.sync_channel_name), NotificationManager.IMPORTANCE_LOW));
+        }
+    }
+
+    /**
+     * Sync requested. Also called with a null intent when the system restarts the service after killing it.
+     * @param intent - sync request
+     * @param flags - start flags
+     * @param startId - start request ID
+     * @return Returns START_STICKY so an interrupted sync is restarted
+     */
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId)
+    {
+        boolean retryFailed = intent != null && intent.getBooleanExtra(EXTRA_RETRY_FAILED, false);
+        startForeground(NOTIFICATION_ID, buildNotification());
+        if (running || waitingForNetwork)
+        {
+            // Run once more after the current pass, picking up anything saved since it started
+            rerunRequested = true;
+            rerunRetryFailed |= retryFailed;
+            broadcastProgress();
+        }
+        else
+        {
+            beginPass(retryFailed);
+        }
+        return START_STICKY;
+    }
+
+    /**
+     * Binding is not supported
+     * @param intent - bind request
+     * @return Returns null
+     */
+    @Override
+    public IBinder onBind(Intent intent)
+    {
+        return null;
+    }
+
+    /**
+     * Service stopped
+     */
+    @Override
+    public void onDestroy()
+    {
+        if (scheduler != null)
+        {
+            scheduler.cancel();
+        }
+        photoUploader.shutdown();
+        if (waitingForNetwork)
+        {
+            unregisterReceiver(networkReceiver);
+            waitingForNetwork = false;
+        }
+        super.onDestroy();
+    }
+
+    /**
+     * Send every record waiting in the outbox
+     * @param retryFailed - whether records that failed in earlier passes are sent again
+     */
+    private void beginPass(boolean retryFailed)
+    {
+        if (!isConnected())
+        {
+            rerunRetryFailed |= retryFailed;
+            waitForNetwork();
+            return;
+        }
+        running = true;
+        interrupted = false;
+        uploaded = 0;
+        failed = 0;
+        total = 0;
+        uploadersRunning = 2;
+        notifiedPercent = -1;
+        scheduler = new SyncScheduler(DEFAULT_SYNC_WINDOW);
+        server = globalWebServerURL;
+        findDeltas = new HashMap<>();
+        broadcastProgress();
+        databaseRepository.prepareOutbox(retryFailed, null);
+        // Resume photos left over from earlier syncs
+        photoQueueing++;
+        databaseRepository.getPendingPhotoUploads(new PhotoQueued<ArrayList<PhotoUpload>>() {
+            /**
+             * Photos still to upload read
+             * @param response - photos
+             */
+            @Override
+            public void responseMethod(ArrayList<PhotoUpload> response)
+            {
+                enqueuePhotos(response.toArray(new PhotoUpload[response.size()]));
+            }
+        });
+        databaseRepository.takePendingOutboxFinds(server, findDeltas,
+                new DatabaseResponseWrapper<ArrayList<DataEntryElement>>() {
+            /**
+             * Finds to send read
+             * @param response - finds now in flight
+             */
+            @Override
+            public void responseMethod(ArrayList<DataEntryElement> response)
+            {
+                total += response.size();
+                FindBatchUploader uploader = new FindBatchUploader(queue, scheduler, findDeltas,
+                        new FindProgress());
+                scheduler.addSource(uploader);
+                uploader.upload(response);
+            }
+
+            /**
+             * Finds could not be read
+             * @param error - failure
+             */
+            @Override
+            public void errorMethod(Exception error)
+            {
+                error.printStackTrace();
+                uploaderFinished();
+            }
+        });
+        databaseRepository.takePendingOutboxPaths(new DatabaseResponseWrapper<ArrayList<PathElement>>() {
+            /**
+             * Paths to send read
+             * @param response - paths now in flight
+             */
+            @Override
+            public void responseMethod(ArrayList<PathElement> response)
+            {
+                total += response.size();
+                PathUploader uploader = new PathUploader(queue, scheduler, new PathProgress());
+                scheduler.addSource(uploader);
+                uploader.upload(response);
+            }
+
+            /**
+             * Paths could not be read
+             * @param error - failure
+             */
+            @Override
+            public void errorMethod(Exception error)
+            {
+                error.printStackTrace();
+                uploaderFinished();
+            }
+        });
+    }
+
+    /**
+     * One of the uploaders has handled all its records
+     */
+    private void uploaderFinished()
+    {
+        uploadersRunning--;
+        if (uploadersRunning > 0)
+        {
+            return;
+        }
+        running = false;
+        if (interrupted && !isConnected())
+        {
+            // Resume the records left in flight once the network is back
+            waitForNetwork();
+        }
+        else if (rerunRequested || interrupted)
+        {
+            startRequestedPass();
+        }
+        else
+        {
+            broadcastProgress();
+            stopIfIdle();
+        }
+    }
+
+    /**
+     * Stop the service once no pass is running and every queued photo has been handled
+     */
+    private void stopIfIdle()
+    {
+        if (!running && !waitingForNetwork && !rerunRequested && photoQueueing == 0 && photoUploader.isIdle())
+        {
+            stopForeground(true);
+            stopSelf();
+        }
+    }
+
+    /**
+     * Hand photos to the photo uploader once they are in the photo outbox
+     * @param photos - queued photos
+     */
+    private void enqueuePhotos(PhotoUpload[] photos)
+    {
+        photoQueueing--;
+        for (PhotoUpload photo: photos)
+        {
+            photoUploader.enqueue(photo);
+        }
+        stopIfIdle();
+    }
+
+    /**
+     * Start the pass that was requested while another was running or while waiting for a network
+     */
+    private void startRequestedPass()
+    {
+        boolean retryFailed = rerunRetryFailed;
+        rerunRequested = false;
+        rerunRetryFailed = false;
+        beginPass(retryFailed);
+    }
+
+    /**
+     * Wait for a network connection before syncing
+     */
+    private void waitForNetwork()
+    {
+        if (!waitingForNetwork)
+        {
+            waitingForNetwork = true;
+            registerReceiver(networkReceiver, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+        }
+        notificationManager.notify(NOTIFICATION_ID, buildNotification());
+        broadcastProgress();
+    }
+
+    /**
+     * Check for a network connection
+     * @return Returns whether a network is connected
+     */
+    private boolean isConnected()
+    {
+        ConnectivityManager connectivityManager = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
+        return networkInfo != null && networkInfo.isConnected();
+    }
+
+    /**
+     * A record has been handled, report progress
+     */
+    private void recordHandled()
+    {
+        broadcastProgress();
+        int percent = total == 0 ? 100 : (uploaded + failed) * 100 / total;
+        // Only re-post the notification when the visible percentage changes
+        if (percent != notifiedPercent)
+        {
+            notifiedPercent = percent;
+            notificationManager.notify(NOTIFICATION_ID, buildNotification());
+        }
+    }
+
+    /**
+     * Tell the sync screen how far the sync has got
+     */
+    private void broadcastProgress()
+    {
+        Intent intent = new Intent(ACTION_SYNC_PROGRESS);
+        intent.putExtra(EXTRA_UPLOADED, uploaded);
+        intent.putExtra(EXTRA_FAILED, failed);
+        intent.putExtra(EXTRA_TOTAL, total);
+        intent.putExtra(EXTRA_RUNNING, running);
+        intent.putExtra(EXTRA_WAITING_FOR_NETWORK, waitingForNetwork);
+        LocalBroadcastManager.getInstance(this).sendBroadcast(intent);
+    }
+
+    /**
+     * Build the ongoing sync notification
+     * @return Returns the notification
+     */
+    private Notification buildNotification()
+    {
+        PendingIntent contentIntent = PendingIntent.getActivity(this, 0, new Intent(this, SyncActivity.class), 0);
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(this, CHANNEL_ID)
+                .setSmallIcon(R.mipmap.ic_launcher).setContentTitle(getString(R.string.sync_notification_title))
+                .setContentIntent(contentIntent).setOngoing(true);
+        if (waitingForNetwork)
+        {
+            builder.setContentText(getString(R.string.sync_waiting_for_network));
+        }
+        else
+        {
+            builder.setContentText(getString(R.string.sync_progress, uploaded + failed, total, failed))
+                    .setProgress(total, uploaded + failed, total == 0);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Move the photos of an acknowledged find into the find's folder and queue them, pointing the find's images at
+     * their new paths in the same write
+     * @param find - acknowledged find
+     */
+    private void queueFindPhotos(DataEntryElement find)
+    {
+        ArrayList<String> moved = new ArrayList<>();
+        final PhotoUpload[] photos = moveFindImages(find, moved);
+        final String[] oldPaths = moved.toArray(new String[moved.size()]);
+        databaseRepository.addFindPhotoUploads(find.getID(), oldPaths, photos, new PhotoQueued<Boolean>() {
+            /**
+             * Photos saved in the photo outbox
+             * @param queued - whether the write succeeded
+             */
+            @Override
+            public void responseMethod(Boolean queued)
+            {
+                if (queued)
+                {
+                    enqueuePhotos(photos);
+                }
+                else
+                {
+                    // The images still name the old paths, so put the files back there
+                    restoreFindImages(oldPaths, photos);
+                    enqueuePhotos(new PhotoUpload[0]);
+                }
+            }
+        });
+    }
+
+    /**
+     * Move the photos of an uploaded find into the find's folder, numbered on from the photos already there.
+     * Photos already in the folder were queued when they were moved, so they are left out.
+     * @param find - uploaded find
+     * @param oldPaths - filled with the path each photo had before it was moved
+     * @return Returns the photos to upload, named by their place in the find's folder
+     */
+    private static PhotoUpload[] moveFindImages(DataEntryElement find, ArrayList<String> oldPaths)
+    {
+        String folder = find.getHemisphere() + "/" + find.getZone() + "/" + find.getEasting() + "/"
+                + find.getNorthing() + "/" + find.getSample() + "/photos/field/";
+        File dir = new File(Environment.getExternalStorageDirectory().toString() + "/Archaeology/" + folder);
+        if (!dir.exists())
+        {
+            dir.mkdirs();
+        }
+        int imageNumber = lastImageNumber(dir);
+        ArrayList<PhotoUpload> photos = new ArrayList<>();
+        for (String path: find.getImagePaths())
+        {
+            File oldImage = new File(path);
+            if (dir.equals(oldImage.getParentFile()))
+            {
+                continue;
+            }
+            oldPaths.add(path);
+            imageNumber++;
+            File newImage = new File(dir, imageNumber + ".JPG");
+            String remoteName = folder + imageNumber + ".JPG";
+            if (!oldImage.renameTo(newImage))
+            {
+                Log.v("Moving Files", "Failed to move " + oldImage.getAbsolutePath()
+                        + " to " + newImage.getAbsolutePath());
+                photos.add(new PhotoUpload(oldImage.getAbsolutePath(), remoteName, null, 0));
+                continue;
+            }
+            Log.v("Moving Files", oldImage.getAbsolutePath() + " renamed to "
+                    + newImage.getAbsolutePath());
+            photos.add(new PhotoUpload(newImage.getAbsolutePath(), remoteName, null, 0));
+        }
+        return photos.toArray(new PhotoUpload[photos.size()]);
+    }
+
+    /**
+     * Get the highest number a photo in a find's folder has. Numbering on from the files, rather than from a count
+     * kept in memory, means a restarted service never overwrites a photo moved before it stopped.
+     * @param dir - find's photo folder
+     * @return Returns the highest number of an N.JPG file in the folder, or 0 if there are none
+     */
+    static int lastImageNumber(File dir)
+    {
+        int last = 0;
+        String[] names = dir.list();
+        if (names == null)
+        {
+            return last;
+        }
+        for (String name: names)
+        {
+            if (!name.endsWith(".JPG"))
+            {
+                continue;
+            }
+            try
+            {
+                last = Math.max(last, Integer.parseInt(name.substring(0, name.length() - ".JPG".length())));
+            }
+            catch (NumberFormatException e)
+            {
+                // Not a numbered photo
+            }
+        }
+        return last;
+    }
+
+    /**
+     * Move photos back to where they were before moveFindImages
+     * @param oldPaths - path of each photo before it was moved
+     * @param photos - photos at their new paths
+     */
+    private static void restoreFindImages(String[] oldPaths, PhotoUpload[] photos)
+    {
+        for (int i = 0; i < photos.length; i++)
+        {
+            if (!oldPaths[i].equals(photos[i].getLocalPath())
+                    && !new File(photos[i].getLocalPath()).renameTo(new File(oldPaths[i])))
+            {
+                Log.v("Moving Files", "Failed to move " + photos[i].getLocalPath() + " back to " + oldPaths[i]);
+            }
+        }
+    }
+
+    /**
+     * Records the outcome of each find in the outbox
+     */
+    private class FindProgress extends FindUploadResponseWrapper
+    {
+        /**
+         * The server stored a find
+         * @param item - uploaded find
+         * @param sent - what was sent of the find
+         */
+        @Override
+        public void itemUploaded(final DataEntryElement item, FindDelta sent)
+        {
+            // A partial upload is an edit of a find the server already has, whose photos were moved and queued
+            // when it was first uploaded, unless the edit added photos
+            boolean withPhotos = sent.hasField(FindDelta.FIELD_IMAGES) && !item.getImagePaths().isEmpty();
+            PhotoQueued<Boolean> acked = null;
+            if (withPhotos)
+            {
+                photoQueueing++;
+                acked = new PhotoQueued<Boolean>() {
+                    /**
+                     * Find acknowledged in the database
+                     * @param synced - whether the find was marked synced
+                     */
+                    @Override
+                    public void responseMethod(Boolean synced)
+                    {
+                        // A find edited during its upload goes back to pending, and its photos stay where the edit
+                        // expects them until the edit has been uploaded too
+                        if (synced)
+                        {
+                            queueFindPhotos(item);
+                        }
+                        else
+                        {
+                            enqueuePhotos(new PhotoUpload[0]);
+                        }
+                    }
+                };
+            }
+            databaseRepository.ackFind(item, server, sent.getChangeSequence(), acked);
+            uploaded++;
+            recordHandled();
+        }
+
+        /**
+         * A find could not be uploaded
+         * @param item - failed find
+         * @param reason - server or connection error
+         */
+        @Override
+        public void itemFailed(DataEntryElement item, String reason)
+        {
+            Log.v("Sync", "Upload failed: " + reason);
+            if (isConnected())
+            {
+                databaseRepository.setFindOutboxState(item, DatabaseHandler.OUTBOX_FAILED, null);
+                failed++;
+                recordHandled();
+            }
+            else
+            {
+                // Left in flight, so the next pass sends it again
+                interrupted = true;
+            }
+        }
+
+        /**
+         * All finds handled
+         */
+        @Override
+        public void uploadFinished()
+        {
+            uploaderFinished();
+        }
+    }
+
+    /**
+     * Records the outcome of each path in the outbox
+     */
+    private class PathProgress extends UploadResponseWrapper<PathElement>
+    {
+        /**
+         * The server stored a path
+         * @param item - uploaded path
+         */
+        @Override
+        public void itemUploaded(PathElement item)
+        {
+            databaseRepository.ackPath(item, null);
+            uploaded++;
+            recordHandled();
+        }
+
+        /**
+         * A path could not be uploaded
+         * @param item - failed path
+         * @param reason - server or connection error
+         */
+        @Override
+        public void itemFailed(PathElement item, String reason)
+        {
+            Log.v("Sync", "Upload failed: " + reason);
+            if (isConnected())
+            {
+                databaseRepository.setPathOutboxState(item, DatabaseHandler.OUTBOX_FAILED, null);
+                failed++;
+                recordHandled();
+            }
+            else
+            {
+                // Left in flight, so the next pass sends it again
+                interrupted = true;
+            }
+        }
+
+        /**
+         * All paths handled
+         */
+        @Override
+        public void uploadFinished()
+        {
+            uploaderFinished();
+        }
+    }
+
+    /**
+     * Photo outbox callback that stops waiting on the photos if the database fails
+     * @param <T> - result type
+     */
+    private abstract class PhotoQueued<T> extends DatabaseResponseWrapper<T>
+    {
+        /**
+         * The photo outbox could not be read or written
+         * @param error - failure
+         */
+        @Override
+        public void errorMethod(Exception error)
+        {
+            error.printStackTrace();
+            enqueuePhotos(new PhotoUpload[0]);
+        }
+    }
+
+    /**
+     * Logs the outcome of each photo and stops the service once the last one is done
+     */
+    private class PhotoProgress extends UploadResponseWrapper<PhotoUpload>
+    {
+        /**
+         * The server has the whole photo
+         * @param item - uploaded photo
+         */
+        @Override
+        public void itemUploaded(PhotoUpload item)
+        {
+            Log.v("Sync", "Uploaded photo " + item.getRemoteName());
+        }
+
+        /**
+         * A photo could not be uploaded. It stays in the photo outbox for the next sync.
+         * @param item - failed photo
+         * @param reason - server, connection or file error
+         */
+        @Override
+        public void itemFailed(PhotoUpload item, String reason)
+        {
+            Log.v("Sync", "Photo upload failed: " + reason);
+        }
+
+        /**
+         * All queued photos handled
+         */
+        @Override
+        public void uploadFinished()
+        {
+            stopIfIdle();
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package edu.upenn.sas.archaeologyapp.services;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import java.util.ArrayDeque;
+import edu.upenn.sas.archaeologyapp.models.DatabaseResponseWrapper;
+import edu.upenn.sas.archaeologyapp.models.ReachFix;
+import edu.upenn.sas.archaeologyapp.models.TrackPoints;
+import static edu.upenn.sas.archaeologyapp.util.Constants.TRACK_LEVEL_TOLERANCES;
+import static edu.upenn.sas.archaeologyapp.util.Constants.TRACK_SIMPLIFY_WINDOW;
+/**
+ * Records every Reach fix received while a path is being walked into the path's track. Fixes are read from the
+ * Reach fix ring once a second on the main thread and collected in a batch, which is handed to the database
+ * writer whenever it reaches a set number of points or a set age, so each batch costs one transaction rather than
+ * one insert per fix. Batches are reused once written. Every point also passes through a TrackSimplifier, whose
+ * simplified copies of the track are written in the same batches.
+ */
+public class TrackRecorder
+{
+    // How often the fix ring is read. The ring holds about 25 seconds of fixes at 10 Hz.
+    private static final long DRAIN_INTERVAL_MS = 1000;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final DatabaseRepository repository;
+    private final FixRingBuffer fixes;
+    // Key of the path being recorded
+    private final String teamMember;
+    private final long beginTime;
+    private final int flushPoints;
+    private final long flushIntervalMs;
+    // Read target, last fix read, the batch being filled and written batches ready for reuse
+    private final ReachFix fix = new ReachFix();
+    private long lastSequence;
+    private TrackPoints batch;
+    private final ArrayDeque<TrackPoints> spareBatches = new ArrayDeque<>();
+    private long lastFlushTime;
+    private final TrackSimplifier simplifier = new TrackSimplifier(TRACK_LEVEL_TOLERANCES, TRACK_SIMPLIFY_WINDOW,
+            new TrackSimplifier.Listener() {
+        /**
+         * Batch a point of a simplified copy
+         * @param level - level
+         * @param time - time of the point
+         * @param latitude - latitude
+         * @param longitude - longitude
+         */
+        @Override
+        public void kept(int level, long time, double latitude, double longitude)
+        {
+            batch.addSimplified(level, time, latitude, longitude);
+        }
+    });
+    /**
+     * Reads new fixes once a second. Reposts itself, so nothing is allocated per read.
+     */
+    private final Runnable drainTask = new Runnable() {
+        /**
+         * Read the new fixes and schedule the next read
+         */
+        @Override
+        public void run()
+        {
+            drain();
+            handler.postDelayed(this, DRAIN_INTERVAL_MS);
+        }
+    };
+    /**
+     * Constructor
+     * @param context - calling context
+     * @param _fixes - buffer the Reach reader publishes to
+     * @param _teamMember - path's team member
+     * @param _beginTime - path's start time
+     * @param _flushPoints - points collected before a batch is written
+     * @param _flushIntervalMs - longest a point waits before its batch is written
+     */
+    public TrackRecorder(Context context, FixRingBuffer _fixes, String _teamMember, long _beginTime, int _flushPoints,
+                         long _flushIntervalMs)
+    {
+        repository = DatabaseRepository.getInstance(context);
+        fixes = _fixes;
+        teamMember = _teamMember;
+        beginTime = _beginTime;
+        flushPoints = _flushPoints;
+        flushIntervalMs = _flushIntervalMs;
+        batch = new TrackPoints(_flushPoints);
+        // Start with the newest fix, the one the path was started at
+        lastSequence = Math.max(fixes.getLatestSequence() - 1, -1);
+    }
+
+    /**
+     * Start recording
+     */
+    public void start()
+    {
+        lastFlushTime = System.currentTimeMillis();
+        handler.removeCallbacks(drainTask);
+        handler.post(drainTask);
+    }
+
+    /**
+     * Stop recording and write the points still collected
+     */
+    public void stop()
+    {
+        handler.removeCallbacks(drainTask);
+        drain();
+        simplifier.finish();
+        flush();
+    }
+
+    /**
+     * Record a position from the device's GPS, for stretches where the Reach has no fix
+     * @param time - time of the position
+     * @param latitude - latitude
+     * @param longitude - longitude
+     * @param altitude - altitude
+     */
+    public void addDevicePoint(long time, double latitude, double longitude, double altitude)
+    {
+        batch.add(time, latitude, longitude, altitude, TrackPoints.QUALITY_DEVICE_GPS, 0);
+        simplifier.add(time, latitude, longitude);
+        flushIfDue();
+    }
+
+    /**
+     * Collect the fixes received since the last read
+     */
+    private void drain()
+    {
+        long sequence;
+        while ((sequence = fixes.readNext(lastSequence, fix)) >= 0)
+        {
+            lastSequence = sequence;
+            batch.add(fix.getReceivedTime(), fix.getLatitude(), fix.getLongitude(), fix.getHeight(),
+                    fix.getQuality(), fix.getARRatio());
+            simplifier.add(fix.getReceivedTime(), fix.getLatitude(), fix.getLongitude());
+        }
+        flushIfDue();
+    }
+
+    /**
+     * Write the batch if it is full enough or old enough
+     */
+    private void flushIfDue()
+    {
+        if (batch.size() >= flushPoints
+                || (batch.size() > 0 && System.currentTimeMillis() - lastFlushTime >= flushIntervalMs))
+        {
+            flush();
+        }
+    }
+
+    /**
+     * Hand the batch to the database writer and start a new one
+     */
+    private void flush()
+    {
+        lastFlushTime = System.currentTimeMillis();
+        if (batch.size() == 0)
+        {
+            return;
+        }
+        final TrackPoints written = batch;
+        batch = spareBatches.isEmpty() ? new TrackPoints(flushPoints) : spareBatches.pop();
+        repository.addTrackPoints(teamMember, beginTime, written, new DatabaseResponseWrapper<Void>() {
+            /**
+             * Batch written, keep it for reuse
+             * @param response - nothing
+             */
+            @Override
+            public void responseMethod(Void response)
+            {
+                written.clear();
+                spareBatches.push(written);
+            }
+
+            /**
+             * Batch failed
+             * @param error - failure
+             */
+            @Override
+            public void errorMethod(Exception error)
+            {
+                super.errorMethod(error);
+                written.clear();
+                spareBatches.push(written);
+            }
+        });
+    }
+}
@@ -0,0 +1,234 @@
+package edu.upenn.sas.archaeologyapp.services;
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.location.Location;
+import android.location.LocationListener;
+import android.location.LocationManager;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.IBinder;
+import android.support.v4.app.NotificationCompat;
+import android.support.v4.content.ContextCompat;
+import edu.upenn.sas.archaeologyapp.R;
+import edu.upenn.sas.archaeologyapp.ui.MainActivity;
+import static edu.upenn.sas.archaeologyapp.util.Constants.TRACK_FLUSH_INTERVAL_MS;
+import static edu.upenn.sas.archaeologyapp.util.Constants.TRACK_FLUSH_POINTS;
+/**
+ * Foreground service that records the track of the path being walked, from the moment the path is started until
+ * it is ended, whether or not the path's screen is open. It keeps a Reach connection of its own, publishing to its
+ * own fix ring, which its TrackRecorder drains; the Reach's TCP server takes more than one client, so the path
+ * screen's connection runs alongside it. While the Reach has no live fix, the device's GPS positions are recorded
+ * instead. The Reach host and port are the ones set when the path was started. The start request is redelivered
+ * if the system kills the service, so recording resumes on the same path.
+ */
+public class TrackService extends Service
+{
+    private static final String EXTRA_TEAM_MEMBER = "team_member", EXTRA_BEGIN_TIME = "begin_time";
+    private static final String EXTRA_REACH_HOST = "reach_host", EXTRA_REACH_PORT = "reach_port";
+    private static final String EXTRA_POSITION_UPDATE_INTERVAL = "position_update_interval";
+    private static final String CHANNEL_ID = "track";
+    private static final int NOTIFICATION_ID = 2;
+    private LocationManager locationManager;
+    // Fixes read from the Reach rover for the track, the thread reading them and the recorder draining them
+    private final FixRingBuffer reachFixes = new FixRingBuffer(LocationCollector.REACH_FIX_BUFFER_SIZE);
+    private ReachStreamReader reachReader;
+    private TrackRecorder trackRecorder;
+    // Key of the path being recorded
+    private String teamMember;
+    private long beginTime;
+    /**
+     * Records the device's positions while the Reach has no live fix
+     */
+    private final LocationListener locationListener = new LocationListener() {
+        /**
+         * GPS location changed
+         * @param location - new location
+         */
+        @Override
+        public void onLocationChanged(Location location)
+        {
+            // Reach fixes reach the track through the recorder, device fixes only through here
+            if (trackRecorder != null && reachReader.getState() != ReachStreamReader.STATE_STREAMING)
+            {
+                trackRecorder.addDevicePoint(System.currentTimeMillis(), location.getLatitude(),
+                        location.getLongitude(), location.getAltitude());
+            }
+        }
+
+        /**
+         * GPS status changed
+         * @param provider - GPS provider
+         * @param status - GPS status
+         * @param extras - GPS data
+         */
+        @Override
+        public void onStatusChanged(String provider, int status, Bundle extras)
+        {
+        }
+
+        /**
+         * GPS enabled
+         * @param provider - GPS provider
+         */
+        @Override
+        public void onProviderEnabled(String provider)
+        {
+        }
+
+        /**
+         * GPS disabled
+         * @param provider - GPS provider
+         */
+        @Override
+        public void onProviderDisabled(String provider)
+        {
+        }
+    };
+    /**
+     * Start recording a path's track. Recording the path already being recorded carries on without a break.
+     * @param context - app context
+     * @param teamMember - path's team member
+     * @param beginTime - path's start time
+     * @param reachHost - reach IP
+     * @param reachPort - reach port
+     * @param positionUpdateInterval - time between position updates in seconds, which sets the Reach timeout
+     */
+    public static void startTracking(Context context, String teamMember, long beginTime, String reachHost,
+                                     String reachPort, int positionUpdateInterval)
+    {
+        Intent intent = new Intent(context, TrackService.class);
+        intent.putExtra(EXTRA_TEAM_MEMBER, teamMember);
+        intent.putExtra(EXTRA_BEGIN_TIME, beginTime);
+        intent.putExtra(EXTRA_REACH_HOST, reachHost);
+        intent.putExtra(EXTRA_REACH_PORT, reachPort);
+        intent.putExtra(EXTRA_POSITION_UPDATE_INTERVAL, positionUpdateInterval);
+        ContextCompat.startForegroundService(context, intent);
+    }
+
+    /**
+     * Stop recording and write what is left of the track
+     * @param context - app context
+     */
+    public static void stopTracking(Context context)
+    {
+        context.stopService(new Intent(context, TrackService.class));
+    }
+
+    /**
+     * Service created
+     */
+    @Override
+    public void onCreate()
+    {
+        super.onCreate();
+        locationManager = (LocationManager) getSystemService(Context.LOCATION_SERVICE);
+        NotificationManager notificationManager = (NotificationManager) getSystemService(
+                Context.NOTIFICATION_SERVICE);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O)
+        {
+            notificationManager.createNotificationChannel(new NotificationChannel(CHANNEL_ID,
+                    getString(R.string.track_channel_name), NotificationManager.IMPORTANCE_LOW));
+        }
+        try
+        {
+            locationManager.requestLocationUpdates(LocationManager.GPS_PROVIDER, 0, 0, locationListener);
+        }
+        catch (SecurityException e)
+        {
+            // No location permission yet, so only Reach fixes are recorded
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Recording requested. Also called with the same request when the system restarts the service after killing it.
+     * @param intent - recording request
+     * @param flags - start flags
+     * @param startId - start request ID
+     * @return Returns START_REDELIVER_INTENT so an interrupted recording is restarted on the same path
+     */
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId)
+    {
+        startForeground(NOTIFICATION_ID, buildNotification());
+        if (intent == null)
+        {
+            return START_REDELIVER_INTENT;
+        }
+        String requestedTeamMember = intent.getStringExtra(EXTRA_TEAM_MEMBER);
+        long requestedBeginTime = intent.getLongExtra(EXTRA_BEGIN_TIME, 0);
+        if (trackRecorder != null && requestedTeamMember.equals(teamMember) && requestedBeginTime == beginTime)
+        {
+            return START_REDELIVER_INTENT;
+        }
+        stopRecording();
+        teamMember = requestedTeamMember;
+        beginTime = requestedBeginTime;
+        // The new reader waits for the old one to finish, as the fix buffer takes only one writer
+        ReachStreamReader previous = reachReader;
+        int positionUpdateInterval = intent.getIntExtra(EXTRA_POSITION_UPDATE_INTERVAL, 1);
+        reachReader = new ReachStreamReader(intent.getStringExtra(EXTRA_REACH_HOST),
+                intent.getStringExtra(EXTRA_REACH_PORT), Math.max(positionUpdateInterval * 1000,
+                LocationCollector.REACH_MIN_TIMEOUT_MS), LocationCollector.REACH_STALE_AFTER_MS, reachFixes);
+        reachReader.start(previous);
+        trackRecorder = new TrackRecorder(this, reachFixes, teamMember, beginTime, TRACK_FLUSH_POINTS,
+                TRACK_FLUSH_INTERVAL_MS);
+        trackRecorder.start();
+        return START_REDELIVER_INTENT;
+    }
+
+    /**
+     * Binding is not supported
+     * @param intent - bind request
+     * @return Returns null
+     */
+    @Override
+    public IBinder onBind(Intent intent)
+    {
+        return null;
+    }
+
+    /**
+     * Service stopped, write what is left of the track
+     */
+    @Override
+    public void onDestroy()
+    {
+        locationManager.removeUpdates(locationListener);
+        stopRecording();
+        super.onDestroy();
+    }
+
+    /**
+     * Stop the recorder and the Reach reader, writing the points still collected
+     */
+    private void stopRecording()
+    {
+        if (trackRecorder != null)
+        {
+            trackRecorder.stop();
+            trackRecorder = null;
+        }
+        if (reachReader != null)
+        {
+            reachReader.stop();
+        }
+    }
+
+    /**
+     * Build the ongoing recording notification
+     * @return Returns the notification
+     */
+    private Notification buildNotification()
+    {
+        PendingIntent contentIntent = PendingIntent.getActivity(this, 0, new Intent(this, MainActivity.class), 0);
+        return new NotificationCompat.Builder(this, CHANNEL_ID).setSmallIcon(R.mipmap.ic_launcher)
+                .setContentTitle(getString(R.string.track_notification_title)).setContentIntent(contentIntent)
+                .setOngoing(true).build();
+    }
+}
@@ -0,0 +1,214 @@
+package edu.upenn.sas.archaeologyapp.services;
+/**
+ * Simplifies a path's track as its points arrive, keeping one simplified copy per tolerance. Each level runs the
+ * opening-window algorithm over the points kept by the level below it: points wait in a window after the level's
+ * last kept point, the anchor, for as long as the segment from the anchor to the newest point passes within the
+ * level's tolerance of all of them. Once it does not, the point before the newest is kept and becomes the anchor.
+ * Windows are capped, so a point costs at most a window of distance checks per level and no level falls more than
+ * a window behind the level below it. Since each level simplifies the one below, a copy stays within the sum of its
+ * own and the finer levels' tolerances of the full track.
+ */
+public class TrackSimplifier
+{
+    /**
+     * Receives the points kept at each level, in time order within a level
+     */
+    public interface Listener
+    {
+        /**
+         * A point was kept
+         * @param level - level, from 1 for the finest tolerance
+         * @param time - time of the point
+         * @param latitude - latitude
+         * @param longitude - longitude
+         */
+        void kept(int level, long time, double latitude, double longitude);
+    }
+
+    private static final double METERS_PER_DEGREE = 111320;
+    private final Listener listener;
+    private final int levels, windowSize;
+    // Squared tolerance of each level in square meters
+    private final double[] squaredTolerances;
+    // Whether each level has kept a point, and its anchor in meters from the track's first point
+    private final boolean[] anchored;
+    private final double[] anchorX, anchorY;
+    // Each level's window of points after its anchor
+    private final int[] windowCounts;
+    private final long[][] windowTimes;
+    private final double[][] windowLatitudes, windowLongitudes, windowX, windowY;
+    // Origin of the local plane distances are measured in
+    private boolean started = false;
+    private double originLatitude, originLongitude, metersPerDegreeLongitude;
+    /**
+     * Constructor
+     * @param tolerances - tolerance of each level in meters, finest first
+     * @param _windowSize - most points a level holds before it keeps one regardless
+     * @param _listener - receiver of kept points
+     */
+    public TrackSimplifier(double[] tolerances, int _windowSize, Listener _listener)
+    {
+        listener = _listener;
+        levels = tolerances.length;
+        windowSize = Math.max(_windowSize, 1);
+        squaredTolerances = new double[levels];
+        for (int i = 0; i < levels; i++)
+        {
+            squaredTolerances[i] = tolerances[i] * tolerances[i];
+        }
+        anchored = new boolean[levels];
+        anchorX = new double[levels];
+        anchorY = new double[levels];
+        windowCounts = new int[levels];
+        windowTimes = new long[levels][windowSize];
+        windowLatitudes = new double[levels][windowSize];
+        windowLongitudes = new double[levels][windowSize];
+        windowX = new double[levels][windowSize];
+        windowY = new double[levels][windowSize];
+    }
+
+    /**
+     * Choose the coarsest level whose tolerance is within an error
+     * @param tolerances - tolerance of each level in meters, finest first
+     * @param maxError - largest error in meters that would go unnoticed
+     * @return Returns the level, 0 for the full track
+     */
+    public static int chooseLevel(double[] tolerances, double maxError)
+    {
+        int level = 0;
+        for (int i = 0; i < tolerances.length; i++)
+        {
+            if (tolerances[i] <= maxError)
+            {
+                level = i + 1;
+            }
+        }
+        return level;
+    }
+
+    /**
+     * Add the track's next point
+     * @param time - time of the point
+     * @param latitude - latitude
+     * @param longitude - longitude
+     */
+    public void add(long time, double latitude, double longitude)
+    {
+        if (!started)
+        {
+            started = true;
+            originLatitude = latitude;
+            originLongitude = longitude;
+            metersPerDegreeLongitude = METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude));
+        }
+        offer(0, time, latitude, longitude, (longitude - originLongitude) * metersPerDegreeLongitude,
+                (latitude - originLatitude) * METERS_PER_DEGREE);
+    }
+
+    /**
+     * End the track, keeping its last point at every level
+     */
+    public void finish()
+    {
+        for (int level = 0; level < levels; level++)
+        {
+            if (windowCounts[level] > 0)
+            {
+                keep(level, windowCounts[level] - 1);
+                windowCounts[level] = 0;
+            }
+        }
+    }
+
+    /**
+     * Pass a point to a level
+     * @param level - level index, from 0
+     * @param time - time of the point
+     * @param latitude - latitude
+     * @param longitude - longitude
+     * @param x - meters east of the origin
+     * @param y - meters north of the origin
+     */
+    private void offer(int level, long time, double latitude, double longitude, double x, double y)
+    {
+        if (level == levels)
+        {
+            return;
+        }
+        if (!anchored[level])
+        {
+            // A level's first point is always kept
+            anchored[level] = true;
+            setAnchor(level, time, latitude, longitude, x, y);
+            return;
+        }
+        if (windowCounts[level] == windowSize || !spans(level, x, y))
+        {
+            // The point before this one is the last the anchor can reach
+            keep(level, windowCounts[level] - 1);
+            windowCounts[level] = 0;
+        }
+        int i = windowCounts[level]++;
+        windowTimes[level][i] = time;
+        windowLatitudes[level][i] = latitude;
+        windowLongitudes[level][i] = longitude;
+        windowX[level][i] = x;
+        windowY[level][i] = y;
+    }
+
+    /**
+     * Keep a window point, making it the level's anchor
+     * @param level - level index
+     * @param i - window index
+     */
+    private void keep(int level, int i)
+    {
+        setAnchor(level, windowTimes[level][i], windowLatitudes[level][i], windowLongitudes[level][i],
+                windowX[level][i], windowY[level][i]);
+    }
+
+    /**
+     * Set a level's anchor, report it and pass it to the next level
+     * @param level - level index
+     * @param time - time of the point
+     * @param latitude - latitude
+     * @param longitude - longitude
+     * @param x - meters east of the origin
+     * @param y - meters north of the origin
+     */
+    private void setAnchor(int level, long time, double latitude, double longitude, double x, double y)
+    {
+        anchorX[level] = x;
+        anchorY[level] = y;
+        listener.kept(level + 1, time, latitude, longitude);
+        offer(level + 1, time, latitude, longitude, x, y);
+    }
+
+    /**
+     * Check whether the segment from a level's anchor to a point passes within tolerance of its window
+     * @param level - level index
+     * @param x - meters east of the origin
+     * @param y - meters north of the origin
+     * @return Returns whether every window point is within tolerance
+     */
+    private boolean spans(int level, double x, double y)
+    {
+        double ax = anchorX[level], ay = anchorY[level];
+        double dx = x - ax, dy = y - ay;
+        double length = dx * dx + dy * dy;
+        double tolerance = squaredTolerances[level];
+        double[] wx = windowX[level], wy = windowY[level];
+        for (int i = 0; i < windowCounts[level]; i++)
+        {
+            double px = wx[i] - ax, py = wy[i] - ay;
+            // Distance to the nearest point of the segment
+            double t = length == 0 ? 0 : Math.max(0, Math.min(1, (px * dx + py * dy) / length));
+            double ex = px - t * dx, ey = py - t * dy;
+            if (ex * ex + ey * ey > tolerance)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -1,12 +1,14 @@
 // String response
 // @author: msenol
 package edu.upenn.sas.archaeologyapp.services;
+import com.android.volley.AuthFailureError;
 import com.android.volley.RequestQueue;
 import com.android.volley.DefaultRetryPolicy;
 import com.android.volley.Request;
 import com.android.volley.Response;
 import com.android.volley.VolleyError;
 import com.android.volley.toolbox.StringRequest;
+import java.nio.charset.Charset;
 import edu.upenn.sas.archaeologyapp.models.StringObjectResponseWrapper;
 import static edu.upenn.sas.archaeologyapp.util.Constants.DEFAULT_VOLLEY_TIMEOUT;
 public class VolleyStringWrapper
@@ -48,4 +50,79 @@ public class VolleyStringWrapper
         // request has been added to the queue
         queue.add(myRequest);
     }
+
+    /**
+     * Post a body and request a string response
+     * @param URL - URL to post to
+     * @param BODY - request body
+     * @param CONTENT_TYPE - MIME type of the body
+     * @param queue - request queue
+     * @param LAMBDA_WRAPPER - response wrapper
+     */
+    public static void makeVolleyStringObjectPostRequest(final String URL, final String BODY,
+                                                         final String CONTENT_TYPE, RequestQueue queue,
+                                                         final StringObjectResponseWrapper LAMBDA_WRAPPER)
+    {
+        makeVolleyBytesPostRequest(URL, BODY.getBytes(Charset.forName("UTF-8")), CONTENT_TYPE, queue,
+                LAMBDA_WRAPPER);
+    }
+
+    /**
+     * Post a binary body and request a string response
+     * @param URL - URL to post to
+     * @param BODY - request body
+     * @param CONTENT_TYPE - MIME type of the body
+     * @param queue - request queue
+     * @param LAMBDA_WRAPPER - response wrapper
+     */
+    public static void makeVolleyBytesPostRequest(final String URL, final byte[] BODY, final String CONTENT_TYPE,
+                                                  RequestQueue queue, final StringObjectResponseWrapper LAMBDA_WRAPPER)
+    {
+        StringRequest myRequest = new StringRequest(Request.Method.POST, URL, new Response.Listener<String>() {
+            /**
+             * Response received
+             * @param response - server response
+             */
+            @Override
+            public void onResponse(String response)
+            {
+                LAMBDA_WRAPPER.responseMethod(response);
+            }
+        }, new Response.ErrorListener() {
+            /**
+             * Connection failed
+             * @param error - failure
+             */
+            @Override
+            public void onErrorResponse(VolleyError error)
+            {
+                LAMBDA_WRAPPER.errorMethod(error);
+            }
+        }) {
+            /**
+             * Get the request body
+             * @return Returns the body
+             * @throws AuthFailureError never
+             */
+            @Override
+            public byte[] getBody() throws AuthFailureError
+            {
+                return BODY;
+            }
+
+            /**
+             * Get the body type
+             * @return Returns the MIME type of the body
+             */
+            @Override
+            public String getBodyContentType()
+            {
+                return CONTENT_TYPE;
+            }
+        };
+        // Posts are not retried by Volley, the caller decides what to resend
+        myRequest.setRetryPolicy(new DefaultRetryPolicy(DEFAULT_VOLLEY_TIMEOUT, 0,
+                DefaultRetryPolicy.DEFAULT_BACKOFF_MULT));
+        queue.add(myRequest);
+    }
 }
\ No newline at end of file
@@ -4,7 +4,7 @@ import android.support.annotation.NonNull;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
+import android.widget.BaseAdapter;
 import android.widget.ImageButton;
 import android.widget.ImageView;
 import android.widget.TextView;
@@ -13,14 +13,20 @@ import com.google.android.gms.maps.GoogleMap;
 import com.google.android.gms.maps.model.LatLng;
 import edu.upenn.sas.archaeologyapp.models.DataEntryElement;
 import edu.upenn.sas.archaeologyapp.R;
+import edu.upenn.sas.archaeologyapp.services.DatabaseRepository;
+import edu.upenn.sas.archaeologyapp.services.FindsPager;
 /**
- * The adapter class for populating each item in the bucket list
+ * The adapter class for populating each item in the bucket list. Finds are paged in from the database as the list
+ * scrolls rather than held in memory all at once.
  * Created by eanvith on 30/12/16.
  */
-public class BucketListEntryAdapter extends ArrayAdapter<DataEntryElement>
+public class BucketListEntryAdapter extends BaseAdapter
 {
+    private final Context context;
     // Resource ID of the layout for a bucket list entry
     private final int listItemLayoutResource;
+    // The source of the finds shown in the list
+    private final FindsPager findsPager;
     // A reference to MainActivity's google map
     private GoogleMap googleMap;
     /**
@@ -30,8 +36,58 @@ public class BucketListEntryAdapter extends ArrayAdapter<DataEntryElement>
      */
     public BucketListEntryAdapter(final Context context, final int listItemLayoutResource)
     {
-        super(context, 0);
+        this.context = context;
         this.listItemLayoutResource = listItemLayoutResource;
+        this.findsPager = new FindsPager(DatabaseRepository.getInstance(context), new FindsPager.Listener() {
+            /**
+             * Redraw the list once a page or the count has loaded
+             */
+            @Override
+            public void onFindsChanged()
+            {
+                notifyDataSetChanged();
+            }
+        });
+    }
+
+    /**
+     * Reload the list from the database. The list redraws once the new count has loaded.
+     */
+    public void refresh()
+    {
+        findsPager.refresh();
+    }
+
+    /**
+     * Get the number of finds in the list
+     * @return Returns the number of finds
+     */
+    @Override
+    public int getCount()
+    {
+        return findsPager.getCount();
+    }
+
+    /**
+     * Get a find in the list
+     * @param position - position in the list
+     * @return Returns the find, or null while its page is loading
+     */
+    @Override
+    public DataEntryElement getItem(int position)
+    {
+        return findsPager.get(position);
+    }
+
+    /**
+     * Get the row id of a find
+     * @param position - position in the list
+     * @return Returns the row id
+     */
+    @Override
+    public long getItemId(int position)
+    {
+        return position;
     }
 
     /**
@@ -50,6 +106,13 @@ public class BucketListEntryAdapter extends ArrayAdapter<DataEntryElement>
         final View view = getWorkingView(convertView);
         final ViewHolder viewHolder = getViewHolder(view);
         final DataEntryElement elem = getItem(position);
+        if (elem == null)
+        {
+            // Placeholder until the page holding this find has loaded
+            viewHolder.categoryTV.setText(R.string.blank_assignment);
+            viewHolder.mapButton.setOnClickListener(null);
+            return view;
+        }
         // Set the category
         String id = elem.getZone() + "."+elem.getHemisphere() + "." + elem.getEasting() + "."
                 + elem.getNorthing() + "." + elem.getSample();
@@ -92,7 +155,6 @@ public class BucketListEntryAdapter extends ArrayAdapter<DataEntryElement>
         View workingView;
         if (null == convertView)
         {
-            final Context context = getContext();
             final LayoutInflater inflater = (LayoutInflater)context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
             workingView = inflater.inflate(listItemLayoutResource, null);
         }
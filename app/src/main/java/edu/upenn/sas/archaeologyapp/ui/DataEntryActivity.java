@@ -50,11 +50,14 @@ import java.util.UUID;
 import edu.upenn.sas.archaeologyapp.services.LocationCollector;
 import edu.upenn.sas.archaeologyapp.R;
 import edu.upenn.sas.archaeologyapp.models.DataEntryElement;
-import edu.upenn.sas.archaeologyapp.services.DatabaseHandler;
+import edu.upenn.sas.archaeologyapp.models.DatabaseResponseWrapper;
+import edu.upenn.sas.archaeologyapp.services.DatabaseRepository;
+import edu.upenn.sas.archaeologyapp.services.PositionAverager;
 import edu.upenn.sas.archaeologyapp.util.Constants;
-import gov.nasa.worldwind.geom.Angle;
-import gov.nasa.worldwind.geom.coords.UTMCoord;
+import gov.nasa.worldwind.geom.coords.MutableUTMCoord;
+import gov.nasa.worldwind.geom.coords.UTMBatchConverter;
 
+import static edu.upenn.sas.archaeologyapp.util.Constants.DEFAULT_POSITION_AVERAGING_SECONDS;
 import static edu.upenn.sas.archaeologyapp.util.Constants.DEFAULT_POSITION_UPDATE_INTERVAL;
 import static edu.upenn.sas.archaeologyapp.util.Constants.DEFAULT_REACH_HOST;
 import static edu.upenn.sas.archaeologyapp.util.Constants.DEFAULT_REACH_PORT;
@@ -88,8 +91,13 @@ public class DataEntryActivity extends BaseActivity {
     // The text box where the user can enter comments
     EditText commentsEditText;
     private Integer zone, northing, easting, sample;
+    // Reused UTM conversion, so a position update converts without allocating
+    private final MutableUTMCoord UTMPosition = new MutableUTMCoord();
     private Uri photoURI = null;
     private LocationCollector locationCollector;
+    // Averages the Reach fixes received just before the position is fixed
+    private final PositionAverager positionAverager = new PositionAverager(DEFAULT_POSITION_AVERAGING_SECONDS * 1000L,
+            Constants.POSITION_AVERAGING_CAPACITY, Constants.POSITION_CLIP_SIGMA);
     // The timestamp of the find's location
     private long timestamp;
 
@@ -121,6 +129,7 @@ public class DataEntryActivity extends BaseActivity {
             @Override
             public void broadcastLocation(double _latitude, double _longitude, double _altitude, String _status, Double _ARRatio) {
                 if (liveUpdatePosition) {
+                    positionAverager.drain(getReachFixes());
                     setLocationDetails(_latitude, _longitude, _altitude, _status, _ARRatio);
                 }
             }
@@ -204,11 +213,13 @@ public class DataEntryActivity extends BaseActivity {
             public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
                 liveUpdatePosition = isChecked;
                 if (liveUpdatePosition) {
+                    positionAverager.reset();
                     resetUTMLocation();
                 } else {
                     // Ensure we only update the sample #, UTM position if the user pressed the button
                     // (otherwise this would happen on activity load)
                     if (buttonView.isPressed()) {
+                        setAveragedLocation();
                         setUTMLocation();
                     }
                 }
@@ -535,28 +546,59 @@ public class DataEntryActivity extends BaseActivity {
         return image;
     }
 
+    /**
+     * Replace the last fix with the average of the Reach fixes received while the point was occupied, if enough
+     * good ones arrived
+     */
+    private void setAveragedLocation() {
+        positionAverager.drain(locationCollector.getReachFixes());
+        if (positionAverager.compute(System.currentTimeMillis())
+                && positionAverager.getUsedCount() >= Constants.MIN_AVERAGED_FIXES) {
+            Log.v("DataEntryActivity", "Averaged " + positionAverager.getUsedCount() + " fixes, rejected "
+                    + positionAverager.getRejectedCount() + ", error E " + positionAverager.getEastingError() + " N "
+                    + positionAverager.getNorthingError() + " Z " + positionAverager.getAltitudeError());
+            setLocationDetails(positionAverager.getLatitude(), positionAverager.getLongitude(),
+                    positionAverager.getAltitude(), status, ARRatio);
+        }
+    }
+
     /**
      * Set the UTM location
      */
     private void setUTMLocation() {
-        if (latitude != null && longitude != null) {
-            DatabaseHandler databaseHandler = new DatabaseHandler(this);
-            Angle lat = Angle.fromDegrees(latitude);
-            Angle lon = Angle.fromDegrees(longitude);
-            UTMCoord UTMposition = UTMCoord.fromLatLon(lat, lon);
-
-            zone = UTMposition.getZone();
-            hemisphere = UTMposition.getHemisphere().contains("North") ? "N" : "S";
-            preciseNorthing = UTMposition.getNorthing();
+        if (latitude != null && longitude != null && UTMPosition.setLatLon(latitude, longitude)) {
+            zone = UTMPosition.getZone();
+            hemisphere = UTMPosition.getHemisphere() == UTMBatchConverter.NORTH ? "N" : "S";
+            preciseNorthing = UTMPosition.getNorthing();
             northing = (int) Math.floor(preciseNorthing);
-            preciseEasting = UTMposition.getEasting();
+            preciseEasting = UTMPosition.getEasting();
             easting = (int) Math.floor(preciseEasting);
-            sample = databaseHandler.getLastSampleFromBucket(zone, hemisphere, northing, easting) + 1;
             gridTextView.setText(getString(R.string.string_frmt, zone + hemisphere));
             northingTextView.setText(String.valueOf(northing));
             eastingTextView.setText(String.valueOf(easting));
-            sampleTextView.setText(String.valueOf(sample));
+            sampleTextView.setText(R.string.blank_assignment);
+            // The sample of the previous bucket no longer applies. Clearing it keeps the find from being saved
+            // until the new bucket's sample has loaded.
+            sample = null;
             timestamp = (new Date()).getTime();
+            final int bucketZone = zone, bucketNorthing = northing, bucketEasting = easting;
+            final String bucketHemisphere = hemisphere;
+            DatabaseRepository.getInstance(this).getLastSampleFromBucket(zone, hemisphere, northing, easting,
+                    new DatabaseResponseWrapper<Integer>() {
+                /**
+                 * Highest sample read
+                 * @param response - highest sample number in the bucket
+                 */
+                @Override
+                public void responseMethod(Integer response) {
+                    // Drop the result if the location moved to another bucket while it was loading
+                    if (zone == bucketZone && northing == bucketNorthing && easting == bucketEasting
+                            && bucketHemisphere.equals(hemisphere)) {
+                        sample = response + 1;
+                        sampleTextView.setText(String.valueOf(sample));
+                    }
+                }
+            });
         }
     }
 
@@ -746,8 +788,7 @@ public class DataEntryActivity extends BaseActivity {
      * @param v - delete button
      */
     public void deleteButtonPressed(View v) {
-        DatabaseHandler databaseHandler = new DatabaseHandler(this);
-        databaseHandler.setFindSynced(getElement());
+        DatabaseRepository.getInstance(this).setFindSynced(getElement(), null);
         for (String path : photoPaths) {
             new File(path).delete();
         }
@@ -859,8 +900,7 @@ public class DataEntryActivity extends BaseActivity {
         DataEntryElement list[] = new DataEntryElement[1];
         list[0] = getElement();
         // Save the dataEntryElement to DB
-        DatabaseHandler databaseHandler = new DatabaseHandler(this);
-        databaseHandler.addFindsRows(list);
+        DatabaseRepository.getInstance(this).addFindsRows(list, null);
     }
 
     /**
@@ -0,0 +1,276 @@
+package edu.upenn.sas.archaeologyapp.ui;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+import com.google.android.gms.maps.CameraUpdateFactory;
+import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.model.BitmapDescriptorFactory;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.android.gms.maps.model.Marker;
+import com.google.android.gms.maps.model.MarkerOptions;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import edu.upenn.sas.archaeologyapp.models.DataEntryElement;
+import edu.upenn.sas.archaeologyapp.models.DatabaseResponseWrapper;
+import edu.upenn.sas.archaeologyapp.models.FindCluster;
+import edu.upenn.sas.archaeologyapp.services.DatabaseRepository;
+import edu.upenn.sas.archaeologyapp.services.FindClusterer;
+import edu.upenn.sas.archaeologyapp.services.RegionBoxes;
+/**
+ * Keeps the finds drawn on the map in step with the camera. Only the finds in and around the visible region are
+ * read, through the finds' spatial index, and they are grouped by FindClusterer on a background thread. The main
+ * thread only compares the markers wanted with the markers drawn, then adds and removes the difference a few
+ * markers per frame, so markers that stay wanted are never redrawn and no frame does more than a bounded amount of
+ * map work. Only touched on the main thread.
+ */
+public class FindMarkerManager
+{
+    // Map loaded beyond each side of the visible region, as a fraction of its size, so short pans need no reload
+    private static final double VIEWPORT_MARGIN = 0.5;
+    // Most markers added or removed in one frame
+    private static final int MAX_CHANGES_PER_FRAME = 32;
+    private final GoogleMap googleMap;
+    private final DatabaseRepository databaseRepository;
+    // Groups finds off the main thread
+    private final ExecutorService clusterExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Markers on the map and what each was drawn from, by key
+    private final HashMap<String, Marker> markers = new HashMap<>();
+    private final HashMap<String, FindCluster> drawn = new HashMap<>();
+    // Changes not yet applied to the map
+    private final ArrayList<FindCluster> pendingAdds = new ArrayList<>();
+    private final ArrayList<String> pendingRemovals = new ArrayList<>();
+    private boolean frameScheduled = false;
+    // Bumped on every update, so loads and clusterings started before it are dropped. The volatile copy lets the
+    // cluster thread skip work that is already stale.
+    private int generation = 0;
+    private volatile int latestGeneration = 0;
+    // Applies pending changes, a bounded number per frame
+    private final Choreographer.FrameCallback applyChanges = new Choreographer.FrameCallback() {
+        /**
+         * Frame starting
+         * @param frameTimeNanos - frame time
+         */
+        @Override
+        public void doFrame(long frameTimeNanos)
+        {
+            frameScheduled = false;
+            int changes = 0;
+            // Add before removing, so a group that splits stays on screen until its parts are drawn
+            while (changes < MAX_CHANGES_PER_FRAME && !pendingAdds.isEmpty())
+            {
+                draw(pendingAdds.remove(pendingAdds.size() - 1));
+                changes++;
+            }
+            while (changes < MAX_CHANGES_PER_FRAME && !pendingRemovals.isEmpty())
+            {
+                erase(pendingRemovals.remove(pendingRemovals.size() - 1));
+                changes++;
+            }
+            if (!pendingAdds.isEmpty() || !pendingRemovals.isEmpty())
+            {
+                scheduleFrame();
+            }
+        }
+    };
+
+    /**
+     * Constructor
+     * @param _googleMap - map to draw on
+     * @param _databaseRepository - repository to read finds through
+     */
+    public FindMarkerManager(GoogleMap _googleMap, DatabaseRepository _databaseRepository)
+    {
+        googleMap = _googleMap;
+        databaseRepository = _databaseRepository;
+    }
+
+    /**
+     * Reload the finds around the visible region and redraw what changed. Call when the camera stops and when the
+     * finds may have changed.
+     */
+    public void update()
+    {
+        final int updateGeneration = ++generation;
+        latestGeneration = updateGeneration;
+        final int zoom = (int) googleMap.getCameraPosition().zoom;
+        LatLngBounds bounds = googleMap.getProjection().getVisibleRegion().latLngBounds;
+        int[] zones = new int[RegionBoxes.MAX_BOXES];
+        char[] hemispheres = new char[RegionBoxes.MAX_BOXES];
+        double[] boxes = new double[4 * RegionBoxes.MAX_BOXES];
+        int count = RegionBoxes.cover(bounds.southwest.latitude, bounds.northeast.latitude,
+                bounds.southwest.longitude, bounds.northeast.longitude, VIEWPORT_MARGIN, zones, hemispheres, boxes);
+        databaseRepository.getFindsInBoxes(zones, hemispheres, boxes, count, true,
+                new DatabaseResponseWrapper<ArrayList<DataEntryElement>>() {
+            /**
+             * Finds read
+             * @param finds - unsynced finds around the visible region
+             */
+            @Override
+            public void responseMethod(final ArrayList<DataEntryElement> finds)
+            {
+                if (updateGeneration == generation)
+                {
+                    cluster(finds, zoom, updateGeneration);
+                }
+            }
+        });
+    }
+
+    /**
+     * Remove every find marker and drop any update in progress
+     */
+    public void clear()
+    {
+        latestGeneration = ++generation;
+        pendingAdds.clear();
+        pendingRemovals.clear();
+        for (Marker marker: markers.values())
+        {
+            marker.remove();
+        }
+        markers.clear();
+        drawn.clear();
+    }
+
+    /**
+     * Handle a tap on a marker. Tapping a group zooms in on it.
+     * @param marker - tapped marker
+     * @return Returns whether the tap was handled
+     */
+    public boolean onMarkerClick(Marker marker)
+    {
+        Object tag = marker.getTag();
+        if (tag instanceof FindCluster && ((FindCluster) tag).isGroup())
+        {
+            googleMap.animateCamera(CameraUpdateFactory.newLatLngZoom(marker.getPosition(),
+                    googleMap.getCameraPosition().zoom + 2));
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Stop the cluster thread. The manager can't be used afterwards.
+     */
+    public void shutdown()
+    {
+        clear();
+        clusterExecutor.shutdownNow();
+    }
+
+    /**
+     * Group finds on the cluster thread, then show the result
+     * @param finds - finds around the visible region
+     * @param zoom - whole zoom level to group for
+     * @param updateGeneration - update the finds were read for
+     */
+    private void cluster(final ArrayList<DataEntryElement> finds, final int zoom, final int updateGeneration)
+    {
+        clusterExecutor.execute(new Runnable() {
+            /**
+             * Group the finds
+             */
+            @Override
+            public void run()
+            {
+                if (updateGeneration != latestGeneration)
+                {
+                    return;
+                }
+                final ArrayList<FindCluster> clusters = FindClusterer.cluster(finds, zoom);
+                mainHandler.post(new Runnable() {
+                    /**
+                     * Show the groups
+                     */
+                    @Override
+                    public void run()
+                    {
+                        if (updateGeneration == generation)
+                        {
+                            show(clusters);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Work out which markers to add and remove to go from the drawn markers to the wanted ones
+     * @param clusters - markers wanted
+     */
+    private void show(ArrayList<FindCluster> clusters)
+    {
+        pendingAdds.clear();
+        pendingRemovals.clear();
+        HashMap<String, FindCluster> wanted = new HashMap<>();
+        for (FindCluster cluster: clusters)
+        {
+            wanted.put(cluster.getKey(), cluster);
+            if (!cluster.drawsLike(drawn.get(cluster.getKey())))
+            {
+                pendingAdds.add(cluster);
+            }
+        }
+        for (String key: drawn.keySet())
+        {
+            if (!wanted.containsKey(key))
+            {
+                pendingRemovals.add(key);
+            }
+        }
+        if (!pendingAdds.isEmpty() || !pendingRemovals.isEmpty())
+        {
+            scheduleFrame();
+        }
+    }
+
+    /**
+     * Draw a marker, replacing any drawn under the same key
+     * @param cluster - marker to draw
+     */
+    private void draw(FindCluster cluster)
+    {
+        erase(cluster.getKey());
+        MarkerOptions options = new MarkerOptions().position(new LatLng(cluster.getLatitude(),
+                cluster.getLongitude())).title(cluster.getTitle());
+        if (cluster.isGroup())
+        {
+            options.icon(BitmapDescriptorFactory.defaultMarker(BitmapDescriptorFactory.HUE_AZURE));
+        }
+        Marker marker = googleMap.addMarker(options);
+        marker.setTag(cluster);
+        markers.put(cluster.getKey(), marker);
+        drawn.put(cluster.getKey(), cluster);
+    }
+
+    /**
+     * Remove a drawn marker
+     * @param key - marker key
+     */
+    private void erase(String key)
+    {
+        Marker marker = markers.remove(key);
+        if (marker != null)
+        {
+            marker.remove();
+        }
+        drawn.remove(key);
+    }
+
+    /**
+     * Apply the pending changes from the next frame on
+     */
+    private void scheduleFrame()
+    {
+        if (!frameScheduled)
+        {
+            frameScheduled = true;
+            Choreographer.getInstance().postFrameCallback(applyChanges);
+        }
+    }
+}
@@ -8,6 +8,7 @@ import android.location.Location;
 import android.location.LocationListener;
 import android.location.LocationManager;
 import android.os.Bundle;
+import android.os.StrictMode;
 import android.support.annotation.NonNull;
 import android.support.design.widget.BottomNavigationView;
 import android.support.v4.app.ActivityCompat;
@@ -29,22 +30,30 @@ import com.google.android.gms.maps.GoogleMap;
 import com.google.android.gms.maps.MapFragment;
 import com.google.android.gms.maps.OnMapReadyCallback;
 import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.Marker;
 import com.google.android.gms.maps.model.MarkerOptions;
+import com.google.android.gms.maps.model.Polyline;
 import com.google.android.gms.maps.model.PolylineOptions;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.Timer;
 import java.util.TimerTask;
+import edu.upenn.sas.archaeologyapp.BuildConfig;
 import edu.upenn.sas.archaeologyapp.R;
 import edu.upenn.sas.archaeologyapp.models.PathElement;
 import edu.upenn.sas.archaeologyapp.models.StringObjectResponseWrapper;
 import edu.upenn.sas.archaeologyapp.models.DataEntryElement;
-import edu.upenn.sas.archaeologyapp.services.DatabaseHandler;
+import edu.upenn.sas.archaeologyapp.models.DatabaseResponseWrapper;
+import edu.upenn.sas.archaeologyapp.models.TrackPoints;
+import edu.upenn.sas.archaeologyapp.services.DatabaseRepository;
+import edu.upenn.sas.archaeologyapp.services.TrackSimplifier;
 import edu.upenn.sas.archaeologyapp.util.Constants;
-import gov.nasa.worldwind.geom.Angle;
-import gov.nasa.worldwind.geom.coords.UTMCoord;
+import gov.nasa.worldwind.geom.coords.MutableUTMCoord;
+import gov.nasa.worldwind.geom.coords.UTMBatchConverter;
 import static edu.upenn.sas.archaeologyapp.R.id.map;
 import static edu.upenn.sas.archaeologyapp.services.VolleyStringWrapper.makeVolleyStringObjectRequest;
+import static edu.upenn.sas.archaeologyapp.util.Constants.TRACK_LEVEL_TOLERANCES;
 import static edu.upenn.sas.archaeologyapp.util.Constants.globalWebServerURL;
 /**
  * This activity shows the user the list of items presently in his bucket
@@ -56,6 +65,8 @@ public class MainActivity extends BaseActivity implements SwipeRefreshLayout.OnR
     public static final String PREFERENCES = "archaeological-survey-location-collector-preferences";
     private static int FINDS_MODE = 0, PATHS_MODE = 1;
     private static final int MY_PERMISSION_ACCESS_FINE_LOCATION = 100, MY_PERMISSION_ACCESS_EXTERNAL_STORAGE = 200;
+    // Ground size of a map pixel at the equator at zoom 0, and how many pixels a drawn track may be off by
+    private static final double METERS_PER_PIXEL_AT_ZOOM_0 = 156543.03392, TRACK_PIXEL_TOLERANCE = 2;
     // This int represents what we want to display (paths or finds). We start with finds.
     int displayMode = FINDS_MODE;
     // Reference to the list view
@@ -70,6 +81,16 @@ public class MainActivity extends BaseActivity implements SwipeRefreshLayout.OnR
     BottomNavigationView displayModeBar;
     // Reference to the Google map
     GoogleMap googleMap;
+    // Draws the finds around the visible part of the map
+    FindMarkerManager findMarkers;
+    // Bumped whenever the paths are cleared from the map, so tracks loaded for an earlier map are dropped
+    private int mapGeneration = 0;
+    // Completed paths on the map, their end markers, their drawn tracks and the simplification level they were
+    // drawn at
+    private final ArrayList<PathElement> trackedPaths = new ArrayList<>();
+    private final ArrayList<Marker> pathMarkers = new ArrayList<>();
+    private final ArrayList<Polyline> trackLines = new ArrayList<>();
+    private int trackLevel = 0;
     private ViewTreeObserver.OnScrollChangedListener mOnScrollChangedListener;
     // Location manager for accessing the users location
     private LocationManager locationManager;
@@ -77,6 +98,8 @@ public class MainActivity extends BaseActivity implements SwipeRefreshLayout.OnR
     private LocationListener locationListener;
     // Variables to store the users location data obtained from GPS, as a backup to the Reach data
     private Double GPSlatitude, GPSlongitude;
+    // Reused UTM conversion, so a position update converts without allocating
+    private final MutableUTMCoord UTMPosition = new MutableUTMCoord();
     // The timer used to periodically update the position
     private Timer positionUpdateTimer;
     // The text views for displaying latitude, longitude, altitude, and status values
@@ -91,6 +114,12 @@ public class MainActivity extends BaseActivity implements SwipeRefreshLayout.OnR
     protected void onCreate(Bundle savedInstanceState)
     {
         super.onCreate(savedInstanceState);
+        if (BuildConfig.DEBUG)
+        {
+            // Report any other disk access left on the main thread. Database calls there fail outright.
+            StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder().detectDiskReads().detectDiskWrites()
+                    .penaltyLog().build());
+        }
         setContentView(R.layout.activity_main);
         queue = Volley.newRequestQueue(this);
         initializeViews();
@@ -112,6 +141,7 @@ public class MainActivity extends BaseActivity implements SwipeRefreshLayout.OnR
             public void onMapReady(GoogleMap m)
             {
                 googleMap = m;
+                findMarkers = new FindMarkerManager(m, DatabaseRepository.getInstance(MainActivity.this));
                 findsListEntryAdapter.setMap(m);
                 pathsListEntryAdapter.setMap(m);
                 try
@@ -145,6 +175,43 @@ public class MainActivity extends BaseActivity implements SwipeRefreshLayout.OnR
                         enableSwipeRefresh();
                     }
                 });
+                googleMap.setOnMarkerClickListener(new GoogleMap.OnMarkerClickListener() {
+                    /**
+                     * Marker tapped
+                     * @param marker - tapped marker
+                     * @return Returns whether the tap was handled
+                     */
+                    @Override
+                    public boolean onMarkerClick(Marker marker)
+                    {
+                        return findMarkers.onMarkerClick(marker);
+                    }
+                });
+                googleMap.setOnCameraIdleListener(new GoogleMap.OnCameraIdleListener() {
+                    /**
+                     * Camera stopped, redraw the finds around the new view, or the tracks if the zoom calls for
+                     * another level
+                     */
+                    @Override
+                    public void onCameraIdle()
+                    {
+                        if (displayMode == FINDS_MODE)
+                        {
+                            findMarkers.update();
+                        }
+                        else if (displayMode == PATHS_MODE && !trackedPaths.isEmpty()
+                                && chooseTrackLevel() != trackLevel)
+                        {
+                            mapGeneration++;
+                            for (Polyline line: trackLines)
+                            {
+                                line.remove();
+                            }
+                            trackLines.clear();
+                            showTracks();
+                        }
+                    }
+                });
                 populateDataFromLocalStore();
             }
         });
@@ -244,6 +311,11 @@ public class MainActivity extends BaseActivity implements SwipeRefreshLayout.OnR
                 {
                     // Open the data entry activity with fields pre-populated
                     DataEntryElement dataEntryElement = findsListEntryAdapter.getItem(position);
+                    if (dataEntryElement == null)
+                    {
+                        // Its page is still loading
+                        return;
+                    }
                     Bundle paramsToPass = new Bundle();
                     paramsToPass.putString(Constants.PARAM_KEY_ID, dataEntryElement.getID());
                     paramsToPass.putInt(Constants.PARAM_KEY_ZONE, dataEntryElement.getZone());
@@ -388,71 +460,186 @@ public class MainActivity extends BaseActivity implements SwipeRefreshLayout.OnR
      */
     private void populateDataFromLocalStore()
     {
-        DatabaseHandler databaseHandler = new DatabaseHandler(this);
+        DatabaseRepository databaseRepository = DatabaseRepository.getInstance(this);
         if (displayMode == FINDS_MODE)
         {
-            // Get data from DB
-            int numrows = databaseHandler.getUnsyncedFindsRows().size();
             // Populate map markers
             if (googleMap != null)
             {
-                googleMap.clear();
-                for (DataEntryElement elem: databaseHandler.getUnsyncedFindsRows())
-                {
-                    String id = elem.getZone() + "." + elem.getHemisphere() + "." + elem.getNorthing()
-                            + "." + elem.getEasting() + "." + elem.getSample();
-                    googleMap.addMarker(new MarkerOptions().position(new LatLng(elem.getLatitude(), elem.getLongitude())).title(id));
-                }
-                // Set map center to last placed marker
-                if (numrows > 0)
-                {
-                    DataEntryElement lastElem = databaseHandler.getUnsyncedFindsRows().get(numrows - 1);
-                    googleMap.moveCamera(CameraUpdateFactory.newLatLngZoom(new LatLng(lastElem.getLatitude(),
-                            lastElem.getLongitude()),14));
-                }
+                clearPaths();
+                // Get the newest find from DB to center the map on
+                databaseRepository.getUnsyncedFindsPage(null, null, 0, 1,
+                        new DatabaseResponseWrapper<ArrayList<DataEntryElement>>() {
+                    /**
+                     * Newest find read
+                     * @param finds - the newest unsynced find, if any
+                     */
+                    @Override
+                    public void responseMethod(ArrayList<DataEntryElement> finds)
+                    {
+                        // The user may have switched to paths while the find was loading
+                        if (displayMode != FINDS_MODE)
+                        {
+                            return;
+                        }
+                        if (!finds.isEmpty())
+                        {
+                            centerOnFind(finds.get(0));
+                        }
+                        // The finds may have changed even if the view has not
+                        findMarkers.update();
+                    }
+                });
             }
-            // Clear list and populate with data got from DB
-            findsListEntryAdapter.clear();
-            findsListEntryAdapter.addAll(databaseHandler.getUnsyncedFindsRows());
-            findsListEntryAdapter.notifyDataSetChanged();
+            // Reload the list, which pages its finds in from the DB as it scrolls
+            findsListEntryAdapter.refresh();
         }
         else if (displayMode == PATHS_MODE)
         {
             // Get data from DB
-            int numrows = databaseHandler.getUnsyncedPathsRows().size();
-            // Populate map markers and lines
-            if (googleMap != null)
-            {
-                googleMap.clear();
-                for (PathElement elem: databaseHandler.getUnsyncedPathsRows())
+            databaseRepository.getUnsyncedPathsRows(new DatabaseResponseWrapper<ArrayList<PathElement>>() {
+                /**
+                 * Paths read
+                 * @param paths - unsynced paths
+                 */
+                @Override
+                public void responseMethod(ArrayList<PathElement> paths)
                 {
-                    // Add the path only if it's been completed
-                    if (elem.getEndTime() != 0)
+                    if (displayMode == PATHS_MODE)
                     {
-                        SimpleDateFormat sdf = new SimpleDateFormat("MMM dd,yyyy HH:mm");
-                        String id = elem.getTeamMember() + "'s path, " + sdf.format(new Date(elem.getBeginTime()));
-                        // Add the starting point
-                        googleMap.addMarker(new MarkerOptions().position(new LatLng(elem.getBeginLatitude(),
-                                elem.getBeginLongitude())).title(id));
-                        // Add the end point and line
-                        googleMap.addMarker(new MarkerOptions().position(new LatLng(elem.getEndLatitude(),
-                                elem.getEndLongitude())).title(id));
-                        googleMap.addPolyline(new PolylineOptions().add(new LatLng(elem.getBeginLatitude(),
-                                elem.getBeginLongitude()), new LatLng(elem.getEndLatitude(), elem.getEndLongitude()))
-                                .width(5).color(Color.RED));
+                        showPaths(paths);
                     }
                 }
-                // Set map center to last placed path marker
-                if (numrows > 0)
+            });
+        }
+    }
+
+    /**
+     * Set map center to last placed find
+     * @param lastElem - newest find
+     */
+    private void centerOnFind(DataEntryElement lastElem)
+    {
+        googleMap.moveCamera(CameraUpdateFactory.newLatLngZoom(new LatLng(lastElem.getLatitude(),
+                lastElem.getLongitude()),14));
+    }
+
+    /**
+     * Remove the paths' markers and tracks from the map
+     */
+    private void clearPaths()
+    {
+        mapGeneration++;
+        for (Marker marker: pathMarkers)
+        {
+            marker.remove();
+        }
+        for (Polyline line: trackLines)
+        {
+            line.remove();
+        }
+        trackedPaths.clear();
+        pathMarkers.clear();
+        trackLines.clear();
+    }
+
+    /**
+     * Populate the map and list with paths
+     * @param paths - paths to show
+     */
+    private void showPaths(ArrayList<PathElement> paths)
+    {
+        // Populate map markers and lines
+        if (googleMap != null)
+        {
+            findMarkers.clear();
+            clearPaths();
+            for (PathElement elem: paths)
+            {
+                // Add the path only if it's been completed
+                if (elem.getEndTime() != 0)
                 {
-                    PathElement lastElem = databaseHandler.getUnsyncedPathsRows().get(numrows - 1);
-                    googleMap.moveCamera(CameraUpdateFactory.newLatLngZoom(new LatLng(lastElem.getBeginLatitude(), lastElem.getBeginLongitude()), 17));
+                    SimpleDateFormat sdf = new SimpleDateFormat("MMM dd,yyyy HH:mm");
+                    String id = elem.getTeamMember() + "'s path, " + sdf.format(new Date(elem.getBeginTime()));
+                    // Add the starting point
+                    pathMarkers.add(googleMap.addMarker(new MarkerOptions().position(new LatLng(elem.getBeginLatitude(),
+                            elem.getBeginLongitude())).title(id)));
+                    // Add the end point
+                    pathMarkers.add(googleMap.addMarker(new MarkerOptions().position(new LatLng(elem.getEndLatitude(),
+                            elem.getEndLongitude())).title(id)));
+                    trackedPaths.add(elem);
                 }
             }
-            pathsListEntryAdapter.clear();
-            pathsListEntryAdapter.addAll(databaseHandler.getUnsyncedPathsRows());
-            pathsListEntryAdapter.notifyDataSetChanged();
+            // Set map center to last placed path marker
+            if (!paths.isEmpty())
+            {
+                PathElement lastElem = paths.get(paths.size() - 1);
+                googleMap.moveCamera(CameraUpdateFactory.newLatLngZoom(new LatLng(lastElem.getBeginLatitude(), lastElem.getBeginLongitude()), 17));
+            }
+            // Draw the tracks at the level the new zoom calls for
+            showTracks();
         }
+        pathsListEntryAdapter.clear();
+        pathsListEntryAdapter.addAll(paths);
+        pathsListEntryAdapter.notifyDataSetChanged();
+    }
+
+    /**
+     * Choose the simplified copy of the tracks that is detailed enough for the current zoom
+     * @return Returns the simplification level
+     */
+    private int chooseTrackLevel()
+    {
+        double latitude = googleMap.getCameraPosition().target.latitude;
+        double metersPerPixel = METERS_PER_PIXEL_AT_ZOOM_0 * Math.cos(Math.toRadians(latitude))
+                / Math.pow(2, googleMap.getCameraPosition().zoom);
+        return TrackSimplifier.chooseLevel(TRACK_LEVEL_TOLERANCES, metersPerPixel * TRACK_PIXEL_TOLERANCE);
+    }
+
+    /**
+     * Draw the completed paths' tracks at the level the current zoom calls for
+     */
+    private void showTracks()
+    {
+        trackLevel = chooseTrackLevel();
+        for (PathElement path: trackedPaths)
+        {
+            showTrack(path, trackLevel);
+        }
+    }
+
+    /**
+     * Draw a path's recorded track, or a straight line between its ends if none was recorded
+     * @param path - completed path
+     * @param level - simplification level to draw
+     */
+    private void showTrack(final PathElement path, int level)
+    {
+        final int generation = mapGeneration;
+        DatabaseRepository.getInstance(this).getSimplifiedTrack(path.getTeamMember(), path.getBeginTime(), level,
+                path.getBeginTime(), path.getEndTime(), new DatabaseResponseWrapper<TrackPoints>() {
+            /**
+             * Track loaded
+             * @param points - track points between the path's start and end
+             */
+            @Override
+            public void responseMethod(TrackPoints points)
+            {
+                // The map has moved on since the track was requested
+                if (googleMap == null || generation != mapGeneration || displayMode != PATHS_MODE)
+                {
+                    return;
+                }
+                PolylineOptions line = new PolylineOptions().width(5).color(Color.RED);
+                line.add(new LatLng(path.getBeginLatitude(), path.getBeginLongitude()));
+                for (int i = 0; i < points.size(); i++)
+                {
+                    line.add(new LatLng(points.getLatitude(i), points.getLongitude(i)));
+                }
+                line.add(new LatLng(path.getEndLatitude(), path.getEndLongitude()));
+                trackLines.add(googleMap.addPolyline(line));
+            }
+        });
     }
 
     /**
@@ -487,15 +674,12 @@ public class MainActivity extends BaseActivity implements SwipeRefreshLayout.OnR
      */
     private void setUTMLocation()
     {
-        if (GPSlatitude != null && GPSlongitude != null)
+        if (GPSlatitude != null && GPSlongitude != null && UTMPosition.setLatLon(GPSlatitude, GPSlongitude))
         {
-            Angle lat = Angle.fromDegrees(GPSlatitude);
-            Angle lon = Angle.fromDegrees(GPSlongitude);
-            UTMCoord UTMposition = UTMCoord.fromLatLon(lat, lon);
-            int zone = UTMposition.getZone();
-            String hemisphere = UTMposition.getHemisphere().contains("North") ? "N" : "S";
-            int northing = (int) Math.floor(UTMposition.getNorthing());
-            int easting = (int) Math.floor(UTMposition.getEasting());
+            int zone = UTMPosition.getZone();
+            String hemisphere = UTMPosition.getHemisphere() == UTMBatchConverter.NORTH ? "N" : "S";
+            int northing = (int) Math.floor(UTMPosition.getNorthing());
+            int easting = (int) Math.floor(UTMPosition.getEasting());
             gridTextView.setText(getString(R.string.string_frmt, zone + hemisphere));
             northingTextView.setText(String.valueOf(northing));
             eastingTextView.setText(String.valueOf(easting));
@@ -699,4 +883,17 @@ public class MainActivity extends BaseActivity implements SwipeRefreshLayout.OnR
         // initiate GPS again
         initiateGPS();
     }
+
+    /**
+     * Activity destroyed
+     */
+    @Override
+    protected void onDestroy()
+    {
+        super.onDestroy();
+        if (findMarkers != null)
+        {
+            findMarkers.shutdown();
+        }
+    }
 }
\ No newline at end of file
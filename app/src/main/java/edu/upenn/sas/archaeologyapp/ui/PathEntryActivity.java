@@ -19,11 +19,12 @@ import java.text.SimpleDateFormat;
 import java.util.Date;
 import edu.upenn.sas.archaeologyapp.R;
 import edu.upenn.sas.archaeologyapp.models.PathElement;
-import edu.upenn.sas.archaeologyapp.services.DatabaseHandler;
+import edu.upenn.sas.archaeologyapp.services.DatabaseRepository;
 import edu.upenn.sas.archaeologyapp.services.LocationCollector;
+import edu.upenn.sas.archaeologyapp.services.TrackService;
 import edu.upenn.sas.archaeologyapp.util.Constants;
-import gov.nasa.worldwind.geom.Angle;
-import gov.nasa.worldwind.geom.coords.UTMCoord;
+import gov.nasa.worldwind.geom.coords.MutableUTMCoord;
+import gov.nasa.worldwind.geom.coords.UTMBatchConverter;
 import static edu.upenn.sas.archaeologyapp.util.Constants.DEFAULT_POSITION_UPDATE_INTERVAL;
 import static edu.upenn.sas.archaeologyapp.util.Constants.DEFAULT_REACH_HOST;
 import static edu.upenn.sas.archaeologyapp.util.Constants.DEFAULT_REACH_PORT;
@@ -44,11 +45,16 @@ public class PathEntryActivity extends BaseActivity
     // The spinner for displaying the dropdown of materials
     Spinner teamMembersDropdown;
     private LocationCollector locationCollector;
+    // Reach connection settings, which the track recording uses too
+    private String reachHost, reachPort;
+    private Integer positionUpdateInterval;
     private Double liveLatitude, liveLongitude, liveAltitude, liveARRatio, beginNorthing, beginEasting;
     private String liveStatus, beginHemisphere, beginStatus, endStatus, teamMember;
     private Integer beginZone;
     private Double endNorthing, endEasting, beginLatitude, beginLongitude, beginAltitude, endLatitude;
     private Double endLongitude, endAltitude, beginARRatio, endARRatio;
+    // Reused UTM conversion, so a position update converts without allocating
+    private final MutableUTMCoord UTMPosition = new MutableUTMCoord();
     long beginTime, endTime;
     boolean startPointSet = false, endPointSet = false;
     /**
@@ -63,9 +69,9 @@ public class PathEntryActivity extends BaseActivity
         initializeViews();
         // Load persistent app data from shared preferences
         SharedPreferences settings = getSharedPreferences(PREFERENCES, 0);
-        String reachHost = settings.getString("reachHost", DEFAULT_REACH_HOST);
-        String reachPort = settings.getString("reachPort", DEFAULT_REACH_PORT);
-        Integer positionUpdateInterval = settings.getInt("positionUpdateInterval", DEFAULT_POSITION_UPDATE_INTERVAL);
+        reachHost = settings.getString("reachHost", DEFAULT_REACH_HOST);
+        reachPort = settings.getString("reachPort", DEFAULT_REACH_PORT);
+        positionUpdateInterval = settings.getInt("positionUpdateInterval", DEFAULT_POSITION_UPDATE_INTERVAL);
         // Initialize the locationCollector
         locationCollector = new LocationCollector(PathEntryActivity.this, reachHost, reachPort, positionUpdateInterval) {
             /**
@@ -107,6 +113,12 @@ public class PathEntryActivity extends BaseActivity
                 setReachStatus(status);
             }
         };
+        // A path that was started but not ended is still being recorded by the track service. Asking again
+        // carries on with the same recording, or restarts it if the service is gone.
+        if (startPointSet && !endPointSet)
+        {
+            startTrackRecorder();
+        }
     }
 
     /**
@@ -116,9 +128,26 @@ public class PathEntryActivity extends BaseActivity
     public void onDestroy()
     {
         super.onDestroy();
+        // The track service records the path until it is ended, so it is left running
         locationCollector.cancelPositionUpdateTimer();
     }
 
+    /**
+     * Start recording the path's track
+     */
+    private void startTrackRecorder()
+    {
+        TrackService.startTracking(this, teamMember, beginTime, reachHost, reachPort, positionUpdateInterval);
+    }
+
+    /**
+     * Stop recording the path's track and write what is left of it
+     */
+    private void stopTrackRecorder()
+    {
+        TrackService.stopTracking(this);
+    }
+
     /**
      * Inflate settings
      * @param menu - options menu
@@ -256,7 +285,12 @@ public class PathEntryActivity extends BaseActivity
         double passedBeginAltitude = getIntent().getDoubleExtra(Constants.PARAM_KEY_BEGIN_ALTITUDE, Double.MIN_VALUE);
         String passedBeginStatus = getIntent().getStringExtra(Constants.PARAM_KEY_BEGIN_STATUS);
         double passedBeginARRatio = getIntent().getDoubleExtra(Constants.PARAM_KEY_BEGIN_AR_RATIO, Double.MIN_VALUE);
-        setStartPoint(passedBeginLatitude, passedBeginLongitude, passedBeginAltitude, passedBeginStatus, passedBeginARRatio);
+        if (!setStartPoint(passedBeginLatitude, passedBeginLongitude, passedBeginAltitude, passedBeginStatus,
+                passedBeginARRatio))
+        {
+            Toast.makeText(PathEntryActivity.this, "The saved start point is not a valid position.",
+                    Toast.LENGTH_LONG).show();
+        }
         // Add delete button below submit button
         View deleteButton = findViewById(R.id.path_entry_delete_button);
         deleteButton.setVisibility(View.VISIBLE);
@@ -280,7 +314,12 @@ public class PathEntryActivity extends BaseActivity
             double passedEndAltitude = getIntent().getDoubleExtra(Constants.PARAM_KEY_END_ALTITUDE, Double.MIN_VALUE);
             String passedEndStatus = getIntent().getStringExtra(Constants.PARAM_KEY_END_STATUS);
             double passedEndARRatio = getIntent().getDoubleExtra(Constants.PARAM_KEY_END_AR_RATIO, Double.MIN_VALUE);
-            setEndPoint(passedEndLatitude, passedEndLongitude, passedEndAltitude, passedEndStatus, passedEndARRatio);
+            if (!setEndPoint(passedEndLatitude, passedEndLongitude, passedEndAltitude, passedEndStatus,
+                    passedEndARRatio))
+            {
+                Toast.makeText(PathEntryActivity.this, "The saved end point is not a valid position.",
+                        Toast.LENGTH_LONG).show();
+            }
         }
     }
 
@@ -291,10 +330,15 @@ public class PathEntryActivity extends BaseActivity
      * @param passedAltitude - altitude
      * @param passedStatus - status
      * @param passedARRatio - AR ratio
+     * @return Returns whether the point could be converted to UTM. If not, the previous start point is kept.
      */
-    private void setStartPoint(double passedLatitude, double passedLongitude, double passedAltitude,
-                               String passedStatus, Double passedARRatio)
+    private boolean setStartPoint(double passedLatitude, double passedLongitude, double passedAltitude,
+                                  String passedStatus, Double passedARRatio)
     {
+        if (!UTMPosition.setLatLon(passedLatitude, passedLongitude))
+        {
+            return false;
+        }
         // Change "Start path" button to "End path", populate starting point coords and begin time
         beginLongitude = passedLongitude;
         beginLatitude = passedLatitude;
@@ -307,13 +351,10 @@ public class PathEntryActivity extends BaseActivity
         beginAltitudeTextView.setText(String.format(getResources().getString(R.string.altitude), beginAltitude));
         beginStatusTextView.setText(String.format(getResources().getString(R.string.status), beginStatus));
         // Update UTM positions
-        Angle lat = Angle.fromDegrees(beginLatitude);
-        Angle lon = Angle.fromDegrees(beginLongitude);
-        UTMCoord UTMposition = UTMCoord.fromLatLon(lat, lon);
-        beginZone = UTMposition.getZone();
-        beginHemisphere = UTMposition.getHemisphere().contains("North") ? "N" : "S";
-        beginNorthing = UTMposition.getNorthing();
-        beginEasting = UTMposition.getEasting();
+        beginZone = UTMPosition.getZone();
+        beginHemisphere = UTMPosition.getHemisphere() == UTMBatchConverter.NORTH ? "N" : "S";
+        beginNorthing = UTMPosition.getNorthing();
+        beginEasting = UTMPosition.getEasting();
         beginGridTextView.setText(String.format(getResources().getString(R.string.grid), beginZone + beginHemisphere));
         beginNorthingTextView.setText(String.format(getResources().getString(R.string.northing), beginNorthing));
         beginEastingTextView.setText(String.format(getResources().getString(R.string.easting), beginEasting));
@@ -323,6 +364,7 @@ public class PathEntryActivity extends BaseActivity
         }
         SimpleDateFormat sdf = new SimpleDateFormat("MMM dd,yyyy HH:mm");
         beginTimeTextView.setText(sdf.format(new Date(beginTime)));
+        return true;
     }
 
     /**
@@ -332,11 +374,15 @@ public class PathEntryActivity extends BaseActivity
      * @param passedAltitude - altitude
      * @param passedStatus - status
      * @param passedARRatio - AR ratio
+     * @return Returns whether the point could be converted to UTM. If not, the previous end point is kept.
      */
-    private void setEndPoint(double passedLatitude, double passedLongitude, double passedAltitude,
-                             String passedStatus, Double passedARRatio)
+    private boolean setEndPoint(double passedLatitude, double passedLongitude, double passedAltitude,
+                                String passedStatus, Double passedARRatio)
     {
-
+        if (!UTMPosition.setLatLon(passedLatitude, passedLongitude))
+        {
+            return false;
+        }
         // Change "Start path" button to "End path", populate starting point coords and begin time
         endLongitude = passedLongitude;
         endLatitude = passedLatitude;
@@ -349,13 +395,10 @@ public class PathEntryActivity extends BaseActivity
         endAltitudeTextView.setText(String.format(getResources().getString(R.string.altitude), endAltitude));
         endStatusTextView.setText(String.format(getResources().getString(R.string.status), endStatus));
         // Update UTM positions
-        Angle lat = Angle.fromDegrees(endLatitude);
-        Angle lon = Angle.fromDegrees(endLongitude);
-        UTMCoord UTMposition = UTMCoord.fromLatLon(lat, lon);
-        int endZone = UTMposition.getZone();
-        String endHemisphere = UTMposition.getHemisphere().contains("North") ? "N" : "S";
-        endNorthing = UTMposition.getNorthing();
-        endEasting = UTMposition.getEasting();
+        int endZone = UTMPosition.getZone();
+        String endHemisphere = UTMPosition.getHemisphere() == UTMBatchConverter.NORTH ? "N" : "S";
+        endNorthing = UTMPosition.getNorthing();
+        endEasting = UTMPosition.getEasting();
         endGridTextView.setText(String.format(getResources().getString(R.string.grid), endZone + endHemisphere));
         endNorthingTextView.setText(String.format(getResources().getString(R.string.northing), endNorthing));
         endEastingTextView.setText(String.format(getResources().getString(R.string.easting), endEasting));
@@ -365,6 +408,7 @@ public class PathEntryActivity extends BaseActivity
         }
         SimpleDateFormat sdf = new SimpleDateFormat("MMM dd,yyyy HH:mm");
         endTimeTextView.setText(sdf.format(new Date(endTime)));
+        return true;
     }
 
     /**
@@ -504,17 +548,25 @@ public class PathEntryActivity extends BaseActivity
             beginLongitudeTextView.setText(String.format(getResources().getString(R.string.longitude), liveLongitude));
             beginAltitudeTextView.setText(String.format(getResources().getString(R.string.altitude), liveAltitude));
             beginStatusTextView.setText(String.format(getResources().getString(R.string.status), liveStatus));
-            // Update UTM positions
-            Angle lat = Angle.fromDegrees(liveLatitude);
-            Angle lon = Angle.fromDegrees(liveLongitude);
-            UTMCoord UTMposition = UTMCoord.fromLatLon(lat, lon);
-            Integer liveZone = UTMposition.getZone();
-            String liveHemisphere = UTMposition.getHemisphere().contains("North") ? "N" : "S";
-            Double liveNorthing = UTMposition.getNorthing();
-            Double liveEasting = UTMposition.getEasting();
-            beginGridTextView.setText(String.format(getResources().getString(R.string.grid), liveZone + liveHemisphere));
-            beginNorthingTextView.setText(String.format(getResources().getString(R.string.northing), liveNorthing));
-            beginEastingTextView.setText(String.format(getResources().getString(R.string.easting), liveEasting));
+            // Update UTM positions, left blank while the live position cannot be converted
+            if (UTMPosition.setLatLon(liveLatitude, liveLongitude))
+            {
+                int liveZone = UTMPosition.getZone();
+                String liveHemisphere = UTMPosition.getHemisphere() == UTMBatchConverter.NORTH ? "N" : "S";
+                double liveNorthing = UTMPosition.getNorthing();
+                double liveEasting = UTMPosition.getEasting();
+                beginGridTextView.setText(String.format(getResources().getString(R.string.grid),
+                        liveZone + liveHemisphere));
+                beginNorthingTextView.setText(String.format(getResources().getString(R.string.northing),
+                        liveNorthing));
+                beginEastingTextView.setText(String.format(getResources().getString(R.string.easting), liveEasting));
+            }
+            else
+            {
+                beginGridTextView.setText(R.string.blank_assignment);
+                beginNorthingTextView.setText(R.string.blank_assignment);
+                beginEastingTextView.setText(R.string.blank_assignment);
+            }
             beginTimeTextView.setText(R.string.blank_assignment);
         }
         else if (!endPointSet)
@@ -523,17 +575,25 @@ public class PathEntryActivity extends BaseActivity
             endLongitudeTextView.setText(String.format(getResources().getString(R.string.longitude), liveLongitude));
             endAltitudeTextView.setText(String.format(getResources().getString(R.string.altitude), liveAltitude));
             endStatusTextView.setText(String.format(getResources().getString(R.string.status), liveStatus));
-            // Update UTM positions
-            Angle lat = Angle.fromDegrees(liveLatitude);
-            Angle lon = Angle.fromDegrees(liveLongitude);
-            UTMCoord UTMposition = UTMCoord.fromLatLon(lat, lon);
-            Integer liveZone = UTMposition.getZone();
-            String liveHemisphere = UTMposition.getHemisphere().contains("North") ? "N" : "S";
-            Double liveNorthing = UTMposition.getNorthing();
-            Double liveEasting = UTMposition.getEasting();
-            endGridTextView.setText(String.format(getResources().getString(R.string.grid), liveZone + liveHemisphere));
-            endNorthingTextView.setText(String.format(getResources().getString(R.string.northing), liveNorthing));
-            endEastingTextView.setText(String.format(getResources().getString(R.string.easting), liveEasting));
+            // Update UTM positions, left blank while the live position cannot be converted
+            if (UTMPosition.setLatLon(liveLatitude, liveLongitude))
+            {
+                int liveZone = UTMPosition.getZone();
+                String liveHemisphere = UTMPosition.getHemisphere() == UTMBatchConverter.NORTH ? "N" : "S";
+                double liveNorthing = UTMPosition.getNorthing();
+                double liveEasting = UTMPosition.getEasting();
+                endGridTextView.setText(String.format(getResources().getString(R.string.grid),
+                        liveZone + liveHemisphere));
+                endNorthingTextView.setText(String.format(getResources().getString(R.string.northing),
+                        liveNorthing));
+                endEastingTextView.setText(String.format(getResources().getString(R.string.easting), liveEasting));
+            }
+            else
+            {
+                endGridTextView.setText(R.string.blank_assignment);
+                endNorthingTextView.setText(R.string.blank_assignment);
+                endEastingTextView.setText(R.string.blank_assignment);
+            }
             endTimeTextView.setText(R.string.blank_assignment);
         }
     }
@@ -578,22 +638,39 @@ public class PathEntryActivity extends BaseActivity
         {
             if (!startPointSet)
             {
-                setStartPoint(liveLatitude, liveLongitude, liveAltitude, liveStatus, liveARRatio);
+                if (!setStartPoint(liveLatitude, liveLongitude, liveAltitude, liveStatus, liveARRatio))
+                {
+                    Toast.makeText(PathEntryActivity.this, "You do not have a valid point.", Toast.LENGTH_LONG)
+                            .show();
+                    return;
+                }
                 startPointSet = true;
                 submitButton.setText(R.string.stop_path_button);
                 saveData();
+                startTrackRecorder();
             }
             else if (!endPointSet)
             {
-                setEndPoint(liveLatitude, liveLongitude, liveAltitude, liveStatus, liveARRatio);
+                if (!setEndPoint(liveLatitude, liveLongitude, liveAltitude, liveStatus, liveARRatio))
+                {
+                    Toast.makeText(PathEntryActivity.this, "You do not have a valid point.", Toast.LENGTH_LONG)
+                            .show();
+                    return;
+                }
                 endPointSet = true;
                 submitButton.setText(R.string.reset_stop_path_button);
                 saveData();
+                stopTrackRecorder();
                 onBackPressed();
             }
             else
             {
-                setEndPoint(liveLatitude, liveLongitude, liveAltitude, liveStatus, liveARRatio);
+                if (!setEndPoint(liveLatitude, liveLongitude, liveAltitude, liveStatus, liveARRatio))
+                {
+                    Toast.makeText(PathEntryActivity.this, "You do not have a valid point.", Toast.LENGTH_LONG)
+                            .show();
+                    return;
+                }
                 saveData();
                 onBackPressed();
                 Toast.makeText(PathEntryActivity.this, "End point reset.", Toast.LENGTH_LONG).show();
@@ -612,8 +689,11 @@ public class PathEntryActivity extends BaseActivity
     public void deleteButtonPressed(View v)
     {
         // Set this path as synced
-        DatabaseHandler databaseHandler = new DatabaseHandler(this);
-        databaseHandler.setPathSynced(getElement());
+        DatabaseRepository.getInstance(this).setPathSynced(getElement(), null);
+        if (startPointSet && !endPointSet)
+        {
+            stopTrackRecorder();
+        }
         onBackPressed();
     }
 
@@ -644,7 +724,6 @@ public class PathEntryActivity extends BaseActivity
         PathElement list[] = new PathElement[1];
         list[0] = getElement();
         // Save the dataEntryElement to DB
-        DatabaseHandler databaseHandler = new DatabaseHandler(this);
-        databaseHandler.addPathsRows(list);
+        DatabaseRepository.getInstance(this).addPathsRows(list, null);
     }
 }
\ No newline at end of file
@@ -24,6 +24,24 @@ public class Constants
     public static final String PARAM_KEY_END_AR_RATIO = "end_AR_ratio", DEFAULT_REACH_HOST = "192.168.43.162";
     public static final int DEFAULT_POSITION_UPDATE_INTERVAL = 2, DEFAULT_VOLLEY_TIMEOUT = 15000;
     public static final String DEFAULT_REACH_PORT = "9001";
+    // Number of upload requests kept in flight during a sync. Volley runs four network threads.
+    public static final int DEFAULT_SYNC_WINDOW = 4;
+    // Photo upload rate limit in bytes per second, 0 for none. Leaves room for find and path uploads.
+    public static final long DEFAULT_PHOTO_UPLOAD_BYTES_PER_SECOND = 512 * 1024;
+    // Seconds of Reach fixes averaged into a find's position when it is fixed, the most fixes kept for it, the
+    // fewest worth averaging, and the standard deviations past which a fix is an outlier
+    public static final int DEFAULT_POSITION_AVERAGING_SECONDS = 5, POSITION_AVERAGING_CAPACITY = 200;
+    public static final int MIN_AVERAGED_FIXES = 5;
+    public static final double POSITION_CLIP_SIGMA = 3;
+    // Track points collected before they are written, and the longest one waits to be written
+    public static final int TRACK_FLUSH_POINTS = 50;
+    public static final long TRACK_FLUSH_INTERVAL_MS = 10000;
+    // Tolerance in meters of each simplified copy of a track, finest first, and the most points a copy holds back
+    // before keeping one
+    public static final double[] TRACK_LEVEL_TOLERANCES = {0.5, 2, 8, 32};
+    public static final int TRACK_SIMPLIFY_WINDOW = 32;
     private static final String DEFAULT_WEB_SERVER_URL = "https://object-data-collector-service.herokuapp.com";
     public static String globalWebServerURL = DEFAULT_WEB_SERVER_URL;
+    // Send find batches in the compact binary form to /insert_finds_binary, falling back to JSON without it
+    public static boolean globalBinaryUploads = false;
 }
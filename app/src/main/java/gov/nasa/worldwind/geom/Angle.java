@@ -97,22 +97,22 @@ public class Angle implements Comparable<Angle>
     }
 
     /**
-     * Get normalized latitude
+     * Get normalized latitude, without allocating an angle
      * @param degrees - angle degrees
      * @return Returns the normalized latitude
      */
-    private static double normalizedDegreesLatitude(double degrees)
+    public static double normalizedDegreesLatitude(double degrees)
     {
         double lat = degrees % 180;
         return lat > 90 ? 180 - lat : lat < -90 ? -180 - lat : lat;
     }
 
     /**
-     * Get normalized longitude
+     * Get normalized longitude, without allocating an angle
      * @param degrees - angle degrees
      * @return Returns the normalized longitude
      */
-    private static double normalizedDegreesLongitude(double degrees)
+    public static double normalizedDegreesLongitude(double degrees)
     {
         double lon = degrees % 360;
         return lon > 180 ? lon - 360 : lon < -180 ? 360 + lon : lon;
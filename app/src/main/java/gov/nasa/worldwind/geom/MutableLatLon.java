@@ -0,0 +1,163 @@
+package gov.nasa.worldwind.geom;
+/**
+ * A reusable latitude and longitude held as primitive degrees. Unlike {@link LatLon}, whose operations each return
+ * new <code>Angle</code> and <code>LatLon</code> objects, every operation here changes this instance in place, so a
+ * holder kept by a hot path can be reused for every position without allocating.
+ */
+public class MutableLatLon
+{
+    private final static double DEGREES_TO_RADIANS = Math.PI / 180d;
+    private double latitude, longitude;
+    /**
+     * Constructor, at latitude and longitude 0
+     */
+    public MutableLatLon()
+    {
+    }
+
+    /**
+     * Constructor
+     * @param _latitude - latitude in degrees
+     * @param _longitude - longitude in degrees
+     */
+    public MutableLatLon(double _latitude, double _longitude)
+    {
+        latitude = _latitude;
+        longitude = _longitude;
+    }
+
+    /**
+     * Set the position
+     * @param _latitude - latitude in degrees
+     * @param _longitude - longitude in degrees
+     * @return Returns this holder
+     */
+    public MutableLatLon set(double _latitude, double _longitude)
+    {
+        latitude = _latitude;
+        longitude = _longitude;
+        return this;
+    }
+
+    /**
+     * Set the position from an immutable one
+     * @param that - position
+     * @return Returns this holder
+     */
+    public MutableLatLon set(LatLon that)
+    {
+        if (that == null)
+        {
+            throw new IllegalArgumentException("LatLon Is Null");
+        }
+        return set(that.LATITUDE.getDegrees(), that.LONGITUDE.getDegrees());
+    }
+
+    /**
+     * Add an offset to this position, normalizing the result as {@link LatLon#add(LatLon)} does
+     * @param _latitude - latitude offset in degrees
+     * @param _longitude - longitude offset in degrees
+     * @return Returns this holder
+     */
+    public MutableLatLon add(double _latitude, double _longitude)
+    {
+        latitude = Angle.normalizedDegreesLatitude(latitude + _latitude);
+        longitude = Angle.normalizedDegreesLongitude(longitude + _longitude);
+        return this;
+    }
+
+    /**
+     * Add another position to this one
+     * @param that - other position
+     * @return Returns this holder
+     */
+    public MutableLatLon add(MutableLatLon that)
+    {
+        if (that == null)
+        {
+            throw new IllegalArgumentException("LatLon Is Null");
+        }
+        return add(that.latitude, that.longitude);
+    }
+
+    /**
+     * Scale this position, as {@link Angle#multiply(double)} does for each angle
+     * @param multiplier - scale
+     * @return Returns this holder
+     */
+    public MutableLatLon multiply(double multiplier)
+    {
+        latitude *= multiplier;
+        longitude *= multiplier;
+        return this;
+    }
+
+    /**
+     * Normalize this position's latitude and longitude
+     * @return Returns this holder
+     */
+    public MutableLatLon normalize()
+    {
+        latitude = Angle.normalizedDegreesLatitude(latitude);
+        longitude = Angle.normalizedDegreesLongitude(longitude);
+        return this;
+    }
+
+    /**
+     * Get the latitude
+     * @return Returns the latitude in degrees
+     */
+    public double getLatitude()
+    {
+        return latitude;
+    }
+
+    /**
+     * Get the longitude
+     * @return Returns the longitude in degrees
+     */
+    public double getLongitude()
+    {
+        return longitude;
+    }
+
+    /**
+     * Get the latitude in radians
+     * @return Returns the latitude in radians
+     */
+    public double getLatitudeRadians()
+    {
+        return DEGREES_TO_RADIANS * latitude;
+    }
+
+    /**
+     * Get the longitude in radians
+     * @return Returns the longitude in radians
+     */
+    public double getLongitudeRadians()
+    {
+        return DEGREES_TO_RADIANS * longitude;
+    }
+
+    /**
+     * Copy this position into an immutable one. Allocates, so it is meant for handing a result on rather than for
+     * hot paths.
+     * @return Returns the position
+     */
+    public LatLon toLatLon()
+    {
+        return new LatLon(Angle.fromDegrees(latitude), Angle.fromDegrees(longitude));
+    }
+
+    /**
+     * Convert to string
+     * @return Returns a string
+     */
+    @Override
+    public String toString()
+    {
+        String las = String.format("Lat %7.4f\u00B0", latitude);
+        String los = String.format("Lon %7.4f\u00B0", longitude);
+        return "(" + las + ", " + los + ")";
+    }
+}
@@ -0,0 +1,156 @@
+package gov.nasa.worldwind.geom.coords;
+import gov.nasa.worldwind.geom.MutableLatLon;
+/**
+ * A reusable set of UTM coordinates along with their latitude and longitude. Unlike {@link UTMCoord}, which allocates
+ * a converter, angles and itself for every position, converting into a held instance allocates nothing, so a hot
+ * path can keep one and convert each new position into it. Conversions are done by {@link UTMBatchConverter}, which
+ * writes straight into this holder's one-element arrays.
+ */
+public class MutableUTMCoord
+{
+    private final int[] zone = new int[1];
+    private final char[] hemisphere = new char[1];
+    private final double[] easting = new double[1], northing = new double[1];
+    private final double[] latitude = new double[1], longitude = new double[1];
+    /**
+     * Constructor, holding no position until one is set
+     */
+    public MutableUTMCoord()
+    {
+        latitude[0] = Double.NaN;
+        longitude[0] = Double.NaN;
+        easting[0] = Double.NaN;
+        northing[0] = Double.NaN;
+    }
+
+    /**
+     * Convert a latitude and longitude into this holder
+     * @param _latitude - latitude in degrees
+     * @param _longitude - longitude in degrees
+     * @return Returns whether the position could be converted. If not, the zone is 0 and the easting and northing NaN.
+     */
+    public boolean setLatLon(double _latitude, double _longitude)
+    {
+        latitude[0] = _latitude;
+        longitude[0] = _longitude;
+        return UTMBatchConverter.convert(_latitude, _longitude, 0, zone, hemisphere, easting, northing);
+    }
+
+    /**
+     * Convert a latitude and longitude into this holder using a given zone rather than the one it falls in
+     * @param _latitude - latitude in degrees
+     * @param _longitude - longitude in degrees, from -180 to 180
+     * @param _zone - zone, 1 to 60
+     * @return Returns whether the position could be converted. If not, the zone is 0 and the easting and northing NaN.
+     */
+    public boolean setLatLon(double _latitude, double _longitude, int _zone)
+    {
+        latitude[0] = _latitude;
+        longitude[0] = _longitude;
+        boolean converted = UTMBatchConverter.convertInZone(_latitude, _longitude, _zone, 0, hemisphere, easting,
+                northing);
+        zone[0] = converted ? _zone : 0;
+        return converted;
+    }
+
+    /**
+     * Convert a held latitude and longitude into this holder
+     * @param position - position
+     * @return Returns whether the position could be converted
+     */
+    public boolean setLatLon(MutableLatLon position)
+    {
+        return setLatLon(position.getLatitude(), position.getLongitude());
+    }
+
+    /**
+     * Convert a UTM position into this holder
+     * @param _zone - zone, 1 to 60
+     * @param _hemisphere - UTMBatchConverter.NORTH or UTMBatchConverter.SOUTH
+     * @param _easting - easting in meters
+     * @param _northing - northing in meters
+     * @return Returns whether the position could be converted. If not, the latitude and longitude are NaN.
+     */
+    public boolean setUTM(int _zone, char _hemisphere, double _easting, double _northing)
+    {
+        zone[0] = _zone;
+        hemisphere[0] = _hemisphere;
+        easting[0] = _easting;
+        northing[0] = _northing;
+        return UTMBatchConverter.toLatLon(_zone, _hemisphere, _easting, _northing, 0, latitude, longitude);
+    }
+
+    /**
+     * Copy the latitude and longitude into a held position
+     * @param position - position to set
+     * @return Returns the position
+     */
+    public MutableLatLon getLatLon(MutableLatLon position)
+    {
+        return position.set(latitude[0], longitude[0]);
+    }
+
+    /**
+     * Get the zone
+     * @return Returns the zone, 0 if the last conversion failed
+     */
+    public int getZone()
+    {
+        return zone[0];
+    }
+
+    /**
+     * Get the hemisphere
+     * @return Returns UTMBatchConverter.NORTH or UTMBatchConverter.SOUTH
+     */
+    public char getHemisphere()
+    {
+        return hemisphere[0];
+    }
+
+    /**
+     * Get the easting
+     * @return Returns the easting in meters
+     */
+    public double getEasting()
+    {
+        return easting[0];
+    }
+
+    /**
+     * Get the northing
+     * @return Returns the northing in meters
+     */
+    public double getNorthing()
+    {
+        return northing[0];
+    }
+
+    /**
+     * Get the latitude
+     * @return Returns the latitude in degrees
+     */
+    public double getLatitude()
+    {
+        return latitude[0];
+    }
+
+    /**
+     * Get the longitude
+     * @return Returns the longitude in degrees
+     */
+    public double getLongitude()
+    {
+        return longitude[0];
+    }
+
+    /**
+     * Convert to string
+     * @return Returns a string
+     */
+    @Override
+    public String toString()
+    {
+        return zone[0] + " " + hemisphere[0] + " " + easting[0] + "E " + northing[0] + "N";
+    }
+}
@@ -64,6 +64,42 @@ public class TMCoord
                 originLatitude, centralMeridian);
     }
 
+    /**
+     * Create a set of Transverse Mercator coordinates from a pair of easting and northing, for WGS84 and the given
+     * projection parameters.
+     * @param easting the easting distance value in meters.
+     * @param northing the northing distance value in meters.
+     * @param originLatitude the origin latitude <code>Angle</code>.
+     * @param centralMeridian the central meridian longitude <code>Angle</code>.
+     * @param falseEasting easting value at the center of the projection in meters.
+     * @param falseNorthing northing value at the center of the projection in meters.
+     * @param scale scaling factor.
+     * @return the corresponding <code>TMCoord</code>.
+     * @throws IllegalArgumentException if <code>originLatitude</code> or <code>centralMeridian</code> is null, or the
+     * conversion to geodetic coordinates fails.
+     */
+    public static TMCoord fromTM(double easting, double northing, Angle originLatitude, Angle centralMeridian,
+                                 double falseEasting, double falseNorthing, double scale)
+    {
+        if (originLatitude == null || centralMeridian == null)
+        {
+            throw new IllegalArgumentException("Angle Is Null");
+        }
+        final TMCoordConverter converter = new TMCoordConverter();
+        long err = converter.setTransverseMercatorParameters(converter.getA(), converter.getF(),
+                originLatitude.RADIANS, centralMeridian.RADIANS, falseEasting, falseNorthing, scale);
+        if (err == TMCoordConverter.TRANMERC_NO_ERROR)
+        {
+            err = converter.convertTransverseMercatorToGeodetic(easting, northing);
+        }
+        if (err != TMCoordConverter.TRANMERC_NO_ERROR && err != TMCoordConverter.TRANMERC_LON_WARNING)
+        {
+            throw new IllegalArgumentException("TM Conversion Error");
+        }
+        return new TMCoord(Angle.fromRadians(converter.getLatitude()), Angle.fromRadians(converter.getLongitude()),
+                easting, northing, originLatitude, centralMeridian);
+    }
+
     /**
      * Create an arbitrary set of Transverse Mercator coordinates with the given values.
      * @param latitude the latitude <code>Angle</code>.
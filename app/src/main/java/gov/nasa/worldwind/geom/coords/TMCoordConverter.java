@@ -15,18 +15,18 @@ class TMCoordConverter
 {
     public final static int TRANMERC_NO_ERROR = 0x0000, TRANMERC_LON_WARNING = 0x0200;
     private final static int TRANMERC_LAT_ERROR = 0x0001, TRANMERC_LON_ERROR = 0x0002;
+    private final static int TRANMERC_EASTING_ERROR = 0x0004, TRANMERC_NORTHING_ERROR = 0x0008;
     private final static int TRANMERC_ORIGIN_LAT_ERROR = 0x0010, TRANMERC_CENT_MER_ERROR = 0x0020;
     private final static int TRANMERC_A_ERROR = 0x0040, TRANMERC_INV_F_ERROR = 0x0080;
     private final static int TRANMERC_SCALE_FACTOR_ERROR = 0x0100;
     private final static double PI = 3.14159265358979323, MAX_LAT = ((PI * 89.99) / 180.0);
     private final static double MAX_DELTA_LONG = ((PI * 90) / 180.0), MIN_SCALE_FACTOR = 0.3;
     private final static double MAX_SCALE_FACTOR = 3.0;
-    private double tranMercA = 6378137.0, tranMercF = 1 / 298.257223563, tranMercES = 0.0066943799901413800;
-    private double tranMercEBS = 0.0067394967565869, tranMercOriginLat = 0.0, tranMercOriginLong = 0.0;
-    private double tranMercFalseNorthing = 0.0, tranMercFalseEasting = 0.0, tranMercScaleFactor = 1.0;
-    private double tranMercAP = 6367449.1458008, tranMercBP = 16038.508696861, tranMercCP = 16.832613334334;
-    private double tranMercDP = 0.021984404273757, tranMercEP = 3.1148371319283e-005;
-    private double easting, northing;
+    // Projection of a converter whose parameters have not been set: WGS84, origin 0, unit scale
+    private final static TMProjection DEFAULT_PROJECTION = new TMProjection(6378137.0, 1 / 298.257223563, 0, 0, 0,
+            0, 1, 40000000.0, 40000000.0);
+    private TMProjection projection = DEFAULT_PROJECTION;
+    private double easting, northing, latitude, longitude;
     /**
      * Constructor
      */
@@ -34,13 +34,60 @@ class TMCoordConverter
     {
     }
 
+    /**
+     * Constructor for a prepared projection
+     * @param _projection - projection
+     */
+    TMCoordConverter(TMProjection _projection)
+    {
+        projection = _projection;
+    }
+
+    /**
+     * Use a prepared projection, skipping the work setTransverseMercatorParameters does
+     * @param _projection - projection
+     */
+    void setProjection(TMProjection _projection)
+    {
+        projection = _projection;
+    }
+
+    /**
+     * Prepare a projection. The parameters are not checked, as setTransverseMercatorParameters does.
+     * @param a - Semi-major axis of ellipsoid, in meters
+     * @param f - Flattening of ellipsoid
+     * @param originLatitude - Latitude in radians at the origin of the projection
+     * @param centralMeridian - Longitude in radians at the center of the projection
+     * @param falseEasting - Easting/X at the center of the projection
+     * @param falseNorthing - Northing/Y at the center of the projection
+     * @param scaleFactor - Projection scale factor
+     * @return Returns the projection
+     */
+    static TMProjection prepare(double a, double f, double originLatitude, double centralMeridian,
+                                double falseEasting, double falseNorthing, double scaleFactor)
+    {
+        // The offsets the projection reaches are found with the origin at 0 and unit scale
+        TMCoordConverter probe = new TMCoordConverter(new TMProjection(a, f, 0, 0, 0, 0, 1, 40000000.0,
+                40000000.0));
+        probe.convertGeodeticToTransverseMercator(MAX_LAT, MAX_DELTA_LONG);
+        double deltaNorthing = probe.northing;
+        probe.convertGeodeticToTransverseMercator(0, MAX_DELTA_LONG);
+        double deltaEasting = probe.easting;
+        if (centralMeridian > PI)
+        {
+            centralMeridian -= (2 * PI);
+        }
+        return new TMProjection(a, f, originLatitude, centralMeridian, falseEasting, falseNorthing, scaleFactor,
+                deltaEasting, deltaNorthing);
+    }
+
     /**
      * Get A
      * @return Returns A
      */
     public double getA()
     {
-        return tranMercA;
+        return projection.A;
     }
 
     /**
@@ -49,7 +96,7 @@ class TMCoordConverter
      */
     public double getF()
     {
-        return tranMercF;
+        return projection.F;
     }
 
     /**
@@ -68,7 +115,7 @@ class TMCoordConverter
     public long setTransverseMercatorParameters(double a, double f, double originLatitude,
         double centralMeridian, double falseEasting, double falseNorthing, double scaleFactor)
     {
-        double tn, tn2, tn3, tn4, tn5, tranMercB, invF = 1 / f;
+        double invF = 1 / f;
         long errorCode = TRANMERC_NO_ERROR;
         // Semi-major axis must be greater than zero
         if (a <= 0.0)
@@ -97,40 +144,7 @@ class TMCoordConverter
         // no errors
         if (errorCode == TRANMERC_NO_ERROR)
         {
-            tranMercA = a;
-            tranMercF = f;
-            tranMercOriginLat = 0;
-            tranMercOriginLong = 0;
-            tranMercFalseNorthing = 0;
-            tranMercFalseEasting = 0;
-            tranMercScaleFactor = 1;
-            // Eccentricity Squared
-            tranMercES = 2 * tranMercF - tranMercF * tranMercF;
-            // Second Eccentricity Squared
-            tranMercEBS = (1 / (1 - tranMercES)) - 1;
-            tranMercB = tranMercA * (1 - tranMercF);
-            // True meridianal constants
-            tn = (tranMercA - tranMercB) / (tranMercA + tranMercB);
-            tn2 = tn * tn;
-            tn3 = tn2 * tn;
-            tn4 = tn3 * tn;
-            tn5 = tn4 * tn;
-            tranMercAP = tranMercA * (1.e0 - tn + 5.e0 * (tn2 - tn3) / 4.e0 + 81.e0 * (tn4 - tn5) / 64.e0);
-            tranMercBP = 3.e0 * tranMercA * (tn - tn2 + 7.e0 * (tn3 - tn4) / 8.e0 + 55.e0 * tn5 / 64.e0) / 2.e0;
-            tranMercCP = 15.e0 * tranMercA * (tn2 - tn3 + 3.e0 * (tn4 - tn5) / 4.e0) / 16.0;
-            tranMercDP = 35.e0 * tranMercA * (tn3 - tn4 + 11.e0 * tn5 / 16.e0) / 48.e0;
-            tranMercEP = 315.e0 * tranMercA * (tn4 - tn5) / 512.e0;
-            convertGeodeticToTransverseMercator(MAX_LAT, MAX_DELTA_LONG);
-            convertGeodeticToTransverseMercator(0, MAX_DELTA_LONG);
-            tranMercOriginLat = originLatitude;
-            if (centralMeridian > PI)
-            {
-                centralMeridian -= (2 * PI);
-            }
-            tranMercOriginLong = centralMeridian;
-            tranMercFalseNorthing = falseNorthing;
-            tranMercFalseEasting = falseEasting;
-            tranMercScaleFactor = scaleFactor;
+            projection = prepare(a, f, originLatitude, centralMeridian, falseEasting, falseNorthing, scaleFactor);
         }
         return errorCode;
     }
@@ -147,7 +161,7 @@ class TMCoordConverter
     public long convertGeodeticToTransverseMercator(double latitude, double longitude)
     {
         double c, c2, c3, c5, c7, dlam, eta, eta2, eta3, eta4, s, sn, t, tan2, tan3, tan4, tan5, tan6;
-        double t1, t2, t3, t4, t5, t6, t7, t8, t9, tmd, tmdo;
+        double t1, t2, t3, t4, t5, t6, t7, t8, t9, tmd;
         long errorCode = TRANMERC_NO_ERROR;
         double tempOrigin, tempLong;
         // Latitude out of range
@@ -159,7 +173,8 @@ class TMCoordConverter
         {
             longitude -= (2 * PI);
         }
-        if ((longitude < (tranMercOriginLong - MAX_DELTA_LONG)) || (longitude > (tranMercOriginLong + MAX_DELTA_LONG)))
+        if ((longitude < (projection.ORIGIN_LONG - MAX_DELTA_LONG))
+                || (longitude > (projection.ORIGIN_LONG + MAX_DELTA_LONG)))
         {
             if (longitude < 0)
             {
@@ -169,13 +184,13 @@ class TMCoordConverter
             {
                 tempLong = longitude;
             }
-            if (tranMercOriginLong < 0)
+            if (projection.ORIGIN_LONG < 0)
             {
-                tempOrigin = tranMercOriginLong + 2 * PI;
+                tempOrigin = projection.ORIGIN_LONG + 2 * PI;
             }
             else
             {
-                tempOrigin = tranMercOriginLong;
+                tempOrigin = projection.ORIGIN_LONG;
             }
             if ((tempLong < (tempOrigin - MAX_DELTA_LONG)) || (tempLong > (tempOrigin + MAX_DELTA_LONG)))
             {
@@ -186,7 +201,7 @@ class TMCoordConverter
         if (errorCode == TRANMERC_NO_ERROR)
         {
             // Delta Longitude
-            dlam = longitude - tranMercOriginLong;
+            dlam = longitude - projection.ORIGIN_LONG;
             // Distortion will result if Longitude is more than 9 degrees from the Central Meridian
             if (Math.abs(dlam) > (9.0 * PI / 180))
             {
@@ -216,42 +231,193 @@ class TMCoordConverter
             tan4 = tan3 * t;
             tan5 = tan4 * t;
             tan6 = tan5 * t;
-            eta = tranMercEBS * c2;
+            eta = projection.EBS * c2;
             eta2 = eta * eta;
             eta3 = eta2 * eta;
             eta4 = eta3 * eta;
             // radius of curvature in prime vertical
-            sn = tranMercA / Math.sqrt(1 - tranMercES * Math.pow(Math.sin(latitude), 2));
+            sn = projection.A / Math.sqrt(1 - projection.ES * Math.pow(Math.sin(latitude), 2));
             // True Meridianal Distances
-            tmd = tranMercAP * latitude - tranMercBP * Math.sin(2.0 * latitude)
-                + tranMercCP * Math.sin(4.0 * latitude) - tranMercDP * Math.sin(6.0 * latitude)
-                + tranMercEP * Math.sin(8.0 * latitude);
-            // Origin
-            tmdo = tranMercAP * tranMercOriginLat - tranMercBP * Math.sin(2.0 * tranMercOriginLat)
-                + tranMercCP * Math.sin(4.0 * tranMercOriginLat) - tranMercDP * Math.sin(6.0 * tranMercOriginLat)
-                + tranMercEP * Math.sin(8.0 * tranMercOriginLat);
+            tmd = projection.trueMeridionalDistance(latitude);
             // northing
-            t1 = (tmd - tmdo) * tranMercScaleFactor;
-            t2 = sn * s * c * tranMercScaleFactor / 2.e0;
-            t3 = sn * s * c3 * tranMercScaleFactor * (5.e0 - tan2 + 9.e0 * eta + 4.e0 * eta2) / 24.e0;
-            t4 = sn * s * c5 * tranMercScaleFactor * (61.e0 - 58.e0 * tan2 + tan4 + 270.e0 * eta
+            t1 = (tmd - projection.ORIGIN_TMD) * projection.SCALE_FACTOR;
+            t2 = sn * s * c * projection.SCALE_FACTOR / 2.e0;
+            t3 = sn * s * c3 * projection.SCALE_FACTOR * (5.e0 - tan2 + 9.e0 * eta + 4.e0 * eta2) / 24.e0;
+            t4 = sn * s * c5 * projection.SCALE_FACTOR * (61.e0 - 58.e0 * tan2 + tan4 + 270.e0 * eta
                     - 330.e0 * tan2 * eta + 445.e0 * eta2 + 324.e0 * eta3 - 680.e0 * tan2 * eta2
                     + 88.e0 * eta4 - 600.e0 * tan2 * eta3 - 192.e0 * tan2 * eta4) / 720.e0;
-            t5 = sn * s * c7 * tranMercScaleFactor * (1385.e0 - 3111.e0 * tan2 + 543.e0 * tan4 - tan6) / 40320.e0;
-            northing = tranMercFalseNorthing + t1 + Math.pow(dlam, 2.e0) * t2 + Math.pow(dlam, 4.e0) * t3
+            t5 = sn * s * c7 * projection.SCALE_FACTOR * (1385.e0 - 3111.e0 * tan2 + 543.e0 * tan4 - tan6) / 40320.e0;
+            northing = projection.FALSE_NORTHING + t1 + Math.pow(dlam, 2.e0) * t2 + Math.pow(dlam, 4.e0) * t3
                     + Math.pow(dlam, 6.e0) * t4 + Math.pow(dlam, 8.e0) * t5;
             // Easting
-            t6 = sn * c * tranMercScaleFactor;
-            t7 = sn * c3 * tranMercScaleFactor * (1.e0 - tan2 + eta) / 6.e0;
-            t8 = sn * c5 * tranMercScaleFactor * (5.e0 - 18.e0 * tan2 + tan4 + 14.e0 * eta - 58.e0 * tan2
+            t6 = sn * c * projection.SCALE_FACTOR;
+            t7 = sn * c3 * projection.SCALE_FACTOR * (1.e0 - tan2 + eta) / 6.e0;
+            t8 = sn * c5 * projection.SCALE_FACTOR * (5.e0 - 18.e0 * tan2 + tan4 + 14.e0 * eta - 58.e0 * tan2
                     * eta + 13.e0 * eta2 + 4.e0 * eta3 - 64.e0 * tan2 * eta2 - 24.e0 * tan2 * eta3) / 120.e0;
-            t9 = sn * c7 * tranMercScaleFactor * (61.e0 - 479.e0 * tan2 + 179.e0 * tan4 - tan6) / 5040.e0;
-            easting = tranMercFalseEasting + dlam * t6 + Math.pow(dlam, 3.e0) * t7
+            t9 = sn * c7 * projection.SCALE_FACTOR * (61.e0 - 479.e0 * tan2 + 179.e0 * tan4 - tan6) / 5040.e0;
+            easting = projection.FALSE_EASTING + dlam * t6 + Math.pow(dlam, 3.e0) * t7
                     + Math.pow(dlam, 5.e0) * t8 + Math.pow(dlam, 7.e0) * t9;
         }
         return errorCode;
     }
 
+    /**
+     * The function Convert_Transverse_Mercator_To_Geodetic converts Transverse Mercator projection (easting and
+     * northing) coordinates to geodetic (latitude and longitude) coordinates, according to the current ellipsoid and
+     * Transverse Mercator projection parameters.  If any errors occur, the error code(s) are returned by the function,
+     * otherwise TRANMERC_NO_ERROR is returned.
+     * @param easting - Easting/X in meters
+     * @param northing - Northing/Y in meters
+     * @return error code
+     */
+    public long convertTransverseMercatorToGeodetic(double easting, double northing)
+    {
+        double c, de, dlam, eta, eta2, eta3, eta4, ftphi, sn, sr, t, tan2, tan4;
+        double t10, t11, t12, t13, t14, t15, t16, t17, tmd;
+        long errorCode = TRANMERC_NO_ERROR;
+        // Easting out of range
+        if ((easting < (projection.FALSE_EASTING - projection.DELTA_EASTING))
+                || (easting > (projection.FALSE_EASTING + projection.DELTA_EASTING)))
+        {
+            errorCode |= TRANMERC_EASTING_ERROR;
+        }
+        // Northing out of range
+        if ((northing < (projection.FALSE_NORTHING - projection.DELTA_NORTHING))
+                || (northing > (projection.FALSE_NORTHING + projection.DELTA_NORTHING)))
+        {
+            errorCode |= TRANMERC_NORTHING_ERROR;
+        }
+        // no errors
+        if (errorCode == TRANMERC_NO_ERROR)
+        {
+            // Origin
+            tmd = projection.ORIGIN_TMD + (northing - projection.FALSE_NORTHING) / projection.SCALE_FACTOR;
+            // First Estimate
+            sr = sphsr(0.e0);
+            ftphi = tmd / sr;
+            for (int i = 0; i < 5; i++)
+            {
+                t10 = projection.trueMeridionalDistance(ftphi);
+                sr = sphsr(ftphi);
+                ftphi = ftphi + (tmd - t10) / sr;
+            }
+            // Radius of Curvature in the meridian
+            sr = sphsr(ftphi);
+            // Radius of Curvature in the prime vertical
+            sn = sphsn(ftphi);
+            // Sine Cosine terms
+            c = Math.cos(ftphi);
+            // Tangent Value
+            t = Math.tan(ftphi);
+            tan2 = t * t;
+            tan4 = tan2 * tan2;
+            eta = projection.EBS * Math.pow(c, 2);
+            eta2 = eta * eta;
+            eta3 = eta2 * eta;
+            eta4 = eta3 * eta;
+            de = easting - projection.FALSE_EASTING;
+            if (Math.abs(de) < 0.0001)
+            {
+                de = 0.0;
+            }
+            // Latitude
+            t10 = t / (2.e0 * sr * sn * Math.pow(projection.SCALE_FACTOR, 2));
+            t11 = t * (5.e0 + 3.e0 * tan2 + eta - 4.e0 * Math.pow(eta, 2) - 9.e0 * tan2 * eta)
+                    / (24.e0 * sr * Math.pow(sn, 3) * Math.pow(projection.SCALE_FACTOR, 4));
+            t12 = t * (61.e0 + 90.e0 * tan2 + 46.e0 * eta + 45.E0 * tan4 - 252.e0 * tan2 * eta - 3.e0 * eta2
+                    + 100.e0 * eta3 - 66.e0 * tan2 * eta2 - 90.e0 * tan4 * eta + 88.e0 * eta4 + 225.e0 * tan4 * eta2
+                    + 84.e0 * tan2 * eta3 - 192.e0 * tan2 * eta4)
+                    / (720.e0 * sr * Math.pow(sn, 5) * Math.pow(projection.SCALE_FACTOR, 6));
+            t13 = t * (1385.e0 + 3633.e0 * tan2 + 4095.e0 * tan4 + 1575.e0 * Math.pow(t, 6))
+                    / (40320.e0 * sr * Math.pow(sn, 7) * Math.pow(projection.SCALE_FACTOR, 8));
+            latitude = ftphi - Math.pow(de, 2) * t10 + Math.pow(de, 4) * t11 - Math.pow(de, 6) * t12
+                    + Math.pow(de, 8) * t13;
+            t14 = 1.e0 / (sn * c * projection.SCALE_FACTOR);
+            t15 = (1.e0 + 2.e0 * tan2 + eta) / (6.e0 * Math.pow(sn, 3) * c * Math.pow(projection.SCALE_FACTOR, 3));
+            t16 = (5.e0 + 6.e0 * eta + 28.e0 * tan2 - 3.e0 * eta2 + 8.e0 * tan2 * eta + 24.e0 * tan4 - 4.e0 * eta3
+                    + 4.e0 * tan2 * eta2 + 24.e0 * tan2 * eta3)
+                    / (120.e0 * Math.pow(sn, 5) * c * Math.pow(projection.SCALE_FACTOR, 5));
+            t17 = (61.e0 + 662.e0 * tan2 + 1320.e0 * tan4 + 720.e0 * Math.pow(t, 6))
+                    / (5040.e0 * Math.pow(sn, 7) * c * Math.pow(projection.SCALE_FACTOR, 7));
+            // Difference in Longitude
+            dlam = de * t14 - Math.pow(de, 3) * t15 + Math.pow(de, 5) * t16 - Math.pow(de, 7) * t17;
+            // Longitude
+            longitude = projection.ORIGIN_LONG + dlam;
+            while (latitude > (90.0 * PI / 180.0))
+            {
+                latitude = Math.PI - latitude;
+                longitude = longitude + PI;
+                if (longitude > PI)
+                {
+                    longitude = longitude - (2 * PI);
+                }
+            }
+            while (latitude < (-90.0 * PI / 180.0))
+            {
+                latitude = -(latitude + PI);
+                longitude = longitude + PI;
+                if (longitude > PI)
+                {
+                    longitude = longitude - (2 * PI);
+                }
+            }
+            if (longitude > (2 * PI))
+            {
+                longitude = longitude - (2 * PI);
+            }
+            if (longitude < -PI)
+            {
+                longitude = longitude + (2 * PI);
+            }
+            // Distortion will result if Longitude is more than 9 degrees from the Central Meridian at the equator
+            // and decreases to 0 degrees at the poles
+            if (Math.abs(dlam) > (9.0 * PI / 180) * Math.cos(latitude))
+            {
+                errorCode |= TRANMERC_LON_WARNING;
+            }
+        }
+        return errorCode;
+    }
+
+    /**
+     * Radius of curvature in the prime vertical
+     * @param lat - latitude in radians
+     * @return Returns the radius in meters
+     */
+    private double sphsn(double lat)
+    {
+        return projection.A / Math.sqrt(1.e0 - projection.ES * Math.pow(Math.sin(lat), 2));
+    }
+
+    /**
+     * Radius of curvature in the meridian
+     * @param lat - latitude in radians
+     * @return Returns the radius in meters
+     */
+    private double sphsr(double lat)
+    {
+        double denom = Math.sqrt(1.e0 - projection.ES * Math.pow(Math.sin(lat), 2));
+        return projection.A * (1.e0 - projection.ES) / Math.pow(denom, 3);
+    }
+
+    /**
+     * Get latitude
+     * @return Latitude in radians from the last inverse conversion
+     */
+    public double getLatitude()
+    {
+        return latitude;
+    }
+
+    /**
+     * Get longitude
+     * @return Longitude in radians from the last inverse conversion
+     */
+    public double getLongitude()
+    {
+        return longitude;
+    }
+
     /**
      * Get easting
      * @return Easting/X at the center of the projection
@@ -0,0 +1,65 @@
+package gov.nasa.worldwind.geom.coords;
+/**
+ * The prepared parameters of one Transverse Mercator projection: the ellipsoid, the projection's origin, false
+ * origin and scale, and everything derived from them that TMCoordConverter would otherwise recompute for every
+ * point. Instances are immutable, so one can be shared by any number of converters on any threads.
+ * @see TMCoordConverter
+ */
+class TMProjection
+{
+    // Ellipsoid semi-major axis, flattening, eccentricity squared and second eccentricity squared
+    final double A, F, ES, EBS;
+    // True meridional constants
+    final double AP, BP, CP, DP, EP;
+    final double ORIGIN_LAT, ORIGIN_LONG, FALSE_EASTING, FALSE_NORTHING, SCALE_FACTOR;
+    // True meridional distance of the origin latitude
+    final double ORIGIN_TMD;
+    // Largest easting and northing offsets the projection reaches
+    final double DELTA_EASTING, DELTA_NORTHING;
+    /**
+     * Constructor
+     * @param a - Semi-major axis of ellipsoid, in meters
+     * @param f - Flattening of ellipsoid
+     * @param originLatitude - Latitude in radians at the origin of the projection
+     * @param centralMeridian - Longitude in radians at the center of the projection, from -pi to pi
+     * @param falseEasting - Easting/X at the center of the projection
+     * @param falseNorthing - Northing/Y at the center of the projection
+     * @param scaleFactor - Projection scale factor
+     * @param deltaEasting - Largest easting offset the projection reaches
+     * @param deltaNorthing - Largest northing offset the projection reaches
+     */
+    TMProjection(double a, double f, double originLatitude, double centralMeridian, double falseEasting,
+                 double falseNorthing, double scaleFactor, double deltaEasting, double deltaNorthing)
+    {
+        A = a;
+        F = f;
+        ES = 2 * f - f * f;
+        EBS = (1 / (1 - ES)) - 1;
+        double b = a * (1 - f), tn = (a - b) / (a + b), tn2 = tn * tn, tn3 = tn2 * tn, tn4 = tn3 * tn;
+        double tn5 = tn4 * tn;
+        AP = a * (1.e0 - tn + 5.e0 * (tn2 - tn3) / 4.e0 + 81.e0 * (tn4 - tn5) / 64.e0);
+        BP = 3.e0 * a * (tn - tn2 + 7.e0 * (tn3 - tn4) / 8.e0 + 55.e0 * tn5 / 64.e0) / 2.e0;
+        CP = 15.e0 * a * (tn2 - tn3 + 3.e0 * (tn4 - tn5) / 4.e0) / 16.0;
+        DP = 35.e0 * a * (tn3 - tn4 + 11.e0 * tn5 / 16.e0) / 48.e0;
+        EP = 315.e0 * a * (tn4 - tn5) / 512.e0;
+        ORIGIN_LAT = originLatitude;
+        ORIGIN_LONG = centralMeridian;
+        FALSE_EASTING = falseEasting;
+        FALSE_NORTHING = falseNorthing;
+        SCALE_FACTOR = scaleFactor;
+        ORIGIN_TMD = trueMeridionalDistance(originLatitude);
+        DELTA_EASTING = deltaEasting;
+        DELTA_NORTHING = deltaNorthing;
+    }
+
+    /**
+     * True meridional distance
+     * @param lat - latitude in radians
+     * @return Returns the distance along the meridian from the equator in meters
+     */
+    double trueMeridionalDistance(double lat)
+    {
+        return AP * lat - BP * Math.sin(2.e0 * lat) + CP * Math.sin(4.e0 * lat) - DP * Math.sin(6.e0 * lat)
+                + EP * Math.sin(8.e0 * lat);
+    }
+}
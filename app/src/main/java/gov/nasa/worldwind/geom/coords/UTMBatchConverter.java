@@ -0,0 +1,458 @@
+package gov.nasa.worldwind.geom.coords;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+/**
+ * Converts geodetic latitude and longitude to UTM and back over primitive arrays, writing the results into arrays
+ * the caller provides. Follows UTMCoordConverter and TMCoordConverter, but the WGS84 series coefficients and each
+ * zone's central meridian are computed once rather than per point, and nothing is allocated per point. Large
+ * forward batches can be split across cores.
+ * @see UTMCoord, UTMCoordConverter
+ */
+public class UTMBatchConverter
+{
+    // Hemisphere codes written to the hemisphere array
+    public static final char NORTH = 'N', SOUTH = 'S';
+    private final static double PI = 3.14159265358979323, DEGREES_TO_RADIANS = Math.PI / 180d;
+    private final static double RADIANS_TO_DEGREES = 180d / Math.PI;
+    private final static double MIN_LAT = ((-82 * PI) / 180.0), MAX_LAT = ((86 * PI) / 180.0);
+    private final static int MIN_EASTING = 100000, MAX_EASTING = 900000, MIN_NORTHING = 0, MAX_NORTHING = 10000000;
+    private final static double FALSE_EASTING = 500000, SOUTH_FALSE_NORTHING = 10000000, SCALE = 0.9996;
+    // WGS84 semi-major axis, second eccentricity squared, eccentricity squared and true meridional constants
+    private final static double A = 6378137.0, F = 1 / 298.257223563, ES = 2 * F - F * F, EBS = (1 / (1 - ES)) - 1;
+    private final static double AP, BP, CP, DP, EP;
+    // Powers of the scale factor used by the inverse series
+    private final static double SCALE2 = SCALE * SCALE, SCALE3 = SCALE2 * SCALE, SCALE4 = SCALE2 * SCALE2;
+    private final static double SCALE5 = SCALE4 * SCALE, SCALE6 = SCALE4 * SCALE2, SCALE7 = SCALE6 * SCALE;
+    private final static double SCALE8 = SCALE4 * SCALE4;
+    // Central meridian of each zone in radians, indexed by zone
+    private final static double[] CENTRAL_MERIDIANS = new double[61];
+    // Batches smaller than this are converted on the calling thread, as splitting them costs more than it saves
+    private final static int MIN_PARALLEL_POINTS = 8192;
+    private final static int THREADS = Runtime.getRuntime().availableProcessors();
+    private static ExecutorService pool;
+    static
+    {
+        double b = A * (1 - F), tn = (A - b) / (A + b), tn2 = tn * tn, tn3 = tn2 * tn, tn4 = tn3 * tn;
+        double tn5 = tn4 * tn;
+        AP = A * (1.e0 - tn + 5.e0 * (tn2 - tn3) / 4.e0 + 81.e0 * (tn4 - tn5) / 64.e0);
+        BP = 3.e0 * A * (tn - tn2 + 7.e0 * (tn3 - tn4) / 8.e0 + 55.e0 * tn5 / 64.e0) / 2.e0;
+        CP = 15.e0 * A * (tn2 - tn3 + 3.e0 * (tn4 - tn5) / 4.e0) / 16.0;
+        DP = 35.e0 * A * (tn3 - tn4 + 11.e0 * tn5 / 16.e0) / 48.e0;
+        EP = 315.e0 * A * (tn4 - tn5) / 512.e0;
+        for (int zone = 1; zone <= 60; zone++)
+        {
+            double centralMeridian = zone >= 31 ? (6 * zone - 183) * PI / 180.0 : (6 * zone + 177) * PI / 180.0;
+            CENTRAL_MERIDIANS[zone] = centralMeridian > PI ? centralMeridian - 2 * PI : centralMeridian;
+        }
+    }
+
+    /**
+     * Convert one position, writing the result at an index of the output arrays
+     * @param latitude - latitude in degrees
+     * @param longitude - longitude in degrees
+     * @param i - output index
+     * @param zones - zone output, 0 where the conversion failed
+     * @param hemispheres - hemisphere output, NORTH or SOUTH
+     * @param eastings - easting output in meters, NaN where the conversion failed
+     * @param northings - northing output in meters, NaN where the conversion failed
+     * @return Returns whether the position could be converted
+     */
+    public static boolean convert(double latitude, double longitude, int i, int[] zones, char[] hemispheres,
+                                  double[] eastings, double[] northings)
+    {
+        double lat = DEGREES_TO_RADIANS * latitude, lon = DEGREES_TO_RADIANS * longitude;
+        zones[i] = 0;
+        eastings[i] = Double.NaN;
+        northings[i] = Double.NaN;
+        if (lat < MIN_LAT || lat > MAX_LAT || lon < -PI || lon > 2 * PI)
+        {
+            return false;
+        }
+        if (lon < 0)
+        {
+            lon += (2 * PI) + 1.0e-10;
+        }
+        int zone = zone((long) (lat * 180.0 / PI), lon);
+        if (lon > PI)
+        {
+            lon -= (2 * PI);
+        }
+        project(lat, lon, zone, i, hemispheres, eastings, northings);
+        if (eastings[i] < MIN_EASTING || eastings[i] > MAX_EASTING || northings[i] < MIN_NORTHING
+                || northings[i] > MAX_NORTHING)
+        {
+            eastings[i] = Double.NaN;
+            northings[i] = Double.NaN;
+            return false;
+        }
+        zones[i] = zone;
+        return true;
+    }
+
+    /**
+     * Convert one position in a given zone rather than the zone it falls in, writing the result at an index of the
+     * output arrays. Positions outside the zone get eastings beyond the zone's usual range, which is what bounding a
+     * region that spans several zones needs.
+     * @param latitude - latitude in degrees
+     * @param longitude - longitude in degrees, from -180 to 180
+     * @param zone - zone, 1 to 60
+     * @param i - output index
+     * @param hemispheres - hemisphere output, NORTH or SOUTH
+     * @param eastings - easting output in meters, NaN where the conversion failed
+     * @param northings - northing output in meters, NaN where the conversion failed
+     * @return Returns whether the position could be converted
+     */
+    public static boolean convertInZone(double latitude, double longitude, int zone, int i, char[] hemispheres,
+                                        double[] eastings, double[] northings)
+    {
+        double lat = DEGREES_TO_RADIANS * latitude, lon = DEGREES_TO_RADIANS * longitude;
+        if (zone < 1 || zone > 60 || lat < MIN_LAT || lat > MAX_LAT || lon < -PI || lon > PI)
+        {
+            eastings[i] = Double.NaN;
+            northings[i] = Double.NaN;
+            return false;
+        }
+        project(lat, lon, zone, i, hemispheres, eastings, northings);
+        return true;
+    }
+
+    /**
+     * Project one position with a zone's Transverse Mercator projection
+     * @param lat - latitude in radians
+     * @param lon - longitude in radians, from -pi to pi
+     * @param zone - zone, 1 to 60
+     * @param i - output index
+     * @param hemispheres - hemisphere output
+     * @param eastings - easting output in meters
+     * @param northings - northing output in meters
+     */
+    private static void project(double lat, double lon, int zone, int i, char[] hemispheres, double[] eastings,
+                                double[] northings)
+    {
+        double falseNorthing = 0;
+        if (lat < 0)
+        {
+            falseNorthing = SOUTH_FALSE_NORTHING;
+            hemispheres[i] = SOUTH;
+        }
+        else
+        {
+            hemispheres[i] = NORTH;
+        }
+        double dlam = lon - CENTRAL_MERIDIANS[zone];
+        if (dlam > PI)
+        {
+            dlam -= (2 * PI);
+        }
+        if (dlam < -PI)
+        {
+            dlam += (2 * PI);
+        }
+        if (Math.abs(dlam) < 2.e-10)
+        {
+            dlam = 0.0;
+        }
+        double s = Math.sin(lat), c = Math.cos(lat), t = s / c;
+        double c2 = c * c, c3 = c2 * c, c5 = c3 * c2, c7 = c5 * c2;
+        double tan2 = t * t, tan4 = tan2 * tan2, tan6 = tan4 * tan2;
+        double eta = EBS * c2, eta2 = eta * eta, eta3 = eta2 * eta, eta4 = eta3 * eta;
+        // Radius of curvature in the prime vertical and true meridional distance
+        double sn = A / Math.sqrt(1 - ES * s * s);
+        double tmd = meridionalDistance(lat, s, c);
+        double dlam2 = dlam * dlam, dlam3 = dlam2 * dlam, dlam4 = dlam2 * dlam2, dlam5 = dlam4 * dlam;
+        double dlam6 = dlam4 * dlam2, dlam7 = dlam6 * dlam, dlam8 = dlam4 * dlam4;
+        double t2 = sn * s * c * SCALE / 2.e0;
+        double t3 = sn * s * c3 * SCALE * (5.e0 - tan2 + 9.e0 * eta + 4.e0 * eta2) / 24.e0;
+        double t4 = sn * s * c5 * SCALE * (61.e0 - 58.e0 * tan2 + tan4 + 270.e0 * eta - 330.e0 * tan2 * eta
+                + 445.e0 * eta2 + 324.e0 * eta3 - 680.e0 * tan2 * eta2 + 88.e0 * eta4 - 600.e0 * tan2 * eta3
+                - 192.e0 * tan2 * eta4) / 720.e0;
+        double t5 = sn * s * c7 * SCALE * (1385.e0 - 3111.e0 * tan2 + 543.e0 * tan4 - tan6) / 40320.e0;
+        double northing = falseNorthing + tmd * SCALE + dlam2 * t2 + dlam4 * t3 + dlam6 * t4 + dlam8 * t5;
+        double t6 = sn * c * SCALE;
+        double t7 = sn * c3 * SCALE * (1.e0 - tan2 + eta) / 6.e0;
+        double t8 = sn * c5 * SCALE * (5.e0 - 18.e0 * tan2 + tan4 + 14.e0 * eta - 58.e0 * tan2 * eta + 13.e0 * eta2
+                + 4.e0 * eta3 - 64.e0 * tan2 * eta2 - 24.e0 * tan2 * eta3) / 120.e0;
+        double t9 = sn * c7 * SCALE * (61.e0 - 479.e0 * tan2 + 179.e0 * tan4 - tan6) / 5040.e0;
+        eastings[i] = FALSE_EASTING + dlam * t6 + dlam3 * t7 + dlam5 * t8 + dlam7 * t9;
+        northings[i] = northing;
+    }
+
+    /**
+     * Convert one UTM position to latitude and longitude, writing the result at an index of the output arrays
+     * @param zone - zone, 1 to 60
+     * @param hemisphere - NORTH or SOUTH
+     * @param easting - easting in meters
+     * @param northing - northing in meters
+     * @param i - output index
+     * @param latitudes - latitude output in degrees, NaN where the conversion failed
+     * @param longitudes - longitude output in degrees from -180 to 180, NaN where the conversion failed
+     * @return Returns whether the position could be converted
+     */
+    public static boolean toLatLon(int zone, char hemisphere, double easting, double northing, int i,
+                                   double[] latitudes, double[] longitudes)
+    {
+        latitudes[i] = Double.NaN;
+        longitudes[i] = Double.NaN;
+        if (zone < 1 || zone > 60 || (hemisphere != NORTH && hemisphere != SOUTH) || northing < MIN_NORTHING
+                || northing > MAX_NORTHING)
+        {
+            return false;
+        }
+        // Footpoint latitude, refined from a first estimate as TMCoordConverter does
+        double tmd = (northing - (hemisphere == SOUTH ? SOUTH_FALSE_NORTHING : 0)) / SCALE;
+        double ftphi = tmd / (A * (1 - ES));
+        for (int k = 0; k < 5; k++)
+        {
+            double s = Math.sin(ftphi), c = Math.cos(ftphi), denom = Math.sqrt(1 - ES * s * s);
+            ftphi += (tmd - meridionalDistance(ftphi, s, c)) * denom * denom * denom / (A * (1 - ES));
+        }
+        double s = Math.sin(ftphi), c = Math.cos(ftphi), t = s / c, denom = Math.sqrt(1 - ES * s * s);
+        // Radii of curvature in the meridian and in the prime vertical
+        double sr = A * (1 - ES) / (denom * denom * denom), sn = A / denom;
+        double sn3 = sn * sn * sn, sn5 = sn3 * sn * sn, sn7 = sn5 * sn * sn;
+        double tan2 = t * t, tan4 = tan2 * tan2, tan6 = tan4 * tan2;
+        double eta = EBS * c * c, eta2 = eta * eta, eta3 = eta2 * eta, eta4 = eta3 * eta;
+        double de = easting - FALSE_EASTING;
+        if (Math.abs(de) < 0.0001)
+        {
+            de = 0.0;
+        }
+        double de2 = de * de, de3 = de2 * de, de4 = de2 * de2, de5 = de4 * de, de6 = de4 * de2;
+        double de7 = de6 * de, de8 = de4 * de4;
+        double t10 = t / (2.e0 * sr * sn * SCALE2);
+        double t11 = t * (5.e0 + 3.e0 * tan2 + eta - 4.e0 * eta2 - 9.e0 * tan2 * eta) / (24.e0 * sr * sn3 * SCALE4);
+        double t12 = t * (61.e0 + 90.e0 * tan2 + 46.e0 * eta + 45.E0 * tan4 - 252.e0 * tan2 * eta - 3.e0 * eta2
+                + 100.e0 * eta3 - 66.e0 * tan2 * eta2 - 90.e0 * tan4 * eta + 88.e0 * eta4 + 225.e0 * tan4 * eta2
+                + 84.e0 * tan2 * eta3 - 192.e0 * tan2 * eta4) / (720.e0 * sr * sn5 * SCALE6);
+        double t13 = t * (1385.e0 + 3633.e0 * tan2 + 4095.e0 * tan4 + 1575.e0 * tan6)
+                / (40320.e0 * sr * sn7 * SCALE8);
+        double lat = ftphi - de2 * t10 + de4 * t11 - de6 * t12 + de8 * t13;
+        double t14 = 1.e0 / (sn * c * SCALE);
+        double t15 = (1.e0 + 2.e0 * tan2 + eta) / (6.e0 * sn3 * c * SCALE3);
+        double t16 = (5.e0 + 6.e0 * eta + 28.e0 * tan2 - 3.e0 * eta2 + 8.e0 * tan2 * eta + 24.e0 * tan4
+                - 4.e0 * eta3 + 4.e0 * tan2 * eta2 + 24.e0 * tan2 * eta3) / (120.e0 * sn5 * c * SCALE5);
+        double t17 = (61.e0 + 662.e0 * tan2 + 1320.e0 * tan4 + 720.e0 * tan6) / (5040.e0 * sn7 * c * SCALE7);
+        double lon = CENTRAL_MERIDIANS[zone] + de * t14 - de3 * t15 + de5 * t16 - de7 * t17;
+        if (lat < MIN_LAT || lat > MAX_LAT)
+        {
+            return false;
+        }
+        if (lon > PI)
+        {
+            lon -= 2 * PI;
+        }
+        else if (lon < -PI)
+        {
+            lon += 2 * PI;
+        }
+        latitudes[i] = RADIANS_TO_DEGREES * lat;
+        longitudes[i] = RADIANS_TO_DEGREES * lon;
+        return true;
+    }
+
+    /**
+     * Convert a range of UTM positions to latitude and longitude
+     * @param zones - zones
+     * @param hemispheres - hemispheres, NORTH or SOUTH
+     * @param eastings - eastings in meters
+     * @param northings - northings in meters
+     * @param from - index of the first position
+     * @param to - index after the last position
+     * @param latitudes - latitude output in degrees, NaN where the conversion failed
+     * @param longitudes - longitude output in degrees, NaN where the conversion failed
+     * @return Returns the number of positions converted
+     */
+    public static int toLatLon(int[] zones, char[] hemispheres, double[] eastings, double[] northings, int from,
+                               int to, double[] latitudes, double[] longitudes)
+    {
+        int converted = 0;
+        for (int i = from; i < to; i++)
+        {
+            if (toLatLon(zones[i], hemispheres[i], eastings[i], northings[i], i, latitudes, longitudes))
+            {
+                converted++;
+            }
+        }
+        return converted;
+    }
+
+    /**
+     * Convert a range of positions on the calling thread
+     * @param latitudes - latitudes in degrees
+     * @param longitudes - longitudes in degrees
+     * @param from - index of the first position
+     * @param to - index after the last position
+     * @param zones - zone output, 0 where the conversion failed
+     * @param hemispheres - hemisphere output, NORTH or SOUTH
+     * @param eastings - easting output in meters, NaN where the conversion failed
+     * @param northings - northing output in meters, NaN where the conversion failed
+     * @return Returns the number of positions converted
+     */
+    public static int convert(double[] latitudes, double[] longitudes, int from, int to, int[] zones,
+                              char[] hemispheres, double[] eastings, double[] northings)
+    {
+        int converted = 0;
+        for (int i = from; i < to; i++)
+        {
+            if (convert(latitudes[i], longitudes[i], i, zones, hemispheres, eastings, northings))
+            {
+                converted++;
+            }
+        }
+        return converted;
+    }
+
+    /**
+     * Convert positions, splitting large batches across cores. The calling thread converts a share and waits for
+     * the rest, so this should not be called on the main thread with a large batch.
+     * @param latitudes - latitudes in degrees
+     * @param longitudes - longitudes in degrees
+     * @param count - number of positions
+     * @param zones - zone output, 0 where the conversion failed
+     * @param hemispheres - hemisphere output, NORTH or SOUTH
+     * @param eastings - easting output in meters, NaN where the conversion failed
+     * @param northings - northing output in meters, NaN where the conversion failed
+     * @return Returns the number of positions converted
+     */
+    public static int convertParallel(final double[] latitudes, final double[] longitudes, int count,
+                                      final int[] zones, final char[] hemispheres, final double[] eastings,
+                                      final double[] northings)
+    {
+        int chunks = Math.min(THREADS, count / MIN_PARALLEL_POINTS);
+        if (chunks < 2)
+        {
+            return convert(latitudes, longitudes, 0, count, zones, hemispheres, eastings, northings);
+        }
+        int chunkSize = (count + chunks - 1) / chunks;
+        ArrayList<Future<Integer>> results = new ArrayList<>(chunks - 1);
+        for (int from = chunkSize; from < count; from += chunkSize)
+        {
+            final int chunkFrom = from, chunkTo = Math.min(from + chunkSize, count);
+            results.add(getPool().submit(new Callable<Integer>() {
+                /**
+                 * Convert one chunk
+                 * @return Returns the number of positions converted
+                 */
+                @Override
+                public Integer call()
+                {
+                    return convert(latitudes, longitudes, chunkFrom, chunkTo, zones, hemispheres, eastings,
+                            northings);
+                }
+            }));
+        }
+        int converted = convert(latitudes, longitudes, 0, Math.min(chunkSize, count), zones, hemispheres,
+                eastings, northings);
+        for (Future<Integer> result: results)
+        {
+            try
+            {
+                converted += result.get();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                e.printStackTrace();
+            }
+            catch (ExecutionException e)
+            {
+                e.printStackTrace();
+            }
+        }
+        return converted;
+    }
+
+    /**
+     * Get the conversion threads, starting them on first use
+     * @return Returns the thread pool
+     */
+    private static synchronized ExecutorService getPool()
+    {
+        if (pool == null)
+        {
+            pool = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+                /**
+                 * Create a conversion thread that does not keep the process alive
+                 * @param r - thread body
+                 * @return Returns the thread
+                 */
+                @Override
+                public Thread newThread(Runnable r)
+                {
+                    Thread thread = new Thread(r, "UTMBatchConverter");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return pool;
+    }
+
+    /**
+     * True meridional distance, with the multiple angles built from one sine and cosine rather than a call per term
+     * @param lat - latitude in radians
+     * @param s - sine of the latitude
+     * @param c - cosine of the latitude
+     * @return Returns the distance along the meridian from the equator in meters
+     */
+    private static double meridionalDistance(double lat, double s, double c)
+    {
+        double sin2 = 2 * s * c, cos2 = c * c - s * s, sin4 = 2 * sin2 * cos2, cos4 = 1 - 2 * sin2 * sin2;
+        double sin6 = sin4 * cos2 + cos4 * sin2, sin8 = 2 * sin4 * cos4;
+        return AP * lat - BP * sin2 + CP * sin4 - DP * sin6 + EP * sin8;
+    }
+
+    /**
+     * Get the zone of a position, including the Norway and Svalbard exceptions
+     * @param latDegrees - latitude in whole degrees
+     * @param longitude - longitude in radians, from 0 to 2 pi
+     * @return Returns the zone
+     */
+    private static int zone(long latDegrees, double longitude)
+    {
+        long longDegrees = (long) (longitude * 180.0 / PI);
+        long zone;
+        if (longitude < PI)
+        {
+            zone = (long) (31 + ((longitude * 180.0 / PI) / 6.0));
+        }
+        else
+        {
+            zone = (long) (((longitude * 180.0 / PI) / 6.0) - 29);
+        }
+        if (zone > 60)
+        {
+            zone = 1;
+        }
+        if ((latDegrees > 55) && (latDegrees < 64) && (longDegrees > -1) && (longDegrees < 3))
+        {
+            zone = 31;
+        }
+        if ((latDegrees > 55) && (latDegrees < 64) && (longDegrees > 2) && (longDegrees < 12))
+        {
+            zone = 32;
+        }
+        if ((latDegrees > 71) && (longDegrees > -1) && (longDegrees < 9))
+        {
+            zone = 31;
+        }
+        if ((latDegrees > 71) && (longDegrees > 8) && (longDegrees < 21))
+        {
+            zone = 33;
+        }
+        if ((latDegrees > 71) && (longDegrees > 20) && (longDegrees < 33))
+        {
+            zone = 35;
+        }
+        if ((latDegrees > 71) && (longDegrees > 32) && (longDegrees < 42))
+        {
+            zone = 37;
+        }
+        return (int) zone;
+    }
+}
@@ -41,6 +41,28 @@ public class UTMCoord
                 converter.getEasting(), converter.getNorthing());
     }
 
+    /**
+     * Create a set of UTM coordinates for the given zone, hemisphere, easting and northing.
+     * @param zone - the UTM zone - 1 to 60.
+     * @param hemisphere - the hemisphere, either {@link gov.nasa.worldwind.avlist.AVKey#NORTH} or {@link
+     *                        gov.nasa.worldwind.avlist.AVKey#SOUTH}.
+     * @param easting - the easting distance in meters
+     * @param northing - the northing distance in meters.
+     * @return the corresponding <code>UTMCoord</code>.
+     * @throws IllegalArgumentException if the conversion to geodetic coordinates fails.
+     */
+    public static UTMCoord fromUTM(int zone, String hemisphere, double easting, double northing)
+    {
+        final UTMCoordConverter converter = new UTMCoordConverter();
+        long err = converter.convertUTMToGeodetic(zone, hemisphere, easting, northing);
+        if (err != UTMCoordConverter.UTM_NO_ERROR)
+        {
+            throw new IllegalArgumentException("UTM Conversion Error");
+        }
+        return new UTMCoord(Angle.fromRadians(converter.getLatitude()), Angle.fromRadians(converter.getLongitude()),
+                zone, hemisphere, easting, northing);
+    }
+
     /**
      * Create an arbitrary set of UTM coordinates with the given values.
      * @param latitude - the latitude <code>Angle</code>.
@@ -4,8 +4,8 @@
  * All Rights Reserved.
  */
 package gov.nasa.worldwind.geom.coords;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import gov.nasa.worldwind.avlist.AVKey;
-import gov.nasa.worldwind.geom.*;
 /**
  * Converter used to translate UTM coordinates to and from geodetic latitude and longitude.
  * Ported to Java from the NGA GeoTrans utm.c and utm.h
@@ -17,13 +17,18 @@ class UTMCoordConverter
 {
     public final static int UTM_NO_ERROR = 0x0000;
     private final static int UTM_LAT_ERROR = 0x0001, UTM_LON_ERROR = 0x0002, UTM_EASTING_ERROR = 0x0004;
-    private final static int UTM_NORTHING_ERROR = 0x0008;
+    private final static int UTM_NORTHING_ERROR = 0x0008, UTM_ZONE_ERROR = 0x0010, UTM_HEMISPHERE_ERROR = 0x0020;
     private final static int UTM_TM_ERROR = 0x0200, MIN_EASTING = 100000, MAX_EASTING = 900000, MIN_NORTHING = 0;
     private final static double PI = 3.14159265358979323, MIN_LAT = ((-82 * PI) / 180.0);
     // 86 degrees in radians
     private final static double MAX_LAT = ((86 * PI) / 180.0);
     private final static int MAX_NORTHING = 10000000;
-    private double easting, northing;
+    private final static double A = 6378137.0, F = 1 / 298.257223563, ORIGIN_LATITUDE = 0, FALSE_EASTING = 500000;
+    private final static double SOUTH_FALSE_NORTHING = 10000000, SCALE = 0.9996;
+    // Prepared projection of each zone and hemisphere, indexed by zone * 2 plus 1 in the south, built on first use
+    private final static AtomicReferenceArray<TMProjection> PROJECTIONS = new AtomicReferenceArray<>(61 * 2);
+    private final TMCoordConverter TMConverter = new TMCoordConverter();
+    private double easting, northing, latitude, longitude;
     private String hemisphere;
     private int zone;
     /**
@@ -45,7 +50,6 @@ class UTMCoordConverter
     public long convertGeodeticToUTM(double latitude, double longitude)
     {
         long latDegrees, longDegrees, tempZone, errorCode = UTM_NO_ERROR;
-        double originLatitude = 0, falseEasting = 500000, falseNorthing = 0, scale = 0.9996;
         // Latitude out of range
         if ((latitude < MIN_LAT) || (latitude > MAX_LAT))
         {
@@ -104,32 +108,18 @@ class UTMCoordConverter
             }
             if (errorCode == UTM_NO_ERROR)
             {
-                double centralMeridian;
-                if (tempZone >= 31)
-                {
-                    centralMeridian = (6 * tempZone - 183) * PI / 180.0;
-                }
-                else
-                {
-                    centralMeridian = (6 * tempZone + 177) * PI / 180.0;
-                }
                 zone = (int) tempZone;
-                if (latitude < 0)
+                hemisphere = latitude < 0 ? AVKey.SOUTH : AVKey.NORTH;
+                TMConverter.setProjection(getProjection(zone, latitude < 0));
+                long TMError = TMConverter.convertGeodeticToTransverseMercator(latitude, longitude);
+                if (TMError != TMCoordConverter.TRANMERC_NO_ERROR && TMError != TMCoordConverter.TRANMERC_LON_WARNING)
                 {
-                    falseNorthing = 10000000;
-                    hemisphere = AVKey.SOUTH;
+                    errorCode = UTM_TM_ERROR;
                 }
                 else
                 {
-                    hemisphere = AVKey.NORTH;
-                }
-                try
-                {
-                    TMCoord TM = TMCoord.fromLatLon(Angle.fromRadians(latitude), Angle.fromRadians(longitude),
-                            6378137.0, 1 / 298.257223563, Angle.fromRadians(originLatitude),
-                            Angle.fromRadians(centralMeridian), falseEasting, falseNorthing, scale);
-                    easting = TM.getEasting();
-                    northing = TM.getNorthing();
+                    easting = TMConverter.getEasting();
+                    northing = TMConverter.getNorthing();
                     if ((easting < MIN_EASTING) || (easting > MAX_EASTING))
                     {
                         errorCode = UTM_EASTING_ERROR;
@@ -139,15 +129,101 @@ class UTMCoordConverter
                         errorCode |= UTM_NORTHING_ERROR;
                     }
                 }
-                catch (Exception e)
+            }
+        }
+        return errorCode;
+    }
+
+    /**
+     * The function Convert_UTM_To_Geodetic converts UTM projection (zone, hemisphere, easting and northing)
+     * coordinates to geodetic (latitude and longitude) coordinates, according to the current ellipsoid parameters.
+     * If any errors occur, the error code(s) are returned by the function, otherwise UTM_NO_ERROR is returned.
+     * @param zone - UTM zone
+     * @param hemisphere - The coordinate hemisphere, either {@link gov.nasa.worldwind.avlist.AVKey#NORTH} or {@link
+     *                   gov.nasa.worldwind.avlist.AVKey#SOUTH}.
+     * @param easting - Easting (X) in meters
+     * @param northing - Northing (Y) in meters
+     * @return error code
+     */
+    public long convertUTMToGeodetic(long zone, String hemisphere, double easting, double northing)
+    {
+        long errorCode = UTM_NO_ERROR;
+        if ((zone < 1) || (zone > 60))
+        {
+            errorCode |= UTM_ZONE_ERROR;
+        }
+        if (!AVKey.SOUTH.equals(hemisphere) && !AVKey.NORTH.equals(hemisphere))
+        {
+            errorCode |= UTM_HEMISPHERE_ERROR;
+        }
+        if ((northing < MIN_NORTHING) || (northing > MAX_NORTHING))
+        {
+            errorCode |= UTM_NORTHING_ERROR;
+        }
+        // no errors
+        if (errorCode == UTM_NO_ERROR)
+        {
+            TMConverter.setProjection(getProjection((int) zone, AVKey.SOUTH.equals(hemisphere)));
+            long TMError = TMConverter.convertTransverseMercatorToGeodetic(easting, northing);
+            if (TMError != TMCoordConverter.TRANMERC_NO_ERROR && TMError != TMCoordConverter.TRANMERC_LON_WARNING)
+            {
+                errorCode = UTM_TM_ERROR;
+            }
+            else
+            {
+                latitude = TMConverter.getLatitude();
+                longitude = TMConverter.getLongitude();
+                if ((latitude < MIN_LAT) || (latitude > MAX_LAT))
                 {
-                    errorCode = UTM_TM_ERROR;
+                    errorCode |= UTM_NORTHING_ERROR;
                 }
             }
         }
         return errorCode;
     }
 
+    /**
+     * Get the prepared projection of a zone, preparing it if no thread has yet. Two threads may both prepare the same
+     * zone, but the projections are equal and only one is kept.
+     * @param zone - UTM zone, 1 to 60
+     * @param south - whether the projection is for the southern hemisphere
+     * @return Returns the projection
+     */
+    static TMProjection getProjection(int zone, boolean south)
+    {
+        int key = zone * 2 + (south ? 1 : 0);
+        TMProjection projection = PROJECTIONS.get(key);
+        if (projection == null)
+        {
+            double centralMeridian = zone >= 31 ? (6 * zone - 183) * PI / 180.0 : (6 * zone + 177) * PI / 180.0;
+            projection = TMCoordConverter.prepare(A, F, ORIGIN_LATITUDE, centralMeridian, FALSE_EASTING,
+                    south ? SOUTH_FALSE_NORTHING : 0, SCALE);
+            if (!PROJECTIONS.compareAndSet(key, null, projection))
+            {
+                projection = PROJECTIONS.get(key);
+            }
+        }
+        return projection;
+    }
+
+    /**
+     * Get latitude
+     * @return Latitude in radians from the last inverse conversion
+     */
+    public double getLatitude()
+    {
+        return latitude;
+    }
+
+    /**
+     * Get longitude
+     * @return Longitude in radians from the last inverse conversion
+     */
+    public double getLongitude()
+    {
+        return longitude;
+    }
+
     /**
      * Get easting
      * @return Easting (X) in meters
@@ -0,0 +1,255 @@
+package edu.upenn.sas.archaeologyapp.services;
+import org.junit.Test;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import edu.upenn.sas.archaeologyapp.models.DataEntryElement;
+import edu.upenn.sas.archaeologyapp.models.PathElement;
+import static edu.upenn.sas.archaeologyapp.util.Constants.globalWebServerURL;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+/**
+ * Encode speed and payload size of BinaryBatchCodec batches, plain and gzipped, against the query strings of
+ * /insert_find and /insert_path, for a day's finds and paths at one site. The results are printed, since the JVM
+ * tests have no Android log.
+ */
+public class BinaryBatchCodecBenchmark
+{
+    private static final int FINDS = 2000, PATHS = 200, BATCH_SIZE = 100;
+    private static final int WARM_UP_ROUNDS = 20, MEASURED_ROUNDS = 20;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String[] MATERIALS = {"Ceramic", "Bone", "Lithic", "Metal", "Glass"};
+    // Keeps the results in use, so the encoding is not optimised away
+    private long checksum = 0;
+    /**
+     * Compare the find encodings
+     */
+    @Test
+    public void encodesFinds() throws IOException
+    {
+        final List<List<DataEntryElement>> batches = batches(finds(), BATCH_SIZE);
+        Encoder queryStrings = new Encoder() {
+            /**
+             * Build the query string of each find
+             * @return Returns the bytes of the query strings
+             */
+            @Override
+            long encode()
+            {
+                long bytes = 0;
+                for (List<DataEntryElement> batch: batches)
+                {
+                    for (DataEntryElement find: batch)
+                    {
+                        bytes += queryBytes(FindBatchUploader.buildInsertFindURL(find));
+                    }
+                }
+                return bytes;
+            }
+        };
+        long queryBytes = queryStrings.encode();
+        report("Finds as /insert_find query strings", FINDS, queryBytes, time(queryStrings));
+        for (final int flags: new int[] {0, BinaryBatchCodec.FLAG_GZIP})
+        {
+            Encoder binary = new Encoder() {
+                /**
+                 * Encode each batch
+                 * @return Returns the bytes of the batches
+                 */
+                @Override
+                long encode()
+                {
+                    long bytes = 0;
+                    for (List<DataEntryElement> batch: batches)
+                    {
+                        bytes += BinaryBatchCodec.encodeFinds(batch, flags).length;
+                    }
+                    return bytes;
+                }
+            };
+            long binaryBytes = binary.encode();
+            report("Finds as " + (flags == 0 ? "plain" : "gzipped") + " binary batches", FINDS, binaryBytes,
+                    time(binary));
+            assertTrue(binaryBytes < queryBytes);
+            assertEquals(BATCH_SIZE, BinaryBatchCodec.decodeFinds(BinaryBatchCodec.encodeFinds(batches.get(0), flags))
+                    .size());
+        }
+    }
+
+    /**
+     * Compare the path encodings
+     */
+    @Test
+    public void encodesPaths() throws IOException
+    {
+        final List<List<PathElement>> batches = batches(paths(), BATCH_SIZE);
+        Encoder queryStrings = new Encoder() {
+            /**
+             * Build the query string of each path
+             * @return Returns the bytes of the query strings
+             */
+            @Override
+            long encode()
+            {
+                long bytes = 0;
+                for (List<PathElement> batch: batches)
+                {
+                    for (PathElement path: batch)
+                    {
+                        bytes += queryBytes(PathUploader.buildInsertPathURL(path));
+                    }
+                }
+                return bytes;
+            }
+        };
+        long queryBytes = queryStrings.encode();
+        report("Paths as /insert_path query strings", PATHS, queryBytes, time(queryStrings));
+        for (final int flags: new int[] {0, BinaryBatchCodec.FLAG_GZIP})
+        {
+            Encoder binary = new Encoder() {
+                /**
+                 * Encode each batch
+                 * @return Returns the bytes of the batches
+                 */
+                @Override
+                long encode()
+                {
+                    long bytes = 0;
+                    for (List<PathElement> batch: batches)
+                    {
+                        bytes += BinaryBatchCodec.encodePaths(batch, flags).length;
+                    }
+                    return bytes;
+                }
+            };
+            long binaryBytes = binary.encode();
+            report("Paths as " + (flags == 0 ? "plain" : "gzipped") + " binary batches", PATHS, binaryBytes,
+                    time(binary));
+            assertTrue(binaryBytes < queryBytes);
+            assertEquals(BATCH_SIZE, BinaryBatchCodec.decodePaths(BinaryBatchCodec.encodePaths(batches.get(0), flags))
+                    .size());
+        }
+    }
+
+    /**
+     * One way of encoding the records
+     */
+    private abstract static class Encoder
+    {
+        /**
+         * Encode every record
+         * @return Returns the number of bytes sent
+         */
+        abstract long encode();
+    }
+
+    /**
+     * Time an encoding once it is compiled
+     * @param encoder - encoding to time
+     * @return Returns the mean time of one encoding of every record
+     */
+    private long time(Encoder encoder)
+    {
+        for (int round = 0; round < WARM_UP_ROUNDS; round++)
+        {
+            checksum += encoder.encode();
+        }
+        long start = System.nanoTime();
+        for (int round = 0; round < MEASURED_ROUNDS; round++)
+        {
+            checksum += encoder.encode();
+        }
+        long nanos = (System.nanoTime() - start) / MEASURED_ROUNDS;
+        assertTrue(checksum > 0);
+        return nanos;
+    }
+
+    /**
+     * Print the size and speed of an encoding
+     * @param encoding - encoding measured
+     * @param records - number of records encoded
+     * @param bytes - bytes sent for the records
+     * @param nanos - time to encode the records
+     */
+    private void report(String encoding, int records, long bytes, long nanos)
+    {
+        System.out.println("Benchmark: " + encoding + ": " + String.format(Locale.US, "%.1f", (double) bytes / records)
+                + " bytes and " + String.format(Locale.US, "%.2f", nanos / 1000.0 / records) + " us per record, "
+                + String.format(Locale.US, "%.0f", records / (nanos / 1e9)) + " records/s");
+    }
+
+    /**
+     * Get the size of the query string of an upload URL
+     * @param URL - upload URL
+     * @return Returns the bytes after the server's base URL
+     */
+    private static int queryBytes(String URL)
+    {
+        return URL.substring(globalWebServerURL.length()).getBytes(UTF_8).length;
+    }
+
+    /**
+     * Split records into batches
+     * @param records - records
+     * @param size - records per batch
+     * @param <T> - record type
+     * @return Returns the batches
+     */
+    private static <T> List<List<T>> batches(List<T> records, int size)
+    {
+        List<List<T>> batches = new ArrayList<>();
+        for (int i = 0; i < records.size(); i += size)
+        {
+            batches.add(records.subList(i, Math.min(records.size(), i + size)));
+        }
+        return batches;
+    }
+
+    /**
+     * Make a day's finds, recorded a few seconds apart within a few hundred metres
+     * @return Returns the finds
+     */
+    private static List<DataEntryElement> finds()
+    {
+        Random random = new Random(FINDS);
+        List<DataEntryElement> finds = new ArrayList<>();
+        long created = 1500000000000L;
+        for (int i = 0; i < FINDS; i++)
+        {
+            created += 5000 + random.nextInt(30000);
+            double easting = 483700 + random.nextDouble() * 300, northing = 4422500 + random.nextDouble() * 300;
+            finds.add(new DataEntryElement("find" + i, 39.95 + random.nextDouble() * 0.003,
+                    -75.19 + random.nextDouble() * 0.003, 12 + random.nextDouble(), random.nextInt(4) == 0
+                    ? "RTK Float" : "RTK Fix", 1 + random.nextDouble() * 10, new ArrayList<String>(),
+                    MATERIALS[random.nextInt(MATERIALS.length)], "rim sherd", created + 1000, created, 18, "N",
+                    (int) northing, northing, (int) easting, easting, i / 20 + 1, false));
+        }
+        return finds;
+    }
+
+    /**
+     * Make a day's paths, walked one after another across the site
+     * @return Returns the paths
+     */
+    private static List<PathElement> paths()
+    {
+        Random random = new Random(PATHS);
+        List<PathElement> paths = new ArrayList<>();
+        long begin = 1500000000000L;
+        for (int i = 0; i < PATHS; i++)
+        {
+            long end = begin + 60000 + random.nextInt(600000);
+            paths.add(new PathElement("member" + i % 4, 39.95 + random.nextDouble() * 0.003,
+                    -75.19 + random.nextDouble() * 0.003, 12 + random.nextDouble(), 39.95 + random.nextDouble() * 0.003,
+                    -75.19 + random.nextDouble() * 0.003, 12 + random.nextDouble(), "N", 18,
+                    483700 + random.nextDouble() * 300, 4422500 + random.nextDouble() * 300,
+                    483700 + random.nextDouble() * 300, 4422500 + random.nextDouble() * 300, begin, end, "RTK Fix",
+                    "RTK Float", 1 + random.nextDouble() * 10, 1 + random.nextDouble() * 10, false));
+            begin = end + random.nextInt(60000);
+        }
+        return paths;
+    }
+}
@@ -0,0 +1,252 @@
+package edu.upenn.sas.archaeologyapp.services;
+import org.junit.Test;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import edu.upenn.sas.archaeologyapp.models.DataEntryElement;
+import edu.upenn.sas.archaeologyapp.models.PathElement;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+/**
+ * Batches encoded by BinaryBatchCodec decode to the records they were built from, to the codec's precision, and
+ * malformed batches are rejected
+ */
+public class BinaryBatchCodecTest
+{
+    // Fixed point precision of the codec
+    private static final double DEGREE_PRECISION = 0.5e-7, METRE_PRECISION = 0.5e-3;
+    /**
+     * Finds survive a round trip, plain and gzipped
+     */
+    @Test
+    public void roundTripsFinds() throws IOException
+    {
+        List<DataEntryElement> finds = Arrays.asList(
+                find("first", 39.951234567, -75.191234567, 1500000000000L, 483744, 483744.2512, 4422543, 4422543.125,
+                        1, 3.2, "Ceramic"),
+                find("second", 39.951834512, -75.190012345, 1500000060000L, 483795, 483795.0004, 4422610,
+                        4422610.9996, 2, null, "Bone"),
+                find("third", -33.8688197, 151.2092955, 1499999990000L, 334368, 334368.5, 6250947, 6250947.25, null,
+                        12.75, "Ceramic"));
+        for (int flags: new int[] {0, BinaryBatchCodec.FLAG_GZIP})
+        {
+            ArrayList<DataEntryElement> decoded = BinaryBatchCodec.decodeFinds(BinaryBatchCodec.encodeFinds(finds,
+                    flags));
+            assertEquals(finds.size(), decoded.size());
+            for (int i = 0; i < finds.size(); i++)
+            {
+                assertFind(finds.get(i), decoded.get(i));
+            }
+        }
+    }
+
+    /**
+     * Latitudes and longitudes come back rounded to 1e-7 degrees
+     */
+    @Test
+    public void roundsLatitudeAndLongitude() throws IOException
+    {
+        DataEntryElement decoded = BinaryBatchCodec.decodeFinds(BinaryBatchCodec.encodeFinds(Collections.singletonList(
+                find("find", 39.12345678949, -75.12345678951, 1000, 483744, 483744.25, 4422543, 4422543.125, 1, null,
+                        "Ceramic")), 0)).get(0);
+        assertEquals(39.1234568, decoded.getLatitude(), 1e-12);
+        assertEquals(-75.1234568, decoded.getLongitude(), 1e-12);
+    }
+
+    /**
+     * Paths survive a round trip, with their nullable fields left null
+     */
+    @Test
+    public void roundTripsPaths() throws IOException
+    {
+        List<PathElement> paths = Arrays.asList(
+                new PathElement("member", 39.95, -75.19, 12.5, 39.96, -75.18, 13.0, "N", 18, 483744.25, 4422543.125,
+                        484600.5, 4423650.75, 1000L, 2000L, "RTK Fix", "RTK Float", 3.2, null, false),
+                new PathElement("other", 39.97, -75.17, null, null, null, null, "N", null, null, null, null, null,
+                        3000L, null, "RTK Fix", null, null, null, false));
+        for (int flags: new int[] {0, BinaryBatchCodec.FLAG_GZIP})
+        {
+            ArrayList<PathElement> decoded = BinaryBatchCodec.decodePaths(BinaryBatchCodec.encodePaths(paths, flags));
+            assertEquals(paths.size(), decoded.size());
+            assertPath(paths.get(0), decoded.get(0));
+            assertPath(paths.get(1), decoded.get(1));
+        }
+    }
+
+    /**
+     * An empty batch decodes to no records
+     */
+    @Test
+    public void roundTripsEmptyBatch() throws IOException
+    {
+        assertEquals(0, BinaryBatchCodec.decodeFinds(BinaryBatchCodec.encodeFinds(
+                Collections.<DataEntryElement>emptyList(), BinaryBatchCodec.FLAG_GZIP)).size());
+        assertEquals(0, BinaryBatchCodec.decodePaths(BinaryBatchCodec.encodePaths(
+                Collections.<PathElement>emptyList(), 0)).size());
+    }
+
+    /**
+     * A find without its precise easting or northing is rejected rather than decoded
+     */
+    @Test
+    public void rejectsFindWithoutPrecisePosition()
+    {
+        // Header, one find, an empty dictionary, no fields present and every string and number empty or 0
+        assertRejected(new byte[] {(byte) 0xA7, 1, 0, 0, 1, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0}, true);
+        // Precise easting present, precise northing missing
+        assertRejected(new byte[] {(byte) 0xA7, 1, 0, 0, 1, 0, 8, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0}, true);
+    }
+
+    /**
+     * Batches with the wrong header or cut short are rejected
+     */
+    @Test
+    public void rejectsMalformedBatches()
+    {
+        byte[] batch = BinaryBatchCodec.encodeFinds(Collections.singletonList(find("find", 39.95, -75.19, 1000,
+                483744, 483744.25, 4422543, 4422543.125, 1, null, "Ceramic")), 0);
+        assertRejected(new byte[0], true);
+        assertRejected(Arrays.copyOf(batch, 3), true);
+        for (int length = 4; length < batch.length; length++)
+        {
+            assertRejected(Arrays.copyOf(batch, length), true);
+        }
+        byte[] wrongVersion = batch.clone();
+        wrongVersion[1] = 2;
+        assertRejected(wrongVersion, true);
+        // A find batch is not a path batch
+        assertRejected(batch, false);
+    }
+
+    /**
+     * Check that a batch does not decode
+     * @param batch - malformed batch
+     * @param finds - whether to decode it as finds or as paths
+     */
+    private static void assertRejected(byte[] batch, boolean finds)
+    {
+        try
+        {
+            if (finds)
+            {
+                BinaryBatchCodec.decodeFinds(batch);
+            }
+            else
+            {
+                BinaryBatchCodec.decodePaths(batch);
+            }
+            fail("Decoded " + Arrays.toString(batch));
+        }
+        catch (IOException e)
+        {
+            // Expected
+        }
+    }
+
+    /**
+     * Check a decoded find against the original
+     * @param expected - original find
+     * @param actual - decoded find
+     */
+    private static void assertFind(DataEntryElement expected, DataEntryElement actual)
+    {
+        assertEquals(expected.getID(), actual.getID());
+        assertEquals(expected.getLatitude(), actual.getLatitude(), DEGREE_PRECISION);
+        assertEquals(expected.getLongitude(), actual.getLongitude(), DEGREE_PRECISION);
+        assertEquals(expected.getAltitude(), actual.getAltitude(), METRE_PRECISION);
+        assertEquals(expected.getStatus(), actual.getStatus());
+        assertEquals(expected.getMaterial(), actual.getMaterial());
+        assertEquals(expected.getComments(), actual.getComments());
+        assertEquals(expected.getCreatedTimestamp(), actual.getCreatedTimestamp());
+        assertEquals(expected.getUpdateTimestamp(), actual.getUpdateTimestamp());
+        assertEquals(expected.getZone(), actual.getZone());
+        assertEquals(expected.getHemisphere(), actual.getHemisphere());
+        assertEquals(expected.getEasting(), actual.getEasting());
+        assertEquals(expected.getNorthing(), actual.getNorthing());
+        assertEquals(expected.getPreciseEasting(), actual.getPreciseEasting(), METRE_PRECISION);
+        assertEquals(expected.getPreciseNorthing(), actual.getPreciseNorthing(), METRE_PRECISION);
+        assertEquals(expected.getSample(), actual.getSample());
+        if (expected.getARRatio() == null)
+        {
+            assertNull(actual.getARRatio());
+        }
+        else
+        {
+            assertEquals(expected.getARRatio(), actual.getARRatio(), METRE_PRECISION);
+        }
+        assertEquals(0, actual.getImagePaths().size());
+    }
+
+    /**
+     * Check a decoded path against the original
+     * @param expected - original path
+     * @param actual - decoded path
+     */
+    private static void assertPath(PathElement expected, PathElement actual)
+    {
+        assertEquals(expected.getTeamMember(), actual.getTeamMember());
+        assertEquals(expected.getHemisphere(), actual.getHemisphere());
+        assertEquals(expected.getZone(), actual.getZone());
+        assertEquals(expected.getBeginStatus(), actual.getBeginStatus());
+        assertEquals(expected.getEndStatus(), actual.getEndStatus());
+        assertEquals(expected.getBeginTime(), actual.getBeginTime());
+        assertEquals(expected.getEndTime(), actual.getEndTime());
+        assertClose(expected.getBeginLatitude(), actual.getBeginLatitude(), DEGREE_PRECISION);
+        assertClose(expected.getBeginLongitude(), actual.getBeginLongitude(), DEGREE_PRECISION);
+        assertClose(expected.getEndLatitude(), actual.getEndLatitude(), DEGREE_PRECISION);
+        assertClose(expected.getEndLongitude(), actual.getEndLongitude(), DEGREE_PRECISION);
+        assertClose(expected.getBeginAltitude(), actual.getBeginAltitude(), METRE_PRECISION);
+        assertClose(expected.getEndAltitude(), actual.getEndAltitude(), METRE_PRECISION);
+        assertClose(expected.getBeginEasting(), actual.getBeginEasting(), METRE_PRECISION);
+        assertClose(expected.getBeginNorthing(), actual.getBeginNorthing(), METRE_PRECISION);
+        assertClose(expected.getEndEasting(), actual.getEndEasting(), METRE_PRECISION);
+        assertClose(expected.getEndNorthing(), actual.getEndNorthing(), METRE_PRECISION);
+        assertClose(expected.getBeginARRatio(), actual.getBeginARRatio(), METRE_PRECISION);
+        assertClose(expected.getEndARRatio(), actual.getEndARRatio(), METRE_PRECISION);
+    }
+
+    /**
+     * Check that two nullable values are both null or within a tolerance
+     * @param expected - expected value, or null
+     * @param actual - actual value, or null
+     * @param tolerance - largest difference allowed
+     */
+    private static void assertClose(Double expected, Double actual, double tolerance)
+    {
+        if (expected == null)
+        {
+            assertNull(actual);
+        }
+        else
+        {
+            assertEquals(expected, actual, tolerance);
+        }
+    }
+
+    /**
+     * Build a find
+     * @param ID - find ID
+     * @param latitude - latitude in degrees
+     * @param longitude - longitude in degrees
+     * @param created - creation time
+     * @param easting - bucket easting
+     * @param preciseEasting - easting in meters
+     * @param northing - bucket northing
+     * @param preciseNorthing - northing in meters
+     * @param sample - sample number, or null
+     * @param ARRatio - AR ratio, or null
+     * @param material - material
+     * @return Returns the find
+     */
+    private static DataEntryElement find(String ID, double latitude, double longitude, long created, int easting,
+                                         double preciseEasting, int northing, double preciseNorthing, Integer sample,
+                                         Double ARRatio, String material)
+    {
+        return new DataEntryElement(ID, latitude, longitude, 12.345, "RTK Fix", ARRatio, new ArrayList<String>(),
+                material, ID + " comments", created, created + 5000, 18, latitude < 0 ? "S" : "N", northing,
+                preciseNorthing, easting, preciseEasting, sample, true);
+    }
+}
@@ -0,0 +1,98 @@
+package edu.upenn.sas.archaeologyapp.services;
+import org.junit.Assume;
+import org.junit.Test;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import edu.upenn.sas.archaeologyapp.models.ReachFix;
+import gov.nasa.worldwind.geom.MutableLatLon;
+import gov.nasa.worldwind.geom.coords.MutableUTMCoord;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+/**
+ * The path a Reach fix takes to a UTM position allocates nothing per fix once it is warm: parsing the line,
+ * passing the fix through the ring buffer, converting it to UTM and averaging it
+ */
+public class FixPipelineAllocationTest
+{
+    private static final int WARM_UP_ROUNDS = 20, MEASURED_ROUNDS = 5, FIXES_PER_ROUND = 100000;
+    // Fixes added to the averager between each computed position
+    private static final int COMPUTE_EVERY = 16;
+    private final byte[][] lines = new byte[4][];
+    private final ReachFix parsed = new ReachFix(), read = new ReachFix();
+    private final FixRingBuffer fixes = new FixRingBuffer(64);
+    private final MutableLatLon position = new MutableLatLon();
+    private final MutableUTMCoord UTMPosition = new MutableUTMCoord();
+    private final PositionAverager averager = new PositionAverager(5000, 256, 3);
+    private long lastRead = -1, time = 0;
+    private double checksum = 0;
+    /**
+     * Run the pipeline until it is compiled, then check that rounds of it allocate nothing
+     */
+    @Test
+    public void allocatesNothingPerFix()
+    {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        Assume.assumeTrue(allocations.isThreadAllocatedMemorySupported());
+        allocations.setThreadAllocatedMemoryEnabled(true);
+        Charset ascii = Charset.forName("US-ASCII");
+        lines[0] = ("2017/01/16 10:20:30.000   39.951234567  -75.191234567    12.3456   1  12   0.0040   0.0050"
+                + "   0.0120  -0.0010   0.0030  -0.0020   1.00    3.2\n").getBytes(ascii);
+        lines[1] = ("2017/01/16 10:20:30.200   39.951234612  -75.191234498    12.3521   1  12   0.0040   0.0050"
+                + "   0.0120  -0.0010   0.0030  -0.0020   1.20    3.4\n").getBytes(ascii);
+        lines[2] = ("2017/01/16 10:20:30.400   39.951234551  -75.191234604    12.3398   2  11   0.0200   0.0250"
+                + "   0.0500  -0.0010   0.0030  -0.0020   1.40    1.8\n").getBytes(ascii);
+        lines[3] = "$GPGGA,102030.60,3957.0740752,N,07511.4740701,W,4,12,0.8,12.341,M,-33.2,M,1.6,0000*4D\n"
+                .getBytes(ascii);
+        long thread = Thread.currentThread().getId();
+        for (int round = 0; round < WARM_UP_ROUNDS; round++)
+        {
+            runRound();
+        }
+        // What reading the counter itself costs, taken off each round
+        long start = allocations.getThreadAllocatedBytes(thread);
+        long overhead = allocations.getThreadAllocatedBytes(thread) - start;
+        for (int round = 0; round < MEASURED_ROUNDS; round++)
+        {
+            long before = allocations.getThreadAllocatedBytes(thread);
+            runRound();
+            long allocated = allocations.getThreadAllocatedBytes(thread) - before - overhead;
+            assertEquals("Round " + round + " allocated " + allocated + " bytes for " + FIXES_PER_ROUND + " fixes",
+                    0, allocated);
+        }
+        // Keeps the work from being optimized away, and shows the fixes were used
+        assertTrue(checksum != 0);
+        assertTrue(averager.getWindowCount() > 0);
+    }
+
+    /**
+     * Send one round of fixes through the pipeline
+     */
+    private void runRound()
+    {
+        for (int i = 0; i < FIXES_PER_ROUND; i++)
+        {
+            byte[] line = lines[i % lines.length];
+            time += 200;
+            if (!ReachLineParser.parse(line, 0, line.length - 1, time, parsed))
+            {
+                throw new AssertionError("Line " + i % lines.length + " did not parse");
+            }
+            fixes.publish(parsed);
+            long sequence;
+            while ((sequence = fixes.readNext(lastRead, read)) >= 0)
+            {
+                lastRead = sequence;
+                position.set(read.getLatitude(), read.getLongitude());
+                UTMPosition.setLatLon(position);
+                checksum += UTMPosition.getEasting() + UTMPosition.getNorthing();
+                averager.add(read);
+            }
+            if (i % COMPUTE_EVERY == 0 && averager.compute(time))
+            {
+                checksum += averager.getEasting();
+            }
+        }
+    }
+}
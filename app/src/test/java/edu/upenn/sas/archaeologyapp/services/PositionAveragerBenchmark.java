@@ -0,0 +1,141 @@
+package edu.upenn.sas.archaeologyapp.services;
+import org.junit.Test;
+import java.util.Locale;
+import java.util.Random;
+import edu.upenn.sas.archaeologyapp.models.ReachFix;
+import edu.upenn.sas.archaeologyapp.util.Constants;
+import static org.junit.Assert.assertTrue;
+/**
+ * PositionAverager fed synthetic 10 Hz Reach streams over a surveyed point, with the app's settings: steady fixed
+ * solutions, fixed solutions with jumps to a wrong fix, and fixed solutions dropping to float. Each point is
+ * occupied for the averaging window and its averaged position taken, as when a find is recorded. The throughput
+ * of adding fixes and computing positions is timed, and the averaged positions' error is compared with that of the
+ * single last fix a find was recorded with before averaging. The results are printed, since the JVM tests have no
+ * Android log.
+ */
+public class PositionAveragerBenchmark
+{
+    private static final int RATE_HZ = 10;
+    private static final int FIXES_PER_POINT = Constants.DEFAULT_POSITION_AVERAGING_SECONDS * RATE_HZ;
+    private static final int POINTS = 20000, WARM_UP_POINTS = 20000;
+    private static final double LATITUDE = 39.951234567, LONGITUDE = -75.191234567, HEIGHT = 12.345;
+    private static final double METRES_PER_DEGREE = 111320;
+    // RTKLIB solution qualities
+    private static final int FIXED = 1, FLOAT = 2;
+    // Standard deviation of the horizontal and vertical noise of each solution, in metres
+    private static final double FIXED_NOISE = 0.01, FLOAT_NOISE = 0.2;
+    // Share of fixes that jump to a wrong fix or drop to float, and how far a wrong fix is off
+    private static final double JUMP_SHARE = 0.05, FLOAT_SHARE = 0.3, JUMP_METRES = 1;
+    private final ReachFix fix = new ReachFix();
+    // One stream, replayed point after point
+    private final double[] latitudes = new double[FIXES_PER_POINT * 64], longitudes = new double[latitudes.length];
+    private final double[] heights = new double[latitudes.length], ratios = new double[latitudes.length];
+    private final int[] qualities = new int[latitudes.length];
+    /**
+     * Steady fixed solutions
+     */
+    @Test
+    public void steadyFix()
+    {
+        run("Steady fix", 0, 0);
+    }
+
+    /**
+     * Fixed solutions with jumps to a wrong fix, which clipping rejects
+     */
+    @Test
+    public void fixWithJumps()
+    {
+        double[] errors = run("Fix with jumps", JUMP_SHARE, 0);
+        assertTrue(errors[0] < errors[1]);
+    }
+
+    /**
+     * Fixed solutions dropping to float, which are down-weighted
+     */
+    @Test
+    public void fixAndFloat()
+    {
+        double[] errors = run("Fix and float", 0, FLOAT_SHARE);
+        assertTrue(errors[0] < errors[1]);
+    }
+
+    /**
+     * Build a stream, occupy points with it and print the throughput and error
+     * @param stream - name of the stream
+     * @param jumpShare - share of fixes that jump to a wrong fix
+     * @param floatShare - share of fixes that are float solutions
+     * @return Returns the mean horizontal error of the averaged positions and of the last fix of each point
+     */
+    private double[] run(String stream, double jumpShare, double floatShare)
+    {
+        Random random = new Random(latitudes.length);
+        double metresPerDegreeLongitude = METRES_PER_DEGREE * Math.cos(Math.toRadians(LATITUDE));
+        for (int i = 0; i < latitudes.length; i++)
+        {
+            double roll = random.nextDouble();
+            boolean jump = roll < jumpShare, floating = !jump && roll < jumpShare + floatShare;
+            double noise = floating ? FLOAT_NOISE : FIXED_NOISE;
+            double east = random.nextGaussian() * noise + (jump ? JUMP_METRES : 0);
+            double north = random.nextGaussian() * noise;
+            latitudes[i] = LATITUDE + north / METRES_PER_DEGREE;
+            longitudes[i] = LONGITUDE + east / metresPerDegreeLongitude;
+            heights[i] = HEIGHT + random.nextGaussian() * noise * 2;
+            qualities[i] = floating ? FLOAT : FIXED;
+            // A wrong fix is accepted with a low ratio
+            ratios[i] = floating ? 1 + random.nextDouble() : jump ? 3 + random.nextDouble()
+                    : 10 + random.nextDouble() * 40;
+        }
+        PositionAverager averager = new PositionAverager(Constants.DEFAULT_POSITION_AVERAGING_SECONDS * 1000L,
+                Constants.POSITION_AVERAGING_CAPACITY, Constants.POSITION_CLIP_SIGMA);
+        occupy(averager, WARM_UP_POINTS, null);
+        double[] errors = new double[2];
+        long start = System.nanoTime();
+        occupy(averager, POINTS, errors);
+        long nanos = System.nanoTime() - start;
+        long fixes = (long) POINTS * FIXES_PER_POINT;
+        System.out.println("Benchmark: " + stream + ": " + String.format(Locale.US, "%.0f", fixes / (nanos / 1e9))
+                + " fixes/s, " + String.format(Locale.US, "%.0f", POINTS / (nanos / 1e9)) + " points/s, "
+                + String.format(Locale.US, "%.0f", fixes / (nanos / 1e9) / RATE_HZ) + " times " + RATE_HZ
+                + " Hz, mean error " + String.format(Locale.US, "%.4f", errors[0]) + " m averaged against "
+                + String.format(Locale.US, "%.4f", errors[1]) + " m for the last fix");
+        return errors;
+    }
+
+    /**
+     * Occupy points one after another, averaging each point's fixes
+     * @param averager - averager
+     * @param points - number of points
+     * @param errors - filled with the mean horizontal error of the averaged positions and of the last fixes, or
+     * null
+     */
+    private void occupy(PositionAverager averager, int points, double[] errors)
+    {
+        double metresPerDegreeLongitude = METRES_PER_DEGREE * Math.cos(Math.toRadians(LATITUDE));
+        long time = 0;
+        int next = 0;
+        for (int point = 0; point < points; point++)
+        {
+            averager.reset();
+            for (int i = 0; i < FIXES_PER_POINT; i++)
+            {
+                time += 1000 / RATE_HZ;
+                fix.set(time, latitudes[next], longitudes[next], heights[next], qualities[next], 12, 1,
+                        ratios[next]);
+                next = (next + 1) % latitudes.length;
+                averager.add(fix);
+            }
+            if (!averager.compute(time))
+            {
+                throw new AssertionError("Point " + point + " has no position");
+            }
+            if (errors != null)
+            {
+                errors[0] += Math.hypot((averager.getLatitude() - LATITUDE) * METRES_PER_DEGREE,
+                        (averager.getLongitude() - LONGITUDE) * metresPerDegreeLongitude) / points;
+                errors[1] += Math.hypot((fix.getLatitude() - LATITUDE) * METRES_PER_DEGREE,
+                        (fix.getLongitude() - LONGITUDE) * metresPerDegreeLongitude) / points;
+            }
+        }
+    }
+}
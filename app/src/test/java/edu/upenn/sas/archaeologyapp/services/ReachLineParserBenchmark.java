@@ -0,0 +1,143 @@
+package edu.upenn.sas.archaeologyapp.services;
+import org.junit.Assume;
+import org.junit.Test;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import edu.upenn.sas.archaeologyapp.models.ReachFix;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+/**
+ * Lines per second and bytes allocated per line of ReachLineParser, against parsing each line the way
+ * LocationCollector did before it: the line read into a String, split on whitespace and the fields parsed from the
+ * pieces. The results are printed, since the JVM tests have no Android log.
+ */
+public class ReachLineParserBenchmark
+{
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final int WARM_UP_ROUNDS = 20, MEASURED_ROUNDS = 10, LINES_PER_ROUND = 100000;
+    // Status names the old parser looked the quality up in, as LocationCollector has them
+    private static final String[] STATUS_CODES = {"Error", "Fixed", "Float", "Reserved", "DGPS", "Single"};
+    private final byte[][] lines = new byte[3][];
+    private final ReachFix fix = new ReachFix();
+    private double checksum = 0;
+    /**
+     * Time and count the allocations of both parsers, once each is compiled
+     */
+    @Test
+    public void comparesWithSplitting()
+    {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        Assume.assumeTrue(allocations.isThreadAllocatedMemorySupported());
+        allocations.setThreadAllocatedMemoryEnabled(true);
+        lines[0] = ("2017/01/16 10:20:30.000   39.951234567  -75.191234567    12.3456   1  12   0.0040   0.0050"
+                + "   0.0120  -0.0010   0.0030  -0.0020   1.00    3.2\n").getBytes(ASCII);
+        lines[1] = ("2017/01/16 10:20:30.200   39.951234612  -75.191234498    12.3521   1  12   0.0040   0.0050"
+                + "   0.0120  -0.0010   0.0030  -0.0020   1.20    3.4\n").getBytes(ASCII);
+        lines[2] = ("2017/01/16 10:20:30.400   39.951234551  -75.191234604    12.3398   2  11   0.0200   0.0250"
+                + "   0.0500  -0.0010   0.0030  -0.0020   1.40    1.8\n").getBytes(ASCII);
+        // Both parsers read the same values
+        for (byte[] line: lines)
+        {
+            checksum = 0;
+            splitRound(line);
+            double split = checksum;
+            checksum = 0;
+            assertTrue(ReachLineParser.parse(line, 0, line.length - 1, 0, fix));
+            addFix();
+            assertEquals(split, checksum, 1e-9);
+        }
+        long thread = Thread.currentThread().getId();
+        for (int round = 0; round < WARM_UP_ROUNDS; round++)
+        {
+            parserRound();
+            splitRound(null);
+        }
+        long start = allocations.getThreadAllocatedBytes(thread);
+        long overhead = allocations.getThreadAllocatedBytes(thread) - start;
+        long parserNanos = 0, parserBytes = 0, splitNanos = 0, splitBytes = 0;
+        for (int round = 0; round < MEASURED_ROUNDS; round++)
+        {
+            long bytes = allocations.getThreadAllocatedBytes(thread);
+            long nanos = System.nanoTime();
+            parserRound();
+            parserNanos += System.nanoTime() - nanos;
+            parserBytes += allocations.getThreadAllocatedBytes(thread) - bytes - overhead;
+            bytes = allocations.getThreadAllocatedBytes(thread);
+            nanos = System.nanoTime();
+            splitRound(null);
+            splitNanos += System.nanoTime() - nanos;
+            splitBytes += allocations.getThreadAllocatedBytes(thread) - bytes - overhead;
+        }
+        report("ReachLineParser", parserNanos, parserBytes);
+        report("String.split", splitNanos, splitBytes);
+        assertEquals(0, parserBytes);
+        assertTrue(checksum != 0);
+    }
+
+    /**
+     * Parse a round of lines in place
+     */
+    private void parserRound()
+    {
+        for (int i = 0; i < LINES_PER_ROUND; i++)
+        {
+            byte[] line = lines[i % lines.length];
+            if (!ReachLineParser.parse(line, 0, line.length - 1, i, fix))
+            {
+                throw new AssertionError("Line " + i % lines.length + " did not parse");
+            }
+            addFix();
+        }
+    }
+
+    /**
+     * Parse a round of lines as LocationCollector did before ReachLineParser
+     * @param only - line to parse once instead of a round, or null
+     */
+    private void splitRound(byte[] only)
+    {
+        for (int i = 0; i < (only == null ? LINES_PER_ROUND : 1); i++)
+        {
+            byte[] line = only == null ? lines[i % lines.length] : only;
+            // The reader handed each line over as a String
+            String result = new String(line, 0, line.length - 1, ASCII);
+            String[] parsed = result.split("\\s+");
+            if (parsed.length < 15)
+            {
+                throw new AssertionError("Line " + i % lines.length + " did not parse");
+            }
+            double latitude = Double.parseDouble(parsed[2]);
+            double longitude = Double.parseDouble(parsed[3]);
+            double height = Double.parseDouble(parsed[4]);
+            String status = STATUS_CODES[Integer.parseInt(parsed[5])];
+            double ARRatio = Double.parseDouble(parsed[14]);
+            checksum += latitude + longitude + height + status.length() + ARRatio;
+        }
+    }
+
+    /**
+     * Add the fields the old parser read to the checksum
+     */
+    private void addFix()
+    {
+        checksum += fix.getLatitude() + fix.getLongitude() + fix.getHeight()
+                + STATUS_CODES[fix.getQuality()].length() + fix.getARRatio();
+    }
+
+    /**
+     * Print a parser's speed and allocations
+     * @param parser - parser measured
+     * @param nanos - time taken by the measured rounds
+     * @param bytes - bytes allocated by the measured rounds
+     */
+    private static void report(String parser, long nanos, long bytes)
+    {
+        long lines = (long) MEASURED_ROUNDS * LINES_PER_ROUND;
+        System.out.println("Benchmark: " + parser + ": " + String.format(Locale.US, "%.0f", lines / (nanos / 1e9))
+                + " lines/s, " + String.format(Locale.US, "%.1f", (double) bytes / lines)
+                + " bytes allocated per line");
+    }
+}
@@ -0,0 +1,255 @@
+package edu.upenn.sas.archaeologyapp.services;
+import org.junit.Test;
+import java.nio.charset.Charset;
+import java.util.Random;
+import edu.upenn.sas.archaeologyapp.models.ReachFix;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+/**
+ * ReachLineParser reads well formed LLH lines and GGA sentences, and turns down malformed ones by returning false
+ * without throwing or touching the fix
+ */
+public class ReachLineParserTest
+{
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final String LLH = "2017/01/16 10:20:30.000   39.951234567  -75.191234567    12.3456   1  12"
+            + "   0.0040   0.0050   0.0120  -0.0010   0.0030  -0.0020   1.00    3.2";
+    private static final String GGA_BODY = "GPGGA,102030.60,3957.0740752,N,07511.4740701,W,4,12,0.8,12.341,M,-33.2,M,"
+            + "1.6,0000";
+    /**
+     * An LLH line fills in every field
+     */
+    @Test
+    public void parsesLLH()
+    {
+        ReachFix fix = new ReachFix();
+        assertTrue(parse(LLH + "\r\n", 42, fix));
+        assertEquals(42, fix.getReceivedTime());
+        assertEquals(39.951234567, fix.getLatitude(), 1e-12);
+        assertEquals(-75.191234567, fix.getLongitude(), 1e-12);
+        assertEquals(12.3456, fix.getHeight(), 1e-12);
+        assertEquals(1, fix.getQuality());
+        assertEquals(12, fix.getSatellites());
+        assertEquals(1.0, fix.getAge(), 1e-12);
+        assertEquals(3.2, fix.getARRatio(), 1e-12);
+    }
+
+    /**
+     * A GGA sentence is converted to decimal degrees, RTKLIB quality and ellipsoidal height
+     */
+    @Test
+    public void parsesGGA()
+    {
+        ReachFix fix = new ReachFix();
+        assertTrue(parse(sentence(GGA_BODY) + "\r\n", 42, fix));
+        assertEquals(39 + 57.0740752 / 60, fix.getLatitude(), 1e-12);
+        assertEquals(-(75 + 11.4740701 / 60), fix.getLongitude(), 1e-12);
+        assertEquals(12.341 - 33.2, fix.getHeight(), 1e-9);
+        // GGA RTK fixed is RTKLIB fixed
+        assertEquals(1, fix.getQuality());
+        assertEquals(12, fix.getSatellites());
+        assertEquals(1.6, fix.getAge(), 1e-12);
+        assertEquals(0, fix.getARRatio(), 0);
+        // The checksum is optional, and the south and east hemispheres keep their signs
+        assertTrue(parse("$" + GGA_BODY.replace(",N,", ",S,").replace(",W,", ",E,"), 42, fix));
+        assertEquals(-(39 + 57.0740752 / 60), fix.getLatitude(), 1e-12);
+        assertEquals(75 + 11.4740701 / 60, fix.getLongitude(), 1e-12);
+        // An empty separation and correction age count as 0
+        assertTrue(parse(sentence("GPGGA,102030.60,3957.0740752,N,07511.4740701,W,1,12,0.8,12.341,M,,M,,"), 42,
+                fix));
+        assertEquals(12.341, fix.getHeight(), 1e-12);
+        assertEquals(0, fix.getAge(), 0);
+    }
+
+    /**
+     * Malformed LLH lines are turned down
+     */
+    @Test
+    public void rejectsMalformedLLH()
+    {
+        assertRejected("");
+        assertRejected("   \r\n");
+        assertRejected("%  GPST                  latitude(deg) longitude(deg)  height(m)   Q  ns   sdn(m)");
+        // Cut short before the ratio, or mid field
+        assertRejected(LLH.substring(0, LLH.lastIndexOf(' ')));
+        assertRejected(LLH.substring(0, 40));
+        // Fields that are not numbers
+        assertRejected(LLH.replace("39.951234567", "39.95x234567"));
+        assertRejected(LLH.replace("-75.191234567", "--75.191234567"));
+        assertRejected(LLH.replace("12.3456", "12.34.56"));
+        assertRejected(LLH.replace("   1  12", "   -1  12"));
+        assertRejected(LLH.replace("   1  12", " 1.5  12"));
+        assertRejected(LLH.replace("   1  12", "   1  ns"));
+        assertRejected(LLH.replace("3.2", "."));
+        assertRejected(LLH.replace("3.2", "nan"));
+        // Binary noise in a field
+        assertRejected(LLH.replace("12.3456", "12\u00003456"));
+    }
+
+    /**
+     * Malformed GGA sentences are turned down
+     */
+    @Test
+    public void rejectsMalformedGGA()
+    {
+        assertRejected("$");
+        assertRejected("$GPGG");
+        // Not a GGA sentence
+        assertRejected(sentence("GPGSA,A,3,04,05,,09,12,,,24,,,,,2.5,1.3,2.1"));
+        // Bad checksums
+        assertRejected("$" + GGA_BODY + "*00");
+        assertRejected("$" + GGA_BODY + "*4");
+        assertRejected("$" + GGA_BODY + "*4DX");
+        assertRejected("$" + GGA_BODY + "*ZZ");
+        // Cut short before the geoid separation
+        assertRejected(sentence("GPGGA,102030.60,3957.0740752,N,07511.4740701,W,4,12,0.8,12.341,M"));
+        // No fix, or a quality GGA does not define
+        assertRejected(sentence(GGA_BODY.replace(",W,4,", ",W,0,")));
+        assertRejected(sentence(GGA_BODY.replace(",W,4,", ",W,3,")));
+        assertRejected(sentence(GGA_BODY.replace(",W,4,", ",W,9,")));
+        // Bad hemispheres
+        assertRejected(sentence(GGA_BODY.replace(",N,", ",X,")));
+        assertRejected(sentence(GGA_BODY.replace(",N,", ",,")));
+        assertRejected(sentence(GGA_BODY.replace(",W,", ",WW,")));
+        // Bad angles: minutes out of range, too few digits, missing
+        assertRejected(sentence(GGA_BODY.replace("3957.0740752", "3960.0740752")));
+        assertRejected(sentence(GGA_BODY.replace("3957.0740752", "57.07")));
+        assertRejected(sentence(GGA_BODY.replace("07511.4740701", "")));
+        // Bad numbers
+        assertRejected(sentence(GGA_BODY.replace(",12.341,", ",12..341,")));
+        assertRejected(sentence(GGA_BODY.replace(",-33.2,", ",-3x.2,")));
+        assertRejected(sentence(GGA_BODY.replace(",4,12,", ",4,,")));
+    }
+
+    /**
+     * Lines cut at every point or with random bytes changed never throw, and a turned down line leaves the fix as
+     * it was
+     */
+    @Test
+    public void neverThrows()
+    {
+        Random random = new Random(15);
+        ReachFix fix = new ReachFix();
+        for (String line: new String[] {LLH, sentence(GGA_BODY)})
+        {
+            byte[] bytes = line.getBytes(ASCII);
+            for (int end = 0; end <= bytes.length; end++)
+            {
+                ReachLineParser.parse(bytes, 0, end, 0, fix);
+            }
+            for (int i = 0; i < 10000; i++)
+            {
+                byte[] mutated = bytes.clone();
+                for (int changes = 1 + random.nextInt(3); changes > 0; changes--)
+                {
+                    mutated[random.nextInt(mutated.length)] = (byte) random.nextInt(256);
+                }
+                fix.set(7, 1, 2, 3, 4, 5, 6, 8);
+                if (!ReachLineParser.parse(mutated, 0, mutated.length, 0, fix))
+                {
+                    assertUnchanged(fix);
+                }
+            }
+        }
+    }
+
+    /**
+     * A line is read only between its start and end in a larger buffer
+     */
+    @Test
+    public void parsesWithinBuffer()
+    {
+        ReachFix fix = new ReachFix();
+        byte[] buffer = ("garbage" + LLH + "\n" + sentence(GGA_BODY) + "\n").getBytes(ASCII);
+        assertTrue(ReachLineParser.parse(buffer, 7, 7 + LLH.length(), 0, fix));
+        assertEquals(1, fix.getQuality());
+        int start = 7 + LLH.length() + 1;
+        assertTrue(ReachLineParser.parse(buffer, start, buffer.length - 1, 0, fix));
+        assertEquals(0, fix.getARRatio(), 0);
+        // Starting past the date shifts every field along by one
+        assertFalse(ReachLineParser.parse(buffer, 7 + LLH.indexOf(' '), 7 + LLH.length(), 0, fix));
+    }
+
+    /**
+     * Decimal parsing handles signs, leading zeros and more digits than a double holds
+     */
+    @Test
+    public void parsesDecimals()
+    {
+        assertEquals(-75.1234567, decimal("-75.1234567"), 0);
+        assertEquals(0.5, decimal("+.5"), 0);
+        assertEquals(12, decimal("12."), 0);
+        assertEquals(0.000123, decimal("0.000123"), 0);
+        assertEquals(1234567890123456789.0, decimal("1234567890123456789"), 1e4);
+        assertEquals(0.1234567890123456789, decimal("0.1234567890123456789"), 1e-15);
+        assertTrue(Double.isNaN(decimal("")));
+        assertTrue(Double.isNaN(decimal("-")));
+        assertTrue(Double.isNaN(decimal(".")));
+        assertTrue(Double.isNaN(decimal("1e5")));
+        assertEquals(-1, ReachLineParser.parseInteger("1234567890".getBytes(ASCII), 0, 10));
+        assertEquals(123456789, ReachLineParser.parseInteger("123456789".getBytes(ASCII), 0, 9));
+    }
+
+    /**
+     * Check that a line is turned down and leaves the fix alone
+     * @param line - malformed line
+     */
+    private static void assertRejected(String line)
+    {
+        ReachFix fix = new ReachFix();
+        fix.set(7, 1, 2, 3, 4, 5, 6, 8);
+        assertFalse(line, parse(line, 0, fix));
+        assertUnchanged(fix);
+    }
+
+    /**
+     * Check that a fix still holds the values assertRejected and neverThrows set
+     * @param fix - fix
+     */
+    private static void assertUnchanged(ReachFix fix)
+    {
+        assertEquals(7, fix.getReceivedTime());
+        assertEquals(1, fix.getLatitude(), 0);
+        assertEquals(8, fix.getARRatio(), 0);
+    }
+
+    /**
+     * Parse a whole line
+     * @param line - line
+     * @param receivedTime - time received
+     * @param fix - fix to fill in
+     * @return Returns whether the line held a fix
+     */
+    private static boolean parse(String line, long receivedTime, ReachFix fix)
+    {
+        byte[] bytes = line.getBytes(ASCII);
+        return ReachLineParser.parse(bytes, 0, bytes.length, receivedTime, fix);
+    }
+
+    /**
+     * Parse a decimal number
+     * @param number - number as text
+     * @return Returns the number, or NaN
+     */
+    private static double decimal(String number)
+    {
+        byte[] bytes = number.getBytes(ASCII);
+        return ReachLineParser.parseDecimal(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Build an NMEA sentence with its checksum
+     * @param body - sentence between the '$' and the '*'
+     * @return Returns the sentence
+     */
+    private static String sentence(String body)
+    {
+        int checksum = 0;
+        for (int i = 0; i < body.length(); i++)
+        {
+            checksum ^= body.charAt(i);
+        }
+        return String.format("$%s*%02X", body, checksum);
+    }
+}
@@ -0,0 +1,88 @@
+package edu.upenn.sas.archaeologyapp.services;
+import org.junit.After;
+import org.junit.Test;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import edu.upenn.sas.archaeologyapp.models.ReachFix;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+/**
+ * Throughput of ReachStreamReader reading a recorded Reach stream replayed as fast as a local server can send it,
+ * against the 10 Hz the Reach sends at most. The results are printed, since the JVM tests have no Android log.
+ */
+public class ReachStreamReaderBenchmark
+{
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final int LINES = 200000, CHUNK_BYTES = 1460, TIMEOUT_MS = 2000;
+    private static final int REACH_RATE_HZ = 10;
+    // Longest wait for the reader to catch up
+    private static final long WAIT_MS = 60000;
+    private ReachStreamReaderTest.ReplayServer server;
+    private ReachStreamReader reader;
+    /**
+     * Stop the reader and the server
+     */
+    @After
+    public void tearDown()
+    {
+        if (reader != null)
+        {
+            reader.stop();
+        }
+        if (server != null)
+        {
+            server.close();
+        }
+    }
+
+    /**
+     * Read the whole stream on one connection, timing until the last fix is published
+     */
+    @Test
+    public void readsReplayedStream() throws IOException, InterruptedException
+    {
+        StringBuilder log = new StringBuilder();
+        for (int i = 0; i < LINES; i++)
+        {
+            log.append(ReachStreamReaderTest.llh(i % 100));
+        }
+        byte[] bytes = log.toString().getBytes(ASCII);
+        // Sent a segment at a time, as the Reach's TCP server would
+        List<byte[]> chunks = new ArrayList<>();
+        for (int start = 0; start < bytes.length; start += CHUNK_BYTES)
+        {
+            chunks.add(Arrays.copyOfRange(bytes, start, Math.min(start + CHUNK_BYTES, bytes.length)));
+        }
+        server = new ReachStreamReaderTest.ReplayServer(chunks.toArray(new byte[0][]), false);
+        Thread thread = new Thread(server, "ReplayServer");
+        thread.setDaemon(true);
+        thread.start();
+        FixRingBuffer fixes = new FixRingBuffer(1024);
+        reader = new ReachStreamReader("127.0.0.1", String.valueOf(server.getPort()), TIMEOUT_MS, TIMEOUT_MS, fixes);
+        long start = System.nanoTime();
+        reader.start(null);
+        long deadline = System.currentTimeMillis() + WAIT_MS;
+        while (fixes.getLatestSequence() < LINES - 1)
+        {
+            assertTrue("Reached sequence " + fixes.getLatestSequence(), System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+        long nanos = System.nanoTime() - start;
+        // Every line was published, on the one connection
+        assertEquals(LINES - 1, fixes.getLatestSequence());
+        assertEquals(0, reader.getStats().getReconnects());
+        ReachFix fix = new ReachFix();
+        fixes.readLatest(fix);
+        assertEquals((LINES - 1) % 100, ReachStreamReaderTest.index(fix));
+        double seconds = nanos / 1e9;
+        System.out.println("Benchmark: ReachStreamReader: " + LINES + " fixes in " + nanos / 1000000 + " ms, "
+                + String.format(Locale.US, "%.0f", LINES / seconds) + " fixes/s, "
+                + String.format(Locale.US, "%.1f", bytes.length / 1048576.0 / seconds) + " MB/s, "
+                + String.format(Locale.US, "%.0f", LINES / seconds / REACH_RATE_HZ) + " times the Reach's "
+                + REACH_RATE_HZ + " Hz");
+    }
+}
@@ -0,0 +1,375 @@
+package edu.upenn.sas.archaeologyapp.services;
+import org.junit.After;
+import org.junit.Test;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import edu.upenn.sas.archaeologyapp.models.ReachFix;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+/**
+ * ReachStreamReader against a local server replaying a recorded Reach stream
+ */
+public class ReachStreamReaderTest
+{
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final int TIMEOUT_MS = 2000;
+    // Longest wait for the reader to catch up
+    private static final long WAIT_MS = 5000;
+    private final List<ReplayServer> servers = new ArrayList<>();
+    private final List<ReachStreamReader> readers = new ArrayList<>();
+    /**
+     * Stop every reader and server the test started
+     */
+    @After
+    public void tearDown()
+    {
+        for (ReachStreamReader reader: readers)
+        {
+            reader.stop();
+        }
+        for (ReplayServer server: servers)
+        {
+            server.close();
+        }
+    }
+
+    /**
+     * Every fix in a replayed log is published in order, however the lines are split across reads, and lines that
+     * are not fixes are skipped
+     */
+    @Test
+    public void replaysLog() throws IOException
+    {
+        StringBuilder log = new StringBuilder("%  GPST  latitude(deg) longitude(deg)  height(m)   Q  ns\n");
+        for (int i = 0; i < 200; i++)
+        {
+            log.append(llh(i));
+            if (i == 50)
+            {
+                log.append("not a fix\r\n");
+            }
+            if (i == 100)
+            {
+                // Longer than the reader's buffer, dropped whole
+                char[] noise = new char[6000];
+                Arrays.fill(noise, '7');
+                log.append(noise).append('\n');
+            }
+        }
+        byte[] bytes = log.toString().getBytes(ASCII);
+        // Split at odd points, so lines straddle reads
+        List<byte[]> chunks = new ArrayList<>();
+        for (int start = 0, size = 1; start < bytes.length; start += size, size = size * 7 % 1000 + 1)
+        {
+            chunks.add(Arrays.copyOfRange(bytes, start, Math.min(start + size, bytes.length)));
+        }
+        ReplayServer server = startServer(new ReplayServer(chunks.toArray(new byte[0][]), false));
+        FixRingBuffer fixes = new FixRingBuffer(256);
+        ReachStreamReader reader = startReader(server, fixes);
+        awaitSequence(fixes, 199);
+        assertEquals(ReachStreamReader.STATE_STREAMING, reader.getState());
+        ReachFix fix = new ReachFix();
+        long sequence = -1;
+        for (int i = 0; i < 200; i++)
+        {
+            sequence = fixes.readNext(sequence, fix);
+            assertEquals(i, sequence);
+            assertEquals(index(fix), i);
+        }
+        assertEquals(0, reader.getStats().getReconnects());
+        assertEquals(1, server.getConnections());
+    }
+
+    /**
+     * A server that is not there leaves the reader backing off, without fixes
+     */
+    @Test
+    public void backsOffWithoutServer() throws IOException, InterruptedException
+    {
+        ReplayServer server = startServer(new ReplayServer(new byte[0][], false));
+        server.close();
+        FixRingBuffer fixes = new FixRingBuffer(16);
+        ReachStreamReader reader = startReader(server, fixes);
+        Thread.sleep(300);
+        assertEquals(-1, fixes.getLatestSequence());
+        assertTrue(reader.getStats().getFailures() >= 1);
+        assertEquals(-1, reader.getStats().getFixAge());
+    }
+
+    /**
+     * A connection the server drops is made again after a backoff, and the fixes carry on in order
+     */
+    @Test
+    public void reconnectsAfterDrop() throws IOException
+    {
+        byte[][][] sessions = {{llh(0).getBytes(ASCII), (llh(1) + llh(2)).getBytes(ASCII)},
+                {(llh(3) + llh(4) + llh(5)).getBytes(ASCII)}};
+        ReplayServer server = startServer(new ReplayServer(sessions, false));
+        FixRingBuffer fixes = new FixRingBuffer(16);
+        ReachStreamReader reader = startReader(server, fixes);
+        awaitSequence(fixes, 5);
+        ReachFix fix = new ReachFix();
+        for (int i = 0; i < 6; i++)
+        {
+            assertEquals(i, fixes.readNext(i - 1, fix));
+            assertEquals(i, index(fix));
+        }
+        assertEquals(ReachStreamReader.STATE_STREAMING, reader.getState());
+        assertEquals(1, reader.getStats().getReconnects());
+        assertEquals(1, reader.getStats().getFailures());
+        assertEquals(2, server.getConnections());
+    }
+
+    /**
+     * A reader replacing another on the same buffer publishes only once the old one has stopped, so the fixes of
+     * the two never interleave
+     */
+    @Test
+    public void replacesReader() throws IOException
+    {
+        ReplayServer oldServer = startServer(new ReplayServer(new byte[][] {llh(100).getBytes(ASCII)}, true));
+        ReplayServer newServer = startServer(new ReplayServer(new byte[][] {llh(200).getBytes(ASCII)}, true));
+        FixRingBuffer fixes = new FixRingBuffer(1024);
+        ReachStreamReader oldReader = startReader(oldServer, fixes);
+        awaitSequence(fixes, 10);
+        oldReader.stop();
+        startReader(newServer, fixes, oldReader);
+        ReachFix fix = new ReachFix();
+        boolean replaced = false;
+        long sequence = -1, deadline = System.currentTimeMillis() + WAIT_MS;
+        for (int fromNew = 0; fromNew < 20; )
+        {
+            long next = fixes.readNext(sequence, fix);
+            if (next < 0)
+            {
+                assertTrue("No fixes from the new reader", System.currentTimeMillis() < deadline);
+                Thread.yield();
+                continue;
+            }
+            assertEquals(sequence + 1, next);
+            sequence = next;
+            if (index(fix) == 200)
+            {
+                replaced = true;
+                fromNew++;
+            }
+            else
+            {
+                assertEquals(100, index(fix));
+                assertFalse("Old reader published after the new one", replaced);
+            }
+        }
+    }
+
+    /**
+     * Start a replay server
+     * @param server - server to start
+     * @return Returns the server
+     */
+    private ReplayServer startServer(ReplayServer server)
+    {
+        servers.add(server);
+        Thread thread = new Thread(server, "ReplayServer");
+        thread.setDaemon(true);
+        thread.start();
+        return server;
+    }
+
+    /**
+     * Start a reader of a replay server
+     * @param server - server to read
+     * @param fixes - buffer to publish to
+     * @return Returns the reader
+     */
+    private ReachStreamReader startReader(ReplayServer server, FixRingBuffer fixes)
+    {
+        return startReader(server, fixes, null);
+    }
+
+    /**
+     * Start a reader of a replay server
+     * @param server - server to read
+     * @param fixes - buffer to publish to
+     * @param previous - reader the new one replaces, or null
+     * @return Returns the reader
+     */
+    private ReachStreamReader startReader(ReplayServer server, FixRingBuffer fixes, ReachStreamReader previous)
+    {
+        ReachStreamReader reader = new ReachStreamReader("127.0.0.1", String.valueOf(server.getPort()), TIMEOUT_MS,
+                TIMEOUT_MS, fixes);
+        readers.add(reader);
+        reader.start(previous);
+        return reader;
+    }
+
+    /**
+     * Wait until a fix has been published
+     * @param fixes - buffer
+     * @param sequence - sequence of the fix to wait for
+     */
+    static void awaitSequence(FixRingBuffer fixes, long sequence)
+    {
+        long deadline = System.currentTimeMillis() + WAIT_MS;
+        while (fixes.getLatestSequence() < sequence)
+        {
+            if (System.currentTimeMillis() > deadline)
+            {
+                fail("Reached sequence " + fixes.getLatestSequence() + " of " + sequence);
+            }
+            try
+            {
+                Thread.sleep(10);
+            }
+            catch (InterruptedException e)
+            {
+                throw new AssertionError(e);
+            }
+        }
+    }
+
+    /**
+     * Build an LLH line whose satellite count and height carry an index, so the fixes can be told apart
+     * @param index - index of the line
+     * @return Returns the line
+     */
+    static String llh(int index)
+    {
+        return String.format(Locale.US, "2017/01/16 10:20:30.000   39.951234567  -75.191234567  %10.4f   1  %d   0.0040"
+                + "   0.0050   0.0120  -0.0010   0.0030  -0.0020   1.00    3.2\n", 12.0 + index, index);
+    }
+
+    /**
+     * Get the index an llh line carried
+     * @param fix - fix parsed from the line
+     * @return Returns the index
+     */
+    static int index(ReachFix fix)
+    {
+        assertEquals(12.0 + fix.getSatellites(), fix.getHeight(), 1e-9);
+        return fix.getSatellites();
+    }
+
+    /**
+     * Local stand-in for the Reach. Each connection it accepts is sent the next session's chunks, one write each.
+     * Earlier sessions then close the connection. The last one keeps it open until the reader hangs up, repeating
+     * its chunks if it loops, and any later connection is closed straight away.
+     */
+    static class ReplayServer implements Runnable
+    {
+        private final ServerSocket serverSocket;
+        private final byte[][][] sessions;
+        private final boolean loop;
+        private volatile int connections = 0;
+        /**
+         * Constructor
+         * @param _chunks - bytes sent on the one connection, one write per chunk
+         * @param _loop - whether to keep repeating the chunks
+         * @throws IOException if the server cannot listen
+         */
+        ReplayServer(byte[][] _chunks, boolean _loop) throws IOException
+        {
+            this(new byte[][][] {_chunks}, _loop);
+        }
+
+        /**
+         * Constructor
+         * @param _sessions - bytes sent on each connection in turn, one write per chunk
+         * @param _loop - whether to keep repeating the last session
+         * @throws IOException if the server cannot listen
+         */
+        ReplayServer(byte[][][] _sessions, boolean _loop) throws IOException
+        {
+            serverSocket = new ServerSocket(0);
+            sessions = _sessions;
+            loop = _loop;
+        }
+
+        /**
+         * Get the port
+         * @return Returns the port the server listens on
+         */
+        int getPort()
+        {
+            return serverSocket.getLocalPort();
+        }
+
+        /**
+         * Get the connection count
+         * @return Returns the number of connections accepted
+         */
+        int getConnections()
+        {
+            return connections;
+        }
+
+        /**
+         * Stop listening
+         */
+        void close()
+        {
+            try
+            {
+                serverSocket.close();
+            }
+            catch (IOException e)
+            {
+                e.printStackTrace();
+            }
+        }
+
+        /**
+         * Serve connections until closed
+         */
+        @Override
+        public void run()
+        {
+            while (!serverSocket.isClosed())
+            {
+                try (Socket socket = serverSocket.accept())
+                {
+                    int session = connections++;
+                    if (session >= sessions.length)
+                    {
+                        continue;
+                    }
+                    OutputStream out = socket.getOutputStream();
+                    boolean last = session == sessions.length - 1;
+                    do
+                    {
+                        for (byte[] chunk: sessions[session])
+                        {
+                            out.write(chunk);
+                            out.flush();
+                        }
+                        if (last && loop)
+                        {
+                            Thread.sleep(20);
+                        }
+                    }
+                    while (last && loop);
+                    if (last)
+                    {
+                        // Wait for the reader to hang up
+                        while (socket.getInputStream().read() >= 0)
+                        {
+                            continue;
+                        }
+                    }
+                }
+                catch (IOException | InterruptedException e)
+                {
+                    // The reader hung up or the server was closed
+                }
+            }
+        }
+    }
+}
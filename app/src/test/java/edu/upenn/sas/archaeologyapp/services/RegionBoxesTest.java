@@ -0,0 +1,98 @@
+package edu.upenn.sas.archaeologyapp.services;
+import org.junit.Test;
+import java.util.Random;
+import gov.nasa.worldwind.geom.coords.MutableUTMCoord;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+/**
+ * Regions covered by RegionBoxes must hold every position inside them in the box of the position's own zone
+ */
+public class RegionBoxesTest
+{
+    /**
+     * Random positions in random regions, including regions across the equator and the antimeridian
+     */
+    @Test
+    public void coversEveryPositionInRegion()
+    {
+        Random random = new Random(25);
+        int[] zones = new int[RegionBoxes.MAX_BOXES];
+        char[] hemispheres = new char[RegionBoxes.MAX_BOXES];
+        double[] boxes = new double[4 * RegionBoxes.MAX_BOXES];
+        MutableUTMCoord UTMPosition = new MutableUTMCoord();
+        for (int region = 0; region < 2000; region++)
+        {
+            double height = Math.pow(10, -4 + 6 * random.nextDouble()), width = height * (0.5 + random.nextDouble());
+            double south = -80 + random.nextDouble() * (164 - Math.min(height, 100));
+            double north = Math.min(south + height, 84);
+            double west = -180 + 360 * random.nextDouble(), east = west + Math.min(width, 300);
+            east = east > 180 ? east - 360 : east;
+            int count = RegionBoxes.cover(south, north, west, east, 0, zones, hemispheres, boxes);
+            for (int point = 0; point < 50; point++)
+            {
+                double latitude = south + (north - south) * random.nextDouble();
+                double longitude = west + (east < west ? east + 360 - west : east - west) * random.nextDouble();
+                longitude = longitude > 180 ? longitude - 360 : longitude;
+                assertTrue(UTMPosition.setLatLon(latitude, longitude));
+                assertTrue(UTMPosition.toString() + " outside the boxes of " + south + " " + north + " " + west + " "
+                        + east, inBoxes(UTMPosition, zones, hemispheres, boxes, count));
+            }
+        }
+    }
+
+    /**
+     * A region across the antimeridian reaches the zones on both sides of it
+     */
+    @Test
+    public void crossesAntimeridian()
+    {
+        int[] zones = new int[RegionBoxes.MAX_BOXES];
+        char[] hemispheres = new char[RegionBoxes.MAX_BOXES];
+        double[] boxes = new double[4 * RegionBoxes.MAX_BOXES];
+        int count = RegionBoxes.cover(10, 11, 179, -179, 0, zones, hemispheres, boxes);
+        boolean first = false, last = false;
+        for (int i = 0; i < count; i++)
+        {
+            first |= zones[i] == 1;
+            last |= zones[i] == 60;
+            assertEquals('N', hemispheres[i]);
+        }
+        assertTrue(first && last);
+    }
+
+    /**
+     * The whole world fits in the boxes given
+     */
+    @Test
+    public void wholeWorld()
+    {
+        int[] zones = new int[RegionBoxes.MAX_BOXES];
+        char[] hemispheres = new char[RegionBoxes.MAX_BOXES];
+        double[] boxes = new double[4 * RegionBoxes.MAX_BOXES];
+        assertEquals(RegionBoxes.MAX_BOXES, RegionBoxes.cover(-90, 90, -180, 180, 0.5, zones, hemispheres, boxes));
+    }
+
+    /**
+     * Whether a position falls in the box of its zone and hemisphere
+     * @param UTMPosition - position
+     * @param zones - box zones
+     * @param hemispheres - box hemispheres
+     * @param boxes - box edges
+     * @param count - number of boxes
+     * @return Returns whether one of the boxes holds it
+     */
+    private static boolean inBoxes(MutableUTMCoord UTMPosition, int[] zones, char[] hemispheres, double[] boxes,
+                                   int count)
+    {
+        for (int i = 0; i < count; i++)
+        {
+            if (zones[i] == UTMPosition.getZone() && hemispheres[i] == UTMPosition.getHemisphere()
+                    && UTMPosition.getEasting() >= boxes[4 * i] && UTMPosition.getEasting() <= boxes[4 * i + 2]
+                    && UTMPosition.getNorthing() >= boxes[4 * i + 1] && UTMPosition.getNorthing() <= boxes[4 * i + 3])
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,120 @@
+package edu.upenn.sas.archaeologyapp.services;
+import org.junit.Test;
+import java.util.Locale;
+import java.util.Random;
+import static edu.upenn.sas.archaeologyapp.util.Constants.TRACK_LEVEL_TOLERANCES;
+import static edu.upenn.sas.archaeologyapp.util.Constants.TRACK_SIMPLIFY_WINDOW;
+import static org.junit.Assert.assertTrue;
+/**
+ * Points per second TrackSimplifier takes with the app's levels and window, and how much each level shrinks a
+ * synthetic day-long transect recorded at 5 Hz: a walk along survey lines with turns at their ends, wandering
+ * headings and RTK noise. The results are printed, since the JVM tests have no Android log.
+ */
+public class TrackSimplifierBenchmark
+{
+    private static final int RATE_HZ = 5;
+    // Eight hours of walking
+    private static final int POINTS = 8 * 3600 * RATE_HZ;
+    private static final int WARM_UP_ROUNDS = 10, MEASURED_ROUNDS = 10;
+    private static final double LATITUDE = 39.95, LONGITUDE = -75.19;
+    private static final double METERS_PER_DEGREE = 111320;
+    // Walking speed, length of a survey line and the spacing between lines, in meters
+    private static final double SPEED = 1.2, LINE_LENGTH = 200, LINE_SPACING = 10;
+    // Standard deviation of the heading's wander in radians per point, and of the fixes' noise in meters
+    private static final double HEADING_NOISE = 0.02, FIX_NOISE = 0.02;
+    private final long[] times = new long[POINTS];
+    private final double[] latitudes = new double[POINTS], longitudes = new double[POINTS];
+    // Points kept at each level in the last run, from index 1
+    private final long[] kept = new long[TRACK_LEVEL_TOLERANCES.length + 1];
+    /**
+     * Simplify the transect, timing it once the simplifier is compiled
+     */
+    @Test
+    public void simplifiesTransect()
+    {
+        walk();
+        for (int round = 0; round < WARM_UP_ROUNDS; round++)
+        {
+            simplify();
+        }
+        long start = System.nanoTime();
+        for (int round = 0; round < MEASURED_ROUNDS; round++)
+        {
+            simplify();
+        }
+        long nanos = (System.nanoTime() - start) / MEASURED_ROUNDS;
+        System.out.println("Benchmark: TrackSimplifier: " + POINTS + " points in "
+                + String.format(Locale.US, "%.1f", nanos / 1e6) + " ms, "
+                + String.format(Locale.US, "%.0f", POINTS / (nanos / 1e9)) + " points/s, "
+                + String.format(Locale.US, "%.0f", POINTS / (nanos / 1e9) / RATE_HZ) + " times " + RATE_HZ + " Hz");
+        for (int level = 1; level < kept.length; level++)
+        {
+            System.out.println("Benchmark: Level " + level + " (" + TRACK_LEVEL_TOLERANCES[level - 1] + " m): "
+                    + kept[level] + " points, " + String.format(Locale.US, "%.1f", (double) POINTS / kept[level])
+                    + " times fewer than the track, " + String.format(Locale.US, "%.1f", (double) (level == 1
+                    ? POINTS : kept[level - 1]) / kept[level]) + " times fewer than the level below");
+            // Every level keeps fewer points than the one below it
+            assertTrue(kept[level] < (level == 1 ? POINTS : kept[level - 1]));
+        }
+    }
+
+    /**
+     * Run the transect through a simplifier with the app's levels
+     */
+    private void simplify()
+    {
+        for (int level = 0; level < kept.length; level++)
+        {
+            kept[level] = 0;
+        }
+        TrackSimplifier simplifier = new TrackSimplifier(TRACK_LEVEL_TOLERANCES, TRACK_SIMPLIFY_WINDOW,
+                new TrackSimplifier.Listener() {
+            /**
+             * Count the kept point
+             * @param level - level, from 1 for the finest tolerance
+             * @param time - time of the point
+             * @param latitude - latitude
+             * @param longitude - longitude
+             */
+            @Override
+            public void kept(int level, long time, double latitude, double longitude)
+            {
+                kept[level]++;
+            }
+        });
+        for (int i = 0; i < POINTS; i++)
+        {
+            simplifier.add(times[i], latitudes[i], longitudes[i]);
+        }
+        simplifier.finish();
+    }
+
+    /**
+     * Walk the survey lines back and forth, turning onto the next line at the end of each
+     */
+    private void walk()
+    {
+        Random random = new Random(POINTS);
+        double metersPerDegreeLongitude = METERS_PER_DEGREE * Math.cos(Math.toRadians(LATITUDE));
+        double step = SPEED / RATE_HZ, x = 0, y = 0, heading = 0, walked = 0;
+        int line = 0;
+        for (int i = 0; i < POINTS; i++)
+        {
+            if (walked >= LINE_LENGTH)
+            {
+                // Step across to the next line and walk back along it
+                walked = 0;
+                line++;
+                x += LINE_SPACING;
+            }
+            double bearing = line % 2 == 0 ? 0 : Math.PI;
+            heading = bearing + (heading - bearing) * 0.95 + random.nextGaussian() * HEADING_NOISE;
+            x += Math.sin(heading) * step;
+            y += Math.cos(heading) * step;
+            walked += step;
+            times[i] = i * 1000L / RATE_HZ;
+            latitudes[i] = LATITUDE + (y + random.nextGaussian() * FIX_NOISE) / METERS_PER_DEGREE;
+            longitudes[i] = LONGITUDE + (x + random.nextGaussian() * FIX_NOISE) / metersPerDegreeLongitude;
+        }
+    }
+}
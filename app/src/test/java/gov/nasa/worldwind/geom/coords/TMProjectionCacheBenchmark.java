@@ -0,0 +1,153 @@
+package gov.nasa.worldwind.geom.coords;
+import org.junit.Assume;
+import org.junit.Test;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.Random;
+import gov.nasa.worldwind.avlist.AVKey;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+/**
+ * Points per second and bytes allocated per point converting positions in random zones and hemispheres to UTM with
+ * UTMCoordConverter, which takes each zone's prepared projection from its cache, against preparing the projection
+ * for every point with setTransverseMercatorParameters, as UTMCoordConverter did before the cache. The results are
+ * printed, since the JVM tests have no Android log.
+ */
+public class TMProjectionCacheBenchmark
+{
+    private static final int POINTS = 200000, WARM_UP_ROUNDS = 15, MEASURED_ROUNDS = 10;
+    private static final double A = 6378137.0, F = 1 / 298.257223563, FALSE_EASTING = 500000;
+    private static final double SOUTH_FALSE_NORTHING = 10000000, SCALE = 0.9996;
+    private final double[] latitudes = new double[POINTS], longitudes = new double[POINTS];
+    // Zone and hemisphere of each point, which the uncached conversion is given rather than working out
+    private final int[] zones = new int[POINTS];
+    private final boolean[] south = new boolean[POINTS];
+    private final double[] eastings = new double[POINTS], northings = new double[POINTS];
+    private final UTMCoordConverter cached = new UTMCoordConverter();
+    private final TMCoordConverter uncached = new TMCoordConverter();
+    private double checksum = 0;
+    /**
+     * Time and count the allocations of both conversions, once each is compiled, and check they agree
+     */
+    @Test
+    public void comparesMixedZones()
+    {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        Assume.assumeTrue(allocations.isThreadAllocatedMemorySupported());
+        allocations.setThreadAllocatedMemoryEnabled(true);
+        Random random = new Random(POINTS);
+        for (int i = 0; i < POINTS; i++)
+        {
+            // Within the latitudes UTM covers, so that consecutive points rarely share a zone
+            latitudes[i] = Math.toRadians(-79.9 + random.nextDouble() * 163.8);
+            longitudes[i] = Math.toRadians(-180 + random.nextDouble() * 360);
+            assertEquals(UTMCoordConverter.UTM_NO_ERROR, cached.convertGeodeticToUTM(latitudes[i], longitudes[i]));
+            zones[i] = cached.getZone();
+            south[i] = cached.getHemisphere().equals(AVKey.SOUTH);
+            eastings[i] = cached.getEasting();
+            northings[i] = cached.getNorthing();
+        }
+        // Preparing the projection for every point gives the same coordinates
+        for (int i = 0; i < POINTS; i++)
+        {
+            convertUncached(i);
+            assertEquals(eastings[i], uncached.getEasting(), 1e-9);
+            assertEquals(northings[i], uncached.getNorthing(), 1e-9);
+        }
+        for (int round = 0; round < WARM_UP_ROUNDS; round++)
+        {
+            cachedRound();
+            uncachedRound();
+        }
+        long thread = Thread.currentThread().getId();
+        long start = allocations.getThreadAllocatedBytes(thread);
+        long overhead = allocations.getThreadAllocatedBytes(thread) - start;
+        long cachedNanos = 0, cachedBytes = 0, uncachedNanos = 0, uncachedBytes = 0;
+        for (int round = 0; round < MEASURED_ROUNDS; round++)
+        {
+            long bytes = allocations.getThreadAllocatedBytes(thread);
+            long nanos = System.nanoTime();
+            cachedRound();
+            cachedNanos += System.nanoTime() - nanos;
+            cachedBytes += allocations.getThreadAllocatedBytes(thread) - bytes - overhead;
+            bytes = allocations.getThreadAllocatedBytes(thread);
+            nanos = System.nanoTime();
+            uncachedRound();
+            uncachedNanos += System.nanoTime() - nanos;
+            uncachedBytes += allocations.getThreadAllocatedBytes(thread) - bytes - overhead;
+        }
+        report("Cached projections", cachedNanos, cachedBytes);
+        report("Projection prepared per point", uncachedNanos, uncachedBytes);
+        System.out.println("Benchmark: Speedup on mixed zones: " + String.format(Locale.US, "%.2f",
+                (double) uncachedNanos / cachedNanos) + " times");
+        assertEquals(0, cachedBytes);
+        assertTrue(checksum != 0);
+    }
+
+    /**
+     * Convert every point with UTMCoordConverter
+     */
+    private void cachedRound()
+    {
+        for (int i = 0; i < POINTS; i++)
+        {
+            if (cached.convertGeodeticToUTM(latitudes[i], longitudes[i]) != UTMCoordConverter.UTM_NO_ERROR)
+            {
+                throw new AssertionError("Point " + i + " did not convert");
+            }
+            checksum += cached.getEasting();
+        }
+    }
+
+    /**
+     * Convert every point, preparing its zone's projection first
+     */
+    private void uncachedRound()
+    {
+        for (int i = 0; i < POINTS; i++)
+        {
+            convertUncached(i);
+            checksum += uncached.getEasting();
+        }
+    }
+
+    /**
+     * Convert a point as UTMCoordConverter did before the cache, setting the projection's parameters from the zone
+     * and hemisphere and then projecting the point
+     * @param i - point index
+     */
+    private void convertUncached(int i)
+    {
+        int zone = zones[i];
+        double centralMeridian = zone >= 31 ? (6 * zone - 183) * Math.PI / 180.0 : (6 * zone + 177) * Math.PI / 180.0;
+        if (uncached.setTransverseMercatorParameters(A, F, 0, centralMeridian, FALSE_EASTING,
+                south[i] ? SOUTH_FALSE_NORTHING : 0, SCALE) != TMCoordConverter.TRANMERC_NO_ERROR)
+        {
+            throw new AssertionError("Zone " + zone + " has no projection");
+        }
+        // UTMCoordConverter projects longitudes from 0 to 2 pi
+        double longitude = longitudes[i] < 0 ? longitudes[i] + 2 * Math.PI + 1.0e-10 : longitudes[i];
+        long error = uncached.convertGeodeticToTransverseMercator(latitudes[i], longitude);
+        if (error != TMCoordConverter.TRANMERC_NO_ERROR && error != TMCoordConverter.TRANMERC_LON_WARNING)
+        {
+            throw new AssertionError("Point " + i + " did not convert");
+        }
+    }
+
+    /**
+     * Print a conversion's speed and allocations
+     * @param conversion - conversion measured
+     * @param nanos - time taken by the measured rounds
+     * @param bytes - bytes allocated by the measured rounds
+     */
+    private static void report(String conversion, long nanos, long bytes)
+    {
+        long points = (long) MEASURED_ROUNDS * POINTS;
+        System.out.println("Benchmark: " + conversion + ": " + String.format(Locale.US, "%.0f", points
+                / (nanos / 1e9)) + " points/s, " + String.format(Locale.US, "%.1f", nanos / (double) points)
+                + " ns per point, " + String.format(Locale.US, "%.1f", (double) bytes / points)
+                + " bytes allocated per point");
+    }
+}
@@ -0,0 +1,156 @@
+package gov.nasa.worldwind.geom.coords;
+import org.junit.Assume;
+import org.junit.Test;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.Random;
+import gov.nasa.worldwind.avlist.AVKey;
+import gov.nasa.worldwind.geom.Angle;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+/**
+ * Points per second and bytes allocated per point converting positions spread over the globe to UTM with
+ * UTMBatchConverter, on the calling thread and split across cores, against converting them one at a time with
+ * UTMCoord.fromLatLon. The results are printed, since the JVM tests have no Android log.
+ */
+public class UTMBatchConverterBenchmark
+{
+    private static final int POINTS = 200000, WARM_UP_ROUNDS = 15, MEASURED_ROUNDS = 10;
+    private final double[] latitudes = new double[POINTS], longitudes = new double[POINTS];
+    private final int[] zones = new int[POINTS];
+    private final char[] hemispheres = new char[POINTS];
+    private final double[] eastings = new double[POINTS], northings = new double[POINTS];
+    private double checksum = 0;
+    /**
+     * Time and count the allocations of each way of converting, once each is compiled, and check they agree
+     */
+    @Test
+    public void comparesWithPerPoint()
+    {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        Assume.assumeTrue(allocations.isThreadAllocatedMemorySupported());
+        allocations.setThreadAllocatedMemoryEnabled(true);
+        Random random = new Random(POINTS);
+        for (int i = 0; i < POINTS; i++)
+        {
+            // Within the latitudes UTM covers
+            latitudes[i] = -79.9 + random.nextDouble() * 163.8;
+            longitudes[i] = -180 + random.nextDouble() * 360;
+        }
+        Converter perPoint = new Converter() {
+            /**
+             * Convert each position to a new UTMCoord
+             */
+            @Override
+            void convert()
+            {
+                for (int i = 0; i < POINTS; i++)
+                {
+                    UTMCoord position = UTMCoord.fromLatLon(Angle.fromDegrees(latitudes[i]),
+                            Angle.fromDegrees(longitudes[i]));
+                    checksum += position.getEasting() + position.getZone();
+                }
+            }
+        };
+        Converter batch = new Converter() {
+            /**
+             * Convert the positions into the output arrays on this thread
+             */
+            @Override
+            void convert()
+            {
+                checksum += UTMBatchConverter.convert(latitudes, longitudes, 0, POINTS, zones, hemispheres,
+                        eastings, northings);
+            }
+        };
+        Converter parallel = new Converter() {
+            /**
+             * Convert the positions into the output arrays across cores
+             */
+            @Override
+            void convert()
+            {
+                checksum += UTMBatchConverter.convertParallel(latitudes, longitudes, POINTS, zones, hemispheres,
+                        eastings, northings);
+            }
+        };
+        // The batch conversion matches the per-point one
+        batch.convert();
+        for (int i = 0; i < POINTS; i += 97)
+        {
+            UTMCoord position = UTMCoord.fromLatLon(Angle.fromDegrees(latitudes[i]), Angle.fromDegrees(longitudes[i]));
+            assertEquals(position.getZone(), zones[i]);
+            assertEquals(position.getHemisphere().equals(AVKey.NORTH) ? UTMBatchConverter.NORTH
+                    : UTMBatchConverter.SOUTH, hemispheres[i]);
+            assertEquals(position.getEasting(), eastings[i], 1e-6);
+            assertEquals(position.getNorthing(), northings[i], 1e-6);
+        }
+        for (int round = 0; round < WARM_UP_ROUNDS; round++)
+        {
+            perPoint.convert();
+            batch.convert();
+            parallel.convert();
+        }
+        long thread = Thread.currentThread().getId();
+        long start = allocations.getThreadAllocatedBytes(thread);
+        long overhead = allocations.getThreadAllocatedBytes(thread) - start;
+        long[] perPointCost = new long[2], batchCost = new long[2], parallelCost = new long[2];
+        for (int round = 0; round < MEASURED_ROUNDS; round++)
+        {
+            perPoint.measure(allocations, thread, overhead, perPointCost);
+            batch.measure(allocations, thread, overhead, batchCost);
+            parallel.measure(allocations, thread, overhead, parallelCost);
+        }
+        report("UTMCoord.fromLatLon", perPointCost, true);
+        report("UTMBatchConverter.convert", batchCost, true);
+        // The other threads' allocations are not counted, so only the speed is reported
+        report("UTMBatchConverter.convertParallel, processors available: "
+                + Runtime.getRuntime().availableProcessors(), parallelCost, false);
+        assertEquals(0, batchCost[1]);
+        assertTrue(checksum != 0);
+    }
+
+    /**
+     * One way of converting the positions
+     */
+    private abstract static class Converter
+    {
+        /**
+         * Convert every position
+         */
+        abstract void convert();
+
+        /**
+         * Convert every position, adding the time and bytes allocated on this thread to a total
+         * @param allocations - allocation counter
+         * @param thread - ID of this thread
+         * @param overhead - bytes reading the counter allocates
+         * @param cost - total time in nanoseconds and bytes allocated
+         */
+        void measure(com.sun.management.ThreadMXBean allocations, long thread, long overhead, long[] cost)
+        {
+            long bytes = allocations.getThreadAllocatedBytes(thread);
+            long nanos = System.nanoTime();
+            convert();
+            cost[0] += System.nanoTime() - nanos;
+            cost[1] += allocations.getThreadAllocatedBytes(thread) - bytes - overhead;
+        }
+    }
+
+    /**
+     * Print a conversion's speed and allocations
+     * @param conversion - conversion measured
+     * @param cost - time taken and bytes allocated by the measured rounds
+     * @param allocated - whether the bytes allocated are all of the conversion's
+     */
+    private static void report(String conversion, long[] cost, boolean allocated)
+    {
+        long points = (long) MEASURED_ROUNDS * POINTS;
+        System.out.println("Benchmark: " + conversion + ": " + String.format(Locale.US, "%.0f", points
+                / (cost[0] / 1e9)) + " points/s, " + String.format(Locale.US, "%.1f", cost[0] / (double) points)
+                + " ns per point" + (allocated ? ", " + String.format(Locale.US, "%.1f", (double) cost[1] / points)
+                + " bytes allocated per point" : ""));
+    }
+}
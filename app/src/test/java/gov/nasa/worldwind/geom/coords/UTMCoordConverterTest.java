@@ -0,0 +1,81 @@
+package gov.nasa.worldwind.geom.coords;
+import org.junit.Test;
+import gov.nasa.worldwind.avlist.AVKey;
+import gov.nasa.worldwind.geom.Angle;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+/**
+ * Positions converted to UTM and back land within a millimetre of where they started, in every zone and hemisphere
+ */
+public class UTMCoordConverterTest
+{
+    // Mean earth radius in meters, for turning angle errors into distances
+    private static final double EARTH_RADIUS = 6371000;
+    // Largest round trip error allowed in meters
+    private static final double MAX_ERROR = 0.001;
+    /**
+     * Round trip a grid of positions across each of the 60 zones, north and south
+     */
+    @Test
+    public void roundTripsEveryZone()
+    {
+        UTMCoordConverter forward = new UTMCoordConverter(), inverse = new UTMCoordConverter();
+        for (int zone = 1; zone <= 60; zone++)
+        {
+            double centralMeridian = 6 * zone - 183;
+            for (int hemisphere = 0; hemisphere < 2; hemisphere++)
+            {
+                for (double latitude = 0; latitude <= 80; latitude += 2.5)
+                {
+                    for (double offset = -2.99; offset <= 2.99; offset += 0.5)
+                    {
+                        double signedLatitude = hemisphere == 0 ? latitude : -Math.max(latitude, 1e-6);
+                        double longitude = centralMeridian + offset;
+                        assertEquals(UTMCoordConverter.UTM_NO_ERROR, forward.convertGeodeticToUTM(
+                                Math.toRadians(signedLatitude), Math.toRadians(longitude)));
+                        String expectedHemisphere = hemisphere == 0 ? AVKey.NORTH : AVKey.SOUTH;
+                        assertEquals(expectedHemisphere, forward.getHemisphere());
+                        assertEquals(UTMCoordConverter.UTM_NO_ERROR, inverse.convertUTMToGeodetic(forward.getZone(),
+                                forward.getHemisphere(), forward.getEasting(), forward.getNorthing()));
+                        double error = distance(signedLatitude, longitude, Math.toDegrees(inverse.getLatitude()),
+                                Math.toDegrees(inverse.getLongitude()));
+                        assertTrue("Zone " + zone + " " + signedLatitude + ", " + longitude + " off by " + error
+                                + " m", error < MAX_ERROR);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Round trip through the UTMCoord wrappers
+     */
+    @Test
+    public void roundTripsUTMCoord()
+    {
+        UTMCoord position = UTMCoord.fromLatLon(Angle.fromDegrees(-33.8688197), Angle.fromDegrees(151.2092955));
+        UTMCoord back = UTMCoord.fromUTM(position.getZone(), position.getHemisphere(), position.getEasting(),
+                position.getNorthing());
+        double error = distance(-33.8688197, 151.2092955, back.getLatitude().getDegrees(),
+                back.getLongitude().getDegrees());
+        assertTrue(error + " m", error < MAX_ERROR);
+        assertEquals(position.getZone(), back.getZone());
+    }
+
+    /**
+     * Get the distance between two nearby positions
+     * @param latitude1 - first latitude in degrees
+     * @param longitude1 - first longitude in degrees
+     * @param latitude2 - second latitude in degrees
+     * @param longitude2 - second longitude in degrees
+     * @return Returns the distance in meters
+     */
+    private static double distance(double latitude1, double longitude1, double latitude2, double longitude2)
+    {
+        double longitudeDifference = longitude2 - longitude1;
+        longitudeDifference -= 360 * Math.round(longitudeDifference / 360);
+        double north = Math.toRadians(latitude2 - latitude1) * EARTH_RADIUS;
+        double east = Math.toRadians(longitudeDifference) * EARTH_RADIUS * Math.cos(Math.toRadians(latitude1));
+        return Math.hypot(north, east);
+    }
+}
@@ -0,0 +1,186 @@
+package gov.nasa.worldwind.geom.coords;
+import org.junit.Assume;
+import org.junit.Test;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.Random;
+import gov.nasa.worldwind.avlist.AVKey;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+/**
+ * Points per second and bytes allocated per point converting UTM positions spread over every zone and both
+ * hemispheres back to latitude and longitude: a point at a time into a reused MutableUTMCoord, in bulk with
+ * UTMBatchConverter.toLatLon, and a point at a time with UTMCoord.fromUTM for comparison. The round trip error of
+ * the bulk conversion is reported too. The results are printed, since the JVM tests have no Android log.
+ */
+public class UTMInverseBenchmark
+{
+    private static final int POINTS = 200000, WARM_UP_ROUNDS = 15, MEASURED_ROUNDS = 10;
+    // Mean earth radius in meters, for turning angle errors into distances
+    private static final double EARTH_RADIUS = 6371000;
+    // Largest round trip error allowed in meters
+    private static final double MAX_ERROR = 0.001;
+    private final double[] latitudes = new double[POINTS], longitudes = new double[POINTS];
+    private final int[] zones = new int[POINTS];
+    private final char[] hemispheres = new char[POINTS];
+    private final String[] hemisphereKeys = new String[POINTS];
+    private final double[] eastings = new double[POINTS], northings = new double[POINTS];
+    private final double[] backLatitudes = new double[POINTS], backLongitudes = new double[POINTS];
+    private final MutableUTMCoord position = new MutableUTMCoord();
+    private double checksum = 0;
+    /**
+     * Time and count the allocations of each way of converting back, once each is compiled
+     */
+    @Test
+    public void convertsBack()
+    {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        Assume.assumeTrue(allocations.isThreadAllocatedMemorySupported());
+        allocations.setThreadAllocatedMemoryEnabled(true);
+        Random random = new Random(POINTS);
+        for (int i = 0; i < POINTS; i++)
+        {
+            // Within the latitudes UTM covers
+            latitudes[i] = -79.9 + random.nextDouble() * 163.8;
+            longitudes[i] = -180 + random.nextDouble() * 360;
+        }
+        assertEquals(POINTS, UTMBatchConverter.convert(latitudes, longitudes, 0, POINTS, zones, hemispheres,
+                eastings, northings));
+        for (int i = 0; i < POINTS; i++)
+        {
+            hemisphereKeys[i] = hemispheres[i] == UTMBatchConverter.NORTH ? AVKey.NORTH : AVKey.SOUTH;
+        }
+        Converter single = new Converter() {
+            /**
+             * Convert each position into the held coordinate
+             */
+            @Override
+            void convert()
+            {
+                for (int i = 0; i < POINTS; i++)
+                {
+                    position.setUTM(zones[i], hemispheres[i], eastings[i], northings[i]);
+                    checksum += position.getLatitude();
+                }
+            }
+        };
+        Converter bulk = new Converter() {
+            /**
+             * Convert the positions into the output arrays
+             */
+            @Override
+            void convert()
+            {
+                checksum += UTMBatchConverter.toLatLon(zones, hemispheres, eastings, northings, 0, POINTS,
+                        backLatitudes, backLongitudes);
+            }
+        };
+        Converter perPoint = new Converter() {
+            /**
+             * Convert each position to a new UTMCoord
+             */
+            @Override
+            void convert()
+            {
+                for (int i = 0; i < POINTS; i++)
+                {
+                    UTMCoord back = UTMCoord.fromUTM(zones[i], hemisphereKeys[i], eastings[i], northings[i]);
+                    checksum += back.getLatitude().getDegrees();
+                }
+            }
+        };
+        bulk.convert();
+        double maxError = 0, totalError = 0;
+        for (int i = 0; i < POINTS; i++)
+        {
+            double error = distance(latitudes[i], longitudes[i], backLatitudes[i], backLongitudes[i]);
+            maxError = Math.max(maxError, error);
+            totalError += error;
+        }
+        for (int round = 0; round < WARM_UP_ROUNDS; round++)
+        {
+            single.convert();
+            bulk.convert();
+            perPoint.convert();
+        }
+        long thread = Thread.currentThread().getId();
+        long start = allocations.getThreadAllocatedBytes(thread);
+        long overhead = allocations.getThreadAllocatedBytes(thread) - start;
+        long[] singleCost = new long[2], bulkCost = new long[2], perPointCost = new long[2];
+        for (int round = 0; round < MEASURED_ROUNDS; round++)
+        {
+            single.measure(allocations, thread, overhead, singleCost);
+            bulk.measure(allocations, thread, overhead, bulkCost);
+            perPoint.measure(allocations, thread, overhead, perPointCost);
+        }
+        report("MutableUTMCoord.setUTM", singleCost);
+        report("UTMBatchConverter.toLatLon", bulkCost);
+        report("UTMCoord.fromUTM", perPointCost);
+        System.out.println("Benchmark: Round trip error: " + String.format(Locale.US, "%.3f", totalError / POINTS
+                * 1000) + " mm mean, " + String.format(Locale.US, "%.3f", maxError * 1000) + " mm at most");
+        assertTrue(maxError + " m", maxError < MAX_ERROR);
+        assertEquals(0, singleCost[1]);
+        assertEquals(0, bulkCost[1]);
+        assertTrue(checksum != 0);
+    }
+
+    /**
+     * One way of converting the positions back
+     */
+    private abstract static class Converter
+    {
+        /**
+         * Convert every position
+         */
+        abstract void convert();
+
+        /**
+         * Convert every position, adding the time and bytes allocated to a total
+         * @param allocations - allocation counter
+         * @param thread - ID of this thread
+         * @param overhead - bytes reading the counter allocates
+         * @param cost - total time in nanoseconds and bytes allocated
+         */
+        void measure(com.sun.management.ThreadMXBean allocations, long thread, long overhead, long[] cost)
+        {
+            long bytes = allocations.getThreadAllocatedBytes(thread);
+            long nanos = System.nanoTime();
+            convert();
+            cost[0] += System.nanoTime() - nanos;
+            cost[1] += allocations.getThreadAllocatedBytes(thread) - bytes - overhead;
+        }
+    }
+
+    /**
+     * Print a conversion's speed and allocations
+     * @param conversion - conversion measured
+     * @param cost - time taken and bytes allocated by the measured rounds
+     */
+    private static void report(String conversion, long[] cost)
+    {
+        long points = (long) MEASURED_ROUNDS * POINTS;
+        System.out.println("Benchmark: " + conversion + ": " + String.format(Locale.US, "%.0f", points
+                / (cost[0] / 1e9)) + " points/s, " + String.format(Locale.US, "%.1f", cost[0] / (double) points)
+                + " ns per point, " + String.format(Locale.US, "%.1f", (double) cost[1] / points)
+                + " bytes allocated per point");
+    }
+
+    /**
+     * Get the distance between two nearby positions
+     * @param latitude1 - first latitude in degrees
+     * @param longitude1 - first longitude in degrees
+     * @param latitude2 - second latitude in degrees
+     * @param longitude2 - second longitude in degrees
+     * @return Returns the distance in meters
+     */
+    private static double distance(double latitude1, double longitude1, double latitude2, double longitude2)
+    {
+        double longitudeDifference = longitude2 - longitude1;
+        longitudeDifference -= 360 * Math.round(longitudeDifference / 360);
+        double north = Math.toRadians(latitude2 - latitude1) * EARTH_RADIUS;
+        double east = Math.toRadians(longitudeDifference) * EARTH_RADIUS * Math.cos(Math.toRadians(latitude1));
+        return Math.hypot(north, east);
+    }
+}